@@ -83,4 +83,6 @@ dependencies {
 
 
     implementation("com.squareup.okhttp3:okhttp:4.12.0")
+    implementation("com.google.code.gson:gson:2.13.1")
+    testImplementation("com.squareup.okhttp3:mockwebserver:4.12.0")
 }
\ No newline at end of file
@@ -0,0 +1,8 @@
+#ifndef BOX_LAYOUT_H
+#define BOX_LAYOUT_H
+
+// Boxes are packed as BOX_STRIDE floats each: x, y, width, height, confidence, label index.
+// Must match InferenceResult.BOX_* in Kotlin.
+#define BOX_STRIDE 6
+
+#endif // BOX_LAYOUT_H
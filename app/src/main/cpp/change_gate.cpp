@@ -0,0 +1,127 @@
+#include "change_gate.h"
+#include <string.h>
+
+// Rows and columns sampled per grid cell edge; the mean of a sparse lattice is plenty to
+// notice a moving belt and keeps the sampling far below the cost of a conversion
+#define CELL_SAMPLES 4
+
+static void sample_grid(uint8_t *grid, int width, int height, const uint8_t *base,
+                        size_t row_stride, size_t pixel_stride, int (*luma)(const uint8_t *))
+{
+    for (int gy = 0; gy < CHANGE_GRID_HEIGHT; gy++) {
+        const int y0 = gy * height / CHANGE_GRID_HEIGHT;
+        const int cell_h = (gy + 1) * height / CHANGE_GRID_HEIGHT - y0;
+
+        for (int gx = 0; gx < CHANGE_GRID_WIDTH; gx++) {
+            const int x0 = gx * width / CHANGE_GRID_WIDTH;
+            const int cell_w = (gx + 1) * width / CHANGE_GRID_WIDTH - x0;
+
+            int sum = 0;
+            int count = 0;
+            for (int sy = 0; sy < CELL_SAMPLES; sy++) {
+                const int y = y0 + (2 * sy + 1) * cell_h / (2 * CELL_SAMPLES);
+                const uint8_t *row = base + (size_t)y * row_stride;
+                for (int sx = 0; sx < CELL_SAMPLES; sx++) {
+                    const int x = x0 + (2 * sx + 1) * cell_w / (2 * CELL_SAMPLES);
+                    sum += luma(row + (size_t)x * pixel_stride);
+                    count++;
+                }
+            }
+            grid[gy * CHANGE_GRID_WIDTH + gx] = (uint8_t)((sum + count / 2) / count);
+        }
+    }
+}
+
+static int luma_y(const uint8_t *p)
+{
+    return p[0];
+}
+
+// BT.601 luma, 8 bit fixed point
+static int luma_rgb(const uint8_t *p)
+{
+    return (77 * p[0] + 150 * p[1] + 29 * p[2]) >> 8;
+}
+
+// window clamped to a width x height frame, the whole frame if null
+static bool same_window(const crop_window_t *a, const crop_window_t *b)
+{
+    return a->x == b->x && a->y == b->y && a->width == b->width && a->height == b->height;
+}
+
+static crop_window_t clamp_window(const crop_window_t *window, int width, int height)
+{
+    crop_window_t clamped = { 0, 0, width, height };
+    if (window) {
+        const int x0 = window->x < 0 ? 0 : window->x;
+        const int y0 = window->y < 0 ? 0 : window->y;
+        const int x1 = window->x + window->width > width ? width : window->x + window->width;
+        const int y1 = window->y + window->height > height ? height : window->y + window->height;
+        if (x1 > x0 && y1 > y0) {
+            clamped.x = x0;
+            clamped.y = y0;
+            clamped.width = x1 - x0;
+            clamped.height = y1 - y0;
+        }
+    }
+    return clamped;
+}
+
+void change_gate_sample_yuv(change_gate_t *gate, const yuv_frame_t *frame, const crop_window_t *window)
+{
+    if (frame->width <= 0 || frame->height <= 0) return;
+    const crop_window_t w = clamp_window(window, frame->width, frame->height);
+    gate->current_window = w;
+    const uint8_t *base = frame->y + (size_t)w.y * frame->y_row_stride + w.x;
+    sample_grid(gate->current, w.width, w.height, base, (size_t)frame->y_row_stride, 1, luma_y);
+}
+
+void change_gate_sample_rgb(change_gate_t *gate, const uint8_t *rgb, int width, int height,
+                            const crop_window_t *window)
+{
+    if (width <= 0 || height <= 0) return;
+    const crop_window_t w = clamp_window(window, width, height);
+    gate->current_window = w;
+    const uint8_t *base = rgb + ((size_t)w.y * width + w.x) * 3;
+    sample_grid(gate->current, w.width, w.height, base, (size_t)width * 3, 3, luma_rgb);
+}
+
+bool change_gate_should_run(change_gate_t *gate, const change_gate_config_t *config, int width, int height)
+{
+    bool run = !config->enabled ||
+               width != gate->source_width || height != gate->source_height ||
+               !same_window(&gate->current_window, &gate->reference_window) ||
+               gate->skipped_in_row >= config->max_skipped_frames;
+
+    if (!run) {
+        // Against the last classified frame, not the previous one, so slow drift adds up
+        const int changed_limit = (int)(config->changed_fraction * CHANGE_GRID_CELLS);
+        int changed = 0;
+        for (int i = 0; i < CHANGE_GRID_CELLS; i++) {
+            int diff = gate->current[i] - gate->reference[i];
+            if (diff < 0) diff = -diff;
+            if (diff > config->cell_threshold && ++changed > changed_limit) {
+                run = true;
+                break;
+            }
+        }
+    }
+
+    if (run) {
+        memcpy(gate->reference, gate->current, CHANGE_GRID_CELLS);
+        gate->reference_window = gate->current_window;
+        gate->source_width = width;
+        gate->source_height = height;
+        gate->skipped_in_row = 0;
+    } else {
+        gate->skipped_in_row++;
+    }
+    return run;
+}
+
+void change_gate_reset(change_gate_t *gate)
+{
+    gate->source_width = 0;
+    gate->source_height = 0;
+    gate->skipped_in_row = 0;
+}
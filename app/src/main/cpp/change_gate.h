@@ -0,0 +1,50 @@
+#ifndef CHANGE_GATE_H
+#define CHANGE_GATE_H
+
+#include <stddef.h>
+#include <stdint.h>
+#include "yuv_to_rgb.h"
+
+// Frames are compared as a CHANGE_GRID_WIDTH x CHANGE_GRID_HEIGHT grid of mean luma values
+// over the window that is classified, in sensor orientation, small enough to diff in a few
+// microseconds. Movement outside the window does not count.
+#define CHANGE_GRID_WIDTH 32
+#define CHANGE_GRID_HEIGHT 24
+#define CHANGE_GRID_CELLS (CHANGE_GRID_WIDTH * CHANGE_GRID_HEIGHT)
+
+typedef struct {
+    bool enabled;
+    int cell_threshold;       // luma difference (0-255) for a grid cell to count as changed
+    float changed_fraction;   // share of changed cells above which the frame is changed
+    int max_skipped_frames;   // run anyway after this many skipped frames in a row
+} change_gate_config_t;
+
+// Per stream state: the grid of the last frame that was classified
+typedef struct {
+    uint8_t reference[CHANGE_GRID_CELLS];
+    uint8_t current[CHANGE_GRID_CELLS];
+    crop_window_t current_window;     // the part of the frame current was sampled from
+    crop_window_t reference_window;
+    int source_width;         // 0 until a frame was classified
+    int source_height;
+    int skipped_in_row;
+} change_gate_t;
+
+// Fill gate->current from window (in sensor orientation, null for the whole frame) of the
+// luma plane of a YUV_420_888 frame
+void change_gate_sample_yuv(change_gate_t *gate, const yuv_frame_t *frame, const crop_window_t *window);
+
+// Fill gate->current from window (null for the whole frame) of a packed RGB888 frame
+void change_gate_sample_rgb(change_gate_t *gate, const uint8_t *rgb, int width, int height,
+                            const crop_window_t *window);
+
+// Decide on the sampled frame: returns true if it has to be classified, false if it
+// differs too little from the reference to be worth a run. When it returns true the
+// sampled grid becomes the new reference. A frame of a different size, or sampled over
+// another window, always runs.
+bool change_gate_should_run(change_gate_t *gate, const change_gate_config_t *config, int width, int height);
+
+// Forget the reference, the next frame runs
+void change_gate_reset(change_gate_t *gate);
+
+#endif // CHANGE_GATE_H
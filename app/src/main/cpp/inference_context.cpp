@@ -0,0 +1,419 @@
+#include "inference_context.h"
+#include <atomic>
+#include <mutex>
+#include <new>
+#include <math.h>
+#include <string.h>
+#include "edge-impulse-sdk/dsp/image/image.hpp"
+#include "rgb_pack.h"
+
+// run_classifier keeps a single interpreter and its output storage in static
+// state inside the SDK, so only one context may run it at a time
+static std::mutex classifier_mutex;
+// The first run builds that interpreter and its tensors, which live on for good: they
+// come from malloc, not from the arena of whichever context happened to run first
+static bool classifier_warmed_up = false; // guarded by classifier_mutex
+
+static std::mutex change_gate_mutex;
+static change_gate_config_t change_gate_config = { false, 8, 0.02f, 30 };
+static std::atomic<uint64_t> change_gate_ran(0);
+static std::atomic<uint64_t> change_gate_skipped(0);
+
+static std::mutex tiling_mutex;
+static tiling_config_t tiling_config = { 1, 0.25f, 0.5f };
+
+// Work arena of a context: the image DSP block's output features plus as much again for
+// its intermediates, and headroom for the small buffers of crop and resize
+#define WORK_ARENA_HEADROOM (64 * 1024)
+#define WORK_ARENA_CAPACITY (2 * (size_t)EI_CLASSIFIER_NN_INPUT_FRAME_SIZE * sizeof(float) + WORK_ARENA_HEADROOM)
+
+static std::mutex roi_mutex;
+static roi_t roi_config;
+static bool roi_enabled = false;
+static uint32_t roi_generation = 0; // bumped on every change
+
+// Region of interest in effect, false for the whole frame
+static bool current_roi(roi_t *roi, uint32_t *generation)
+{
+    std::lock_guard<std::mutex> lock(roi_mutex);
+    *roi = roi_config;
+    *generation = roi_generation;
+    return roi_enabled;
+}
+
+// Boxes in model input pixels -> normalized frame coordinates, for a window of a width x height frame
+static box_transform_t box_transform_for(const crop_window_t &window, int width, int height)
+{
+    box_transform_t transform;
+    transform.offset_x = (float)window.x / (float)width;
+    transform.offset_y = (float)window.y / (float)height;
+    transform.scale_x = (float)window.width / EI_CLASSIFIER_INPUT_WIDTH / (float)width;
+    transform.scale_y = (float)window.height / EI_CLASSIFIER_INPUT_HEIGHT / (float)height;
+    return transform;
+}
+
+static int ei_camera_get_data(const uint8_t *rgb, size_t offset, size_t length, float *out_ptr)
+{
+    // offset and length are in pixels, out_ptr is the DSP's own feature buffer
+    rgb888_pack_float(rgb + offset * PIXEL_NUM, length, out_ptr);
+    return 0;
+}
+
+change_gate_config_t inference_change_gate_configure(const change_gate_config_t *requested)
+{
+    change_gate_config_t config = *requested;
+    config.cell_threshold = config.cell_threshold < 0 ? 0 : (config.cell_threshold > 255 ? 255 : config.cell_threshold);
+    config.changed_fraction = config.changed_fraction < 0.0f ? 0.0f : (config.changed_fraction > 1.0f ? 1.0f : config.changed_fraction);
+    config.max_skipped_frames = config.max_skipped_frames < 0 ? 0 : config.max_skipped_frames;
+
+    std::lock_guard<std::mutex> lock(change_gate_mutex);
+    change_gate_config = config;
+    return config;
+}
+
+void inference_roi_configure(const roi_t *roi)
+{
+    std::lock_guard<std::mutex> lock(roi_mutex);
+    roi_enabled = roi != nullptr;
+    if (roi) {
+        roi_config = *roi;
+    }
+    roi_generation++;
+}
+
+tiling_config_t inference_tiling_configure(const tiling_config_t *requested)
+{
+    tiling_config_t config = *requested;
+    config.columns = config.columns < 1 ? 1 : (config.columns > TILING_MAX_TILES ? TILING_MAX_TILES : config.columns);
+    config.overlap = config.overlap < 0.0f ? 0.0f : (config.overlap > 0.5f ? 0.5f : config.overlap);
+    config.iou_threshold = config.iou_threshold < 0.0f ? 0.0f : (config.iou_threshold > 1.0f ? 1.0f : config.iou_threshold);
+
+    std::lock_guard<std::mutex> lock(tiling_mutex);
+    tiling_config = config;
+    return config;
+}
+
+bool inference_tiling_config(tiling_config_t *config)
+{
+    std::lock_guard<std::mutex> lock(tiling_mutex);
+    *config = tiling_config;
+    return config->columns > 1;
+}
+
+void inference_change_gate_counts(uint64_t *ran, uint64_t *skipped)
+{
+    *ran = change_gate_ran.load(std::memory_order_relaxed);
+    *skipped = change_gate_skipped.load(std::memory_order_relaxed);
+}
+
+void inference_work_arena_stats(work_arena_stats_t *stats)
+{
+    work_arena_stats(stats);
+}
+
+// Decide on the grid already sampled into ctx->change_gate
+static bool gate_sampled_frame(inference_context_t *ctx, int width, int height)
+{
+    change_gate_config_t config;
+    {
+        std::lock_guard<std::mutex> lock(change_gate_mutex);
+        config = change_gate_config;
+    }
+
+    // The last result was for another region, it must not be reused
+    {
+        std::lock_guard<std::mutex> lock(roi_mutex);
+        if (ctx->roi_generation != roi_generation) {
+            change_gate_reset(&ctx->change_gate);
+        }
+    }
+
+    if (change_gate_should_run(&ctx->change_gate, &config, width, height)) {
+        change_gate_ran.fetch_add(1, std::memory_order_relaxed);
+        return true;
+    }
+
+    change_gate_skipped.fetch_add(1, std::memory_order_relaxed);
+    ctx->result.timing.sampling = 0;
+    ctx->result.timing.dsp = 0;
+    ctx->result.timing.classification = 0;
+    ctx->result.timing.anomaly = 0;
+    ctx->result.timing.dsp_us = 0;
+    ctx->result.timing.classification_us = 0;
+    ctx->result.timing.anomaly_us = 0;
+    ctx->conversion_us = 0;
+    return false;
+}
+
+bool inference_context_gate_camera_rgb(inference_context_t *ctx)
+{
+    // Only what load_camera_rgb crops out is compared; the generation is checked by
+    // gate_sampled_frame, the load records it
+    roi_t roi;
+    uint32_t generation;
+    const bool has_roi = current_roi(&roi, &generation);
+    const crop_window_t window = crop_window_for(CAMERA_INPUT_WIDTH, CAMERA_INPUT_HEIGHT, has_roi ? &roi : nullptr,
+                                                 EI_CLASSIFIER_INPUT_WIDTH, EI_CLASSIFIER_INPUT_HEIGHT);
+    change_gate_sample_rgb(&ctx->change_gate, ctx->camera_rgb, CAMERA_INPUT_WIDTH, CAMERA_INPUT_HEIGHT, &window);
+    return gate_sampled_frame(ctx, CAMERA_INPUT_WIDTH, CAMERA_INPUT_HEIGHT);
+}
+
+bool inference_context_gate_yuv(inference_context_t *ctx, const yuv_frame_t *frame, int rotation_degrees,
+                                bool tiled)
+{
+    roi_t roi;
+    uint32_t generation;
+    const bool has_roi = current_roi(&roi, &generation);
+    const bool swap_axes = rotation_degrees % 180 != 0;
+    const int width = swap_axes ? frame->height : frame->width;
+    const int height = swap_axes ? frame->width : frame->height;
+
+    // The window load_yuv converts, or the whole region the tiles cover
+    const crop_window_t upright = tiled
+            ? region_window_for(width, height, has_roi ? &roi : nullptr)
+            : crop_window_for(width, height, has_roi ? &roi : nullptr,
+                              EI_CLASSIFIER_INPUT_WIDTH, EI_CLASSIFIER_INPUT_HEIGHT);
+    const crop_window_t window = sensor_window_for(&upright, frame->width, frame->height, rotation_degrees);
+    change_gate_sample_yuv(&ctx->change_gate, frame, &window);
+    return gate_sampled_frame(ctx, frame->width, frame->height);
+}
+
+int inference_context_get_data(const inference_context_t *ctx, size_t offset, size_t length, float *out_ptr)
+{
+    return ei_camera_get_data(ctx->model_rgb, offset, length, out_ptr);
+}
+
+inference_context_t *inference_context_create()
+{
+    inference_context_t *ctx = new (std::nothrow) inference_context_t();
+    if (!ctx) {
+        return nullptr;
+    }
+
+    // reserve once so steady state runs don't allocate
+#if EI_CLASSIFIER_OBJECT_DETECTION == 1
+    ctx->bounding_boxes.reserve(EI_CLASSIFIER_OBJECT_DETECTION_COUNT);
+#endif
+    ctx->visual_ad_grid_cells.reserve((EI_CLASSIFIER_INPUT_WIDTH / 8) * (EI_CLASSIFIER_INPUT_HEIGHT / 8));
+#if EI_CLASSIFIER_OBJECT_DETECTION == 1
+    ctx->merged_boxes.reserve(TILING_MAX_TILES * EI_CLASSIFIER_OBJECT_DETECTION_COUNT * BOX_STRIDE);
+#endif
+    ctx->merged_cells.reserve(TILING_MAX_TILES * ctx->visual_ad_grid_cells.capacity() * BOX_STRIDE);
+
+    // Without an arena the SDK simply keeps allocating with malloc
+    work_arena_init(&ctx->arena, WORK_ARENA_CAPACITY);
+
+    return ctx;
+}
+
+void inference_context_destroy(inference_context_t *ctx)
+{
+    if (!ctx) {
+        return;
+    }
+    work_arena_release(&ctx->arena);
+    delete ctx;
+}
+
+int inference_context_load_camera_rgb(inference_context_t *ctx)
+{
+    const uint64_t start_us = ei_read_timer_us();
+    roi_t roi;
+    bool has_roi = current_roi(&roi, &ctx->roi_generation);
+    const crop_window_t window = crop_window_for(CAMERA_INPUT_WIDTH, CAMERA_INPUT_HEIGHT, has_roi ? &roi : nullptr,
+                                                 EI_CLASSIFIER_INPUT_WIDTH, EI_CLASSIFIER_INPUT_HEIGHT);
+    ctx->box_transform = box_transform_for(window, CAMERA_INPUT_WIDTH, CAMERA_INPUT_HEIGHT);
+
+    // Move the window rows to the front of the buffer, so it is a packed image of its own.
+    // Row y never moves backwards past a row not yet moved, memmove covers the overlap.
+    const size_t row_bytes = (size_t)window.width * PIXEL_NUM;
+    for (int y = 0; y < window.height; y++) {
+        const uint8_t *src = ctx->camera_rgb +
+                ((size_t)(window.y + y) * CAMERA_INPUT_WIDTH + window.x) * PIXEL_NUM;
+        memmove(ctx->camera_rgb + (size_t)y * row_bytes, src, row_bytes);
+    }
+
+    work_arena_scope_t arena_scope(&ctx->arena);
+    int result = ei::image::processing::crop_and_interpolate_rgb888(
+            ctx->camera_rgb,
+            window.width,
+            window.height,
+            ctx->model_rgb,
+            EI_CLASSIFIER_INPUT_WIDTH,
+            EI_CLASSIFIER_INPUT_HEIGHT);
+    ctx->conversion_us = ei_read_timer_us() - start_us;
+    return result;
+}
+
+int inference_context_load_yuv(inference_context_t *ctx, const yuv_frame_t *frame, int rotation_degrees)
+{
+    const uint64_t start_us = ei_read_timer_us();
+    roi_t roi;
+    bool has_roi = current_roi(&roi, &ctx->roi_generation);
+    int result = yuv420_to_rgb888_crop_resize(frame, rotation_degrees, has_roi ? &roi : nullptr, ctx->model_rgb,
+                                              EI_CLASSIFIER_INPUT_WIDTH, EI_CLASSIFIER_INPUT_HEIGHT);
+    if (result == 0) {
+        const bool swap_axes = rotation_degrees % 180 != 0;
+        const int width = swap_axes ? frame->height : frame->width;
+        const int height = swap_axes ? frame->width : frame->height;
+        const crop_window_t window = crop_window_for(width, height, has_roi ? &roi : nullptr,
+                                                     EI_CLASSIFIER_INPUT_WIDTH, EI_CLASSIFIER_INPUT_HEIGHT);
+        ctx->box_transform = box_transform_for(window, width, height);
+    }
+    ctx->conversion_us = ei_read_timer_us() - start_us;
+    return result;
+}
+
+EI_IMPULSE_ERROR inference_context_run(inference_context_t *ctx)
+{
+    signal_t signal;
+    signal.total_length = EI_CLASSIFIER_INPUT_WIDTH * EI_CLASSIFIER_INPUT_HEIGHT;
+    signal.get_data = [ctx](size_t offset, size_t length, float *out_ptr) {
+        return ei_camera_get_data(ctx->model_rgb, offset, length, out_ptr);
+    };
+
+    ctx->merged = false;
+    ctx->tile_count = 1;
+
+    std::lock_guard<std::mutex> lock(classifier_mutex);
+
+    EI_IMPULSE_ERROR res;
+    if (!classifier_warmed_up) {
+        res = run_classifier(&signal, &ctx->result, false);
+        classifier_warmed_up = res == EI_IMPULSE_OK;
+    } else {
+        // DSP features and scratch come from the context's arena, taken back right after
+        work_arena_scope_t arena_scope(&ctx->arena);
+        res = run_classifier(&signal, &ctx->result, false);
+    }
+    if (res != EI_IMPULSE_OK) {
+        change_gate_reset(&ctx->change_gate);
+        return res;
+    }
+
+#if EI_CLASSIFIER_OBJECT_DETECTION == 1
+    ctx->bounding_boxes.assign(ctx->result.bounding_boxes,
+                               ctx->result.bounding_boxes + ctx->result.bounding_boxes_count);
+    ctx->result.bounding_boxes = ctx->bounding_boxes.data();
+#endif
+#if EI_CLASSIFIER_HAS_VISUAL_ANOMALY
+    ctx->visual_ad_grid_cells.assign(ctx->result.visual_ad_grid_cells,
+                                     ctx->result.visual_ad_grid_cells + ctx->result.visual_ad_count);
+    ctx->result.visual_ad_grid_cells = ctx->visual_ad_grid_cells.data();
+#endif
+
+    return res;
+}
+
+// Pack the boxes of the tile just run onto the end of merged, in box frame units
+static void append_tile_boxes(std::vector<float> &merged, const ei_impulse_result_bounding_box_t *boxes,
+                              uint32_t count, bool skip_empty, bool anomaly_label,
+                              const box_transform_t *transform)
+{
+    const size_t offset = merged.size();
+    merged.resize(offset + result_count_boxes(boxes, count, skip_empty) * BOX_STRIDE);
+    result_pack_boxes(boxes, count, skip_empty, anomaly_label, transform, merged.data() + offset);
+}
+
+int inference_context_run_tiled_yuv(inference_context_t *ctx, const yuv_frame_t *frame, int rotation_degrees,
+                                    const tiling_config_t *config)
+{
+    roi_t roi;
+    const bool has_roi = current_roi(&roi, &ctx->roi_generation);
+    const bool swap_axes = rotation_degrees % 180 != 0;
+    const int width = swap_axes ? frame->height : frame->width;
+    const int height = swap_axes ? frame->width : frame->height;
+
+    // Tiles cover the whole region, not only its model-aspect center
+    const crop_window_t region = region_window_for(width, height, has_roi ? &roi : nullptr);
+    roi_t tiles[TILING_MAX_TILES];
+    const int tile_count = tiling_layout(config, width, height, &region,
+                                         EI_CLASSIFIER_INPUT_WIDTH, EI_CLASSIFIER_INPUT_HEIGHT,
+                                         tiles, TILING_MAX_TILES);
+    if (tile_count == 0) {
+        return -1;
+    }
+
+    ctx->merged_boxes.clear();
+    ctx->merged_cells.clear();
+    float scores[EI_CLASSIFIER_LABEL_COUNT > 0 ? EI_CLASSIFIER_LABEL_COUNT : 1];
+    float anomaly = -INFINITY;
+    float visual_max = -INFINITY;
+    float visual_mean_sum = 0.0f;
+    ei_impulse_result_timing_t timing;
+    memset(&timing, 0, sizeof(timing));
+    uint64_t conversion_us = 0;
+
+    for (int t = 0; t < tile_count; t++) {
+        const uint64_t start_us = ei_read_timer_us();
+        if (yuv420_to_rgb888_crop_resize(frame, rotation_degrees, &tiles[t], ctx->model_rgb,
+                                         EI_CLASSIFIER_INPUT_WIDTH, EI_CLASSIFIER_INPUT_HEIGHT) != 0) {
+            change_gate_reset(&ctx->change_gate);
+            return -1;
+        }
+        conversion_us += ei_read_timer_us() - start_us;
+        const crop_window_t window = crop_window_for(width, height, &tiles[t],
+                                                     EI_CLASSIFIER_INPUT_WIDTH, EI_CLASSIFIER_INPUT_HEIGHT);
+        ctx->box_transform = box_transform_for(window, width, height);
+
+        EI_IMPULSE_ERROR res = inference_context_run(ctx);
+        if (res != EI_IMPULSE_OK) {
+            return res;
+        }
+        const ei_impulse_result_t &result = ctx->result;
+
+        // A defect in any tile counts, so every score is the highest over the tiles
+#if EI_CLASSIFIER_LABEL_COUNT > 0
+        for (int i = 0; i < EI_CLASSIFIER_LABEL_COUNT; i++) {
+            const float value = result.classification[i].value;
+            scores[i] = t == 0 || value > scores[i] ? value : scores[i];
+        }
+#endif
+        anomaly = result.anomaly > anomaly ? result.anomaly : anomaly;
+#if EI_CLASSIFIER_OBJECT_DETECTION == 1
+        append_tile_boxes(ctx->merged_boxes, result.bounding_boxes, result.bounding_boxes_count,
+                          true, false, &ctx->box_transform);
+#endif
+#if EI_CLASSIFIER_HAS_VISUAL_ANOMALY
+        append_tile_boxes(ctx->merged_cells, result.visual_ad_grid_cells, result.visual_ad_count,
+                          false, true, &ctx->box_transform);
+        visual_max = result.visual_ad_result.max_value > visual_max ? result.visual_ad_result.max_value : visual_max;
+        visual_mean_sum += result.visual_ad_result.mean_value;
+#endif
+
+        timing.sampling += result.timing.sampling;
+        timing.dsp += result.timing.dsp;
+        timing.classification += result.timing.classification;
+        timing.anomaly += result.timing.anomaly;
+        timing.dsp_us += result.timing.dsp_us;
+        timing.classification_us += result.timing.classification_us;
+        timing.anomaly_us += result.timing.anomaly_us;
+    }
+
+    ctx->merged_boxes.resize(tiling_merge_boxes(ctx->merged_boxes.data(),
+                                                (int)(ctx->merged_boxes.size() / BOX_STRIDE),
+                                                config->iou_threshold) * BOX_STRIDE);
+    ctx->merged_cells.resize(tiling_merge_boxes(ctx->merged_cells.data(),
+                                                (int)(ctx->merged_cells.size() / BOX_STRIDE),
+                                                config->iou_threshold) * BOX_STRIDE);
+
+    // The merged values replace the last tile's, a change gate skip hands them out again
+#if EI_CLASSIFIER_LABEL_COUNT > 0
+    for (int i = 0; i < EI_CLASSIFIER_LABEL_COUNT; i++) {
+        ctx->result.classification[i].value = scores[i];
+    }
+#endif
+    ctx->result.anomaly = anomaly;
+#if EI_CLASSIFIER_HAS_VISUAL_ANOMALY
+    ctx->result.visual_ad_result.max_value = visual_max;
+    ctx->result.visual_ad_result.mean_value = visual_mean_sum / tile_count;
+#else
+    (void)visual_max;
+    (void)visual_mean_sum;
+#endif
+    ctx->result.timing = timing;
+    ctx->conversion_us = conversion_us;
+    ctx->merged = true;
+    ctx->tile_count = tile_count;
+    return 0;
+}
@@ -0,0 +1,103 @@
+#ifndef INFERENCE_CONTEXT_H
+#define INFERENCE_CONTEXT_H
+
+#include <stdint.h>
+#include <vector>
+#include "edge-impulse-sdk/classifier/ei_run_classifier.h"
+#include "yuv_to_rgb.h"
+#include "change_gate.h"
+#include "inference_result.h"
+#include "tiling.h"
+#include "work_arena.h"
+
+#define CAMERA_INPUT_WIDTH 480
+#define CAMERA_INPUT_HEIGHT 640
+#define PIXEL_NUM 3
+
+// Everything one frame needs on its way through the impulse. Each Java side
+// NativeClassifier owns one context, so frames handled by different contexts
+// never share input or working buffers.
+typedef struct {
+    // RGB888 camera frame (CAMERA_INPUT_WIDTH x CAMERA_INPUT_HEIGHT), copied in from Java
+    uint8_t camera_rgb[CAMERA_INPUT_WIDTH * CAMERA_INPUT_HEIGHT * PIXEL_NUM];
+    // RGB888 frame at the model input size, this is what the impulse reads
+    uint8_t model_rgb[EI_CLASSIFIER_INPUT_WIDTH * EI_CLASSIFIER_INPUT_HEIGHT * PIXEL_NUM];
+    ei_impulse_result_t result;
+    // Copies of the boxes in result, the SDK reuses its own storage on the next run
+    std::vector<ei_impulse_result_bounding_box_t> bounding_boxes;
+    std::vector<ei_impulse_result_bounding_box_t> visual_ad_grid_cells;
+    // Last classified frame of this context, unchanged frames reuse result
+    change_gate_t change_gate;
+    // Region of interest the last frame was loaded with, and where its boxes go
+    uint32_t roi_generation;
+    box_transform_t box_transform;
+    // Set by a tiled run: the boxes of all tiles, packed in normalized frame coordinates
+    // and merged; result then holds the merged scores and the summed timing
+    bool merged;
+    int tile_count;      // inferences behind result: 1, or the tiles of a tiled run
+    std::vector<float> merged_boxes;
+    std::vector<float> merged_cells;
+    // Time spent converting, cropping and resizing the frame of result (summed over the
+    // tiles of a tiled run), 0 when the change gate reused it
+    uint64_t conversion_us;
+    // Working memory of the SDK while it handles this context's frame, reset per frame
+    work_arena_t arena;
+} inference_context_t;
+
+// Set the frame change gate for all contexts, returns the setup in effect (values are
+// clamped to sensible ranges). The gate starts disabled.
+change_gate_config_t inference_change_gate_configure(const change_gate_config_t *requested);
+
+// Set tiled classification for all contexts, returns the setup in effect (values are
+// clamped to sensible ranges). Tiling starts off (one column).
+tiling_config_t inference_tiling_configure(const tiling_config_t *requested);
+
+// Tiling setup in effect, false if tiling is off
+bool inference_tiling_config(tiling_config_t *config);
+
+// Work arena usage over all contexts
+void inference_work_arena_stats(work_arena_stats_t *stats);
+
+// Frames classified and frames skipped as unchanged, over all contexts
+void inference_change_gate_counts(uint64_t *ran, uint64_t *skipped);
+
+// Classify only this region of every frame from now on, null for the whole frame
+void inference_roi_configure(const roi_t *roi);
+
+inference_context_t *inference_context_create();
+void inference_context_destroy(inference_context_t *ctx);
+
+// Crop the region of interest of ctx->camera_rgb and resize it into ctx->model_rgb.
+// Overwrites ctx->camera_rgb.
+int inference_context_load_camera_rgb(inference_context_t *ctx);
+
+// Convert the region of interest of a YUV_420_888 frame straight into ctx->model_rgb
+int inference_context_load_yuv(inference_context_t *ctx, const yuv_frame_t *frame, int rotation_degrees);
+
+// Change gate for the frame about to be loaded: false if it is close enough to the last
+// classified frame of ctx that ctx->result can be reused. The reused result reports zero
+// timing, no DSP or inference ran for it. Only the window the load (or, when tiled, the
+// tiles) will classify is compared, movement elsewhere in the frame is ignored.
+bool inference_context_gate_camera_rgb(inference_context_t *ctx);
+bool inference_context_gate_yuv(inference_context_t *ctx, const yuv_frame_t *frame, int rotation_degrees,
+                                bool tiled);
+
+// signal_t callback body: pack `length` pixels of ctx->model_rgb starting at pixel
+// `offset` into the impulse's float layout (0xRRGGBB per float)
+int inference_context_get_data(const inference_context_t *ctx, size_t offset, size_t length, float *out_ptr);
+
+// Run the impulse on ctx->model_rgb, the result is stored in ctx->result. On failure the
+// change gate is reset, so the next frame runs instead of reusing a stale result.
+// The impulse itself is shared by all contexts, so runs are serialized; loading
+// frames into different contexts can happen in parallel.
+EI_IMPULSE_ERROR inference_context_run(inference_context_t *ctx);
+
+// Classify the region of interest of a YUV_420_888 frame tile by tile: every tile is
+// converted at the model input size and run on its own, then the tile results are merged
+// into ctx (scores, anomaly and visual anomaly maximum: highest over the tiles; boxes and
+// grid cells: tiling_merge_boxes). Returns 0 on success, -1 if a tile could not be
+// converted, otherwise the EI_IMPULSE_ERROR of the failed run.
+int inference_context_run_tiled_yuv(inference_context_t *ctx, const yuv_frame_t *frame, int rotation_degrees,
+                                    const tiling_config_t *config);
+
+#endif // INFERENCE_CONTEXT_H
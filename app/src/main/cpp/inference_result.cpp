@@ -0,0 +1,54 @@
+#include "inference_result.h"
+#include <string.h>
+
+int result_label_index(const char *label)
+{
+#if EI_CLASSIFIER_LABEL_COUNT > 0
+    for (int i = 0; i < EI_CLASSIFIER_LABEL_COUNT; i++) {
+        if (strcmp(ei_classifier_inferencing_categories[i], label) == 0) {
+            return i;
+        }
+    }
+#endif
+    return -1;
+}
+
+uint32_t result_count_boxes(const ei_impulse_result_bounding_box_t *boxes, uint32_t count, bool skip_empty)
+{
+    uint32_t packed_count = 0;
+    for (uint32_t i = 0; i < count; i++) {
+        if (skip_empty && boxes[i].value == 0) continue;
+        packed_count++;
+    }
+    return packed_count;
+}
+
+void result_pack_boxes(const ei_impulse_result_bounding_box_t *boxes, uint32_t count,
+                       bool skip_empty, bool anomaly_label, const box_transform_t *transform,
+                       float *out)
+{
+    for (uint32_t i = 0; i < count; i++) {
+        const ei_impulse_result_bounding_box_t &bb = boxes[i];
+        if (skip_empty && bb.value == 0) continue;
+
+        out[0] = transform->offset_x + (float)bb.x * transform->scale_x;
+        out[1] = transform->offset_y + (float)bb.y * transform->scale_y;
+        out[2] = (float)bb.width * transform->scale_x;
+        out[3] = (float)bb.height * transform->scale_y;
+        out[4] = bb.value;
+        out[5] = anomaly_label ? -1.0f : (float)result_label_index(bb.label);
+        out += BOX_STRIDE;
+    }
+}
+
+void result_pack_scores(const ei_impulse_result_t *result, float *out)
+{
+#if EI_CLASSIFIER_LABEL_COUNT > 0
+    for (size_t i = 0; i < EI_CLASSIFIER_LABEL_COUNT; i++) {
+        out[i] = result->classification[i].value;
+    }
+#else
+    (void)result;
+    (void)out;
+#endif
+}
@@ -0,0 +1,34 @@
+#ifndef INFERENCE_RESULT_H
+#define INFERENCE_RESULT_H
+
+#include <stdint.h>
+#include "edge-impulse-sdk/classifier/ei_run_classifier.h"
+#include "box_layout.h"
+
+// Box coordinates are normalized to the whole upright camera frame (0..1 on both axes),
+// whatever part of it the model saw. The UI maps them through the preview transform.
+
+// Maps model input pixels to normalized frame coordinates: x' = offset_x + x * scale_x
+typedef struct {
+    float offset_x;
+    float offset_y;
+    float scale_x;
+    float scale_y;
+} box_transform_t;
+
+// Index of a label in the label table (ei_classifier_inferencing_categories), -1 if unknown
+int result_label_index(const char *label);
+
+// Number of boxes result_pack_boxes will write
+uint32_t result_count_boxes(const ei_impulse_result_bounding_box_t *boxes, uint32_t count, bool skip_empty);
+
+// Pack boxes into out (result_count_boxes() * BOX_STRIDE floats), mapped through
+// transform. Anomaly grid cells get label index -1.
+void result_pack_boxes(const ei_impulse_result_bounding_box_t *boxes, uint32_t count,
+                       bool skip_empty, bool anomaly_label, const box_transform_t *transform,
+                       float *out);
+
+// Copy the classification scores (EI_CLASSIFIER_LABEL_COUNT floats) into out
+void result_pack_scores(const ei_impulse_result_t *result, float *out);
+
+#endif // INFERENCE_RESULT_H
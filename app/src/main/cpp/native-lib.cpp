@@ -35,244 +35,410 @@
 #include <jni.h>
 #include <android/log.h>
 #include <string>
+#include <string.h>
+#include <math.h>
 #include <stdio.h>
 #include "vector"
 #include "edge-impulse-sdk/classifier/ei_run_classifier.h"
-#include "edge-impulse-sdk/dsp/image/image.hpp"
+#include "inference_context.h"
+#include "inference_result.h"
+
+// JNI classes and method IDs, resolved once in JNI_OnLoad
+static struct {
+    jclass resultClass;
+    jclass timingClass;
+    jclass stringClass;
+    jmethodID resultConstructor;
+    jmethodID timingConstructor;
+} jniCache;
+
+static jclass find_global_class(JNIEnv* env, const char* name)
+{
+    jclass localClass = env->FindClass(name);
+    if (!localClass) {
+        __android_log_print(ANDROID_LOG_INFO, "MAIN", "Class not found: %s\n", name);
+        return nullptr;
+    }
+    jclass globalClass = static_cast<jclass>(env->NewGlobalRef(localClass));
+    env->DeleteLocalRef(localClass);
+    return globalClass;
+}
+
+extern "C" JNIEXPORT jint JNICALL JNI_OnLoad(JavaVM* vm, void*)
+{
+    JNIEnv* env = nullptr;
+    if (vm->GetEnv(reinterpret_cast<void**>(&env), JNI_VERSION_1_6) != JNI_OK) {
+        return JNI_ERR;
+    }
 
-jbyte* byteData = nullptr;
-#define CAMERA_INPUT_WIDTH 480
-#define CAMERA_INPUT_HEIGHT 640
-#define PIXEL_NUM 3
+    jniCache.resultClass = find_global_class(env, "com/example/test_camera/InferenceResult");
+    jniCache.timingClass = find_global_class(env, "com/example/test_camera/Timing");
+    jniCache.stringClass = find_global_class(env, "java/lang/String");
+    if (!jniCache.resultClass || !jniCache.timingClass || !jniCache.stringClass) {
+        return JNI_ERR;
+    }
+
+    jniCache.resultConstructor = env->GetMethodID(jniCache.resultClass, "<init>",
+                                                  "([F[F[FFFFLcom/example/test_camera/Timing;)V");
+    jniCache.timingConstructor = env->GetMethodID(jniCache.timingClass, "<init>",
+                                                  "(IIIIJJJJJI)V");
+    if (!jniCache.resultConstructor || !jniCache.timingConstructor) {
+        return JNI_ERR;
+    }
 
-static int ei_camera_get_data(size_t offset, size_t length, float *out_ptr)
+    return JNI_VERSION_1_6;
+}
+
+static jfloatArray pack_boxes(JNIEnv* env, const ei_impulse_result_bounding_box_t* boxes,
+                              uint32_t count, bool skip_empty, bool anomaly_label,
+                              const box_transform_t* transform)
 {
-    // we already have a RGB888 buffer, so recalculate offset into pixel index
-    size_t pixel_ix = offset * 3;
-    size_t pixels_left = length;
-    size_t out_ptr_ix = 0;
+    uint32_t packed_count = result_count_boxes(boxes, count, skip_empty);
 
-    while (pixels_left != 0) {
+    jfloatArray array = env->NewFloatArray(packed_count * BOX_STRIDE);
+    if (!array || packed_count == 0) {
+        return array;
+    }
 
-        uint8_t r = static_cast<uint8_t>(byteData[pixel_ix]);
-        uint8_t g = static_cast<uint8_t>(byteData[pixel_ix + 1]);
-        uint8_t b = static_cast<uint8_t>(byteData[pixel_ix + 2]);
+    // Fill the Java array in place, no JNI calls allowed until it is released
+    float* packed = static_cast<float*>(env->GetPrimitiveArrayCritical(array, nullptr));
+    if (!packed) {
+        return nullptr;
+    }
+    result_pack_boxes(boxes, count, skip_empty, anomaly_label, transform, packed);
+    env->ReleasePrimitiveArrayCritical(array, packed, 0);
 
-        out_ptr[out_ptr_ix] = (r << 16) + (g << 8) + b;
+    return array;
+}
 
-        // go to the next pixel
-        out_ptr_ix++;
-        pixel_ix+=3;
-        pixels_left--;
+// Boxes a tiled run already packed and merged
+static jfloatArray copy_boxes(JNIEnv* env, const std::vector<float>& boxes)
+{
+    jfloatArray array = env->NewFloatArray((jsize)boxes.size());
+    if (array && !boxes.empty()) {
+        env->SetFloatArrayRegion(array, 0, (jsize)boxes.size(), boxes.data());
     }
+    return array;
+}
+
+// Build the InferenceResult for ctx->result, boxes mapped back from the region the model saw
+static jobject build_inference_result(JNIEnv* env, const inference_context_t* ctx)
+{
+    const uint64_t start_us = ei_read_timer_us();
+    const ei_impulse_result_t& result = ctx->result;
+
+    jfloatArray classification = nullptr;
+#if EI_CLASSIFIER_LABEL_COUNT > 0
+    float scores[EI_CLASSIFIER_LABEL_COUNT];
+    result_pack_scores(&result, scores);
+    classification = env->NewFloatArray(EI_CLASSIFIER_LABEL_COUNT);
+    if (!classification) return nullptr;
+    env->SetFloatArrayRegion(classification, 0, EI_CLASSIFIER_LABEL_COUNT, scores);
+#endif
 
-    // and done!
-    return 0;
+    jfloatArray objectDetections = nullptr;
+#if EI_CLASSIFIER_OBJECT_DETECTION == 1
+    objectDetections = ctx->merged ? copy_boxes(env, ctx->merged_boxes)
+                                   : pack_boxes(env, result.bounding_boxes, result.bounding_boxes_count, true, false,
+                                                &ctx->box_transform);
+#endif
+
+    jfloatArray visualAnomalyGridCells = nullptr;
+    jfloat visualAnomalyMax = NAN;
+    jfloat visualAnomalyMean = NAN;
+#if EI_CLASSIFIER_HAS_VISUAL_ANOMALY
+    visualAnomalyGridCells = ctx->merged ? copy_boxes(env, ctx->merged_cells)
+                                         : pack_boxes(env, result.visual_ad_grid_cells, result.visual_ad_count, false, true,
+                                                      &ctx->box_transform);
+    visualAnomalyMax = result.visual_ad_result.max_value;
+    visualAnomalyMean = result.visual_ad_result.mean_value;
+#endif
+
+    jfloat anomaly = NAN;
+#if EI_CLASSIFIER_HAS_ANOMALY && EI_CLASSIFIER_HAS_ANOMALY != 3
+    anomaly = result.anomaly;
+#endif
+
+    jobject timingObject = env->NewObject(jniCache.timingClass, jniCache.timingConstructor,
+                                          result.timing.sampling,
+                                          result.timing.dsp,
+                                          result.timing.classification,
+                                          result.timing.anomaly,
+                                          (jlong)result.timing.dsp_us,
+                                          (jlong)result.timing.classification_us,
+                                          (jlong)result.timing.anomaly_us,
+                                          (jlong)ctx->conversion_us,
+                                          (jlong)(ei_read_timer_us() - start_us),
+                                          (jint)ctx->tile_count);
+
+    return env->NewObject(jniCache.resultClass, jniCache.resultConstructor,
+                          classification,
+                          objectDetections,
+                          visualAnomalyGridCells,
+                          anomaly,
+                          visualAnomalyMax,
+                          visualAnomalyMean,
+                          timingObject);
 }
 
-extern "C" JNIEXPORT jobject JNICALL
-Java_com_example_test_1camera_MainActivity_passToCpp(
+// Label table for the classification scores and box label indices, fetched once from Kotlin
+extern "C" JNIEXPORT jobjectArray JNICALL
+Java_com_example_test_1camera_NativeClassifier_getLabels(
         JNIEnv* env,
-        jobject,
-        jbyteArray image_data) {
+        jclass) {
 
-    // Get byte array data from JNI
-    byteData = env->GetByteArrayElements(image_data, nullptr);
-    jsize byteArrayLength = env->GetArrayLength(image_data);
+    jobjectArray labels = env->NewObjectArray(EI_CLASSIFIER_LABEL_COUNT, jniCache.stringClass, nullptr);
+    if (!labels) return nullptr;
 
-    if (byteArrayLength != CAMERA_INPUT_WIDTH * CAMERA_INPUT_HEIGHT * PIXEL_NUM) {
-        __android_log_print(ANDROID_LOG_INFO, "MAIN", "The size of your 'features' array is not correct. Expected %d items, but had %d\n",
-                            CAMERA_INPUT_WIDTH * CAMERA_INPUT_HEIGHT * PIXEL_NUM, byteArrayLength);
-        return nullptr;
+#if EI_CLASSIFIER_LABEL_COUNT > 0
+    for (int i = 0; i < EI_CLASSIFIER_LABEL_COUNT; i++) {
+        jstring label = env->NewStringUTF(ei_classifier_inferencing_categories[i]);
+        env->SetObjectArrayElement(labels, i, label);
+        env->DeleteLocalRef(label);
     }
+#endif
 
-    ei::image::processing::crop_and_interpolate_rgb888(
-            (uint8_t*)byteData,
-            CAMERA_INPUT_WIDTH,
-            CAMERA_INPUT_HEIGHT,
-            (uint8_t*)byteData,
-            EI_CLASSIFIER_INPUT_WIDTH,
-            EI_CLASSIFIER_INPUT_HEIGHT);
+    return labels;
+}
 
-    ei_impulse_result_t result;
+// Model input as { width, height } in pixels
+extern "C" JNIEXPORT jintArray JNICALL
+Java_com_example_test_1camera_NativeClassifier_getInputSize(
+        JNIEnv* env,
+        jclass) {
 
-    signal_t signal;
-    signal.total_length = EI_CLASSIFIER_INPUT_WIDTH * EI_CLASSIFIER_INPUT_HEIGHT;
-    signal.get_data = &ei_camera_get_data;
+    jint values[2] = { EI_CLASSIFIER_INPUT_WIDTH, EI_CLASSIFIER_INPUT_HEIGHT };
+    jintArray array = env->NewIntArray(2);
+    if (array) {
+        env->SetIntArrayRegion(array, 0, 2, values);
+    }
+    return array;
+}
 
-    EI_IMPULSE_ERROR res = run_classifier(&signal, &result, false);
+// Returns the applied setup as { enabled, cell_threshold, changed_fraction, max_skipped_frames }
+extern "C" JNIEXPORT jfloatArray JNICALL
+Java_com_example_test_1camera_NativeClassifier_nativeConfigureChangeGate(
+        JNIEnv* env,
+        jclass,
+        jboolean enabled,
+        jint cell_threshold,
+        jfloat changed_fraction,
+        jint max_skipped_frames) {
+
+    change_gate_config_t requested;
+    requested.enabled = enabled == JNI_TRUE;
+    requested.cell_threshold = cell_threshold;
+    requested.changed_fraction = changed_fraction;
+    requested.max_skipped_frames = max_skipped_frames;
+
+    change_gate_config_t applied = inference_change_gate_configure(&requested);
+
+    jfloat values[4] = { applied.enabled ? 1.0f : 0.0f, (jfloat)applied.cell_threshold,
+                         applied.changed_fraction, (jfloat)applied.max_skipped_frames };
+    jfloatArray array = env->NewFloatArray(4);
+    if (array) {
+        env->SetFloatArrayRegion(array, 0, 4, values);
+    }
+    return array;
+}
 
-    // Find Java classes
-    jclass resultClass = env->FindClass("com/example/test_camera/InferenceResult");
-    jclass timingClass = env->FindClass("com/example/test_camera/Timing");
-    jclass hashMapClass = env->FindClass("java/util/HashMap");
-    jclass listClass = env->FindClass("java/util/ArrayList");
-    jclass boundingBoxClass = env->FindClass("com/example/test_camera/BoundingBox");
+// Returns the applied setup as { columns, overlap, iou_threshold }
+extern "C" JNIEXPORT jfloatArray JNICALL
+Java_com_example_test_1camera_NativeClassifier_nativeConfigureTiling(
+        JNIEnv* env,
+        jclass,
+        jint columns,
+        jfloat overlap,
+        jfloat iou_threshold) {
+
+    tiling_config_t requested;
+    requested.columns = columns;
+    requested.overlap = overlap;
+    requested.iou_threshold = iou_threshold;
+
+    tiling_config_t applied = inference_tiling_configure(&requested);
+
+    jfloat values[3] = { (jfloat)applied.columns, applied.overlap, applied.iou_threshold };
+    jfloatArray array = env->NewFloatArray(3);
+    if (array) {
+        env->SetFloatArrayRegion(array, 0, 3, values);
+    }
+    return array;
+}
 
-    if (!resultClass || !timingClass || !hashMapClass || !listClass || !boundingBoxClass) {
-        return nullptr; // Error finding classes
+// Region of interest in upright frame coordinates (0..1), for every context
+extern "C" JNIEXPORT void JNICALL
+Java_com_example_test_1camera_NativeClassifier_nativeSetRegionOfInterest(
+        JNIEnv*,
+        jclass,
+        jboolean enabled,
+        jfloat left,
+        jfloat top,
+        jfloat right,
+        jfloat bottom) {
+
+    if (enabled != JNI_TRUE) {
+        inference_roi_configure(nullptr);
+        return;
     }
+    roi_t roi = { left, top, right, bottom };
+    inference_roi_configure(&roi);
+}
 
-    // Get method IDs
-    jmethodID resultConstructor = env->GetMethodID(resultClass, "<init>",
-                                                   "(Ljava/util/Map;Ljava/util/List;Ljava/util/List;Ljava/util/Map;Lcom/example/test_camera/Timing;)V");
+// Returns { frames classified, frames skipped as unchanged } over all contexts
+extern "C" JNIEXPORT jlongArray JNICALL
+Java_com_example_test_1camera_NativeClassifier_getChangeGateCounts(
+        JNIEnv* env,
+        jclass) {
 
-    jmethodID boundingBoxConstructor = env->GetMethodID(boundingBoxClass, "<init>",
-                                                        "(Ljava/lang/String;FIIII)V");
+    uint64_t ran, skipped;
+    inference_change_gate_counts(&ran, &skipped);
 
-    jmethodID timingConstructor = env->GetMethodID(timingClass, "<init>",
-                                                   "(IIIIJJJ)V");
+    jlong values[2] = { (jlong)ran, (jlong)skipped };
+    jlongArray array = env->NewLongArray(2);
+    if (array) {
+        env->SetLongArrayRegion(array, 0, 2, values);
+    }
+    return array;
+}
 
-    jmethodID hashMapInit = env->GetMethodID(hashMapClass, "<init>", "()V");
-    jmethodID hashMapPut = env->GetMethodID(hashMapClass, "put",
-                                            "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;");
-    jmethodID listAdd = env->GetMethodID(listClass, "add", "(Ljava/lang/Object;)Z");
+// Returns { capacity bytes, peak bytes, overflows, pinned frames, leaked arenas } of the work arenas
+extern "C" JNIEXPORT jlongArray JNICALL
+Java_com_example_test_1camera_NativeClassifier_getWorkArenaStats(
+        JNIEnv* env,
+        jclass) {
+
+    work_arena_stats_t stats;
+    inference_work_arena_stats(&stats);
 
-    jclass floatClass = env->FindClass("java/lang/Float");
-    if (!floatClass) return nullptr;
+    jlong values[5] = { (jlong)stats.capacity_bytes, (jlong)stats.peak_bytes,
+                        (jlong)stats.overflows, (jlong)stats.pinned, (jlong)stats.leaked };
+    jlongArray array = env->NewLongArray(5);
+    if (array) {
+        env->SetLongArrayRegion(array, 0, 5, values);
+    }
+    return array;
+}
 
-    // Get Float constructor method ID
-    jmethodID floatConstructor = env->GetMethodID(floatClass, "<init>", "(F)V");
-    if (!floatConstructor) return nullptr; // Error finding constructor
+extern "C" JNIEXPORT jlong JNICALL
+Java_com_example_test_1camera_NativeClassifier_nativeCreate(
+        JNIEnv*,
+        jclass) {
+    return reinterpret_cast<jlong>(inference_context_create());
+}
 
-#if EI_CLASSIFIER_LABEL_COUNT > 0
-    // Construct classification map
-    jobject classificationMap = env->NewObject(hashMapClass, hashMapInit);
-    for (size_t i = 0; i < EI_CLASSIFIER_LABEL_COUNT; i++) {
-        jstring key = env->NewStringUTF(result.classification[i].label);
-        jobject value = env->NewObject(floatClass, floatConstructor, result.classification[i].value);
+extern "C" JNIEXPORT void JNICALL
+Java_com_example_test_1camera_NativeClassifier_nativeDestroy(
+        JNIEnv*,
+        jclass,
+        jlong handle) {
+    inference_context_destroy(reinterpret_cast<inference_context_t*>(handle));
+}
 
-        env->CallObjectMethod(classificationMap, hashMapPut, key, value);
+// Run the impulse on the frame loaded into ctx and build the InferenceResult
+static jobject classify_frame(JNIEnv* env, inference_context_t* ctx) {
 
-        // Cleanup local references
-        env->DeleteLocalRef(key);
-        env->DeleteLocalRef(value);
+    EI_IMPULSE_ERROR res = inference_context_run(ctx);
+    if (res != EI_IMPULSE_OK) {
+        __android_log_print(ANDROID_LOG_INFO, "MAIN", "run_classifier failed (%d)\n", res);
+        return nullptr;
     }
-#endif
 
-#if EI_CLASSIFIER_OBJECT_DETECTION == 1
-    // Create ArrayList for object detections
-    jobject boundingBoxList = env->NewObject(listClass, env->GetMethodID(listClass, "<init>", "()V"));
-    for (uint32_t i = 0; i < result.bounding_boxes_count; i++) {
-        ei_impulse_result_bounding_box_t bb = result.bounding_boxes[i];
-        if (bb.value == 0) continue;
-        float x_ratio = 1080 / (float)EI_CLASSIFIER_INPUT_WIDTH;
-        float y_ratio = 2400 / (float)EI_CLASSIFIER_INPUT_HEIGHT;
-        //__android_log_print(ANDROID_LOG_INFO, "MAIN", "x_ratio: %f, y_ratio: %f", x_ratio, y_ratio);
-
-        float x = (float)bb.x * x_ratio;
-        float y = (float)bb.y * y_ratio;
-        float width = (float)bb.width * x_ratio;
-        float height = (float)bb.height * y_ratio;
-
-        //__android_log_print(ANDROID_LOG_INFO, "MAIN", "x: %f, y: %f, width: %f, height: %f", x, y, width, height);
-
-        jstring label = env->NewStringUTF(bb.label);
-        jobject boundingBoxObj = env->NewObject(boundingBoxClass,
-                                                boundingBoxConstructor,
-                                                label,
-                                                (jfloat)bb.value,
-                                                (jint)x,
-                                                (jint)y,
-                                                (jint)width,
-                                                (jint)height);
-        env->CallBooleanMethod(boundingBoxList, listAdd, boundingBoxObj);
+    return build_inference_result(env, ctx);
+}
 
-        env->DeleteLocalRef(label);
-        env->DeleteLocalRef(boundingBoxObj);
-    }
-#endif
+extern "C" JNIEXPORT jobject JNICALL
+Java_com_example_test_1camera_NativeClassifier_nativeClassify(
+        JNIEnv* env,
+        jclass,
+        jlong handle,
+        jbyteArray image_data) {
 
-    // Create HashMap for anomaly values
-    jobject anomalyResultMap = env->NewObject(hashMapClass, hashMapInit);
+    inference_context_t* ctx = reinterpret_cast<inference_context_t*>(handle);
+    jsize byteArrayLength = env->GetArrayLength(image_data);
 
-#if EI_CLASSIFIER_HAS_ANOMALY != 3
-    jobject anomalyString = env->NewStringUTF("anomaly");
-    jobject anomalyValue = env->NewObject(floatClass, floatConstructor, (jfloat)result.anomaly);
+    if (byteArrayLength != CAMERA_INPUT_WIDTH * CAMERA_INPUT_HEIGHT * PIXEL_NUM) {
+        __android_log_print(ANDROID_LOG_INFO, "MAIN", "The size of your 'features' array is not correct. Expected %d items, but had %d\n",
+                            CAMERA_INPUT_WIDTH * CAMERA_INPUT_HEIGHT * PIXEL_NUM, byteArrayLength);
+        return nullptr;
+    }
 
-    env->CallObjectMethod(anomalyResultMap, hashMapPut, anomalyString, anomalyValue);
-    env->DeleteLocalRef(anomalyString);
-    env->DeleteLocalRef(anomalyValue);
-#endif
+    // Copy into the context's own frame buffer, nothing stays pinned on the Java heap
+    env->GetByteArrayRegion(image_data, 0, byteArrayLength, reinterpret_cast<jbyte*>(ctx->camera_rgb));
 
-#if EI_CLASSIFIER_HAS_VISUAL_ANOMALY
-    // Create ArrayList for visual anomaly grid cells
-    jobject boundingBoxListAnomaly = env->NewObject(listClass, env->GetMethodID(listClass, "<init>", "()V"));
-    for (uint32_t i = 0; i < result.visual_ad_count; i++) {
-        ei_impulse_result_bounding_box_t bb = result.visual_ad_grid_cells[i];
-
-        float x_ratio = 1080 / (float)EI_CLASSIFIER_INPUT_WIDTH;
-        float y_ratio = 2400 / (float)EI_CLASSIFIER_INPUT_HEIGHT;
-        //__android_log_print(ANDROID_LOG_INFO, "MAIN", "x_ratio: %f, y_ratio: %f", x_ratio, y_ratio);
-
-        float x = (float)bb.x * x_ratio;
-        float y = (float)bb.y * y_ratio;
-        float width = (float)bb.width * x_ratio;
-        float height = (float)bb.height * y_ratio;
-
-        jstring label = env->NewStringUTF("anomaly");
-        jobject boundingBoxObj = env->NewObject(boundingBoxClass,
-                                                boundingBoxConstructor,
-                                                label,
-                                                (jfloat)bb.value,
-                                                (jint)x,
-                                                (jint)y,
-                                                (jint)width,
-                                                (jint)height);
-        env->CallBooleanMethod(boundingBoxListAnomaly, listAdd, boundingBoxObj);
+    // Nothing moved since the last classified frame, hand its result out again
+    if (!inference_context_gate_camera_rgb(ctx)) {
+        return build_inference_result(env, ctx);
+    }
 
-        env->DeleteLocalRef(label);
-        env->DeleteLocalRef(boundingBoxObj);
+    if (inference_context_load_camera_rgb(ctx) != 0) {
+        __android_log_print(ANDROID_LOG_INFO, "MAIN", "Failed to crop and resize frame\n");
+        change_gate_reset(&ctx->change_gate);
+        return nullptr;
     }
 
-    jobject maxString = env->NewStringUTF("max");
-    jobject maxValue = env->NewObject(floatClass, floatConstructor, (jfloat)result.visual_ad_result.max_value);
+    return classify_frame(env, ctx);
+}
 
-    jobject meanString = env->NewStringUTF("mean");
-    jobject meanValue = env->NewObject(floatClass, floatConstructor, (jfloat)result.visual_ad_result.mean_value);
+extern "C" JNIEXPORT jobject JNICALL
+Java_com_example_test_1camera_NativeClassifier_nativeClassifyYuv(
+        JNIEnv* env,
+        jclass,
+        jlong handle,
+        jobject y_buffer,
+        jobject u_buffer,
+        jobject v_buffer,
+        jint width,
+        jint height,
+        jint y_row_stride,
+        jint uv_row_stride,
+        jint uv_pixel_stride,
+        jint rotation_degrees) {
+
+    inference_context_t* ctx = reinterpret_cast<inference_context_t*>(handle);
+
+    // The planes stay owned by the ImageProxy, we only read through their addresses
+    yuv_frame_t frame;
+    frame.y = static_cast<const uint8_t*>(env->GetDirectBufferAddress(y_buffer));
+    frame.u = static_cast<const uint8_t*>(env->GetDirectBufferAddress(u_buffer));
+    frame.v = static_cast<const uint8_t*>(env->GetDirectBufferAddress(v_buffer));
+    frame.width = width;
+    frame.height = height;
+    frame.y_row_stride = y_row_stride;
+    frame.uv_row_stride = uv_row_stride;
+    frame.uv_pixel_stride = uv_pixel_stride;
+
+    if (!frame.y || !frame.u || !frame.v) {
+        __android_log_print(ANDROID_LOG_INFO, "MAIN", "YUV planes are not direct buffers\n");
+        return nullptr;
+    }
 
-    env->CallObjectMethod(anomalyResultMap, hashMapPut, maxString, maxValue);
-    env->CallObjectMethod(anomalyResultMap, hashMapPut, meanString, meanValue);
-    env->DeleteLocalRef(meanString);
-    env->DeleteLocalRef(maxString);
-    env->DeleteLocalRef(meanValue);
-    env->DeleteLocalRef(maxValue);
-#endif
+    // Small defects vanish when the whole region is scaled down at once, classify it in tiles
+    tiling_config_t tiling;
+    const bool tiled = inference_tiling_config(&tiling);
 
-    // Construct Timing object
-    jobject timingObject = env->NewObject(timingClass, timingConstructor,
-                                          result.timing.sampling,
-                                          result.timing.dsp,
-                                          result.timing.classification,
-                                          result.timing.anomaly,
-                                          result.timing.dsp_us,
-                                          result.timing.classification_us,
-                                          result.timing.anomaly_us);
+    // Checked on the luma plane before any conversion, an unchanged frame costs only the sampling
+    if (!inference_context_gate_yuv(ctx, &frame, rotation_degrees, tiled)) {
+        return build_inference_result(env, ctx);
+    }
 
-    // Construct InferenceResult object
-    jobject inferenceResult = env->NewObject(resultClass,
-                                             resultConstructor,
-#if EI_CLASSIFIER_LABEL_COUNT > 0
-                                             classificationMap,
-#else
-            nullptr,
-#endif
-#if EI_CLASSIFIER_OBJECT_DETECTION == 1
-            boundingBoxList,
-#else
-                                             nullptr,
-#endif
-#if EI_CLASSIFIER_HAS_VISUAL_ANOMALY
-            boundingBoxListAnomaly,
-#else
-                                             nullptr,
-#endif
-#if EI_CLASSIFIER_HAS_ANOMALY
-            anomalyResultMap,
-#else
-                                             nullptr,
-#endif
-                                             timingObject);
+    if (tiled) {
+        int res = inference_context_run_tiled_yuv(ctx, &frame, rotation_degrees, &tiling);
+        if (res != 0) {
+            __android_log_print(ANDROID_LOG_INFO, "MAIN", "Tiled classification failed (%d, %dx%d, rotation %d)\n",
+                                res, width, height, rotation_degrees);
+            return nullptr;
+        }
+        return build_inference_result(env, ctx);
+    }
+
+    // YUV->RGB, rotation, crop and resize straight into the model input size
+    if (inference_context_load_yuv(ctx, &frame, rotation_degrees) != 0) {
+        __android_log_print(ANDROID_LOG_INFO, "MAIN", "Failed to convert YUV frame (%dx%d, rotation %d)\n",
+                            width, height, rotation_degrees);
+        change_gate_reset(&ctx->change_gate);
+        return nullptr;
+    }
 
-    return inferenceResult;
-}
\ No newline at end of file
+    return classify_frame(env, ctx);
+}
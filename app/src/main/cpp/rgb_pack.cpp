@@ -0,0 +1,109 @@
+#include "rgb_pack.h"
+
+#if defined(__ARM_NEON)
+#include <arm_neon.h>
+#elif defined(__AVX2__) || defined(__SSSE3__)
+#include <immintrin.h>
+#endif
+
+void rgb888_pack_float_scalar(const uint8_t *rgb, size_t pixels, float *out)
+{
+    for (size_t i = 0; i < pixels; i++) {
+        out[i] = (float)((rgb[0] << 16) + (rgb[1] << 8) + rgb[2]);
+        rgb += 3;
+    }
+}
+
+#if defined(__ARM_NEON)
+
+// 8 pixels, one channel per vector: g:b as 16 bits, r shifted above them, then to float
+static inline void pack8_neon(uint8x8_t r, uint8x8_t g, uint8x8_t b, float *out)
+{
+    const uint16x8_t gb = vorrq_u16(vshll_n_u8(g, 8), vmovl_u8(b));
+    const uint16x8_t r16 = vmovl_u8(r);
+    const uint32x4_t lo = vorrq_u32(vshll_n_u16(vget_low_u16(r16), 16), vmovl_u16(vget_low_u16(gb)));
+    const uint32x4_t hi = vorrq_u32(vshll_n_u16(vget_high_u16(r16), 16), vmovl_u16(vget_high_u16(gb)));
+    vst1q_f32(out, vcvtq_f32_u32(lo));
+    vst1q_f32(out + 4, vcvtq_f32_u32(hi));
+}
+
+void rgb888_pack_float(const uint8_t *rgb, size_t pixels, float *out)
+{
+    // vld3 splits 16 interleaved pixels into r, g and b vectors
+    while (pixels >= 16) {
+        const uint8x16x3_t px = vld3q_u8(rgb);
+        pack8_neon(vget_low_u8(px.val[0]), vget_low_u8(px.val[1]), vget_low_u8(px.val[2]), out);
+        pack8_neon(vget_high_u8(px.val[0]), vget_high_u8(px.val[1]), vget_high_u8(px.val[2]), out + 8);
+        rgb += 16 * 3;
+        out += 16;
+        pixels -= 16;
+    }
+    if (pixels >= 8) {
+        const uint8x8x3_t px = vld3_u8(rgb);
+        pack8_neon(px.val[0], px.val[1], px.val[2], out);
+        rgb += 8 * 3;
+        out += 8;
+        pixels -= 8;
+    }
+    rgb888_pack_float_scalar(rgb, pixels, out);
+}
+
+const char *rgb888_pack_implementation()
+{
+    return "neon";
+}
+
+#elif defined(__AVX2__) || defined(__SSSE3__)
+
+// Byte shuffle of 4 pixels (12 bytes) into 4 little endian 32 bit lanes b, g, r, 0
+#define RGB_PACK_SHUFFLE 2, 1, 0, -1, 5, 4, 3, -1, 8, 7, 6, -1, 11, 10, 9, -1
+
+void rgb888_pack_float(const uint8_t *rgb, size_t pixels, float *out)
+{
+    // Each load takes 16 bytes for 12 bytes of pixels, the loops stop while at least 4
+    // more bytes of the input follow so nothing past its end is read
+#if defined(__AVX2__)
+    const __m256i shuffle8 = _mm256_setr_epi8(RGB_PACK_SHUFFLE, RGB_PACK_SHUFFLE);
+    while (pixels >= 10) {
+        const __m128i lo = _mm_loadu_si128((const __m128i *)rgb);
+        const __m128i hi = _mm_loadu_si128((const __m128i *)(rgb + 12));
+        const __m256i px = _mm256_inserti128_si256(_mm256_castsi128_si256(lo), hi, 1);
+        _mm256_storeu_ps(out, _mm256_cvtepi32_ps(_mm256_shuffle_epi8(px, shuffle8)));
+        rgb += 8 * 3;
+        out += 8;
+        pixels -= 8;
+    }
+#endif
+    const __m128i shuffle4 = _mm_setr_epi8(RGB_PACK_SHUFFLE);
+    while (pixels >= 6) {
+        const __m128i px = _mm_loadu_si128((const __m128i *)rgb);
+        _mm_storeu_ps(out, _mm_cvtepi32_ps(_mm_shuffle_epi8(px, shuffle4)));
+        rgb += 4 * 3;
+        out += 4;
+        pixels -= 4;
+    }
+    rgb888_pack_float_scalar(rgb, pixels, out);
+}
+
+const char *rgb888_pack_implementation()
+{
+#if defined(__AVX2__)
+    return "avx2";
+#else
+    return "ssse3";
+#endif
+}
+
+#else
+
+void rgb888_pack_float(const uint8_t *rgb, size_t pixels, float *out)
+{
+    rgb888_pack_float_scalar(rgb, pixels, out);
+}
+
+const char *rgb888_pack_implementation()
+{
+    return "scalar";
+}
+
+#endif
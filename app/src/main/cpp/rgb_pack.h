@@ -0,0 +1,20 @@
+#ifndef RGB_PACK_H
+#define RGB_PACK_H
+
+#include <stddef.h>
+#include <stdint.h>
+
+// Pack `pixels` RGB888 pixels into the impulse's image signal layout: one float per pixel
+// holding 0xRRGGBB, i.e. (r << 16) + (g << 8) + b. Every value is below 2^24 and so exact
+// in a float, the vector paths give bit for bit the same output as the scalar one.
+// Uses NEON on arm64, AVX2 or SSSE3 on x86 when the build enables them, otherwise scalar.
+// Neither pointer needs any alignment.
+void rgb888_pack_float(const uint8_t *rgb, size_t pixels, float *out);
+
+// Plain loop, the reference the vector paths are tested against
+void rgb888_pack_float_scalar(const uint8_t *rgb, size_t pixels, float *out);
+
+// "neon", "avx2", "ssse3" or "scalar": the path rgb888_pack_float takes in this build
+const char *rgb888_pack_implementation();
+
+#endif // RGB_PACK_H
@@ -0,0 +1,160 @@
+#include "tiling.h"
+#include <math.h>
+#include <stdint.h>
+#include <string.h>
+#include "box_layout.h"
+
+// Place count spans of length span over [0, length) with even steps, first and last flush
+// with the ends, rounded to whole pixels
+static int span_start(int index, int count, int span, int length)
+{
+    if (count <= 1) return (length - span) / 2;
+    return (int)(((int64_t)index * (length - span) * 2 + (count - 1)) / (2 * (count - 1)));
+}
+
+// n tiles of length span with overlap o cover span * (n - (n - 1) * o)
+static float span_for(int count, float length, float overlap)
+{
+    return length / (count - (count - 1) * overlap);
+}
+
+// Tiles needed to cover length with spans of that length, at least overlap apart
+static int spans_needed(float span, float length, float overlap)
+{
+    if (length <= span) return 1;
+    return 1 + (int)((length - span) / (span * (1.0f - overlap)) + 0.999f);
+}
+
+// Keep [start, start + span) inside [0, length) where it fits
+static int clamp_start(int start, int span, int length)
+{
+    if (start + span > length) start = length - span;
+    return start < 0 ? 0 : start;
+}
+
+static int gcd(int a, int b)
+{
+    while (b != 0) {
+        const int r = a % b;
+        a = b;
+        b = r;
+    }
+    return a;
+}
+
+int tiling_layout(const tiling_config_t *config, int frame_width, int frame_height,
+                  const crop_window_t *window, int dst_width, int dst_height,
+                  roi_t *tiles, int max_tiles)
+{
+    if (frame_width <= 0 || frame_height <= 0 || dst_width <= 0 || dst_height <= 0 || max_tiles <= 0) {
+        return 0;
+    }
+
+    const float aspect = (float)dst_width / (float)dst_height;
+    const float overlap = config->overlap < 0.0f ? 0.0f : (config->overlap > 0.5f ? 0.5f : config->overlap);
+    const float width = (float)window->width;
+    const float height = (float)window->height;
+
+    int columns = config->columns < 1 ? 1 : config->columns;
+    float tile_w = span_for(columns, width, overlap);
+    float tile_h = tile_w / aspect;
+    if (tile_h > height) {
+        // Window too flat for that many columns: tiles as high as the window instead
+        tile_h = height;
+        tile_w = tile_h * aspect;
+    }
+
+    columns = spans_needed(tile_w, width, overlap);
+    int rows = spans_needed(tile_h, height, overlap);
+    if (columns * rows > max_tiles) {
+        // Too many tiles for the budget: the smallest tiles for which some grid of at most
+        // max_tiles still covers the window, so a tile sees as much detail as the budget allows
+        tile_w = -1.0f;
+        for (int r = 1; r <= max_tiles; r++) {
+            const int c = max_tiles / r;
+            const float w_columns = span_for(c, width, overlap);
+            const float w_rows = span_for(r, height, overlap) * aspect;
+            const float w = w_columns > w_rows ? w_columns : w_rows;
+            if (tile_w < 0.0f || w < tile_w) tile_w = w;
+        }
+        tile_h = tile_w / aspect;
+        columns = spans_needed(tile_w, width, overlap);
+        rows = spans_needed(tile_h, height, overlap);
+    }
+
+    // Whole pixel tiles of exactly the model aspect ratio, so crop_window_for takes nothing
+    // off their edges: multiples of the smallest such size, at least as large as computed
+    const int unit = gcd(dst_width, dst_height);
+    const int unit_w = dst_width / unit;
+    const int unit_h = dst_height / unit;
+    int scale = (int)ceilf(tile_w / unit_w);
+    if (scale * unit_w > frame_width) scale = frame_width / unit_w;
+    if (scale * unit_h > frame_height) scale = frame_height / unit_h;
+    if (scale < 1) scale = 1;
+    const int pixels_w = scale * unit_w;
+    const int pixels_h = scale * unit_h;
+    columns = spans_needed((float)pixels_w, width, overlap);
+    rows = spans_needed((float)pixels_h, height, overlap);
+
+    // A tile larger than the window on one axis is centered on it and kept inside the frame.
+    // Edges are written half a pixel inside, region_window_for rounds them back outwards.
+    int count = 0;
+    for (int row = 0; row < rows; row++) {
+        const int y = clamp_start(window->y + span_start(row, rows, pixels_h, window->height),
+                                  pixels_h, frame_height);
+        for (int column = 0; column < columns; column++) {
+            const int x = clamp_start(window->x + span_start(column, columns, pixels_w, window->width),
+                                      pixels_w, frame_width);
+            roi_t *tile = &tiles[count++];
+            tile->left = (x + 0.5f) / frame_width;
+            tile->top = (y + 0.5f) / frame_height;
+            tile->right = (x + pixels_w - 0.5f) / frame_width;
+            tile->bottom = (y + pixels_h - 0.5f) / frame_height;
+        }
+    }
+    return count;
+}
+
+static float box_iou(const float *a, const float *b)
+{
+    const float left = a[0] > b[0] ? a[0] : b[0];
+    const float top = a[1] > b[1] ? a[1] : b[1];
+    const float right = a[0] + a[2] < b[0] + b[2] ? a[0] + a[2] : b[0] + b[2];
+    const float bottom = a[1] + a[3] < b[1] + b[3] ? a[1] + a[3] : b[1] + b[3];
+    if (right <= left || bottom <= top) return 0.0f;
+
+    const float intersection = (right - left) * (bottom - top);
+    const float union_area = a[2] * a[3] + b[2] * b[3] - intersection;
+    return union_area > 0.0f ? intersection / union_area : 0.0f;
+}
+
+int tiling_merge_boxes(float *boxes, int count, float iou_threshold)
+{
+    // Insertion sort by confidence, descending; box counts are small and this needs no memory
+    float held[BOX_STRIDE];
+    for (int i = 1; i < count; i++) {
+        memcpy(held, boxes + i * BOX_STRIDE, sizeof(held));
+        int j = i - 1;
+        while (j >= 0 && boxes[j * BOX_STRIDE + 4] < held[4]) {
+            memcpy(boxes + (j + 1) * BOX_STRIDE, boxes + j * BOX_STRIDE, sizeof(held));
+            j--;
+        }
+        memcpy(boxes + (j + 1) * BOX_STRIDE, held, sizeof(held));
+    }
+
+    // Kept boxes are compacted to the front
+    int kept = 0;
+    for (int i = 0; i < count; i++) {
+        const float *box = boxes + i * BOX_STRIDE;
+        bool suppressed = false;
+        for (int k = 0; k < kept && !suppressed; k++) {
+            const float *other = boxes + k * BOX_STRIDE;
+            suppressed = other[5] == box[5] && box_iou(other, box) > iou_threshold;
+        }
+        if (!suppressed) {
+            if (kept != i) memcpy(boxes + kept * BOX_STRIDE, box, sizeof(held));
+            kept++;
+        }
+    }
+    return kept;
+}
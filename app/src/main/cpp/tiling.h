@@ -0,0 +1,32 @@
+#ifndef TILING_H
+#define TILING_H
+
+#include <stddef.h>
+#include "yuv_to_rgb.h"
+
+// Upper bound of tiles per frame, whatever the configuration asks for
+#define TILING_MAX_TILES 16
+
+typedef struct {
+    int columns;            // tiles across the frame, 1 or less turns tiling off
+    float overlap;          // fraction of a tile shared with its neighbour, 0..0.5
+    float iou_threshold;    // boxes of one label overlapping more than this are merged
+} tiling_config_t;
+
+// Split an upright width x height window (at window_x, window_y) into overlapping tiles of
+// the model aspect ratio (dst_width / dst_height): config->columns tiles across, as many
+// rows as it takes to cover the height. When that takes more than max_tiles, the tiles
+// grow until a grid of at most max_tiles covers the window. Tiles are whole pixels of the
+// model aspect ratio, written to tiles as regions of the whole frame_width x frame_height
+// frame. Returns the number of tiles (at most max_tiles).
+int tiling_layout(const tiling_config_t *config, int frame_width, int frame_height,
+                  const crop_window_t *window, int dst_width, int dst_height,
+                  roi_t *tiles, int max_tiles);
+
+// Greedy non-maximum suppression on count packed boxes (BOX_STRIDE floats each): boxes are
+// sorted by confidence, and a box overlapping an already kept box of the same label by
+// more than iou_threshold is dropped. For anomaly grid cells (all label -1) this keeps
+// the highest score where tiles overlap. Works in place, returns the number of boxes kept.
+int tiling_merge_boxes(float *boxes, int count, float iou_threshold);
+
+#endif // TILING_H
@@ -0,0 +1,227 @@
+#include "work_arena.h"
+#include <stdlib.h>
+#include <string.h>
+#include "edge-impulse-sdk/porting/ei_classifier_porting.h"
+
+// Buffers whose memory ei_free has to recognize. Slots only change when a context is
+// created or destroyed, lookups are lock free. A leaked buffer keeps its slot with a null
+// owner, pointers into it are then simply dropped by ei_free.
+struct arena_slot_t {
+    std::atomic<uint8_t *> base;
+    std::atomic<size_t> capacity;
+    std::atomic<work_arena_t *> owner;
+};
+static arena_slot_t registry[WORK_ARENA_MAX];
+
+// Buffers released while allocations were still live
+static std::atomic<uint64_t> leaked_arenas(0);
+
+// Arena ei_malloc / ei_calloc allocate from on this thread, null for malloc
+static thread_local work_arena_t *bound_arena = nullptr;
+
+static size_t align_up(size_t size)
+{
+    return (size + (WORK_ARENA_ALIGNMENT - 1)) & ~(size_t)(WORK_ARENA_ALIGNMENT - 1);
+}
+
+// The registry slot of the buffer ptr was allocated from, null if it came from malloc
+static arena_slot_t *slot_of(const void *ptr)
+{
+    const uint8_t *p = (const uint8_t *)ptr;
+    for (int i = 0; i < WORK_ARENA_MAX; i++) {
+        const uint8_t *base = registry[i].base.load(std::memory_order_acquire);
+        if (base && p >= base && p < base + registry[i].capacity.load(std::memory_order_relaxed)) {
+            return &registry[i];
+        }
+    }
+    return nullptr;
+}
+
+bool work_arena_init(work_arena_t *arena, size_t capacity)
+{
+    arena->base = nullptr;
+    arena->capacity = 0;
+    arena->used = 0;
+    arena->live.store(0, std::memory_order_relaxed);
+    arena->floor.store(0, std::memory_order_relaxed);
+    arena->floor_live.store(0, std::memory_order_relaxed);
+    arena->slot = -1;
+    arena->peak_bytes = 0;
+    arena->frame_overflow_bytes = 0;
+    arena->overflows.store(0, std::memory_order_relaxed);
+    arena->pinned.store(0, std::memory_order_relaxed);
+
+    capacity = align_up(capacity);
+    void *memory = nullptr;
+    if (posix_memalign(&memory, WORK_ARENA_ALIGNMENT, capacity) != 0) {
+        return false;
+    }
+    uint8_t *base = (uint8_t *)memory;
+    arena->base = base;
+    arena->capacity = capacity;
+
+    for (int i = 0; i < WORK_ARENA_MAX; i++) {
+        work_arena_t *expected = nullptr;
+        if (!registry[i].owner.compare_exchange_strong(expected, arena, std::memory_order_acq_rel)) {
+            continue;
+        }
+        if (registry[i].base.load(std::memory_order_acquire) != nullptr) {
+            // Held by a leaked buffer
+            registry[i].owner.store(nullptr, std::memory_order_release);
+            continue;
+        }
+        // The capacity is set before the base publishes the slot to ei_free
+        registry[i].capacity.store(capacity, std::memory_order_relaxed);
+        registry[i].base.store(base, std::memory_order_release);
+        arena->slot = i;
+        return true;
+    }
+
+    // Unregistered memory could reach free() through ei_free, better not use it at all
+    free(base);
+    arena->base = nullptr;
+    arena->capacity = 0;
+    return false;
+}
+
+void work_arena_release(work_arena_t *arena)
+{
+    if (arena->slot >= 0) {
+        arena_slot_t *slot = &registry[arena->slot];
+        slot->owner.store(nullptr, std::memory_order_release);
+        if (arena->live.load(std::memory_order_acquire) != 0) {
+            // The SDK still points into the buffer (state it keeps past a frame): freeing it
+            // would hand that memory to someone else. Keep it, and its slot, for good.
+            leaked_arenas.fetch_add(1, std::memory_order_relaxed);
+        } else {
+            slot->base.store(nullptr, std::memory_order_release);
+            free(arena->base);
+        }
+        arena->slot = -1;
+    }
+    arena->base = nullptr;
+    arena->capacity = 0;
+    arena->used = 0;
+}
+
+void *work_arena_alloc(work_arena_t *arena, size_t size)
+{
+    const size_t aligned = align_up(size == 0 ? 1 : size);
+    void *ptr = nullptr;
+    if (aligned >= size && aligned <= arena->capacity - arena->used) {
+        ptr = arena->base + arena->used;
+        arena->used += aligned;
+        arena->live.fetch_add(1, std::memory_order_relaxed);
+    } else {
+        arena->frame_overflow_bytes += aligned;
+        arena->overflows.fetch_add(1, std::memory_order_relaxed);
+    }
+
+    const size_t requested = arena->used + arena->frame_overflow_bytes;
+    if (requested > arena->peak_bytes) {
+        arena->peak_bytes = requested;
+    }
+    return ptr;
+}
+
+void work_arena_reset(work_arena_t *arena)
+{
+    arena->frame_overflow_bytes = 0;
+    if (arena->used == 0) {
+        return;
+    }
+    const size_t floor = arena->floor.load(std::memory_order_relaxed);
+    const size_t live = arena->live.load(std::memory_order_acquire);
+    const size_t floor_live = arena->floor_live.load(std::memory_order_acquire);
+    if (live != floor_live) {
+        // Something of this frame is still in use: keep it below the floor and carry on above
+        arena->pinned.fetch_add(1, std::memory_order_relaxed);
+        arena->floor.store(arena->used, std::memory_order_relaxed);
+        arena->floor_live.store(live, std::memory_order_release);
+        return;
+    }
+    if (floor_live == 0) {
+        arena->floor.store(0, std::memory_order_relaxed);
+        arena->used = 0;
+    } else {
+        arena->used = floor;
+    }
+}
+
+void work_arena_stats(work_arena_stats_t *stats)
+{
+    memset(stats, 0, sizeof(*stats));
+    stats->leaked = leaked_arenas.load(std::memory_order_relaxed);
+    for (int i = 0; i < WORK_ARENA_MAX; i++) {
+        const work_arena_t *arena = registry[i].owner.load(std::memory_order_acquire);
+        if (!arena) {
+            continue;
+        }
+        stats->capacity_bytes += arena->capacity;
+        // Written by the inference thread without a lock, a slightly old value is fine
+        stats->peak_bytes = arena->peak_bytes > stats->peak_bytes ? arena->peak_bytes : stats->peak_bytes;
+        stats->overflows += arena->overflows.load(std::memory_order_relaxed);
+        stats->pinned += arena->pinned.load(std::memory_order_relaxed);
+    }
+}
+
+work_arena_scope_t::work_arena_scope_t(work_arena_t *arena)
+        : arena_(arena), previous_(bound_arena)
+{
+    bound_arena = arena->base ? arena : nullptr;
+}
+
+work_arena_scope_t::~work_arena_scope_t()
+{
+    bound_arena = previous_;
+    // An outer scope on the same arena still owns what it allocated
+    if (previous_ != arena_) {
+        work_arena_reset(arena_);
+    }
+}
+
+// Strong definitions, the SDK's POSIX port only provides weak ones
+
+void *ei_malloc(size_t size)
+{
+    if (bound_arena) {
+        void *ptr = work_arena_alloc(bound_arena, size);
+        if (ptr) {
+            return ptr;
+        }
+    }
+    return malloc(size);
+}
+
+void *ei_calloc(size_t nitems, size_t size)
+{
+    if (bound_arena && (size == 0 || nitems <= SIZE_MAX / size)) {
+        void *ptr = work_arena_alloc(bound_arena, nitems * size);
+        if (ptr) {
+            // Arena memory is reused frame after frame, unlike fresh calloc pages
+            memset(ptr, 0, nitems * size);
+            return ptr;
+        }
+    }
+    return calloc(nitems, size);
+}
+
+void ei_free(void *ptr)
+{
+    if (!ptr) {
+        return;
+    }
+    arena_slot_t *slot = slot_of(ptr);
+    if (!slot) {
+        free(ptr);
+        return;
+    }
+    // A leaked buffer has no owner left, its memory is never reused anyway
+    work_arena_t *arena = slot->owner.load(std::memory_order_acquire);
+    if (arena) {
+        if ((const uint8_t *)ptr < arena->base + arena->floor.load(std::memory_order_relaxed)) {
+            arena->floor_live.fetch_sub(1, std::memory_order_release);
+        }
+        arena->live.fetch_sub(1, std::memory_order_release);
+    }
+}
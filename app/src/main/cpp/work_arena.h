@@ -0,0 +1,80 @@
+#ifndef WORK_ARENA_H
+#define WORK_ARENA_H
+
+#include <atomic>
+#include <stddef.h>
+#include <stdint.h>
+
+// Upper bound of arenas alive at once (one per inference context)
+#define WORK_ARENA_MAX 16
+// Every allocation is aligned to this, enough for any SIMD load the DSP does
+#define WORK_ARENA_ALIGNMENT 16
+
+// Bump allocator behind the SDK's ei_malloc / ei_calloc / ei_free while it is bound to the
+// calling thread (work_arena_scope_t). Memory is handed out by moving `used` forward and
+// taken back all at once when the scope ends, so a frame costs no malloc / free traffic
+// and does not fragment the heap. The buffer is allocated once and never grows: a request
+// that does not fit goes to malloc and is counted, peak_bytes tells how big it should be.
+//
+// An allocation that outlives its frame pins the memory below it: later frames allocate
+// above that floor and are reset back to it, until the pinned allocations are freed too.
+typedef struct {
+    uint8_t *base;
+    size_t capacity;
+    size_t used;
+    std::atomic<size_t> live;          // allocations not yet freed
+    std::atomic<size_t> floor;         // start of the memory a reset may take back
+    std::atomic<size_t> floor_live;    // of live, the allocations below floor
+    int slot;                          // registry entry, -1 if unregistered
+    // Statistics, written by the owning thread
+    size_t peak_bytes;                 // most bytes requested in one frame, overflow included
+    size_t frame_overflow_bytes;       // bytes of this frame that went to malloc
+    std::atomic<uint64_t> overflows;   // allocations that did not fit
+    std::atomic<uint64_t> pinned;      // resets that raised the floor, an allocation outlived its frame
+} work_arena_t;
+
+typedef struct {
+    uint64_t capacity_bytes;   // summed over all arenas
+    uint64_t peak_bytes;       // highest of all arenas
+    uint64_t overflows;        // summed
+    uint64_t pinned;           // summed
+    uint64_t leaked;           // arenas released while allocations were still live, never freed
+} work_arena_stats_t;
+
+// Allocate capacity bytes and register the arena so ei_free recognizes its memory from
+// any thread. False if out of memory or WORK_ARENA_MAX arenas exist; the arena then
+// stays empty and every request goes to malloc.
+bool work_arena_init(work_arena_t *arena, size_t capacity);
+
+// Unregister and free the buffer. If allocations from it are still live (state the SDK
+// keeps across frames), the buffer is leaked instead and stays known to ei_free, so those
+// pointers stay valid; the leak is counted. arena itself may be freed afterwards.
+void work_arena_release(work_arena_t *arena);
+
+// size bytes from the arena, nullptr if they do not fit
+void *work_arena_alloc(work_arena_t *arena, size_t size);
+
+// Take back everything allocated since the floor, if it was all freed. Otherwise the
+// floor is raised past it (counted as pinned). Once the allocations below the floor are
+// freed as well the floor drops back to the start.
+void work_arena_reset(work_arena_t *arena);
+
+// Statistics of all registered arenas
+void work_arena_stats(work_arena_stats_t *stats);
+
+// Binds an arena to the calling thread for its lifetime: ei_malloc and ei_calloc on this
+// thread allocate from it. Ends with a reset, so everything the SDK allocated in the scope
+// must have been freed by then. Scopes nest, the previous binding is restored.
+class work_arena_scope_t {
+public:
+    explicit work_arena_scope_t(work_arena_t *arena);
+    ~work_arena_scope_t();
+    work_arena_scope_t(const work_arena_scope_t &) = delete;
+    work_arena_scope_t &operator=(const work_arena_scope_t &) = delete;
+
+private:
+    work_arena_t *arena_;
+    work_arena_t *previous_;
+};
+
+#endif // WORK_ARENA_H
@@ -0,0 +1,187 @@
+#include "yuv_to_rgb.h"
+
+// Fixed point helpers (16.16)
+#define FP_SHIFT 16
+#define FP_ONE (1 << FP_SHIFT)
+#define FP_HALF (1 << (FP_SHIFT - 1))
+
+static inline int clamp_int(int v, int lo, int hi)
+{
+    return v < lo ? lo : (v > hi ? hi : v);
+}
+
+static inline uint8_t clamp_u8(int v)
+{
+    return (uint8_t)(v < 0 ? 0 : (v > 255 ? 255 : v));
+}
+
+// Map an output coordinate to a 16.16 source coordinate along one axis of the
+// (rotated) crop window, sampling at pixel centres.
+static inline int64_t map_axis(int d, int dst_len, int64_t crop_start, int64_t crop_len)
+{
+    return (crop_start << FP_SHIFT) + (((int64_t)(2 * d + 1) * crop_len) << FP_SHIFT) / (2 * dst_len) - FP_HALF;
+}
+
+crop_window_t region_window_for(int width, int height, const roi_t *roi)
+{
+    crop_window_t window = { 0, 0, width, height };
+    if (roi) {
+        // round outwards, a region thinner than a pixel still gets one
+        const float left = roi->left < 0.0f ? 0.0f : (roi->left > 1.0f ? 1.0f : roi->left);
+        const float top = roi->top < 0.0f ? 0.0f : (roi->top > 1.0f ? 1.0f : roi->top);
+        const float right = roi->right < left ? left : (roi->right > 1.0f ? 1.0f : roi->right);
+        const float bottom = roi->bottom < top ? top : (roi->bottom > 1.0f ? 1.0f : roi->bottom);
+        window.x = clamp_int((int)(left * width), 0, width - 1);
+        window.y = clamp_int((int)(top * height), 0, height - 1);
+        window.width = clamp_int((int)(right * width + 0.999f) - window.x, 1, width - window.x);
+        window.height = clamp_int((int)(bottom * height + 0.999f) - window.y, 1, height - window.y);
+    }
+    return window;
+}
+
+crop_window_t crop_window_for(int width, int height, const roi_t *roi, int dst_width, int dst_height)
+{
+    crop_window_t window = region_window_for(width, height, roi);
+
+    // center crop to the output aspect ratio, same as crop_and_interpolate_rgb888
+    if ((int64_t)window.width * dst_height > (int64_t)window.height * dst_width) {
+        const int cropped = (int)((int64_t)window.height * dst_width / dst_height);
+        window.x += (window.width - cropped) / 2;
+        window.width = cropped > 0 ? cropped : 1;
+    }
+    else {
+        const int cropped = (int)((int64_t)window.width * dst_height / dst_width);
+        window.y += (window.height - cropped) / 2;
+        window.height = cropped > 0 ? cropped : 1;
+    }
+    return window;
+}
+
+crop_window_t sensor_window_for(const crop_window_t *upright, int sensor_width, int sensor_height,
+                                int rotation_degrees)
+{
+    // Inverse of the upright -> sensor mapping of yuv420_to_rgb888_crop_resize
+    crop_window_t window;
+    switch (((rotation_degrees % 360) + 360) % 360) {
+        case 90:
+            window.x = upright->y;
+            window.y = sensor_height - upright->x - upright->width;
+            window.width = upright->height;
+            window.height = upright->width;
+            break;
+        case 180:
+            window.x = sensor_width - upright->x - upright->width;
+            window.y = sensor_height - upright->y - upright->height;
+            window.width = upright->width;
+            window.height = upright->height;
+            break;
+        case 270:
+            window.x = sensor_width - upright->y - upright->height;
+            window.y = upright->x;
+            window.width = upright->height;
+            window.height = upright->width;
+            break;
+        default:
+            window = *upright;
+            break;
+    }
+    return window;
+}
+
+int yuv420_to_rgb888_crop_resize(
+        const yuv_frame_t *frame,
+        int rotation_degrees,
+        const roi_t *roi,
+        uint8_t *dst,
+        int dst_width,
+        int dst_height)
+{
+    if (!frame || !frame->y || !frame->u || !frame->v || !dst ||
+        frame->width <= 0 || frame->height <= 0 || dst_width <= 0 || dst_height <= 0) {
+        return -1;
+    }
+
+    rotation_degrees = ((rotation_degrees % 360) + 360) % 360;
+    if (rotation_degrees % 90 != 0) {
+        return -1;
+    }
+
+    const int src_w = frame->width;
+    const int src_h = frame->height;
+    const bool swap_axes = (rotation_degrees == 90 || rotation_degrees == 270);
+
+    // size of the upright (rotated) image
+    const int rot_w = swap_axes ? src_h : src_w;
+    const int rot_h = swap_axes ? src_w : src_h;
+
+    const crop_window_t window = crop_window_for(rot_w, rot_h, roi, dst_width, dst_height);
+    const int64_t crop_x = window.x;
+    const int64_t crop_y = window.y;
+    const int64_t crop_w = window.width;
+    const int64_t crop_h = window.height;
+
+    const int max_x_fp = (src_w - 1) << FP_SHIFT;
+    const int max_y_fp = (src_h - 1) << FP_SHIFT;
+
+    uint8_t *out = dst;
+
+    for (int dy = 0; dy < dst_height; dy++) {
+        const int64_t ry = map_axis(dy, dst_height, crop_y, crop_h);
+
+        for (int dx = 0; dx < dst_width; dx++) {
+            const int64_t rx = map_axis(dx, dst_width, crop_x, crop_w);
+
+            // upright coordinate -> sensor coordinate
+            int64_t sx, sy;
+            switch (rotation_degrees) {
+                case 90:
+                    sx = ry;
+                    sy = max_y_fp - rx;
+                    break;
+                case 180:
+                    sx = max_x_fp - rx;
+                    sy = max_y_fp - ry;
+                    break;
+                case 270:
+                    sx = max_x_fp - ry;
+                    sy = rx;
+                    break;
+                default:
+                    sx = rx;
+                    sy = ry;
+                    break;
+            }
+
+            const int fx_fp = clamp_int((int)sx, 0, max_x_fp);
+            const int fy_fp = clamp_int((int)sy, 0, max_y_fp);
+
+            // bilinear sample on luma
+            const int x0 = fx_fp >> FP_SHIFT;
+            const int y0 = fy_fp >> FP_SHIFT;
+            const int x1 = x0 + 1 < src_w ? x0 + 1 : x0;
+            const int y1 = y0 + 1 < src_h ? y0 + 1 : y0;
+            const int wx = (fx_fp & (FP_ONE - 1)) >> 8;
+            const int wy = (fy_fp & (FP_ONE - 1)) >> 8;
+
+            const uint8_t *row0 = frame->y + (size_t)y0 * frame->y_row_stride;
+            const uint8_t *row1 = frame->y + (size_t)y1 * frame->y_row_stride;
+            const int top = row0[x0] * (256 - wx) + row0[x1] * wx;
+            const int bottom = row1[x0] * (256 - wx) + row1[x1] * wx;
+            const int luma = (top * (256 - wy) + bottom * wy + (1 << 15)) >> 16;
+
+            // nearest sample on chroma (already half resolution)
+            const int cx = clamp_int((fx_fp + FP_HALF) >> FP_SHIFT, 0, src_w - 1) >> 1;
+            const int cy = clamp_int((fy_fp + FP_HALF) >> FP_SHIFT, 0, src_h - 1) >> 1;
+            const size_t uv_ix = (size_t)cy * frame->uv_row_stride + (size_t)cx * frame->uv_pixel_stride;
+            const int u = frame->u[uv_ix] - 128;
+            const int v = frame->v[uv_ix] - 128;
+
+            // BT.601 full range, 10 bit fixed point
+            *out++ = clamp_u8(luma + ((1436 * v) >> 10));
+            *out++ = clamp_u8(luma - ((352 * u + 731 * v) >> 10));
+            *out++ = clamp_u8(luma + ((1815 * u) >> 10));
+        }
+    }
+
+    return 0;
+}
@@ -0,0 +1,61 @@
+#ifndef YUV_TO_RGB_H
+#define YUV_TO_RGB_H
+
+#include <stddef.h>
+#include <stdint.h>
+
+// One YUV_420_888 frame as handed over by CameraX (ImageProxy planes).
+// The U and V planes may be interleaved (uv_pixel_stride == 2) or planar (== 1).
+typedef struct {
+    const uint8_t *y;
+    const uint8_t *u;
+    const uint8_t *v;
+    int width;
+    int height;
+    int y_row_stride;
+    int uv_row_stride;
+    int uv_pixel_stride;
+} yuv_frame_t;
+
+// Region of interest, normalized to 0..1 in upright (rotated) image coordinates
+typedef struct {
+    float left;
+    float top;
+    float right;
+    float bottom;
+} roi_t;
+
+// Pixel window of an upright image
+typedef struct {
+    int x;
+    int y;
+    int width;
+    int height;
+} crop_window_t;
+
+// Pixel window of the region of interest (whole image if roi is null) in an upright
+// width x height image, clamped to the image. Never empty for a non-empty image.
+crop_window_t region_window_for(int width, int height, const roi_t *roi);
+
+// Window of an upright width x height image that ends up in a dst_width x dst_height
+// output: region_window_for(roi) center cropped to the output aspect ratio.
+crop_window_t crop_window_for(int width, int height, const roi_t *roi, int dst_width, int dst_height);
+
+// The same pixels as the upright window, in a sensor_width x sensor_height frame that is
+// rotated clockwise by rotation_degrees (0/90/180/270) to be upright
+crop_window_t sensor_window_for(const crop_window_t *upright, int sensor_width, int sensor_height,
+                                int rotation_degrees);
+
+// Convert, rotate (clockwise, 0/90/180/270), crop to crop_window_for(roi) and resize a
+// YUV_420_888 frame into an RGB888 buffer of dst_width x dst_height, all in a single
+// pass over the output pixels. roi may be null for the whole frame.
+// Returns 0 on success, -1 on invalid arguments.
+int yuv420_to_rgb888_crop_resize(
+        const yuv_frame_t *frame,
+        int rotation_degrees,
+        const roi_t *roi,
+        uint8_t *dst,
+        int dst_width,
+        int dst_height);
+
+#endif // YUV_TO_RGB_H
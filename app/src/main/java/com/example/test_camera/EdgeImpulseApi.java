@@ -0,0 +1,38 @@
+package com.example.test_camera;
+
+import android.content.Context;
+
+import com.example.test_camera.api.SessionStore;
+import com.example.test_camera.api.StudioClient;
+
+import java.io.File;
+
+/** App-wide {@link StudioClient} and {@link SessionStore}, created on first use */
+public final class EdgeImpulseApi {
+
+    private static final String CACHE_DIR = "http";
+    private static final String SESSION_FILE = "session.bin";
+    private static final String SESSION_KEY_ALIAS = "session";
+    private static StudioClient client;
+    private static SessionStore session;
+
+    private EdgeImpulseApi() {
+    }
+
+    public static synchronized StudioClient get(Context context) {
+        if (client == null) {
+            File cacheDir = new File(context.getApplicationContext().getCacheDir(), CACHE_DIR);
+            client = new StudioClient.Builder(cacheDir).build();
+        }
+        return client;
+    }
+
+    /** JWT, projects and API keys of the last session, encrypted in the app's files */
+    public static synchronized SessionStore session(Context context) {
+        if (session == null) {
+            File file = new File(context.getApplicationContext().getFilesDir(), SESSION_FILE);
+            session = new SessionStore(file, new KeystoreSecretBox(SESSION_KEY_ALIAS), System::currentTimeMillis);
+        }
+        return session;
+    }
+}
@@ -1,25 +1,45 @@
 package com.example.test_camera;
 
 import android.content.Context;
-import android.os.StrictMode;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import android.widget.Toast;
 
+import com.example.test_camera.api.StudioClient;
+import com.example.test_camera.metrics.PipelineMetrics;
+import com.example.test_camera.upload.UploadQueue;
+
 import java.io.File;
 import java.io.IOException;
-
-import okhttp3.*;
+import java.util.List;
 
 public class EdgeImpulseUploader {
 
     private static final String TAG = "EdgeImpulseUploader";
-    private static final String API_URL = "https://ingestion.edgeimpulse.com/api/training/files";
+    private static final String API_PATH = "/api/training/files";
+    private static final String QUEUE_DIR = "upload-queue";
+    // Keystore key sealing the API key in every queued entry
+    private static final String QUEUE_KEY_ALIAS = "upload-queue";
+    private static final int UPLOAD_WORKERS = 2;
+    // Up to 50 files or 8 MB per request, or whatever was captured within 3 s
+    private static final int BATCH_MAX_FILES = 50;
+    private static final long BATCH_MAX_BYTES = 8 * 1024 * 1024;
+    private static final long BATCH_DELAY_MS = 3000;
+
+    private static UploadQueue queue;
+
+    /** Queue and start uploads left over from an earlier run; the scan runs in the background */
+    public static void resumePendingUploads(Context context) {
+        getQueue(context);
+    }
 
     public void uploadImage(String filePath, String label, Context context, String apiKey) {
-        // Allow network on main thread if needed (better to move to background thread in production)
-        StrictMode.ThreadPolicy policy = new StrictMode.ThreadPolicy.Builder().permitAll().build();
-        StrictMode.setThreadPolicy(policy);
+        uploadImage(filePath, "image/png", label, context, apiKey);
+    }
 
+    // Queue the image for upload; returns at once, the upload runs in the background
+    public void uploadImage(String filePath, String contentType, String label, Context context, String apiKey) {
         File imageFile = new File(filePath);
         if (!imageFile.exists()) {
             Toast.makeText(context, "File not found!", Toast.LENGTH_SHORT).show();
@@ -27,32 +47,58 @@ public class EdgeImpulseUploader {
             return;
         }
 
-        OkHttpClient client = new OkHttpClient();
-
-        RequestBody fileBody = RequestBody.create(imageFile, MediaType.parse("image/png"));
-        MultipartBody requestBody = new MultipartBody.Builder()
-                .setType(MultipartBody.FORM)
-                .addFormDataPart("data", imageFile.getName(), fileBody)
-                .build();
-
-        Request request = new Request.Builder()
-                .url(API_URL)
-                .addHeader("x-label", label)
-                .addHeader("x-api-key", apiKey)  // ✅ dynamic API key
-                .post(requestBody)
-                .build();
-
-        try (Response response = client.newCall(request).execute()) {
-            if (response.isSuccessful()) {
-                Log.d(TAG, "Uploaded successfully: " + response.code());
-                Toast.makeText(context, "Uploaded successfully!", Toast.LENGTH_SHORT).show();
-            } else {
-                Log.e(TAG, "Upload failed: " + response.code() + " " + response.message());
-                Toast.makeText(context, "Upload failed: " + response.message(), Toast.LENGTH_SHORT).show();
-            }
-        } catch (IOException e) {
-            Log.e(TAG, "IOException: ", e);
-            Toast.makeText(context, "Network error: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+        // Moving the file and sealing the key happen on the queue's intake thread
+        Context appContext = context.getApplicationContext();
+        getQueue(context).enqueueAsync(imageFile, label, apiKey, contentType).whenComplete((entry, error) -> {
+            if (error == null) return;
+            Log.e(TAG, "Cannot queue " + filePath, error);
+            new Handler(Looper.getMainLooper()).post(() ->
+                    Toast.makeText(appContext, "Upload failed: " + error.getMessage(), Toast.LENGTH_SHORT).show());
+        });
+    }
+
+    private static synchronized UploadQueue getQueue(Context context) {
+        if (queue == null) {
+            Context appContext = context.getApplicationContext();
+            Handler mainHandler = new Handler(Looper.getMainLooper());
+
+            // The app-wide client, uploads share its connection pool with the studio calls
+            StudioClient api = EdgeImpulseApi.get(appContext);
+            queue = new UploadQueue.Builder(
+                    new File(appContext.getFilesDir(), QUEUE_DIR), api.httpClient(), api.ingestionUrl(API_PATH))
+                    .workers(UPLOAD_WORKERS)
+                    .batch(BATCH_MAX_FILES, BATCH_MAX_BYTES, BATCH_DELAY_MS)
+                    .metrics(PipelineMetrics.shared)
+                    .secretBox(new KeystoreSecretBox(QUEUE_KEY_ALIAS))
+                    .listener(new UploadQueue.Listener() {
+                        @Override
+                        public void onUploaded(List<UploadQueue.Entry> entries, int code) {
+                            Log.d(TAG, "Uploaded " + entries.size() + " files: " + code);
+                            mainHandler.post(() ->
+                                    Toast.makeText(appContext, "Uploaded " + entries.size() + " samples", Toast.LENGTH_SHORT).show());
+                        }
+
+                        @Override
+                        public void onFailed(UploadQueue.Entry entry, String reason) {
+                            Log.e(TAG, "Upload failed: " + reason);
+                            mainHandler.post(() ->
+                                    Toast.makeText(appContext, "Upload failed: " + reason, Toast.LENGTH_SHORT).show());
+                        }
+
+                        @Override
+                        public void onCredentialsRejected(String apiKey, int code) {
+                            // Not used for a warm start again, the next start selects a project anew
+                            Log.w(TAG, "API key rejected: " + code);
+                            try {
+                                EdgeImpulseApi.session(appContext).removeApiKey(apiKey);
+                            } catch (IOException e) {
+                                Log.w(TAG, "Cannot update the session", e);
+                            }
+                        }
+                    })
+                    .build();
+            queue.start();
         }
+        return queue;
     }
 }
@@ -0,0 +1,190 @@
+package com.example.test_camera
+
+/**
+ * Keeps the analysis pipeline inside its budget on a phone that heats up.
+ *
+ * Works on a ladder of [levels], each of a lower resolution than the one before. The
+ * resolution only changes what it costs to get a frame into the model, so only that cost
+ * moves the level: every result feeds its Timing.conversion_us (per tile of a tiled
+ * result) into an average, the governor steps one level down when that average stayed
+ * above [conversionBudgetUs] for [stepDownAfter] results, and one level up when it stayed
+ * below half the budget for [stepUpAfterMs]. The device thermal status
+ * (PowerManager.THERMAL_STATUS_*) puts a floor under the level and scales the frame rate
+ * down, so a throttling phone backs off before the latency shows it.
+ *
+ * The model's own cost (dsp_us + classification_us + anomaly_us, summed over the tiles) is
+ * the same at every level; it only limits the frame rate. Within a level, frames are
+ * skipped so no more are analyzed than the level's frame rate and the measured throughput
+ * allow ([shouldProcess]). Level changes go to [onLevelChanged], which is expected to
+ * reconfigure the camera (resolution, sensor frame rate).
+ *
+ * [shouldProcess] may be called from the analyzer thread, everything else from one thread
+ * (the main thread in the app).
+ */
+class FrameGovernor(
+    private val levels: List<Level>,
+    private val conversionBudgetUs: Long,
+    private val workers: Int,
+    private val stepDownAfter: Int = 5,
+    private val stepUpAfterMs: Long = 15_000L,
+    private val onLevelChanged: (Level) -> Unit
+) {
+
+    /** One operating point: analysis resolution and the most frames per second to analyze */
+    data class Level(val width: Int, val height: Int, val maxFps: Int)
+
+    /** Snapshot for logging */
+    data class Stats(
+        val level: Int,
+        val targetFps: Float,
+        val latencyUs: Float,     // averaged per-frame model latency
+        val classificationUs: Float,
+        val conversionUs: Float,  // averaged per tile
+        val thermalStatus: Int,
+        val analyzedFrames: Long,
+        val skippedFrames: Long   // skipped by the frame rate limit
+    )
+
+    init {
+        require(levels.isNotEmpty()) { "levels must not be empty" }
+        require(levels.zipWithNext().all { (a, b) -> b.width * b.height < a.width * a.height }) {
+            "every level must have a lower resolution than the one before"
+        }
+        require(conversionBudgetUs > 0) { "conversionBudgetUs must be positive" }
+        require(workers > 0) { "workers must be positive" }
+    }
+
+    private var levelIndex = 0
+    private var thermalStatus = THERMAL_STATUS_NONE
+    private var latencyUs = Float.NaN
+    private var conversionUs = Float.NaN
+    private var classificationUs = Float.NaN
+    private var overBudgetResults = 0
+    private var underBudgetSinceMs = -1L
+    private var levelChangedAtMs = 0L
+
+    // Written here, read by shouldProcess on the analyzer thread
+    @Volatile private var minFrameIntervalNs = 1_000_000_000L / levels[0].maxFps
+    @Volatile private var targetFps = levels[0].maxFps.toFloat()
+
+    // Only touched by shouldProcess
+    private var lastFrameTimestampNs = Long.MIN_VALUE
+    @Volatile private var analyzedFrames = 0L
+    @Volatile private var skippedFrames = 0L
+
+    val level: Level
+        get() = levels[levelIndex]
+
+    /** Whether the frame with camera timestamp [frameTimestampNs] should be analyzed */
+    fun shouldProcess(frameTimestampNs: Long): Boolean {
+        // Small tolerance so camera jitter does not skip every other frame at the full rate
+        if (lastFrameTimestampNs != Long.MIN_VALUE &&
+            frameTimestampNs - lastFrameTimestampNs < minFrameIntervalNs - minFrameIntervalNs / 8
+        ) {
+            skippedFrames++
+            return false
+        }
+        lastFrameTimestampNs = frameTimestampNs
+        analyzedFrames++
+        return true
+    }
+
+    /** Feed the native timing of one result; [nowMs] is a monotonic clock */
+    fun onResult(timing: Timing, nowMs: Long) {
+        val frameUs = (timing.dsp_us + timing.classification_us + timing.anomaly_us).toFloat()
+        if (frameUs <= 0f) return // reused by the native change gate, nothing was measured
+        latencyUs = average(latencyUs, frameUs)
+        classificationUs = average(classificationUs, timing.classification_us.toFloat())
+        conversionUs = average(conversionUs, timing.conversion_us.toFloat() / timing.tiles.coerceAtLeast(1))
+
+        if (conversionUs > conversionBudgetUs) {
+            underBudgetSinceMs = -1L
+            if (++overBudgetResults >= stepDownAfter && levelIndex < levels.size - 1) {
+                changeLevel(levelIndex + 1, nowMs)
+                return
+            }
+        } else {
+            overBudgetResults = 0
+            if (conversionUs < conversionBudgetUs / 2f) {
+                if (underBudgetSinceMs < 0) underBudgetSinceMs = nowMs
+                if (levelIndex > thermalFloor() && !thermalHot() &&
+                    nowMs - underBudgetSinceMs >= stepUpAfterMs &&
+                    nowMs - levelChangedAtMs >= stepUpAfterMs
+                ) {
+                    changeLevel(levelIndex - 1, nowMs)
+                    return
+                }
+            } else {
+                underBudgetSinceMs = -1L
+            }
+        }
+        updateFrameRate()
+    }
+
+    /** Feed a PowerManager.THERMAL_STATUS_* change */
+    fun onThermalStatus(status: Int, nowMs: Long) {
+        thermalStatus = status
+        val floor = thermalFloor()
+        if (levelIndex < floor) {
+            changeLevel(floor, nowMs)
+        } else {
+            updateFrameRate()
+        }
+    }
+
+    fun stats(): Stats {
+        return Stats(
+            levelIndex, targetFps, latencyUs, classificationUs, conversionUs, thermalStatus,
+            analyzedFrames, skippedFrames
+        )
+    }
+
+    private fun changeLevel(index: Int, nowMs: Long) {
+        levelIndex = index
+        levelChangedAtMs = nowMs
+        overBudgetResults = 0
+        underBudgetSinceMs = -1L
+        // Conversion depends on the resolution, start measuring again; the model cost does not
+        conversionUs = Float.NaN
+        updateFrameRate()
+        onLevelChanged(levels[index])
+    }
+
+    private fun updateFrameRate() {
+        var fps = levels[levelIndex].maxFps * THERMAL_FPS_SCALE[thermalStatus.coerceIn(0, THERMAL_FPS_SCALE.size - 1)]
+        if (!latencyUs.isNaN()) {
+            // Workers overlap conversion and DSP, but the interpreter runs one frame at a time
+            var capacity = workers * 1_000_000f / latencyUs
+            if (classificationUs > 0f) capacity = minOf(capacity, 1_000_000f / classificationUs)
+            fps = minOf(fps, capacity * CAPACITY_HEADROOM)
+        }
+        fps = maxOf(fps, MIN_FPS)
+        targetFps = fps
+        minFrameIntervalNs = (1_000_000_000f / fps).toLong()
+    }
+
+    private fun thermalFloor(): Int {
+        return (thermalStatus - THERMAL_STATUS_LIGHT).coerceIn(0, levels.size - 1)
+    }
+
+    private fun thermalHot(): Boolean = thermalStatus >= THERMAL_STATUS_MODERATE
+
+    private fun average(current: Float, sample: Float): Float {
+        return if (current.isNaN()) sample else current + LATENCY_ALPHA * (sample - current)
+    }
+
+    companion object {
+        // Same values as PowerManager.THERMAL_STATUS_*, kept here so this class stays plain JVM
+        const val THERMAL_STATUS_NONE = 0
+        const val THERMAL_STATUS_LIGHT = 1
+        const val THERMAL_STATUS_MODERATE = 2
+        const val THERMAL_STATUS_SEVERE = 3
+
+        private const val LATENCY_ALPHA = 0.2f
+        // Analyze a bit below the measured throughput so frames do not queue up
+        private const val CAPACITY_HEADROOM = 0.9f
+        private const val MIN_FPS = 1f
+        // Indexed by thermal status: none, light, moderate, severe, critical, emergency, shutdown
+        private val THERMAL_FPS_SCALE = floatArrayOf(1f, 1f, 0.75f, 0.5f, 0.25f, 0.25f, 0.25f)
+    }
+}
@@ -0,0 +1,181 @@
+package com.example.test_camera
+
+import java.util.concurrent.Executor
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Sits between ImageAnalysis and the classifier.
+ *
+ * At most [maxInFlight] frames are processed at once. While all slots are busy only the
+ * newest waiting frame is kept (keep-latest), older waiting frames are released unprocessed.
+ * Every frame that starts processing gets the next sequence number. Results are handed to
+ * [onResult] on [resultExecutor] strictly in sequence order: a frame that finishes early
+ * waits for the frames started before it, so an older result never overwrites a newer one.
+ *
+ * [release] is called exactly once per submitted frame, after processing or when dropped.
+ * A frame whose [process] throws, even an Error, still frees its slot and its sequence
+ * number, so later results are not held back behind it.
+ *
+ * Up to maxInFlight + 1 frames are held open at once. Give the producer at least one image
+ * more than that (e.g. ImageAnalysis.setImageQueueDepth(maxInFlight + 2)) so it never
+ * blocks and a newer frame can always replace the waiting one.
+ */
+class FrameScheduler<F, R>(
+    private val maxInFlight: Int,
+    private val executor: Executor,
+    private val resultExecutor: Executor,
+    private val process: (F) -> R,
+    private val release: (F) -> Unit,
+    private val onResult: (sequence: Long, result: R) -> Unit
+) {
+
+    /** Snapshot of the scheduler counters */
+    data class Stats(
+        val inFlight: Int,
+        val queueDepth: Int,      // frames in flight plus the waiting one
+        val submittedFrames: Long,
+        val processedFrames: Long,
+        val droppedFrames: Long,  // replaced by a newer frame before processing started
+        val reorderedResults: Long, // finished before an older frame and had to wait for it
+        val failedFrames: Long    // process threw (an Error is also rethrown)
+    )
+
+    private val lock = Any()
+    private var inFlight = 0
+    private var pendingFrame: F? = null
+    private var nextSequence = 0L
+
+    // Only touched on resultExecutor: finished results waiting for an older frame
+    private val finishedResults = HashMap<Long, Any?>()
+    private var nextDeliverySequence = 0L
+
+    private val submittedFrames = AtomicLong()
+    private val processedFrames = AtomicLong()
+    private val droppedFrames = AtomicLong()
+    private val reorderedResults = AtomicLong()
+    private val failedFrames = AtomicLong()
+
+    init {
+        require(maxInFlight > 0) { "maxInFlight must be positive" }
+    }
+
+    fun submit(frame: F) {
+        submittedFrames.incrementAndGet()
+
+        var replaced: F? = null
+        var sequence = -1L
+        synchronized(lock) {
+            if (inFlight < maxInFlight) {
+                inFlight++
+                sequence = nextSequence++
+            } else {
+                replaced = pendingFrame
+                pendingFrame = frame
+            }
+        }
+
+        replaced?.let {
+            droppedFrames.incrementAndGet()
+            release(it)
+        }
+        if (sequence >= 0) {
+            dispatch(frame, sequence)
+        }
+    }
+
+    fun stats(): Stats {
+        synchronized(lock) {
+            return Stats(
+                inFlight = inFlight,
+                queueDepth = inFlight + if (pendingFrame != null) 1 else 0,
+                submittedFrames = submittedFrames.get(),
+                processedFrames = processedFrames.get(),
+                droppedFrames = droppedFrames.get(),
+                reorderedResults = reorderedResults.get(),
+                failedFrames = failedFrames.get()
+            )
+        }
+    }
+
+    // Release the waiting frame, if any (e.g. when the camera is unbound)
+    fun clear() {
+        val frame: F?
+        synchronized(lock) {
+            frame = pendingFrame
+            pendingFrame = null
+        }
+        frame?.let {
+            droppedFrames.incrementAndGet()
+            release(it)
+        }
+    }
+
+    private fun dispatch(frame: F, sequence: Long) {
+        executor.execute {
+            var frameToRun: F? = frame
+            var sequenceToRun = sequence
+
+            // Keep this slot busy as long as frames are waiting
+            while (frameToRun != null) {
+                try {
+                    run(frameToRun, sequenceToRun)
+                } catch (e: Throwable) {
+                    // Only Errors get here; the slot must not stay taken forever
+                    synchronized(lock) { inFlight-- }
+                    throw e
+                }
+
+                synchronized(lock) {
+                    frameToRun = pendingFrame
+                    pendingFrame = null
+                    if (frameToRun == null) {
+                        inFlight--
+                    } else {
+                        sequenceToRun = nextSequence++
+                    }
+                }
+            }
+        }
+    }
+
+    private fun run(frame: F, sequence: Long) {
+        var result: Any? = FAILED
+        try {
+            result = process(frame)
+            processedFrames.incrementAndGet()
+        } catch (e: Exception) {
+            // Counted below, an Error goes on up to the executor
+        } finally {
+            if (result === FAILED) {
+                failedFrames.incrementAndGet()
+            }
+            try {
+                release(frame)
+            } finally {
+                resultExecutor.execute { deliverInOrder(sequence, result) }
+            }
+        }
+    }
+
+    // Runs on resultExecutor
+    private fun deliverInOrder(sequence: Long, result: Any?) {
+        if (sequence != nextDeliverySequence) {
+            reorderedResults.incrementAndGet()
+        }
+        finishedResults[sequence] = result
+
+        while (finishedResults.containsKey(nextDeliverySequence)) {
+            val next = finishedResults.remove(nextDeliverySequence)
+            if (next !== FAILED) {
+                @Suppress("UNCHECKED_CAST")
+                onResult(nextDeliverySequence, next as R)
+            }
+            nextDeliverySequence++
+        }
+    }
+
+    private companion object {
+        // Marks a sequence whose frame failed, so later results are not held back by it
+        val FAILED = Any()
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.test_camera
+
+/**
+ * Result of one inference, built by native code from primitive arrays only.
+ * Classification scores are indexed like the label table from getLabels(), boxes are
+ * packed as [BOX_STRIDE] floats each (see the BOX_* offsets). Box coordinates are
+ * normalized to the whole upright camera frame (0..1), also when only a region of interest
+ * was classified. Values a model does not produce are null / NaN.
+ */
+class InferenceResult(
+    @JvmField val classification: FloatArray?,       // Scores, one per label
+    @JvmField val objectDetections: FloatArray?,     // Packed object detection boxes
+    @JvmField val visualAnomalyGridCells: FloatArray?, // Packed visual anomaly grid cells
+    @JvmField val anomaly: Float,                    // Anomaly score
+    @JvmField val visualAnomalyMax: Float,           // Visual anomaly max value
+    @JvmField val visualAnomalyMean: Float,          // Visual anomaly mean value
+    @JvmField val timing: Timing                     // Timing information
+) {
+    companion object {
+        const val BOX_X = 0
+        const val BOX_Y = 1
+        const val BOX_WIDTH = 2
+        const val BOX_HEIGHT = 3
+        const val BOX_CONFIDENCE = 4
+        const val BOX_LABEL = 5 // index into the label table, -1 for visual anomaly cells
+        const val BOX_STRIDE = 6
+    }
+}
+
+data class Timing(
+    val sampling: Int,
+    val dsp: Int,
+    val classification: Int,
+    val anomaly: Int,
+    val dsp_us: Long,
+    val classification_us: Long,
+    val anomaly_us: Long,
+    val conversion_us: Long = 0L, // frame conversion, crop and resize
+    val marshal_us: Long = 0L,    // building this result in native code
+    val tiles: Int = 1            // inferences summed in the other fields, see NativeClassifier.configureTiling
+)
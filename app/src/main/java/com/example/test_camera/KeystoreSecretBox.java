@@ -0,0 +1,80 @@
+package com.example.test_camera;
+
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyProperties;
+
+import com.example.test_camera.api.SessionStore;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * AES-GCM with a key that never leaves the Android keystore. Output is
+ * [iv length][iv][ciphertext + tag]; the IV is picked by the keystore on every seal.
+ */
+final class KeystoreSecretBox implements SessionStore.SecretBox {
+
+    private static final String KEYSTORE = "AndroidKeyStore";
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int TAG_BITS = 128;
+
+    private final String alias;
+    private SecretKey key;
+
+    KeystoreSecretBox(String alias) {
+        this.alias = alias;
+    }
+
+    @Override
+    public byte[] seal(byte[] plain) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.ENCRYPT_MODE, key());
+        byte[] iv = cipher.getIV();
+        byte[] sealed = cipher.doFinal(plain);
+        return ByteBuffer.allocate(1 + iv.length + sealed.length)
+                .put((byte) iv.length).put(iv).put(sealed)
+                .array();
+    }
+
+    @Override
+    public byte[] open(byte[] sealed) throws GeneralSecurityException {
+        if (sealed.length < 1 || sealed[0] <= 0 || sealed.length < 1 + sealed[0]) {
+            throw new GeneralSecurityException("Truncated data");
+        }
+        int ivLength = sealed[0];
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.DECRYPT_MODE, key(), new GCMParameterSpec(TAG_BITS, sealed, 1, ivLength));
+        return cipher.doFinal(sealed, 1 + ivLength, sealed.length - 1 - ivLength);
+    }
+
+    private synchronized SecretKey key() throws GeneralSecurityException {
+        if (key != null) return key;
+        KeyStore keyStore = KeyStore.getInstance(KEYSTORE);
+        try {
+            keyStore.load(null);
+        } catch (IOException e) {
+            throw new GeneralSecurityException("Keystore unavailable", e);
+        }
+        KeyStore.Entry entry = keyStore.getEntry(alias, null);
+        if (entry instanceof KeyStore.SecretKeyEntry) {
+            key = ((KeyStore.SecretKeyEntry) entry).getSecretKey();
+        } else {
+            KeyGenerator generator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, KEYSTORE);
+            generator.init(new KeyGenParameterSpec.Builder(alias,
+                    KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+                    .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
+                    .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
+                    .setKeySize(256)
+                    .build());
+            key = generator.generateKey();
+        }
+        return key;
+    }
+}
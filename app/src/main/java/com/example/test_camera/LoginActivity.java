@@ -7,13 +7,15 @@ import android.content.Intent;
 import android.graphics.drawable.Drawable;
 import android.os.Bundle;
 import android.text.InputType;
+import android.util.Log;
 import android.view.MotionEvent;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.LinearLayout;
 import android.widget.Toast;
 
-import org.json.JSONObject;
+import com.example.test_camera.api.SessionStore;
+import com.example.test_camera.api.StudioResponses;
 
 import java.io.IOException;
 
@@ -21,6 +23,8 @@ import okhttp3.*;
 
 public class LoginActivity extends AppCompatActivity {
 
+    private static final String TAG = "LoginActivity";
+
     private EditText usernameInput, passwordInput;
     private Button loginButton;
     private boolean passwordVisible = false;
@@ -29,6 +33,11 @@ public class LoginActivity extends AppCompatActivity {
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
+        // Continue uploads queued before the app was closed
+        EdgeImpulseUploader.resumePendingUploads(this);
+
+        if (warmStart()) return;
+
         // === Build simple UI programmatically ===
         LinearLayout layout = new LinearLayout(this);
         layout.setOrientation(LinearLayout.VERTICAL);
@@ -74,6 +83,23 @@ public class LoginActivity extends AppCompatActivity {
         loginButton.setOnClickListener(v -> doLogin());
     }
 
+    /**
+     * Returning user: go straight to sampling with the stored API key and revalidate the
+     * session in the background, instead of three round trips before the camera starts.
+     */
+    private boolean warmStart() {
+        SessionStore session = EdgeImpulseApi.session(this);
+        String apiKey = session.warmStartApiKey(SessionRefresher.MAX_STALE_MS);
+        if (apiKey == null) return false;
+
+        SessionRefresher.refresh(EdgeImpulseApi.get(this), session);
+        Intent intent = new Intent(this, Sampling.class);
+        intent.putExtra("API_KEY", apiKey);
+        startActivity(intent);
+        finish();
+        return true;
+    }
+
     /** Toggle password visibility when user taps the eye icon */
     private void togglePasswordVisibility(EditText editText) {
         int start = editText.getSelectionStart();
@@ -111,24 +137,8 @@ public class LoginActivity extends AppCompatActivity {
 
         Toast.makeText(this, "Logging in...", Toast.LENGTH_SHORT).show();
 
-        OkHttpClient client = new OkHttpClient();
-        JSONObject payload = new JSONObject();
-        try {
-            payload.put("username", username);
-            payload.put("password", password);
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-
-        RequestBody body = RequestBody.create(
-                payload.toString(), MediaType.parse("application/json"));
-
-        Request request = new Request.Builder()
-                .url("https://studio.edgeimpulse.com/v1/api-login")
-                .post(body)
-                .build();
-
-        client.newCall(request).enqueue(new Callback() {
+        // Shared client: the connection opened here is reused by the next screens
+        EdgeImpulseApi.get(this).login(username, password).enqueue(new Callback() {
             @Override
             public void onFailure(Call call, IOException e) {
                 runOnUiThread(() ->
@@ -136,12 +146,17 @@ public class LoginActivity extends AppCompatActivity {
             }
 
             @Override
-            public void onResponse(Call call, Response response) throws IOException {
-                String respStr = response.body().string();
-                try {
-                    JSONObject json = new JSONObject(respStr);
-                    if (json.optBoolean("success")) {
-                        String jwt = json.optString("token");
+            public void onResponse(Call call, Response response) {
+                try (Response r = response) {
+                    StudioResponses.Result<String> result = StudioResponses.readLogin(r.body().charStream());
+                    if (result.success && result.value != null) {
+                        String jwt = result.value;
+                        try {
+                            EdgeImpulseApi.session(LoginActivity.this).putJwt(jwt);
+                        } catch (IOException e) {
+                            // Only costs the warm start next time
+                            Log.w(TAG, "Cannot store session: " + e.getMessage());
+                        }
                         runOnUiThread(() -> {
                             Toast.makeText(LoginActivity.this, "Login successful!", Toast.LENGTH_SHORT).show();
                             Intent intent = new Intent(LoginActivity.this, ProjectSelectActivity.class);
@@ -150,11 +165,11 @@ public class LoginActivity extends AppCompatActivity {
                             finish();
                         });
                     } else {
-                        String error = json.optString("error", "Login failed");
+                        String error = result.error != null ? result.error : "Login failed";
                         runOnUiThread(() ->
                                 Toast.makeText(LoginActivity.this, error, Toast.LENGTH_LONG).show());
                     }
-                } catch (Exception e) {
+                } catch (IOException | IllegalStateException e) {
                     e.printStackTrace();
                 }
             }
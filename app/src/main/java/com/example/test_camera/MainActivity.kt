@@ -3,8 +3,13 @@ package com.example.test_camera
 import android.annotation.SuppressLint
 import android.graphics.Bitmap
 import android.graphics.BitmapFactory
-import android.graphics.Matrix
+import android.graphics.ImageFormat
+import android.hardware.camera2.CameraCharacteristics
+import android.hardware.camera2.CaptureRequest
+import android.os.Build
 import android.os.Bundle
+import android.os.PowerManager
+import android.os.SystemClock
 import android.util.Log
 import android.Manifest
 import android.widget.TextView
@@ -12,53 +17,102 @@ import androidx.activity.ComponentActivity
 import androidx.camera.core.*
 import androidx.camera.lifecycle.ProcessCameraProvider
 import androidx.camera.view.PreviewView
+import androidx.camera.view.TransformExperimental
+import androidx.camera.view.transform.CoordinateTransform
+import androidx.camera.view.transform.ImageProxyTransformFactory
+import androidx.camera.view.transform.OutputTransform
 import androidx.core.content.ContextCompat
-import androidx.lifecycle.lifecycleScope
 import com.example.test_camera.databinding.ActivityMainBinding
-import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.launch
+import java.io.File
+import java.io.IOException
+import java.util.Arrays
 import java.util.concurrent.ExecutorService
 import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
 import android.content.Context
 import android.content.pm.PackageManager
 import android.graphics.Canvas
+import android.graphics.Matrix
 import android.graphics.Color
 import android.graphics.Paint
-import android.graphics.Rect
 import android.widget.LinearLayout
 import android.util.AttributeSet
+import android.util.Range
+import android.util.Size
 import android.view.View
+import androidx.annotation.OptIn
+import androidx.camera.camera2.interop.Camera2CameraInfo
+import androidx.camera.camera2.interop.Camera2Interop
+import androidx.camera.camera2.interop.ExperimentalCamera2Interop
+import androidx.camera.core.resolutionselector.ResolutionSelector
+import androidx.camera.core.resolutionselector.ResolutionStrategy
 import androidx.core.app.ActivityCompat
+import com.example.test_camera.decision.DecisionStage
+import com.example.test_camera.decision.EmaDecision
+import com.example.test_camera.decision.HysteresisDecision
+import com.example.test_camera.journal.ResultJournal
+import com.example.test_camera.metrics.MetricsExporter
+import com.example.test_camera.metrics.MetricsFormatter
+import com.example.test_camera.metrics.PipelineMetrics
+import com.example.test_camera.pipeline.BoxCanvas
+import com.example.test_camera.pipeline.BoxRenderer
+import com.example.test_camera.pipeline.FrameConversion
+import com.example.test_camera.pipeline.ResultTextFormatter
+import com.example.test_camera.pipeline.ViewportMapping
+import kotlin.math.abs
 
-data class InferenceResult(
-    val classification: Map<String, Float>?,   // Classification labels and values
-    val objectDetections: List<BoundingBox>?,  // Object detection results
-    val visualAnomalyGridCells: List<BoundingBox>?, // Visual anomaly grid
-    val anomalyResult: Map<String, Float>?, // Anomaly values
-    val timing: Timing  // Timing information
-)
+private const val CAMERA_PERMISSION_REQUEST_CODE = 1001
 
-data class BoundingBox(
-    val label: String,
-    val confidence: Float,
-    val x: Int,
-    val y: Int,
-    val width: Int,
-    val height: Int
+// Skip inference while the belt stands still; a full run at least once a second at 30 fps
+private val CHANGE_GATE = ChangeGateConfig(enabled = true, cellThreshold = 8, changedFraction = 0.02f, maxSkippedFrames = 30)
+
+// Log the frame scheduler counters every this many results
+private const val STATS_LOG_INTERVAL = 100L
+
+// Frames classified at once. The SDK runs every context on its one static interpreter
+// behind a native lock, more threads would only queue on it.
+private const val INFERENCE_THREADS = 1
+private const val INFERENCE_CLOSE_TIMEOUT_MS = 2000L
+
+// Result journal: about an hour at 30 fps, boxes beyond JOURNAL_MAX_BOXES are only counted
+private const val JOURNAL_FILE = "results.journal"
+private const val JOURNAL_CAPACITY = 100_000
+private const val JOURNAL_MAX_BOXES = 16
+
+// Tiles across the inspection zone; 1 scales the zone down as a whole. More columns find
+// smaller defects at the cost of one inference per tile, the governor lowers the frame rate.
+private val TILING = TilingConfig(columns = 1, overlap = 0.25f, iouThreshold = 0.5f)
+
+// Frame governor ladder, cheapest last, every step a lower resolution. The model input is
+// far smaller than any of these, a lower resolution mainly saves conversion and resizing work.
+private val GOVERNOR_LEVELS = listOf(
+    FrameGovernor.Level(640, 480, 30),
+    FrameGovernor.Level(480, 360, 20),
+    FrameGovernor.Level(352, 288, 15),
+    FrameGovernor.Level(320, 240, 10),
+    FrameGovernor.Level(176, 144, 5)
 )
-
-data class Timing(
-    val sampling: Int,
-    val dsp: Int,
-    val classification: Int,
-    val anomaly: Int,
-    val dsp_us: Long,
-    val classification_us: Long,
-    val anomaly_us: Long
+// Conversion, crop and resize time per frame (per tile) the governor keeps below; the
+// model's own time only lowers the frame rate
+private const val CONVERSION_BUDGET_US = 8_000L
+
+// Inspection zone, kept across restarts
+private const val ROI_PREFS = "inspection_zone"
+
+// Pipeline metrics: dumped to files/metrics every 10 s, debug overlay refreshed every second
+private const val METRICS_DIR = "metrics"
+private const val METRICS_EXPORT_INTERVAL_MS = 10_000L
+private const val METRICS_OVERLAY_INTERVAL_MS = 1_000L
+
+// Classified frame, when it was classified (wall clock) and captured (camera timestamp),
+// and when its classification started (System.nanoTime)
+private class ClassifiedFrame(
+    val result: InferenceResult,
+    val timestampMs: Long,
+    val frameTimestampNs: Long,
+    val startNs: Long
 )
 
-private const val CAMERA_PERMISSION_REQUEST_CODE = 1001
-
 class BoundingBoxOverlay(context: Context, attrs: AttributeSet? = null) : View(context, attrs) {
 
     private val paint = Paint().apply {
@@ -79,38 +133,68 @@ class BoundingBoxOverlay(context: Context, attrs: AttributeSet? = null) : View(c
         alpha = 60 // Adjust transparency
     }
 
-    var boundingBoxes: List<BoundingBox> = emptyList()
-        set(value) {
-            field = value
-            invalidate() // Redraw when new bounding boxes are set
-        }
+    private var boxes: FloatArray? = null
+    private var labels: Array<String> = emptyArray()
+    private var verdict: Boolean? = null
+
+    /**
+     * Style the boxes by the decision stage's verdict over recent frames rather than by the
+     * single frame they come from: red while it says anomaly, green and fainter while it
+     * says normal, red as well when there is no verdict (the model has no anomaly classes).
+     */
+    fun setVerdict(verdict: Boolean?) {
+        if (verdict == this.verdict) return
+        this.verdict = verdict
+        val color = if (verdict == false) Color.GREEN else Color.RED
+        paint.color = color
+        anomalyPaint.color = color
+        anomalyPaint.alpha = if (verdict == false) 30 else 60
+        if (!boxes.isNullOrEmpty()) invalidate()
+    }
 
-    @SuppressLint("DefaultLocale")
-    override fun onDraw(canvas: Canvas) {
-        super.onDraw(canvas)
-        canvas.drawColor(Color.TRANSPARENT) // Ensure transparency
+    // Normalized frame coordinates -> view coordinates; nothing is drawn until it is valid
+    var mapping: ViewportMapping? = null
+
+    // Set packed boxes (InferenceResult.BOX_STRIDE floats each); only redraws if they changed
+    fun setBoundingBoxes(boxes: FloatArray?, labels: Array<String>) {
+        val unchanged = labels === this.labels &&
+            (boxes.isNullOrEmpty() && this.boxes.isNullOrEmpty() || Arrays.equals(boxes, this.boxes))
+        this.boxes = boxes
+        this.labels = labels
+        // A still scene (or one the change gate skipped) keeps its boxes, no need to redraw
+        if (!unchanged) invalidate()
+    }
 
-        boundingBoxes.forEach { box ->
-            val rect = Rect(box.x, box.y, box.x + box.width, box.y + box.height)
+    private val renderer = BoxRenderer().apply {
+        minCellLabelHeight = textPaint.textSize
+    }
 
-            if (box.label == "anomaly") {
-                // Fill the box with transparent red
-                canvas.drawRect(rect, anomalyPaint)
+    // Forwards BoxRenderer draw calls to the canvas being drawn
+    private val boxCanvas = object : BoxCanvas {
+        var canvas: Canvas? = null
 
-                // Display anomaly score in the center
-                val scoreText = String.format("%.2f", box.confidence)
-                val textX = rect.centerX().toFloat()
-                val textY = rect.centerY().toFloat()
+        override fun drawBox(left: Float, top: Float, right: Float, bottom: Float, anomalyCell: Boolean) {
+            canvas?.drawRect(left, top, right, bottom, if (anomalyCell) anomalyPaint else paint)
+        }
 
-                textPaint.textAlign = Paint.Align.CENTER
-                canvas.drawText(scoreText, textX, textY, textPaint)
-            } else {
-                // Standard object detection box
-                canvas.drawRect(rect, paint)
-                canvas.drawText("${box.label} (${(box.confidence * 100).toInt()}%)", box.x.toFloat(), (box.y - 10).toFloat(), textPaint)
-            }
+        override fun drawLabel(text: CharSequence, x: Float, y: Float, centered: Boolean) {
+            val align = if (centered) Paint.Align.CENTER else Paint.Align.LEFT
+            if (textPaint.textAlign != align) textPaint.textAlign = align
+            canvas?.drawText(text, 0, text.length, x, y, textPaint)
         }
     }
+
+    override fun onDraw(canvas: Canvas) {
+        super.onDraw(canvas)
+
+        val data = boxes ?: return
+        val mapping = mapping ?: return
+        val startNs = System.nanoTime()
+        boxCanvas.canvas = canvas
+        renderer.render(data, labels, mapping, boxCanvas)
+        boxCanvas.canvas = null
+        PipelineMetrics.shared.recordSince(PipelineMetrics.Stage.OVERLAY_DRAW, startNs)
+    }
 }
 
 class MainActivity : ComponentActivity() {
@@ -119,11 +203,74 @@ class MainActivity : ComponentActivity() {
     private lateinit var resultTextView: TextView
     private lateinit var previewView: PreviewView
     private lateinit var boundingBoxOverlay: BoundingBoxOverlay
+    private lateinit var roiSelectionView: RoiSelectionView
+    private lateinit var resultBox: LinearLayout
+    private lateinit var metricsTextView: TextView
+
+    // Preview <-> upright analysis frame, the frame size comes from the analyzer
+    private val viewport = ViewportMapping()
+    @Volatile private var analysisWidth = 0
+    @Volatile private var analysisHeight = 0
+    @Volatile private var analysisRotation = 0
+    @Volatile private var analysisTransform: OutputTransform? = null
+    @OptIn(TransformExperimental::class)
+    private val analysisTransformFactory = ImageProxyTransformFactory().apply { isUsingRotationDegrees = true }
+    private val viewportPoints = FloatArray(6)
 
     private val cameraExecutor: ExecutorService = Executors.newSingleThreadExecutor()
 
-    private var lastColorUpdateTime = 0L
-    private val colorUpdateInterval = 800L
+    private val metrics = PipelineMetrics.shared
+    private lateinit var metricsExporter: MetricsExporter
+    // Camera timestamp of the last frame, only touched on the analyzer thread
+    private var lastFrameTimestampNs = -1L
+    private val refreshMetricsOverlay = object : Runnable {
+        override fun run() {
+            metricsTextView.text = MetricsFormatter.toOverlayText(metrics.snapshot())
+            metricsTextView.postDelayed(this, METRICS_OVERLAY_INTERVAL_MS)
+        }
+    }
+
+    // Native context of the inference thread, the only thread that classifies
+    private lateinit var classifier: NativeClassifier
+    private val inferenceExecutor: ExecutorService = Executors.newSingleThreadExecutor { runnable ->
+        Thread(runnable, "inference")
+    }
+    private lateinit var frameScheduler: FrameScheduler<ImageProxy, ClassifiedFrame?>
+    // Gets the results in frame order: journals them and runs the decision stage, then hands
+    // them to the main thread. Keeps the journal's page faults and syncs off the UI.
+    private val resultExecutor: ExecutorService = Executors.newSingleThreadExecutor { runnable ->
+        Thread(runnable, "results")
+    }
+
+    // Label table for InferenceResult scores and box label indices, sent once by native code
+    private val labels: Array<String> by lazy { NativeClassifier.getLabels() }
+    private val anomalyLabelIndex by lazy { labels.indexOf("anomaly") }
+    private val normalLabelIndex by lazy { labels.indexOf("no anomaly") }
+
+    private val resultTextFormatter = ResultTextFormatter()
+
+    // Ring log of every classified frame, see ResultJournalReader for export. Opened and
+    // used on resultExecutor only, null if it could not be opened.
+    private var resultJournal: ResultJournal? = null
+
+    // Verdict over recent frames instead of single frames: EMA of the anomaly probability,
+    // anomaly above 0.6 for 3 frames, normal again below 0.4 for 3 frames. Fed and reset
+    // on resultExecutor only.
+    private val decisionStage: DecisionStage = HysteresisDecision(
+        enterThreshold = 0.6f,
+        exitThreshold = 0.4f,
+        enterFrames = 3,
+        exitFrames = 3,
+        source = EmaDecision(alpha = 0.3f)
+    )
+    private var shownVerdict: Boolean? = null
+
+    // Resolution, sensor frame rate and frame skipping from measured latency and thermal state
+    private lateinit var frameGovernor: FrameGovernor
+    private var cameraProvider: ProcessCameraProvider? = null
+    private var imageAnalysis: ImageAnalysis? = null
+    private var sensorFpsRanges: Array<Range<Int>>? = null
+    private var thermalListener: PowerManager.OnThermalStatusChangedListener? = null // API 29+
 
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
@@ -134,6 +281,86 @@ class MainActivity : ComponentActivity() {
         resultTextView = findViewById(R.id.resultTextView) // Result TextView
         previewView = findViewById(R.id.previewView) // Camera preview view
         boundingBoxOverlay = findViewById(R.id.boundingBoxOverlay) // overlay for bbxes / visual ad
+        roiSelectionView = findViewById(R.id.roiSelectionView) // inspection zone selection
+        resultBox = findViewById(R.id.resultBox) // result panel, colored by the verdict
+        metricsTextView = findViewById(R.id.metricsTextView) // pipeline metrics, long press the result panel
+
+        val changeGate = NativeClassifier.configureChangeGate(CHANGE_GATE)
+        Log.i("MainActivity", "Frame change gate $changeGate")
+        val tiling = NativeClassifier.configureTiling(TILING)
+        Log.i("MainActivity", "Tiling $tiling")
+        classifier = NativeClassifier()
+
+        // Sizing and mapping the file waits for storage; results queue up behind it
+        resultExecutor.execute {
+            resultJournal = try {
+                ResultJournal.open(File(filesDir, JOURNAL_FILE), JOURNAL_CAPACITY, labels.size, JOURNAL_MAX_BOXES)
+            } catch (e: IOException) {
+                Log.e("MainActivity", "Cannot open the result journal", e)
+                null
+            }
+            resultJournal?.replaced?.let { Log.w("MainActivity", "Result journal started over ($it)") }
+        }
+
+        // Bounded, keep-latest hand off from ImageAnalysis to the classifier
+        val mainExecutor = ContextCompat.getMainExecutor(this)
+        frameScheduler = FrameScheduler(
+            maxInFlight = INFERENCE_THREADS,
+            executor = inferenceExecutor,
+            resultExecutor = resultExecutor,
+            process = ::classifyAndRecord,
+            release = ImageProxy::close,
+            onResult = { sequence, frame ->
+                // Journaled and decided here, in frame order, so a replay sees the frames as
+                // they were shot and the decision stage gets a proper stream
+                val verdict = frame?.let(::journalAndDecide)
+                mainExecutor.execute {
+                    if (isDestroyed) return@execute
+                    val uiStartNs = System.nanoTime()
+                    displayResults(frame?.result, verdict)
+                    metrics.recordSince(PipelineMetrics.Stage.UI_UPDATE, uiStartNs)
+                    frame?.let { metrics.recordSince(PipelineMetrics.Stage.RESULT_LATENCY, it.startNs) }
+                    frame?.let { frameGovernor.onResult(it.result.timing, SystemClock.elapsedRealtime()) }
+                    if (sequence % STATS_LOG_INTERVAL == 0L) {
+                        Log.d("MainActivity", "Frame scheduler: ${frameScheduler.stats()}")
+                        Log.d("MainActivity", "Frame governor: ${frameGovernor.stats()}")
+                        Log.d("MainActivity", "Change gate: ${NativeClassifier.changeGateCounts()}")
+                    }
+                }
+            }
+        )
+
+        frameGovernor = FrameGovernor(
+            levels = GOVERNOR_LEVELS,
+            conversionBudgetUs = CONVERSION_BUDGET_US,
+            workers = INFERENCE_THREADS,
+            onLevelChanged = { level ->
+                Log.i("MainActivity", "Frame governor switched to $level")
+                bindAnalysis(level)
+            }
+        )
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            val listener = PowerManager.OnThermalStatusChangedListener { status ->
+                frameGovernor.onThermalStatus(status, SystemClock.elapsedRealtime())
+            }
+            // Called right away with the current status
+            getSystemService(PowerManager::class.java)
+                .addThermalStatusListener(ContextCompat.getMainExecutor(this), listener)
+            thermalListener = listener
+        }
+
+        metrics.registerGauge("scheduler_dropped_frames") { frameScheduler.stats().droppedFrames }
+        metrics.registerGauge("scheduler_queue_depth") { frameScheduler.stats().queueDepth.toLong() }
+        metrics.registerGauge("native_arena_capacity_bytes") { NativeClassifier.workArenaStats().capacityBytes }
+        metrics.registerGauge("native_arena_peak_bytes") { NativeClassifier.workArenaStats().peakBytes }
+        metrics.registerGauge("native_arena_overflows") { NativeClassifier.workArenaStats().overflows }
+        metrics.registerGauge("native_arena_leaked") { NativeClassifier.workArenaStats().leaked }
+        metricsExporter = MetricsExporter(metrics, File(filesDir, METRICS_DIR), METRICS_EXPORT_INTERVAL_MS)
+        metricsExporter.start()
+        resultBox.setOnLongClickListener {
+            toggleMetricsOverlay()
+            true
+        }
 
         // Set overlay size to match PreviewView
         previewView.post {
@@ -142,6 +369,8 @@ class MainActivity : ComponentActivity() {
                 height = previewView.height
             }
         }
+        previewView.addOnLayoutChangeListener { _, _, _, _, _, _, _, _, _ -> updateViewport() }
+        setUpRegionOfInterest()
 
         if (!hasCameraPermission()) {
             requestCameraPermission()
@@ -151,21 +380,181 @@ class MainActivity : ComponentActivity() {
 
     }
 
+    @OptIn(ExperimentalCamera2Interop::class)
     private fun startCamera() {
         val cameraProviderFuture = ProcessCameraProvider.getInstance(this)
         cameraProviderFuture.addListener({
             val cameraProvider = cameraProviderFuture.get()
+            this.cameraProvider = cameraProvider
             val cameraSelector = CameraSelector.DEFAULT_BACK_CAMERA
+            sensorFpsRanges = cameraSelector.filter(cameraProvider.availableCameraInfos).firstOrNull()?.let {
+                Camera2CameraInfo.from(it).getCameraCharacteristic(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES)
+            }
             val preview = Preview.Builder().build()
             preview.setSurfaceProvider(previewView.surfaceProvider)
-            val imageAnalysis = ImageAnalysis.Builder().build()
+            // The preview transform is only known once frames are shown
+            previewView.previewStreamState.observe(this) { state ->
+                if (state == PreviewView.StreamState.STREAMING) updateViewport()
+            }
+            cameraProvider.bindToLifecycle(this, cameraSelector, preview)
+            bindAnalysis(frameGovernor.level)
+        }, ContextCompat.getMainExecutor(this))
+    }
 
-            imageAnalysis.setAnalyzer(cameraExecutor) { imageProxy ->
-                processImage(imageProxy)
+    // (Re)bind ImageAnalysis for a governor level, the preview keeps running
+    @OptIn(ExperimentalCamera2Interop::class)
+    private fun bindAnalysis(level: FrameGovernor.Level) {
+        val cameraProvider = cameraProvider ?: return
+        val builder = ImageAnalysis.Builder()
+            .setOutputImageFormat(ImageAnalysis.OUTPUT_IMAGE_FORMAT_YUV_420_888)
+            // Frames are held open until classified and the frame scheduler drops stale ones,
+            // so it does the keep-latest. It holds up to INFERENCE_THREADS + 1 images, the one
+            // extra image means the camera never actually blocks on a full queue.
+            .setBackpressureStrategy(ImageAnalysis.STRATEGY_BLOCK_PRODUCER)
+            .setImageQueueDepth(INFERENCE_THREADS + 2)
+            .setResolutionSelector(
+                ResolutionSelector.Builder()
+                    .setResolutionStrategy(
+                        ResolutionStrategy(
+                            Size(level.width, level.height),
+                            ResolutionStrategy.FALLBACK_RULE_CLOSEST_HIGHER_THEN_LOWER
+                        )
+                    )
+                    .build()
+            )
+        // A slower sensor saves power and heat, frame skipping only saves the inference
+        sensorFpsRange(level.maxFps)?.let {
+            Camera2Interop.Extender(builder).setCaptureRequestOption(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, it)
+        }
+        val analysis = builder.build()
+
+        analysis.setAnalyzer(cameraExecutor) { imageProxy ->
+            trackAnalysisSize(imageProxy)
+            val timestampNs = imageProxy.imageInfo.timestamp
+            metrics.increment(PipelineMetrics.Counter.FRAMES_ARRIVED)
+            if (lastFrameTimestampNs >= 0 && timestampNs > lastFrameTimestampNs) {
+                metrics.record(PipelineMetrics.Stage.FRAME_INTERVAL, (timestampNs - lastFrameTimestampNs) / 1000L)
+            }
+            lastFrameTimestampNs = timestampNs
+            if (frameGovernor.shouldProcess(timestampNs)) {
+                frameScheduler.submit(imageProxy)
+            } else {
+                metrics.increment(PipelineMetrics.Counter.FRAMES_THROTTLED)
+                imageProxy.close()
             }
+        }
 
-            cameraProvider.bindToLifecycle(this, cameraSelector, preview, imageAnalysis)
-        }, ContextCompat.getMainExecutor(this))
+        imageAnalysis?.let { cameraProvider.unbind(it) }
+        imageAnalysis = analysis
+        cameraProvider.bindToLifecycle(this, CameraSelector.DEFAULT_BACK_CAMERA, analysis)
+    }
+
+    // Restore the saved inspection zone and let the operator change it on the preview
+    private fun setUpRegionOfInterest() {
+        val prefs = getSharedPreferences(ROI_PREFS, Context.MODE_PRIVATE)
+        val saved = if (prefs.contains("left")) {
+            runCatching {
+                RegionOfInterest(
+                    prefs.getFloat("left", 0f), prefs.getFloat("top", 0f),
+                    prefs.getFloat("right", 1f), prefs.getFloat("bottom", 1f)
+                )
+            }.getOrNull()
+        } else {
+            null
+        }
+        NativeClassifier.setRegionOfInterest(saved)
+
+        val inputSize = NativeClassifier.getInputSize()
+        roiSelectionView.aspectRatio = inputSize[0].toFloat() / inputSize[1]
+        roiSelectionView.mapping = viewport
+        roiSelectionView.region = saved
+        boundingBoxOverlay.mapping = viewport
+        roiSelectionView.onRegionSelected = { region ->
+            NativeClassifier.setRegionOfInterest(region)
+            resultExecutor.execute { decisionStage.reset() }
+            val editor = prefs.edit().clear()
+            if (region != null) {
+                editor.putFloat("left", region.left).putFloat("top", region.top)
+                    .putFloat("right", region.right).putFloat("bottom", region.bottom)
+            }
+            editor.apply()
+            Log.i("MainActivity", "Inspection zone set to ${region ?: "whole frame"}")
+        }
+    }
+
+    // Runs on the analyzer thread; the upright frame size only changes when the governor rebinds
+    @OptIn(TransformExperimental::class)
+    private fun trackAnalysisSize(imageProxy: ImageProxy) {
+        val rotation = imageProxy.imageInfo.rotationDegrees
+        val rotated = rotation % 180 != 0
+        val width = if (rotated) imageProxy.height else imageProxy.width
+        val height = if (rotated) imageProxy.width else imageProxy.height
+        if (width != analysisWidth || height != analysisHeight || rotation != analysisRotation) {
+            analysisTransform = analysisTransformFactory.getOutputTransform(imageProxy)
+            analysisRotation = rotation
+            analysisWidth = width
+            analysisHeight = height
+            previewView.post { updateViewport() }
+        }
+    }
+
+    // Map normalized frame coordinates through the real analysis -> preview transform, so
+    // boxes land right whatever the scale type, crop or display rotation; FILL_CENTER math
+    // until the preview is streaming.
+    @OptIn(TransformExperimental::class)
+    private fun updateViewport() {
+        val source = analysisTransform
+        val target = previewView.outputTransform
+        val changed = if (source != null && target != null && mapThroughTransform(source, target)) {
+            viewport.setTransform(
+                viewportPoints[2] - viewportPoints[0], viewportPoints[5] - viewportPoints[1],
+                viewportPoints[0], viewportPoints[1]
+            )
+        } else {
+            viewport.update(previewView.width, previewView.height, analysisWidth, analysisHeight)
+        }
+        if (changed) {
+            roiSelectionView.invalidate()
+            boundingBoxOverlay.invalidate()
+        }
+    }
+
+    // Fills viewportPoints with the view positions of the frame corners (0,0), (1,0), (0,1);
+    // false unless the mapping is axis aligned and not mirrored
+    @OptIn(TransformExperimental::class)
+    private fun mapThroughTransform(source: OutputTransform, target: OutputTransform): Boolean {
+        // Upright normalized -> analysis buffer pixels; the buffer is rotationDegrees
+        // counter-clockwise from upright
+        val w = analysisBufferWidth()
+        val h = analysisBufferHeight()
+        for (i in 0 until 3) {
+            val u = if (i == 1) 1f else 0f
+            val v = if (i == 2) 1f else 0f
+            val (x, y) = when (analysisRotation) {
+                90 -> v * w to (1f - u) * h
+                180 -> (1f - u) * w to (1f - v) * h
+                270 -> (1f - v) * w to u * h
+                else -> u * w to v * h
+            }
+            viewportPoints[i * 2] = x
+            viewportPoints[i * 2 + 1] = y
+        }
+        val matrix = Matrix()
+        CoordinateTransform(source, target).transform(matrix)
+        matrix.mapPoints(viewportPoints)
+        return abs(viewportPoints[3] - viewportPoints[1]) < 0.5f && abs(viewportPoints[4] - viewportPoints[0]) < 0.5f &&
+            viewportPoints[2] > viewportPoints[0] && viewportPoints[5] > viewportPoints[1]
+    }
+
+    private fun analysisBufferWidth(): Int = if (analysisRotation % 180 != 0) analysisHeight else analysisWidth
+
+    private fun analysisBufferHeight(): Int = if (analysisRotation % 180 != 0) analysisWidth else analysisHeight
+
+    // Supported AE range with the lowest upper bound that still reaches maxFps, null if none does
+    private fun sensorFpsRange(maxFps: Int): Range<Int>? {
+        return sensorFpsRanges
+            ?.filter { it.upper >= maxFps }
+            ?.minWithOrNull(compareBy<Range<Int>> { it.upper }.thenBy { it.lower })
     }
 
     private fun hasCameraPermission(): Boolean {
@@ -187,8 +576,33 @@ class MainActivity : ComponentActivity() {
         }
     }
 
-    // Process the captured image
-    private fun processImage(imageProxy: ImageProxy) {
+    // Classify one frame, runs on the inference thread. It is journaled once delivered in order.
+    private fun classifyAndRecord(imageProxy: ImageProxy): ClassifiedFrame? {
+        val startNs = System.nanoTime()
+        val result = classifyImage(imageProxy)
+        metrics.recordClassify(result, (System.nanoTime() - startNs) / 1000L)
+        if (result == null) return null
+        return ClassifiedFrame(result, System.currentTimeMillis(), imageProxy.imageInfo.timestamp, startNs)
+    }
+
+    // Classify one frame, runs on the inference thread. The frame scheduler closes the imageProxy.
+    private fun classifyImage(imageProxy: ImageProxy): InferenceResult? {
+        if (imageProxy.format == ImageFormat.YUV_420_888) {
+            // Hand the YUV planes straight to C++, conversion/rotation/resize happen natively
+            val planes = imageProxy.planes
+            return classifier.classifyYuv(
+                planes[0].buffer,
+                planes[1].buffer,
+                planes[2].buffer,
+                imageProxy.width,
+                imageProxy.height,
+                planes[0].rowStride,
+                planes[1].rowStride,
+                planes[1].pixelStride,
+                imageProxy.imageInfo.rotationDegrees
+            )
+        }
+
         // Convert ImageProxy to Bitmap
         val bitmap = imageProxy.toBitmap()
 
@@ -199,16 +613,8 @@ class MainActivity : ComponentActivity() {
         // Convert the resized bitmap to ByteArray
         val byteArray = getByteArrayFromBitmap(bitmap)
 
-        // Close the imageProxy after processing
-        imageProxy.close()
-
         // Pass to C++ for Edge Impulse inference
-        lifecycleScope.launch(Dispatchers.IO) {
-            val result = passToCpp(byteArray)
-            runOnUiThread {
-                displayResults(result)
-            }
-        }
+        return classifier.classify(byteArray)
     }
 
     // Convert ImageProxy to Bitmap
@@ -222,95 +628,69 @@ class MainActivity : ComponentActivity() {
 
     // Convert Bitmap to ByteArray (RGB888 format)
     private fun getByteArrayFromBitmap(bitmap: Bitmap): ByteArray {
-
-        // Rotate the bitmap by 90 degrees
-        val matrix = Matrix()
-        matrix.postRotate(90f)
-
-        val rotatedBitmap = Bitmap.createBitmap(bitmap, 0, 0, bitmap.width, bitmap.height, matrix, true)
-
-        val width = rotatedBitmap.width
-        val height = rotatedBitmap.height
+        val width = bitmap.width
+        val height = bitmap.height
 
         val pixels = IntArray(width * height) // Holds ARGB pixels
+        val rotatedPixels = IntArray(width * height) // Rotated by 90 degrees, height x width
         val rgbByteArray = ByteArray(width * height * 3) // Holds RGB888 data
 
-        rotatedBitmap.getPixels(pixels, 0, width, 0, 0, width, height)
+        bitmap.getPixels(pixels, 0, width, 0, 0, width, height)
 
-        // Convert ARGB to RGB888
-        for (i in pixels.indices) {
-            val pixel = pixels[i]
-            val r = (pixel shr 16) and 0xFF
-            val g = (pixel shr 8) and 0xFF
-            val b = pixel and 0xFF
-
-            rgbByteArray[i * 3] = r.toByte()
-            rgbByteArray[i * 3 + 1] = g.toByte()
-            rgbByteArray[i * 3 + 2] = b.toByte()
-        }
+        // Rotate by 90 degrees and convert ARGB to RGB888
+        FrameConversion.rotateArgb(pixels, width, height, 90, rotatedPixels)
+        FrameConversion.argbToRgb888(rotatedPixels, rotatedPixels.size, rgbByteArray)
 
         return rgbByteArray
     }
 
-    // Call the C++ function to process the image and return results
-    private external fun passToCpp(imageData: ByteArray): InferenceResult?
+    // On resultExecutor: journal the frame and feed its anomaly probability to the decision
+    // stage. Returns the verdict, null if the model has no anomaly / no anomaly classes.
+    private fun journalAndDecide(frame: ClassifiedFrame): Boolean? {
+        val journal = resultJournal
+        val journalSequence = journal?.append(frame.timestampMs, frame.frameTimestampNs, frame.result) ?: -1L
+        val classification = frame.result.classification
+        if (classification == null || anomalyLabelIndex < 0 || normalLabelIndex < 0) return null
+
+        val anomalous = decisionStage.update(classification[anomalyLabelIndex])
+        journal?.recordDecision(journalSequence, anomalous, decisionStage.score)
+        return anomalous
+    }
 
     // Display results in UI
     @SuppressLint("SetTextI18n")
-    private fun displayResults(result: InferenceResult?) {
-        resultTextView.visibility = View.GONE
-        boundingBoxOverlay.visibility = View.GONE
-        val resultBox: LinearLayout = findViewById(R.id.resultBox)
+    private fun displayResults(result: InferenceResult?, verdict: Boolean?) {
+        // Visibility flips cost a layout pass, so only changes are applied
+        val cells = result?.visualAnomalyGridCells
+        showIf(resultTextView, cells != null)
+        showIf(boundingBoxOverlay, result?.objectDetections != null && cells == null)
 
         if (result == null) {
             resultTextView.text = "Error running inference"
         } else
         {
-            val combinedText = StringBuilder()
-            if (result.classification != null) {
-                val anomaly_prob: Float? = result.classification["anomaly"]
-                val normal_prob: Float? = result.classification["no anomaly"]
-                var classificationText: String?
-                if (anomaly_prob != null && normal_prob != null) {
-
-                    // Decide the text
-                    classificationText = if (anomaly_prob > 0.5f) "Anomaly \n" else "Normal \n"
-
-                    // --- UI Color Update With Delay ---
-                    val currentTime = System.currentTimeMillis()
-                    if (currentTime - lastColorUpdateTime >= colorUpdateInterval) {
-                        if (anomaly_prob > 0.5f) {
-                            resultBox.setBackgroundColor(Color.RED)
-                            resultTextView.setTextColor(Color.WHITE)
-                        } else {
-                            resultBox.setBackgroundColor(Color.GREEN)
-                            resultTextView.setTextColor(Color.BLACK)
-                        }
-                        lastColorUpdateTime = currentTime
+            if (verdict != null) {
+                // --- UI Color Update when the verdict changes ---
+                if (shownVerdict != verdict) {
+                    if (verdict) {
+                        resultBox.setBackgroundColor(Color.RED)
+                        resultTextView.setTextColor(Color.WHITE)
+                    } else {
+                        resultBox.setBackgroundColor(Color.GREEN)
+                        resultTextView.setTextColor(Color.BLACK)
                     }
-                    // -----------------------------------
-
-                    // Probabilities
-                    val anomalyProbText = "Anomaly prob: (${String.format("%.2f", anomaly_prob)}) \n"
-                    val normalProbText  = "Normal prob: (${String.format("%.2f", normal_prob)}) \n"
-                    classificationText += anomalyProbText + normalProbText
-                } else {
-                    classificationText = " "
+                    shownVerdict = verdict
                 }
-                // Display classification results
-//                val classificationText = result.classification.entries.joinToString("\n") {
-//                    "${it.key}: ${it.value}"
-//                }
-                combinedText.append("Inference result:\n$classificationText\n\n")
+                // -----------------------------------
             }
+            boundingBoxOverlay.setVerdict(verdict)
             if (result.objectDetections != null) {
                 // Display object detection results
 //                val objectDetectionText = result.objectDetections.joinToString("\n") {
 //                    "${it.label}: ${it.confidence}, ${it.x}, ${it.y}, ${it.width}, ${it.height}"
 //                }
                 // Update bounding boxes on the overlay
-                boundingBoxOverlay.visibility = View.VISIBLE
-                boundingBoxOverlay.boundingBoxes = result.objectDetections
+                boundingBoxOverlay.setBoundingBoxes(result.objectDetections, labels)
                 //combinedText.append("Object detection:\n$objectDetectionText\n\n")
             }
             if (result.visualAnomalyGridCells != null) {
@@ -318,28 +698,55 @@ class MainActivity : ComponentActivity() {
 //                val visualAnomalyGridText = result.visualAnomalyGridCells.joinToString("\n") {
 //                    "${it.label}: ${it.confidence}, ${it.x}, ${it.y}, ${it.width}, ${it.height}"
 //                }
-                val visualAnomalyMax = result.anomalyResult?.getValue("max")
-                val visualAnomalyMean = result.anomalyResult?.getValue("mean")
-                boundingBoxOverlay.visibility = View.GONE
-                boundingBoxOverlay.boundingBoxes = result.visualAnomalyGridCells
-                resultTextView.visibility = View.VISIBLE
+                val visualAnomalyMax = result.visualAnomalyMax
+                val visualAnomalyMean = result.visualAnomalyMean
+                boundingBoxOverlay.setBoundingBoxes(result.visualAnomalyGridCells, labels)
                 //combinedText.append("Visual anomaly values:\nMean: ${visualAnomalyMean}\nMax: ${visualAnomalyMax}")
                 //combinedText.append("Visual anomalies:\n$visualAnomalyGridText\n\nVisual anomaly values:\nMean: ${visualAnomalyMean}\nMax: ${visualAnomalyMax}\n\n")
             }
-            if (result.anomalyResult?.get("anomaly") != null) {
-                // Display anomaly detection score
-                val anomalyScore = result.anomalyResult.get("anomaly")
-                combinedText.append("Anomaly score:\n${anomalyScore}")
-            }
-            // print the result
-            val textToDisplay = combinedText.toString()
+            // print the result (classification text and anomaly score)
+            val textToDisplay = resultTextFormatter.format(result, anomalyLabelIndex, normalLabelIndex, verdict)
             //Log.d("MainActivity", "Result: $textToDisplay")
             resultTextView.text = textToDisplay
         }
     }
 
-    // Load the native library
-    init {
-        System.loadLibrary("test_camera")
+    private fun toggleMetricsOverlay() {
+        metricsTextView.removeCallbacks(refreshMetricsOverlay)
+        if (metricsTextView.visibility == View.VISIBLE) {
+            metricsTextView.visibility = View.GONE
+        } else {
+            metricsTextView.visibility = View.VISIBLE
+            refreshMetricsOverlay.run()
+        }
+    }
+
+    private fun showIf(view: View, visible: Boolean) {
+        val visibility = if (visible) View.VISIBLE else View.GONE
+        if (view.visibility != visibility) view.visibility = visibility
+    }
+
+    override fun onDestroy() {
+        super.onDestroy()
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            thermalListener?.let { getSystemService(PowerManager::class.java).removeThermalStatusListener(it) }
+        }
+        metricsTextView.removeCallbacks(refreshMetricsOverlay)
+        metrics.unregisterGauge("scheduler_dropped_frames")
+        metrics.unregisterGauge("scheduler_queue_depth")
+        metrics.unregisterGauge("native_arena_capacity_bytes")
+        metrics.unregisterGauge("native_arena_peak_bytes")
+        metrics.unregisterGauge("native_arena_overflows")
+        metrics.unregisterGauge("native_arena_leaked")
+        metricsExporter.close()
+        cameraExecutor.shutdown()
+        frameScheduler.clear()
+        // Let the running frame finish before its native context goes away
+        inferenceExecutor.shutdown()
+        inferenceExecutor.awaitTermination(INFERENCE_CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+        classifier.close()
+        // Results still queued are journaled first
+        resultExecutor.execute { resultJournal?.close() }
+        resultExecutor.shutdown()
     }
 }
\ No newline at end of file
@@ -0,0 +1,234 @@
+package com.example.test_camera
+
+import java.nio.ByteBuffer
+
+/**
+ * Frame change gate in front of the impulse, see [NativeClassifier.configureChangeGate].
+ * Frames are compared as a coarse grid of mean luma values against the last classified
+ * frame; a frame runs when more than [changedFraction] of the cells moved by more than
+ * [cellThreshold] (0-255), otherwise the last result is returned again.
+ */
+data class ChangeGateConfig(
+    val enabled: Boolean,
+    val cellThreshold: Int = 8,
+    val changedFraction: Float = 0.02f,
+    val maxSkippedFrames: Int = 30  // run anyway after this many skipped frames in a row
+)
+
+/** Frames classified and frames answered with the previous result, over all classifiers */
+data class ChangeGateCounts(val ran: Long, val skipped: Long)
+
+/**
+ * Native work arenas the SDK allocates its per-frame memory from, over all classifiers.
+ * [peakBytes] above the capacity of one arena, or [overflows] growing, means frames fell
+ * back to malloc; [pinned] counts frames whose memory could not be taken back, [leaked]
+ * arenas of closed classifiers that the SDK still pointed into and were never freed.
+ */
+data class WorkArenaStats(
+    val capacityBytes: Long,
+    val peakBytes: Long,      // most one frame asked for, in the busiest arena
+    val overflows: Long,
+    val pinned: Long,
+    val leaked: Long
+)
+
+/**
+ * Tiled classification, see [NativeClassifier.configureTiling]: the region is split into
+ * overlapping tiles of the model input aspect ratio, [columns] across and as many rows as
+ * needed, each classified at full model resolution. Boxes of one label from overlapping
+ * tiles are merged when their IoU exceeds [iouThreshold]. [columns] of 1 turns tiling off.
+ */
+data class TilingConfig(
+    val columns: Int,
+    val overlap: Float = 0.25f,   // fraction of a tile shared with its neighbour, up to 0.5
+    val iouThreshold: Float = 0.5f
+)
+
+/**
+ * Part of the upright camera frame to classify, as fractions of its width and height.
+ * See [NativeClassifier.setRegionOfInterest].
+ */
+data class RegionOfInterest(val left: Float, val top: Float, val right: Float, val bottom: Float) {
+    init {
+        require(left >= 0f && top >= 0f && right <= 1f && bottom <= 1f && left < right && top < bottom) {
+            "Region must lie within 0..1 and not be empty: $this"
+        }
+    }
+}
+
+/**
+ * Handle to a native inference context. Each instance owns its own preallocated
+ * frame and working buffers, so frames given to different instances never overwrite
+ * each other. Calls on one instance are serialized; call [close] to free the context,
+ * after which classify calls return null.
+ */
+class NativeClassifier : AutoCloseable {
+
+    private var handle: Long = nativeCreate()
+
+    init {
+        check(handle != 0L) { "Failed to create native inference context" }
+    }
+
+    // Classify a CAMERA_INPUT_WIDTH x CAMERA_INPUT_HEIGHT RGB888 frame
+    @Synchronized
+    fun classify(imageData: ByteArray): InferenceResult? {
+        if (handle == 0L) return null
+        return nativeClassify(handle, imageData)
+    }
+
+    // Classify the YUV_420_888 planes of an ImageProxy (direct buffers), read in place
+    @Synchronized
+    fun classifyYuv(
+        yPlane: ByteBuffer,
+        uPlane: ByteBuffer,
+        vPlane: ByteBuffer,
+        width: Int,
+        height: Int,
+        yRowStride: Int,
+        uvRowStride: Int,
+        uvPixelStride: Int,
+        rotationDegrees: Int
+    ): InferenceResult? {
+        if (handle == 0L) return null
+        return nativeClassifyYuv(
+            handle, yPlane, uPlane, vPlane, width, height,
+            yRowStride, uvRowStride, uvPixelStride, rotationDegrees
+        )
+    }
+
+    // Waits for a running classification to finish before freeing the context
+    @Synchronized
+    override fun close() {
+        if (handle != 0L) {
+            nativeDestroy(handle)
+            handle = 0L
+        }
+    }
+
+    companion object {
+        init {
+            System.loadLibrary("test_camera")
+        }
+
+        /**
+         * Set the frame change gate of all classifiers, may be called at any time. Returns
+         * the setup in effect after clamping. A frame answered by the gate gets the
+         * previous result of its classifier with all Timing values zero.
+         */
+        @JvmStatic
+        fun configureChangeGate(config: ChangeGateConfig): ChangeGateConfig {
+            val applied = nativeConfigureChangeGate(
+                config.enabled, config.cellThreshold, config.changedFraction, config.maxSkippedFrames
+            )
+            return ChangeGateConfig(
+                enabled = applied[0] != 0f,
+                cellThreshold = applied[1].toInt(),
+                changedFraction = applied[2],
+                maxSkippedFrames = applied[3].toInt()
+            )
+        }
+
+        /**
+         * Set tiled classification for all classifiers, returns the setup in effect after
+         * clamping. Costs one inference per tile (at most 16), and applies to YUV frames
+         * only. The merged result reports the highest score of every label over the tiles
+         * and the Timing summed over them, with the tile count in [Timing.tiles].
+         */
+        @JvmStatic
+        fun configureTiling(config: TilingConfig): TilingConfig {
+            val applied = nativeConfigureTiling(config.columns, config.overlap, config.iouThreshold)
+            return TilingConfig(
+                columns = applied[0].toInt(),
+                overlap = applied[1],
+                iouThreshold = applied[2]
+            )
+        }
+
+        /**
+         * Classify only [roi] of every frame from now on, null for the whole frame. The
+         * region is center cropped to the model's aspect ratio and scaled to its input
+         * size; boxes in results still refer to the whole frame. Applies to all
+         * classifiers from their next frame on.
+         */
+        @JvmStatic
+        fun setRegionOfInterest(roi: RegionOfInterest?) {
+            if (roi == null) {
+                nativeSetRegionOfInterest(false, 0f, 0f, 1f, 1f)
+            } else {
+                nativeSetRegionOfInterest(true, roi.left, roi.top, roi.right, roi.bottom)
+            }
+        }
+
+        @JvmStatic
+        fun changeGateCounts(): ChangeGateCounts {
+            val counts = getChangeGateCounts()
+            return ChangeGateCounts(ran = counts[0], skipped = counts[1])
+        }
+
+        @JvmStatic
+        fun workArenaStats(): WorkArenaStats {
+            val stats = getWorkArenaStats()
+            return WorkArenaStats(
+                capacityBytes = stats[0], peakBytes = stats[1], overflows = stats[2], pinned = stats[3], leaked = stats[4]
+            )
+        }
+
+        // Labels in the order used by InferenceResult.classification
+        @JvmStatic
+        external fun getLabels(): Array<String>
+
+        // Model input as [width, height] in pixels
+        @JvmStatic
+        external fun getInputSize(): IntArray
+
+        @JvmStatic
+        private external fun nativeConfigureChangeGate(
+            enabled: Boolean,
+            cellThreshold: Int,
+            changedFraction: Float,
+            maxSkippedFrames: Int
+        ): FloatArray
+
+        @JvmStatic
+        private external fun getChangeGateCounts(): LongArray
+
+        @JvmStatic
+        private external fun getWorkArenaStats(): LongArray
+
+        @JvmStatic
+        private external fun nativeConfigureTiling(columns: Int, overlap: Float, iouThreshold: Float): FloatArray
+
+        @JvmStatic
+        private external fun nativeSetRegionOfInterest(
+            enabled: Boolean,
+            left: Float,
+            top: Float,
+            right: Float,
+            bottom: Float
+        )
+
+        @JvmStatic
+        private external fun nativeCreate(): Long
+
+        @JvmStatic
+        private external fun nativeDestroy(handle: Long)
+
+        @JvmStatic
+        private external fun nativeClassify(handle: Long, imageData: ByteArray): InferenceResult?
+
+        @JvmStatic
+        private external fun nativeClassifyYuv(
+            handle: Long,
+            yPlane: ByteBuffer,
+            uPlane: ByteBuffer,
+            vPlane: ByteBuffer,
+            width: Int,
+            height: Int,
+            yRowStride: Int,
+            uvRowStride: Int,
+            uvPixelStride: Int,
+            rotationDegrees: Int
+        ): InferenceResult?
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.test_camera;
+
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+import com.example.test_camera.api.SessionStore;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Project names for the selection list, filled page by page while the project list is
+ * still downloading. Rows are recycled by the ListView; main thread only.
+ */
+final class ProjectListAdapter extends BaseAdapter {
+
+    private final LayoutInflater inflater;
+    private final List<SessionStore.Project> projects = new ArrayList<>();
+
+    ProjectListAdapter(LayoutInflater inflater) {
+        this.inflater = inflater;
+    }
+
+    /** Show projects instead of what is listed now */
+    void replace(List<SessionStore.Project> projects) {
+        this.projects.clear();
+        this.projects.addAll(projects);
+        notifyDataSetChanged();
+    }
+
+    void append(List<SessionStore.Project> page) {
+        if (page.isEmpty()) return;
+        projects.addAll(page);
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public int getCount() {
+        return projects.size();
+    }
+
+    @Override
+    public SessionStore.Project getItem(int position) {
+        return projects.get(position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return projects.get(position).id;
+    }
+
+    @Override
+    public boolean hasStableIds() {
+        return true;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        TextView view = (TextView) (convertView != null ? convertView
+                : inflater.inflate(android.R.layout.simple_list_item_1, parent, false));
+        view.setText(projects.get(position).name);
+        return view;
+    }
+}
@@ -4,97 +4,118 @@ import androidx.appcompat.app.AppCompatActivity;
 
 import android.content.Intent;
 import android.os.Bundle;
-import android.widget.ArrayAdapter;
+import android.util.Log;
 import android.widget.ListView;
 import android.widget.Toast;
 
-import org.json.JSONArray;
-import org.json.JSONObject;
+import com.example.test_camera.api.SessionStore;
+import com.example.test_camera.api.StudioClient;
+import com.example.test_camera.api.StudioResponses;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import okhttp3.*;
 
 public class ProjectSelectActivity extends AppCompatActivity {
 
+    private static final String TAG = "ProjectSelectActivity";
+    // Projects parsed before the list shows them
+    private static final int PAGE_SIZE = 50;
+
     private ListView listView;
-    private List<ProjectItem> projects = new ArrayList<>();
-    private String jwtToken;
+    private ProjectListAdapter adapter;
+    private StudioClient api;
+    private SessionStore session;
+    // Session writes seal with the keystore and replace a file, not a job for the UI thread
+    private final ExecutorService storeExecutor = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "session-store"));
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         listView = new ListView(this);
+        adapter = new ProjectListAdapter(getLayoutInflater());
+        listView.setAdapter(adapter);
+        listView.setOnItemClickListener((parent, view, position, id) -> selectProject(adapter.getItem(position)));
         setContentView(listView);
 
-        jwtToken = getIntent().getStringExtra("JWT_TOKEN");
-        fetchProjects();
+        api = EdgeImpulseApi.get(this);
+        session = EdgeImpulseApi.session(this);
+        String jwt = getIntent().getStringExtra("JWT_TOKEN");
+        if (jwt == null && session.jwt() != null) jwt = session.jwt().value;
+        api.setJwtToken(jwt);
+
+        // Stale-while-revalidate: show the stored list now, refresh it unless it is recent
+        SessionStore.Entry<List<SessionStore.Project>> stored = session.projects();
+        if (stored != null) adapter.replace(stored.value);
+        if (stored == null || !stored.isFresh(SessionRefresher.PROJECTS_TTL_MS, session.now())) {
+            fetchProjects();
+        }
     }
 
-    private void fetchProjects() {
-        OkHttpClient client = new OkHttpClient();
-        Request request = new Request.Builder()
-                .url("https://studio.edgeimpulse.com/v1/api/projects")
-                .addHeader("x-jwt-token", jwtToken)
-                .build();
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // Lets a pending selection finish writing
+        storeExecutor.shutdown();
+    }
 
-        client.newCall(request).enqueue(new Callback() {
+    // Served from the HTTP cache while fresh, the JWT is added by the client
+    private void fetchProjects() {
+        api.projects().enqueue(new Callback() {
             @Override
             public void onFailure(Call call, IOException e) {
                 runOnUiThread(() -> Toast.makeText(ProjectSelectActivity.this, "Failed: " + e.getMessage(), Toast.LENGTH_LONG).show());
             }
 
             @Override
-            public void onResponse(Call call, Response response) throws IOException {
-                String resp = response.body().string();
-                try {
-                    JSONObject json = new JSONObject(resp);
-                    if (json.optBoolean("success")) {
-                        JSONArray arr = json.optJSONArray("projects");
-                        projects.clear();
-                        for (int i = 0; i < arr.length(); i++) {
-                            JSONObject proj = arr.getJSONObject(i);
-                            projects.add(new ProjectItem(proj.getInt("id"), proj.getString("name")));
-                        }
-                        runOnUiThread(() -> populateList());
+            public void onResponse(Call call, Response response) {
+                // Parsed while it downloads, each page is listed as soon as it is complete;
+                // the first one replaces the stored list
+                boolean[] shown = {false};
+                try (Response r = response) {
+                    StudioResponses.Result<List<SessionStore.Project>> result =
+                            StudioResponses.readProjects(r.body().charStream(), PAGE_SIZE, page -> {
+                                boolean first = !shown[0];
+                                shown[0] = true;
+                                runOnUiThread(() -> {
+                                    if (first) {
+                                        adapter.replace(page);
+                                    } else {
+                                        adapter.append(page);
+                                    }
+                                });
+                            });
+                    if (result.success) {
+                        storeQuietly(() -> session.putProjects(result.value));
+                        if (!shown[0]) runOnUiThread(() -> adapter.replace(result.value));
                     } else {
                         runOnUiThread(() ->
                                 Toast.makeText(ProjectSelectActivity.this, "Failed to fetch projects.", Toast.LENGTH_SHORT).show());
                     }
-                } catch (Exception e) {
+                } catch (IOException | IllegalStateException e) {
                     e.printStackTrace();
                 }
             }
         });
     }
 
-    private void populateList() {
-        List<String> names = new ArrayList<>();
-        for (ProjectItem p : projects) names.add(p.name);
-
-        ArrayAdapter<String> adapter = new ArrayAdapter<>(this,
-                android.R.layout.simple_list_item_1, names);
-        listView.setAdapter(adapter);
-
-        listView.setOnItemClickListener((parent, view, position, id) -> {
-            ProjectItem selected = projects.get(position);
+    private void selectProject(SessionStore.Project selected) {
+        SessionStore.Entry<String> storedKey = session.apiKey(selected.id);
+        if (storedKey != null && storedKey.isFresh(SessionRefresher.API_KEY_TTL_MS, session.now())) {
+            storeExecutor.execute(() -> storeQuietly(() -> session.selectProject(selected.id)));
+            openSampling(storedKey.value);
+        } else {
             fetchApiKey(selected.id);
-        });
+        }
     }
 
     private void fetchApiKey(int projectId) {
         Toast.makeText(this, "Fetching API key...", Toast.LENGTH_SHORT).show();
-        OkHttpClient client = new OkHttpClient();
-        String url = "https://studio.edgeimpulse.com/v1/api/" + projectId + "/apikeys";
-
-        Request request = new Request.Builder()
-                .url(url)
-                .addHeader("x-jwt-token", jwtToken)
-                .build();
-
-        client.newCall(request).enqueue(new Callback() {
+        api.apiKeys(projectId).enqueue(new Callback() {
             @Override
             public void onFailure(Call call, IOException e) {
                 runOnUiThread(() ->
@@ -102,35 +123,42 @@ public class ProjectSelectActivity extends AppCompatActivity {
             }
 
             @Override
-            public void onResponse(Call call, Response response) throws IOException {
-                String resp = response.body().string();
-                try {
-                    JSONObject json = new JSONObject(resp);
-                    if (json.optBoolean("success")) {
-                        JSONArray keys = json.getJSONArray("apiKeys");
-                        String apiKey = keys.getJSONObject(0).getString("apiKey");
-
-                        runOnUiThread(() -> {
-                            Toast.makeText(ProjectSelectActivity.this, "Project selected!", Toast.LENGTH_SHORT).show();
-                            Intent intent = new Intent(ProjectSelectActivity.this, Sampling.class);
-                            intent.putExtra("API_KEY", apiKey);
-                            startActivity(intent);
-                            finish();
-                        });
+            public void onResponse(Call call, Response response) {
+                try (Response r = response) {
+                    StudioResponses.Result<String> result = StudioResponses.readApiKey(r.body().charStream());
+                    if (result.success) {
+                        String apiKey = result.value;
+                        storeQuietly(() -> session.putApiKey(projectId, apiKey));
+                        runOnUiThread(() -> openSampling(apiKey));
                     } else {
                         runOnUiThread(() ->
                                 Toast.makeText(ProjectSelectActivity.this, "Failed to fetch API key", Toast.LENGTH_SHORT).show());
                     }
-                } catch (Exception e) {
+                } catch (IOException | IllegalStateException e) {
                     e.printStackTrace();
                 }
             }
         });
     }
 
-    static class ProjectItem {
-        int id;
-        String name;
-        ProjectItem(int i, String n) { id = i; name = n; }
+    private void openSampling(String apiKey) {
+        Toast.makeText(this, "Project selected!", Toast.LENGTH_SHORT).show();
+        Intent intent = new Intent(this, Sampling.class);
+        intent.putExtra("API_KEY", apiKey);
+        startActivity(intent);
+        finish();
+    }
+
+    private interface StoreAction {
+        void run() throws IOException;
+    }
+
+    // A failed write only costs the warm start next time
+    private static void storeQuietly(StoreAction action) {
+        try {
+            action.run();
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot store session: " + e.getMessage());
+        }
     }
 }
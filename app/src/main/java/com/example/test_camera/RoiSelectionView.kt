@@ -0,0 +1,155 @@
+package com.example.test_camera
+
+import android.content.Context
+import android.graphics.Canvas
+import android.graphics.Color
+import android.graphics.Paint
+import android.util.AttributeSet
+import android.view.GestureDetector
+import android.view.MotionEvent
+import android.view.View
+import com.example.test_camera.pipeline.ViewportMapping
+import kotlin.math.abs
+
+/**
+ * Lets the operator drag the inspection zone over the camera preview. The rectangle keeps
+ * [aspectRatio] (model input width / height), so the model sees exactly the marked area;
+ * a double tap goes back to the whole frame. Everything outside the zone is dimmed.
+ */
+class RoiSelectionView(context: Context, attrs: AttributeSet? = null) : View(context, attrs) {
+
+    /** View <-> frame mapping, shared with the box overlay */
+    var mapping: ViewportMapping? = null
+        set(value) {
+            field = value
+            invalidate()
+        }
+
+    var aspectRatio = 1f
+
+    /** Called with the new region, null for the whole frame */
+    var onRegionSelected: ((RegionOfInterest?) -> Unit)? = null
+
+    /** Region currently shown, in normalized frame coordinates */
+    var region: RegionOfInterest? = null
+        set(value) {
+            field = value
+            invalidate()
+        }
+
+    private val borderPaint = Paint().apply {
+        color = Color.YELLOW
+        style = Paint.Style.STROKE
+        strokeWidth = 4f
+    }
+
+    private val dimPaint = Paint().apply {
+        color = Color.BLACK
+        style = Paint.Style.FILL
+        alpha = 90
+    }
+
+    // Drag in progress, view coordinates
+    private var dragging = false
+    private var startX = 0f
+    private var startY = 0f
+    private var endX = 0f
+    private var endY = 0f
+
+    private val gestures = GestureDetector(context, object : GestureDetector.SimpleOnGestureListener() {
+        override fun onDoubleTap(e: MotionEvent): Boolean {
+            dragging = false
+            region = null
+            onRegionSelected?.invoke(null)
+            return true
+        }
+    })
+
+    override fun onTouchEvent(event: MotionEvent): Boolean {
+        if (mapping?.isValid != true) return false
+        if (gestures.onTouchEvent(event)) return true
+
+        when (event.actionMasked) {
+            MotionEvent.ACTION_DOWN -> {
+                startX = event.x
+                startY = event.y
+                endX = event.x
+                endY = event.y
+                dragging = true
+            }
+            MotionEvent.ACTION_MOVE -> if (dragging) {
+                updateEnd(event.x, event.y)
+                invalidate()
+            }
+            MotionEvent.ACTION_UP -> if (dragging) {
+                dragging = false
+                updateEnd(event.x, event.y)
+                if (abs(endX - startX) >= MIN_SIZE_PX && abs(endY - startY) >= MIN_SIZE_PX) {
+                    val selected = toRegion()
+                    region = selected
+                    onRegionSelected?.invoke(selected)
+                } else {
+                    invalidate()
+                }
+            }
+            MotionEvent.ACTION_CANCEL -> {
+                dragging = false
+                invalidate()
+            }
+        }
+        return true
+    }
+
+    // Width follows the finger, height follows the aspect ratio (FILL_CENTER scales uniformly)
+    private fun updateEnd(x: Float, y: Float) {
+        val width = abs(x - startX)
+        val height = width / aspectRatio
+        endX = x
+        endY = if (y >= startY) startY + height else startY - height
+    }
+
+    private fun toRegion(): RegionOfInterest? {
+        val mapping = mapping ?: return null
+        val left = mapping.toFrameX(minOf(startX, endX))
+        val right = mapping.toFrameX(maxOf(startX, endX))
+        val top = mapping.toFrameY(minOf(startY, endY))
+        val bottom = mapping.toFrameY(maxOf(startY, endY))
+        return if (left < right && top < bottom) RegionOfInterest(left, top, right, bottom) else null
+    }
+
+    override fun onDraw(canvas: Canvas) {
+        super.onDraw(canvas)
+        val mapping = mapping ?: return
+        if (!mapping.isValid) return
+
+        val left: Float
+        val top: Float
+        val right: Float
+        val bottom: Float
+        if (dragging) {
+            left = minOf(startX, endX)
+            top = minOf(startY, endY)
+            right = maxOf(startX, endX)
+            bottom = maxOf(startY, endY)
+        } else {
+            val region = region ?: return
+            left = mapping.toViewX(region.left)
+            top = mapping.toViewY(region.top)
+            right = mapping.toViewX(region.right)
+            bottom = mapping.toViewY(region.bottom)
+        }
+
+        val w = width.toFloat()
+        val h = height.toFloat()
+        canvas.drawRect(0f, 0f, w, top, dimPaint)
+        canvas.drawRect(0f, bottom, w, h, dimPaint)
+        canvas.drawRect(0f, top, left, bottom, dimPaint)
+        canvas.drawRect(right, top, w, bottom, dimPaint)
+        canvas.drawRect(left, top, right, bottom, borderPaint)
+    }
+
+    companion object {
+        // Smaller drags are taps, not selections
+        private const val MIN_SIZE_PX = 48f
+    }
+}
@@ -1,6 +1,7 @@
 package com.example.test_camera;
 
 import androidx.activity.result.ActivityResultLauncher;
+import androidx.camera.view.PreviewView;
 import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
@@ -11,29 +12,51 @@ import android.Manifest;
 import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
 import android.os.Bundle;
+import android.util.Log;
 import android.view.View;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.ImageView;
 import android.widget.LinearLayout;
+import android.widget.TextView;
 import android.widget.Toast;
 
+import com.example.test_camera.api.SessionStore;
+import com.example.test_camera.capture.BurstCapture;
+import com.example.test_camera.capture.SampleEncoder;
+
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
 
 public class Sampling extends AppCompatActivity {
 
+    private static final String TAG = "Sampling";
     private static final int REQUEST_CAMERA_PERMISSION = 100;
 
+    // Samples are stored as JPEG; set DOWNSCALE_TO_MODEL_INPUT to send them at the size
+    // the model sees instead of the captured resolution
+    private static final SampleEncoder.Format SAMPLE_FORMAT = SampleEncoder.Format.JPEG;
+    private static final int SAMPLE_QUALITY = 90;
+    private static final boolean DOWNSCALE_TO_MODEL_INPUT = false;
+
+    // Burst mode: frames per second, and frames held between camera and disk at most
+    private static final int BURST_FPS = 5;
+    private static final int BURST_BUFFERS = 4;
+
     private EditText inputLabel;
     private ImageView imagePreview;
-    private Button btnTakePicture, btnSubmit, btnRetake, btnCancel;
+    private Button btnTakePicture, btnSubmit, btnRetake, btnCancel, btnBurst;
+    private PreviewView burstPreview;
+    private TextView burstStatus;
     private LinearLayout confirmLayout;
 
     private Bitmap lastBitmap;
     private String userLabel;
 
+    private SampleEncoder sampleEncoder;
+    private BurstCapture burstCapture;
+    private boolean burstRequested;
+    private int burstQueued;
+
     // Modern Activity Result API launcher
     private ActivityResultLauncher<Void> takePicturePreviewLauncher;
 
@@ -48,8 +71,13 @@ public class Sampling extends AppCompatActivity {
         btnSubmit = findViewById(R.id.btnSubmit);
         btnRetake = findViewById(R.id.btnRetake);
         btnCancel = findViewById(R.id.btnCancel);
+        btnBurst = findViewById(R.id.btnBurst);
+        burstPreview = findViewById(R.id.burstPreview);
+        burstStatus = findViewById(R.id.burstStatus);
         confirmLayout = (LinearLayout) btnSubmit.getParent();
 
+        sampleEncoder = createSampleEncoder();
+
         // Initialize ActivityResultLauncher
         takePicturePreviewLauncher = registerForActivityResult(
                 new ActivityResultContracts.TakePicturePreview(),
@@ -59,11 +87,7 @@ public class Sampling extends AppCompatActivity {
                         showPreview(bitmap);
 
                         //Do not quit the camera, and retake the picture
-                        File file = saveBitmapToFile(lastBitmap);
-                        String apiKey = getIntent().getStringExtra("API_KEY");
-                        EdgeImpulseUploader uploader = new EdgeImpulseUploader();
-                        uploader.uploadImage(file.getAbsolutePath(), userLabel, this, apiKey);
-                        Toast.makeText(this, "Uploaded to the cloud!", Toast.LENGTH_SHORT).show();
+                        encodeAndUpload(bitmap, userLabel);
                         takePicturePreviewLauncher.launch(null);
                     } else {
                         Toast.makeText(this, "No image captured", Toast.LENGTH_SHORT).show();
@@ -79,6 +103,7 @@ public class Sampling extends AppCompatActivity {
                 return;
             }
 
+            burstRequested = false;
             if (ContextCompat.checkSelfPermission(this, Manifest.permission.CAMERA)
                     != PackageManager.PERMISSION_GRANTED) {
                 ActivityCompat.requestPermissions(this,
@@ -89,6 +114,30 @@ public class Sampling extends AppCompatActivity {
             }
         });
 
+        // BURST button, toggles in-app burst capture
+        btnBurst.setOnClickListener(v -> {
+            if (burstCapture != null) {
+                stopBurst();
+                return;
+            }
+
+            userLabel = inputLabel.getText().toString().trim();
+            if (userLabel.isEmpty()) {
+                Toast.makeText(this, "Please enter a label!", Toast.LENGTH_SHORT).show();
+                return;
+            }
+
+            burstRequested = true;
+            if (ContextCompat.checkSelfPermission(this, Manifest.permission.CAMERA)
+                    != PackageManager.PERMISSION_GRANTED) {
+                ActivityCompat.requestPermissions(this,
+                        new String[]{Manifest.permission.CAMERA},
+                        REQUEST_CAMERA_PERMISSION);
+            } else {
+                startBurst();
+            }
+        });
+
         // SUBMIT button
         btnSubmit.setOnClickListener(v -> {
             if (lastBitmap == null) {
@@ -96,15 +145,7 @@ public class Sampling extends AppCompatActivity {
                 return;
             }
 
-            File file = saveBitmapToFile(lastBitmap);
-            if (file == null) {
-                Toast.makeText(this, "Failed to save image.", Toast.LENGTH_SHORT).show();
-                return;
-            }
-
-            String apiKey = getIntent().getStringExtra("API_KEY");
-            EdgeImpulseUploader uploader = new EdgeImpulseUploader();
-            uploader.uploadImage(file.getAbsolutePath(), userLabel, this, apiKey);
+            encodeAndUpload(lastBitmap, userLabel);
             resetUI();
         });
 
@@ -132,7 +173,11 @@ public class Sampling extends AppCompatActivity {
 
         if (requestCode == REQUEST_CAMERA_PERMISSION) {
             if (grantResults.length > 0 && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
-                openCamera();
+                if (burstRequested) {
+                    startBurst();
+                } else {
+                    openCamera();
+                }
             } else {
                 Toast.makeText(this, "Camera permission denied.", Toast.LENGTH_SHORT).show();
             }
@@ -144,17 +189,95 @@ public class Sampling extends AppCompatActivity {
         takePicturePreviewLauncher.launch(null);
     }
 
-    // Save the bitmap to a file for upload
-    private File saveBitmapToFile(Bitmap bitmap) {
-        File file = new File(getCacheDir(), "photo.png");
-        try (FileOutputStream out = new FileOutputStream(file)) {
-            bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
-            out.flush();
-            return file;
-        } catch (IOException e) {
-            e.printStackTrace();
-            return null;
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        stopBurst();
+        sampleEncoder.close();
+    }
+
+    // Capture BURST_FPS frames per second in-app, every written frame goes to the upload queue
+    private void startBurst() {
+        String label = userLabel;
+        String apiKey = currentApiKey();
+        EdgeImpulseUploader uploader = new EdgeImpulseUploader();
+        burstQueued = 0;
+
+        burstCapture = new BurstCapture(this, this, burstPreview, new File(getCacheDir(), "samples"),
+                BURST_FPS, SAMPLE_QUALITY, BURST_BUFFERS, new BurstCapture.Listener() {
+            @Override
+            public void onSampleWritten(File file) {
+                uploader.uploadImage(file.getAbsolutePath(), "image/jpeg", label, Sampling.this, apiKey);
+                burstQueued++;
+                updateBurstStatus();
+            }
+
+            @Override
+            public void onError(String message) {
+                Toast.makeText(Sampling.this, message, Toast.LENGTH_SHORT).show();
+                stopBurst();
+            }
+        });
+
+        burstPreview.setVisibility(View.VISIBLE);
+        burstStatus.setVisibility(View.VISIBLE);
+        btnBurst.setText("Stop Burst");
+        btnTakePicture.setEnabled(false);
+        updateBurstStatus();
+        burstCapture.start();
+    }
+
+    private void stopBurst() {
+        if (burstCapture == null) return;
+        burstCapture.close();
+        burstCapture = null;
+
+        burstPreview.setVisibility(View.GONE);
+        btnBurst.setText("Start Burst");
+        btnTakePicture.setEnabled(true);
+    }
+
+    private void updateBurstStatus() {
+        if (burstCapture == null) return;
+        burstStatus.setText("Queued " + burstQueued + ", dropped " + burstCapture.getDroppedCount());
+    }
+
+    // The key refreshed in the background after a warm start wins over the one we started with
+    private String currentApiKey() {
+        SessionStore session = EdgeImpulseApi.session(this);
+        int projectId = session.selectedProject();
+        SessionStore.Entry<String> stored = projectId < 0 ? null : session.apiKey(projectId);
+        return stored != null ? stored.value : getIntent().getStringExtra("API_KEY");
+    }
+
+    private SampleEncoder createSampleEncoder() {
+        int targetWidth = 0;
+        int targetHeight = 0;
+        if (DOWNSCALE_TO_MODEL_INPUT) {
+            int[] inputSize = NativeClassifier.getInputSize();
+            targetWidth = inputSize[0];
+            targetHeight = inputSize[1];
         }
+        return new SampleEncoder(new File(getCacheDir(), "samples"),
+                new SampleEncoder.Options(SAMPLE_FORMAT, SAMPLE_QUALITY, targetWidth, targetHeight));
+    }
+
+    // Encode the bitmap off the UI thread into its own file, then queue it for upload
+    private void encodeAndUpload(Bitmap bitmap, String label) {
+        String apiKey = currentApiKey();
+        sampleEncoder.encode(bitmap, result -> {
+            if (result == null) {
+                Toast.makeText(this, "Failed to save image.", Toast.LENGTH_SHORT).show();
+                return;
+            }
+            Log.d(TAG, "Encoded " + result.width + "x" + result.height + " in " + result.encodeMs
+                    + " ms, " + result.bytes + " bytes (average "
+                    + sampleEncoder.getTotalEncodeMs() / Math.max(1, sampleEncoder.getEncodedCount()) + " ms)");
+
+            EdgeImpulseUploader uploader = new EdgeImpulseUploader();
+            uploader.uploadImage(result.file.getAbsolutePath(), result.contentType, label, this, apiKey);
+            Toast.makeText(this, "Queued for upload", Toast.LENGTH_SHORT).show();
+        });
     }
 
     // Display preview after capture
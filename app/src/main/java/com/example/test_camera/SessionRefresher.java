@@ -0,0 +1,101 @@
+package com.example.test_camera;
+
+import android.util.Log;
+
+import com.example.test_camera.api.SessionStore;
+import com.example.test_camera.api.StudioClient;
+import com.example.test_camera.api.StudioResponses;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Response;
+
+/**
+ * Background half of the warm start: while the camera is already running on the stored
+ * session, the project list and the selected project's API key are revalidated in
+ * parallel. The project list is fetched every time since it doubles as the JWT check;
+ * the API key only once it is older than {@link #API_KEY_TTL_MS}. A rejected JWT clears
+ * the session, the next launch goes through login again. Both results are stored only if
+ * the session was not cleared meanwhile, e.g. by the other check's 401.
+ */
+final class SessionRefresher {
+
+    private static final String TAG = "SessionRefresher";
+
+    /** Projects shown without waiting for the network while younger than this */
+    static final long PROJECTS_TTL_MS = 60 * 60 * 1000L;
+    static final long API_KEY_TTL_MS = 24 * 60 * 60 * 1000L;
+    /** Sessions older than this are not used for a warm start at all */
+    static final long MAX_STALE_MS = 30L * 24 * 60 * 60 * 1000L;
+
+    private SessionRefresher() {
+    }
+
+    /** Start both checks, the callbacks run on OkHttp threads */
+    static void refresh(StudioClient api, SessionStore session) {
+        SessionStore.Entry<String> jwt = session.jwt();
+        if (jwt == null) return;
+        api.setJwtToken(jwt.value);
+        final long generation = session.generation();
+
+        api.projects().enqueue(new SessionCallback(session) {
+            @Override
+            String read(Reader body) throws IOException {
+                StudioResponses.Result<List<SessionStore.Project>> result =
+                        StudioResponses.readProjects(body, Integer.MAX_VALUE, null);
+                if (result.success) session.putProjectsIfCurrent(generation, result.value);
+                return result.success ? null : result.error;
+            }
+        });
+
+        int projectId = session.selectedProject();
+        SessionStore.Entry<String> apiKey = projectId < 0 ? null : session.apiKey(projectId);
+        if (apiKey != null && !apiKey.isFresh(API_KEY_TTL_MS, session.now())) {
+            api.apiKeys(projectId).enqueue(new SessionCallback(session) {
+                @Override
+                String read(Reader body) throws IOException {
+                    StudioResponses.Result<String> result = StudioResponses.readApiKey(body);
+                    if (result.success) session.putApiKeyIfCurrent(generation, projectId, result.value);
+                    return result.success ? null : result.error;
+                }
+            });
+        }
+    }
+
+    /** Keeps the stored value on network errors, clears the session on 401 / 403 */
+    private abstract static class SessionCallback implements Callback {
+        private final SessionStore session;
+
+        SessionCallback(SessionStore session) {
+            this.session = session;
+        }
+
+        // Store what body holds; the studio's error message if it reports a failure
+        abstract String read(Reader body) throws IOException;
+
+        @Override
+        public void onFailure(Call call, IOException e) {
+            // Offline: the stored values stay in use until the next launch tries again
+            Log.w(TAG, "Refresh failed: " + e.getMessage());
+        }
+
+        @Override
+        public void onResponse(Call call, Response response) {
+            try (Response r = response) {
+                if (r.code() == 401 || r.code() == 403) {
+                    Log.i(TAG, "Session rejected (" + r.code() + "), cleared");
+                    session.clear();
+                    return;
+                }
+                String error = read(r.body().charStream());
+                if (error != null) Log.w(TAG, "Refresh failed: " + error);
+            } catch (IOException | IllegalStateException e) {
+                Log.w(TAG, "Refresh failed: " + e.getMessage());
+            }
+        }
+    }
+}
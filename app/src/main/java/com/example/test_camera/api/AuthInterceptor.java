@@ -0,0 +1,68 @@
+package com.example.test_camera.api;
+
+import java.io.IOException;
+
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Adds the credentials of the signed in user: the JWT ("x-jwt-token") to studio API
+ * requests and the project API key ("x-api-key") to ingestion requests. Headers a request
+ * already carries win, so callers can still send a specific key (the upload queue does,
+ * per batch). Credentials are read per request and can change at any time.
+ */
+public class AuthInterceptor implements Interceptor {
+
+    static final String JWT_HEADER = "x-jwt-token";
+    static final String API_KEY_HEADER = "x-api-key";
+
+    private final HttpUrl studioUrl;
+    private final HttpUrl ingestionUrl;
+    private volatile String jwtToken;
+    private volatile String apiKey;
+
+    AuthInterceptor(HttpUrl studioUrl, HttpUrl ingestionUrl) {
+        this.studioUrl = studioUrl;
+        this.ingestionUrl = ingestionUrl;
+    }
+
+    void setJwtToken(String jwtToken) {
+        this.jwtToken = jwtToken;
+    }
+
+    String getJwtToken() {
+        return jwtToken;
+    }
+
+    void setApiKey(String apiKey) {
+        this.apiKey = apiKey;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        HttpUrl url = request.url();
+
+        String header = null;
+        String value = null;
+        if (sameOrigin(url, studioUrl)) {
+            header = JWT_HEADER;
+            value = jwtToken;
+        } else if (sameOrigin(url, ingestionUrl)) {
+            header = API_KEY_HEADER;
+            value = apiKey;
+        }
+
+        if (header == null || value == null || request.header(header) != null) {
+            return chain.proceed(request);
+        }
+        return chain.proceed(request.newBuilder().header(header, value).build());
+    }
+
+    // Credentials never leave for another host, e.g. after a redirect
+    private static boolean sameOrigin(HttpUrl url, HttpUrl base) {
+        return url.scheme().equals(base.scheme()) && url.host().equals(base.host()) && url.port() == base.port();
+    }
+}
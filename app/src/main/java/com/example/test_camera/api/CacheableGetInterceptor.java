@@ -0,0 +1,41 @@
+package com.example.test_camera.api;
+
+import java.io.IOException;
+import java.util.Set;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Network interceptor that lets the disk cache keep successful GET responses of the given
+ * paths for maxAgeSeconds when the server sent no caching headers of its own. The cache
+ * key is the URL only; StudioClient empties the cache when the signed in user changes,
+ * including a change across restarts.
+ */
+class CacheableGetInterceptor implements Interceptor {
+
+    private final Set<String> paths;
+    private final long maxAgeSeconds;
+
+    CacheableGetInterceptor(Set<String> paths, long maxAgeSeconds) {
+        this.paths = paths;
+        this.maxAgeSeconds = maxAgeSeconds;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        Response response = chain.proceed(request);
+
+        if (!"GET".equals(request.method()) || !response.isSuccessful()
+                || !paths.contains(request.url().encodedPath())
+                || response.header("Cache-Control") != null || response.header("Expires") != null) {
+            return response;
+        }
+        return response.newBuilder()
+                .header("Cache-Control", "private, max-age=" + maxAgeSeconds)
+                .removeHeader("Pragma")
+                .build();
+    }
+}
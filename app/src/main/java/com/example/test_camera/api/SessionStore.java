@@ -0,0 +1,293 @@
+package com.example.test_camera.api;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.function.LongSupplier;
+
+/**
+ * Encrypted on-disk copy of what the studio handed out: the JWT, the project list and the
+ * API key of every project picked so far, each with the time it was fetched.
+ *
+ * It lets a returning user skip login and project selection ({@link #warmStartApiKey})
+ * while the entries are refreshed in the background (stale-while-revalidate): callers
+ * check {@link Entry#isFresh} against their TTL and refetch what is not.
+ *
+ * The whole store is one small properties file, sealed by a {@link SecretBox} (the app
+ * uses a key in the Android keystore) and replaced atomically on every change. A file that
+ * cannot be opened, e.g. because the key is gone after a backup restore, counts as empty.
+ *
+ * Thread safe. Free of Android types so it can be tested on the JVM.
+ */
+public class SessionStore {
+
+    /** Seals the stored bytes, e.g. AES-GCM with a keystore key */
+    public interface SecretBox {
+        byte[] seal(byte[] plain) throws GeneralSecurityException;
+
+        byte[] open(byte[] sealed) throws GeneralSecurityException;
+    }
+
+    /** A stored value and when it was fetched */
+    public static final class Entry<T> {
+        public final T value;
+        public final long fetchedAtMs;
+
+        Entry(T value, long fetchedAtMs) {
+            this.value = value;
+            this.fetchedAtMs = fetchedAtMs;
+        }
+
+        public boolean isFresh(long ttlMs, long nowMs) {
+            return nowMs - fetchedAtMs < ttlMs && nowMs >= fetchedAtMs;
+        }
+    }
+
+    public static final class Project {
+        public final int id;
+        public final String name;
+
+        public Project(int id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+    }
+
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private final File file;
+    private final SecretBox box;
+    private final LongSupplier clock;
+
+    private Entry<String> jwt;
+    private Entry<List<Project>> projects;
+    private final Map<Integer, Entry<String>> apiKeys = new HashMap<>();
+    private int selectedProject = -1;
+    private boolean loaded;
+    // Bumped whenever the session is cleared or replaced by another user's, see generation()
+    private long generation;
+
+    public SessionStore(File file, SecretBox box, LongSupplier clock) {
+        this.file = file;
+        this.box = box;
+        this.clock = clock;
+    }
+
+    public long now() {
+        return clock.getAsLong();
+    }
+
+    /**
+     * Changes whenever the session is cleared or another JWT replaces it. A background
+     * fetch reads it when it starts and writes with the *IfCurrent methods, so what it
+     * brings back cannot land in a session cleared (or taken over) in the meantime.
+     */
+    public synchronized long generation() {
+        return generation;
+    }
+
+    public synchronized Entry<String> jwt() {
+        load();
+        return jwt;
+    }
+
+    public synchronized Entry<List<Project>> projects() {
+        load();
+        return projects;
+    }
+
+    public synchronized Entry<String> apiKey(int projectId) {
+        load();
+        return apiKeys.get(projectId);
+    }
+
+    /** Project whose API key was fetched last, -1 if none */
+    public synchronized int selectedProject() {
+        load();
+        return selectedProject;
+    }
+
+    /**
+     * API key to start sampling with right away: there is a JWT and the selected project's
+     * key is younger than maxStaleMs. Null if the user has to go through login.
+     */
+    public synchronized String warmStartApiKey(long maxStaleMs) {
+        load();
+        if (jwt == null || selectedProject < 0) return null;
+        Entry<String> key = apiKeys.get(selectedProject);
+        return key != null && key.isFresh(maxStaleMs, now()) ? key.value : null;
+    }
+
+    public synchronized void putJwt(String token) throws IOException {
+        load();
+        // A new login may be another user, nothing fetched with the old token is kept
+        if (jwt != null && !jwt.value.equals(token)) {
+            projects = null;
+            apiKeys.clear();
+            selectedProject = -1;
+            generation++;
+        }
+        jwt = new Entry<>(token, now());
+        save();
+    }
+
+    public synchronized void putProjects(List<Project> list) throws IOException {
+        load();
+        projects = new Entry<>(Collections.unmodifiableList(new ArrayList<>(list)), now());
+        save();
+    }
+
+    /** Store the key of projectId and make it the selected project */
+    public synchronized void putApiKey(int projectId, String apiKey) throws IOException {
+        load();
+        apiKeys.put(projectId, new Entry<>(apiKey, now()));
+        selectedProject = projectId;
+        save();
+    }
+
+    /**
+     * Make projectId the selected project again, e.g. when its stored key is picked from
+     * the list. The key and the time it was fetched are left alone.
+     */
+    public synchronized void selectProject(int projectId) throws IOException {
+        load();
+        if (selectedProject == projectId) return;
+        selectedProject = projectId;
+        save();
+    }
+
+    /** putProjects, unless the session changed since generation; false if it did */
+    public synchronized boolean putProjectsIfCurrent(long generation, List<Project> list) throws IOException {
+        if (generation != this.generation) return false;
+        putProjects(list);
+        return true;
+    }
+
+    /** putApiKey, unless the session changed since generation; false if it did */
+    public synchronized boolean putApiKeyIfCurrent(long generation, int projectId, String apiKey) throws IOException {
+        if (generation != this.generation) return false;
+        putApiKey(projectId, apiKey);
+        return true;
+    }
+
+    /**
+     * Forget a key the ingestion API rejected, whichever project it belongs to. The next
+     * start goes through project selection for a new one.
+     */
+    public synchronized void removeApiKey(String apiKey) throws IOException {
+        load();
+        if (apiKeys.values().removeIf(entry -> entry.value.equals(apiKey))) {
+            save();
+        }
+    }
+
+    /** Forget everything, e.g. when the server rejected the JWT */
+    public synchronized void clear() {
+        jwt = null;
+        projects = null;
+        apiKeys.clear();
+        selectedProject = -1;
+        loaded = true;
+        generation++;
+        file.delete();
+    }
+
+    private void load() {
+        if (loaded) return;
+        loaded = true;
+        if (!file.exists()) return;
+
+        Properties props = new Properties();
+        try {
+            byte[] plain = box.open(Files.readAllBytes(file.toPath()));
+            props.load(new ByteArrayInputStream(plain));
+        } catch (IOException | GeneralSecurityException e) {
+            file.delete();
+            return;
+        }
+
+        try {
+            String token = props.getProperty("jwt");
+            if (token != null) jwt = new Entry<>(token, Long.parseLong(props.getProperty("jwt.fetched", "0")));
+
+            String projectCount = props.getProperty("projects");
+            if (projectCount != null) {
+                int count = Integer.parseInt(projectCount);
+                List<Project> list = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    list.add(new Project(Integer.parseInt(props.getProperty("project." + i + ".id")),
+                            props.getProperty("project." + i + ".name", "")));
+                }
+                projects = new Entry<>(Collections.unmodifiableList(list),
+                        Long.parseLong(props.getProperty("projects.fetched", "0")));
+            }
+
+            for (String name : props.stringPropertyNames()) {
+                if (!name.startsWith("apikey.") || name.endsWith(".fetched")) continue;
+                int projectId = Integer.parseInt(name.substring("apikey.".length()));
+                apiKeys.put(projectId, new Entry<>(props.getProperty(name),
+                        Long.parseLong(props.getProperty(name + ".fetched", "0"))));
+            }
+            selectedProject = Integer.parseInt(props.getProperty("selected", "-1"));
+        } catch (NumberFormatException | NullPointerException e) {
+            // Damaged file: start over rather than half trusting it
+            clear();
+        }
+    }
+
+    private void save() throws IOException {
+        Properties props = new Properties();
+        if (jwt != null) {
+            props.setProperty("jwt", jwt.value);
+            props.setProperty("jwt.fetched", Long.toString(jwt.fetchedAtMs));
+        }
+        if (projects != null) {
+            props.setProperty("projects", Integer.toString(projects.value.size()));
+            props.setProperty("projects.fetched", Long.toString(projects.fetchedAtMs));
+            for (int i = 0; i < projects.value.size(); i++) {
+                Project project = projects.value.get(i);
+                props.setProperty("project." + i + ".id", Integer.toString(project.id));
+                props.setProperty("project." + i + ".name", project.name);
+            }
+        }
+        for (Map.Entry<Integer, Entry<String>> key : apiKeys.entrySet()) {
+            props.setProperty("apikey." + key.getKey(), key.getValue().value);
+            props.setProperty("apikey." + key.getKey() + ".fetched", Long.toString(key.getValue().fetchedAtMs));
+        }
+        props.setProperty("selected", Integer.toString(selectedProject));
+
+        ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        props.store(plain, null);
+        byte[] sealed;
+        try {
+            sealed = box.seal(plain.toByteArray());
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Cannot encrypt session", e);
+        }
+
+        // Write and rename, a crash never leaves a half written store
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Cannot create " + parent);
+        }
+        File tmp = new File(file.getPath() + TMP_SUFFIX);
+        try (OutputStream out = new FileOutputStream(tmp)) {
+            out.write(sealed);
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Cannot write " + file);
+        }
+    }
+}
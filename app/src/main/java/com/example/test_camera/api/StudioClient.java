@@ -0,0 +1,258 @@
+package com.example.test_camera.api;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Cache;
+import okhttp3.Call;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+
+/**
+ * The one HTTP client of the app, for the studio API and the ingestion API.
+ *
+ * All calls share a connection pool, so the TLS connection opened at login is reused by
+ * the project list, the API key and the uploads (HTTP/2 multiplexes them over one
+ * connection per host). Credentials are added by an {@link AuthInterceptor}; the project
+ * list is kept in a disk cache for a short while, so going back to project selection does
+ * not wait for the network. The cache is emptied whenever the JWT changes, also across
+ * restarts: a hash of the JWT the cache was filled for is kept next to it.
+ *
+ * Free of Android types so it can be tested against a local mock server; the app-wide
+ * instance lives in EdgeImpulseApi.
+ */
+public class StudioClient {
+
+    public static final HttpUrl STUDIO_URL = HttpUrl.get("https://studio.edgeimpulse.com/");
+    public static final HttpUrl INGESTION_URL = HttpUrl.get("https://ingestion.edgeimpulse.com/");
+
+    static final String LOGIN_PATH = "/v1/api-login";
+    static final String PROJECTS_PATH = "/v1/api/projects";
+
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+
+    private final OkHttpClient client;
+    private final HttpUrl studioUrl;
+    private final HttpUrl ingestionUrl;
+    private final AuthInterceptor auth;
+    private final Object credentialsLock = new Object();
+    // Hash of the JWT the cached responses belong to, null when not loaded yet
+    private final File cacheOwnerFile;
+    private String cacheOwner;
+
+    private StudioClient(Builder builder) {
+        this.studioUrl = builder.studioUrl;
+        this.ingestionUrl = builder.ingestionUrl;
+        this.auth = new AuthInterceptor(studioUrl, ingestionUrl);
+
+        Dispatcher dispatcher = new Dispatcher();
+        // Uploads and API calls go to two hosts; the default of 5 per host queues a
+        // project list behind a burst of upload batches
+        dispatcher.setMaxRequestsPerHost(builder.maxRequestsPerHost);
+
+        OkHttpClient.Builder client = new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(builder.maxIdleConnections, builder.keepAliveMinutes, TimeUnit.MINUTES))
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .connectTimeout(15, TimeUnit.SECONDS)
+                .readTimeout(30, TimeUnit.SECONDS)
+                // Batches of images on a weak factory link
+                .writeTimeout(60, TimeUnit.SECONDS)
+                .retryOnConnectionFailure(true)
+                .addInterceptor(auth)
+                .addNetworkInterceptor(new CacheableGetInterceptor(
+                        Collections.singleton(PROJECTS_PATH), builder.projectListMaxAgeSeconds));
+        if (builder.cacheDirectory != null) {
+            client.cache(new Cache(builder.cacheDirectory, builder.cacheBytes));
+            // Beside the cache directory, OkHttp owns what is inside it
+            this.cacheOwnerFile = new File(builder.cacheDirectory.getParentFile(),
+                    builder.cacheDirectory.getName() + ".owner");
+        } else {
+            this.cacheOwnerFile = null;
+        }
+        this.client = client.build();
+    }
+
+    /** The shared OkHttpClient, e.g. for the upload queue */
+    public OkHttpClient httpClient() {
+        return client;
+    }
+
+    public HttpUrl ingestionUrl(String path) {
+        return ingestionUrl.resolve(path);
+    }
+
+    /**
+     * JWT sent with every studio request from now on, null to sign out. A token other than
+     * the one the response cache was filled for empties it, even when that was before a
+     * restart: the cached project list may belong to someone else.
+     */
+    public void setJwtToken(String jwtToken) {
+        synchronized (credentialsLock) {
+            auth.setJwtToken(jwtToken);
+            if (cacheOwnerFile == null) return;
+            String owner = jwtToken == null ? "" : sha256(jwtToken);
+            if (!owner.equals(cacheOwner())) {
+                // Forget the old owner first, a crash in between must not pair it with new entries
+                cacheOwnerFile.delete();
+                evictCache();
+                writeCacheOwner(owner);
+            }
+        }
+    }
+
+    /** API key sent with ingestion requests that do not carry their own */
+    public void setApiKey(String apiKey) {
+        auth.setApiKey(apiKey);
+    }
+
+    /** POST /v1/api-login, the response holds "token" on success */
+    public Call login(String username, String password) {
+        String body = "{\"username\":" + jsonString(username) + ",\"password\":" + jsonString(password) + "}";
+        Request request = new Request.Builder()
+                .url(studioUrl.resolve(LOGIN_PATH))
+                .post(RequestBody.create(body, JSON))
+                .build();
+        return client.newCall(request);
+    }
+
+    /** GET /v1/api/projects, served from the cache while it is fresh */
+    public Call projects() {
+        return client.newCall(new Request.Builder().url(studioUrl.resolve(PROJECTS_PATH)).build());
+    }
+
+    /** GET /v1/api/{projectId}/apikeys, never cached */
+    public Call apiKeys(int projectId) {
+        Request request = new Request.Builder()
+                .url(studioUrl.resolve("/v1/api/" + projectId + "/apikeys"))
+                .build();
+        return client.newCall(request);
+    }
+
+    private void evictCache() {
+        Cache cache = client.cache();
+        if (cache == null) return;
+        try {
+            cache.evictAll();
+        } catch (IOException ignored) {
+            // Entries that could not be removed expire with their max-age
+        }
+    }
+
+    // Called with credentialsLock held
+    private String cacheOwner() {
+        if (cacheOwner == null) {
+            try {
+                cacheOwner = new String(Files.readAllBytes(cacheOwnerFile.toPath()), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                // Never written, or unreadable: whatever is cached has no known owner
+                cacheOwner = "unknown";
+            }
+        }
+        return cacheOwner;
+    }
+
+    // Called with credentialsLock held, after the cache was emptied
+    private void writeCacheOwner(String owner) {
+        cacheOwner = owner;
+        try {
+            Files.write(cacheOwnerFile.toPath(), owner.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            // Next start finds no owner and empties the cache once more
+        }
+    }
+
+    static String sha256(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(String.format(Locale.ROOT, "%02x", b & 0xff));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 unavailable", e);
+        }
+    }
+
+    // JSON string literal for value
+    static String jsonString(String value) {
+        StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    public static final class Builder {
+        private final File cacheDirectory;
+        private HttpUrl studioUrl = STUDIO_URL;
+        private HttpUrl ingestionUrl = INGESTION_URL;
+        private long cacheBytes = 5 * 1024 * 1024;
+        private long projectListMaxAgeSeconds = 5 * 60;
+        private int maxIdleConnections = 4;
+        private long keepAliveMinutes = 5;
+        private int maxRequestsPerHost = 8;
+
+        // cacheDirectory null: no response cache
+        public Builder(File cacheDirectory) {
+            this.cacheDirectory = cacheDirectory;
+        }
+
+        // Base URLs, for tests against a mock server
+        public Builder baseUrls(HttpUrl studioUrl, HttpUrl ingestionUrl) {
+            this.studioUrl = studioUrl;
+            this.ingestionUrl = ingestionUrl;
+            return this;
+        }
+
+        public Builder cacheSize(long bytes) {
+            this.cacheBytes = bytes;
+            return this;
+        }
+
+        // How long a project list without caching headers is served from the cache
+        public Builder projectListMaxAge(long seconds) {
+            if (seconds < 0) throw new IllegalArgumentException("seconds must not be negative");
+            this.projectListMaxAgeSeconds = seconds;
+            return this;
+        }
+
+        public Builder connectionPool(int maxIdleConnections, long keepAliveMinutes) {
+            this.maxIdleConnections = maxIdleConnections;
+            this.keepAliveMinutes = keepAliveMinutes;
+            return this;
+        }
+
+        public StudioClient build() {
+            return new StudioClient(this);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.example.test_camera.api;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming parsers for the studio responses the app reads. They pull only the fields we
+ * use out of the body while it downloads, instead of buffering it as a String and
+ * building a JSONObject tree; the project list of an organization with hundreds of
+ * projects is handed out in pages as it arrives. Unknown fields are skipped.
+ *
+ * Malformed bodies throw IOException (MalformedJsonException, EOFException when the body is
+ * cut off) or IllegalStateException. Uses Gson's streaming reader, so it runs in plain JVM
+ * unit tests.
+ */
+public final class StudioResponses {
+
+    /** success / error of the studio envelope, plus the one value we were after */
+    public static final class Result<T> {
+        public boolean success;
+        public String error;
+        public T value;
+    }
+
+    // Pages grow past this one by one, callers without a listener pass Integer.MAX_VALUE
+    private static final int MAX_PAGE_CAPACITY = 64;
+
+    public interface PageListener {
+        void onPage(List<SessionStore.Project> page);
+    }
+
+    private StudioResponses() {
+    }
+
+    /** POST /v1/api-login: the JWT in "token" */
+    public static Result<String> readLogin(Reader body) throws IOException {
+        Result<String> result = new Result<>();
+        try (JsonReader reader = new JsonReader(body)) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (!readEnvelopeField(reader, name, result)) {
+                    if (name.equals("token")) {
+                        result.value = nextStringOrNull(reader);
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+            }
+            reader.endObject();
+        }
+        return result;
+    }
+
+    /**
+     * GET /v1/api/projects: every project's id and name. listener (may be null) gets them
+     * in pages of pageSize while the body is still being read; the last page may be shorter.
+     */
+    public static Result<List<SessionStore.Project>> readProjects(Reader body, int pageSize, PageListener listener)
+            throws IOException {
+        if (pageSize <= 0) throw new IllegalArgumentException("pageSize must be positive");
+        Result<List<SessionStore.Project>> result = new Result<>();
+        result.value = new ArrayList<>();
+        try (JsonReader reader = new JsonReader(body)) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (readEnvelopeField(reader, name, result)) continue;
+                if (!name.equals("projects") || reader.peek() != JsonToken.BEGIN_ARRAY) {
+                    reader.skipValue();
+                    continue;
+                }
+
+                List<SessionStore.Project> page = new ArrayList<>(Math.min(pageSize, MAX_PAGE_CAPACITY));
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    page.add(readProject(reader));
+                    if (page.size() == pageSize) {
+                        result.value.addAll(page);
+                        if (listener != null) listener.onPage(page);
+                        page = new ArrayList<>(Math.min(pageSize, MAX_PAGE_CAPACITY));
+                    }
+                }
+                reader.endArray();
+                if (!page.isEmpty()) {
+                    result.value.addAll(page);
+                    if (listener != null) listener.onPage(page);
+                }
+            }
+            reader.endObject();
+        }
+        return result;
+    }
+
+    /** GET /v1/api/{projectId}/apikeys: the first key, the one the app uploads with */
+    public static Result<String> readApiKey(Reader body) throws IOException {
+        Result<String> result = new Result<>();
+        try (JsonReader reader = new JsonReader(body)) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (readEnvelopeField(reader, name, result)) continue;
+                if (!name.equals("apiKeys") || reader.peek() != JsonToken.BEGIN_ARRAY) {
+                    reader.skipValue();
+                    continue;
+                }
+
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    if (result.value != null) {
+                        reader.skipValue();
+                        continue;
+                    }
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if (reader.nextName().equals("apiKey")) {
+                            result.value = nextStringOrNull(reader);
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                reader.endArray();
+            }
+            reader.endObject();
+        }
+        if (result.success && result.value == null) {
+            result.success = false;
+            result.error = "No API key in project";
+        }
+        return result;
+    }
+
+    private static SessionStore.Project readProject(JsonReader reader) throws IOException {
+        int id = -1;
+        String name = "";
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "id":
+                    try {
+                        id = reader.nextInt();
+                    } catch (NumberFormatException e) {
+                        throw new IllegalStateException("Project id is not a number");
+                    }
+                    break;
+                case "name":
+                    String value = nextStringOrNull(reader);
+                    if (value != null) name = value;
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (id < 0) throw new IllegalStateException("Project without id");
+        return new SessionStore.Project(id, name);
+    }
+
+    // "success" and "error", false if name is neither
+    private static boolean readEnvelopeField(JsonReader reader, String name, Result<?> result) throws IOException {
+        switch (name) {
+            case "success":
+                if (reader.peek() == JsonToken.BOOLEAN) {
+                    result.success = reader.nextBoolean();
+                } else {
+                    reader.skipValue();
+                }
+                return true;
+            case "error":
+                result.error = nextStringOrNull(reader);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // Strings and numbers as text, anything else (null, objects) as null
+    private static String nextStringOrNull(JsonReader reader) throws IOException {
+        JsonToken token = reader.peek();
+        if (token == JsonToken.STRING || token == JsonToken.NUMBER) return reader.nextString();
+        reader.skipValue();
+        return null;
+    }
+}
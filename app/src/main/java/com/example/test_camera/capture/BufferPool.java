@@ -0,0 +1,62 @@
+package com.example.test_camera.capture;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Fixed number of reusable byte buffers. When all are in use {@link #acquire} returns null
+ * instead of allocating, so the memory held by frames in flight stays bounded.
+ */
+public class BufferPool {
+
+    /** Pooled buffer; data may be longer than the valid length */
+    public static final class Buffer {
+        byte[] data;
+        int length;
+
+        Buffer(int capacity) {
+            data = new byte[capacity];
+        }
+
+        public byte[] getData() { return data; }
+        public int getLength() { return length; }
+    }
+
+    private final ArrayBlockingQueue<Buffer> free;
+    private final int capacity;
+
+    public BufferPool(int count, int initialCapacity) {
+        if (count <= 0) throw new IllegalArgumentException("count must be positive");
+        capacity = count;
+        free = new ArrayBlockingQueue<>(count);
+        for (int i = 0; i < count; i++) {
+            free.add(new Buffer(initialCapacity));
+        }
+    }
+
+    /**
+     * A free buffer able to hold [size] bytes, or null if all are in use. A buffer that is
+     * too small is grown once and keeps its new size.
+     */
+    public Buffer acquire(int size) {
+        Buffer buffer = free.poll();
+        if (buffer == null) return null;
+        if (buffer.data.length < size) {
+            buffer.data = new byte[size];
+        }
+        buffer.length = size;
+        return buffer;
+    }
+
+    public void release(Buffer buffer) {
+        buffer.length = 0;
+        free.offer(buffer);
+    }
+
+    public int available() {
+        return free.size();
+    }
+
+    public int size() {
+        return capacity;
+    }
+}
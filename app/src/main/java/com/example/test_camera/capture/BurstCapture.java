@@ -0,0 +1,253 @@
+package com.example.test_camera.capture;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.Size;
+
+import androidx.annotation.NonNull;
+import androidx.camera.core.CameraSelector;
+import androidx.camera.core.ImageCapture;
+import androidx.camera.core.ImageCaptureException;
+import androidx.camera.core.ImageProxy;
+import androidx.camera.core.Preview;
+import androidx.camera.core.resolutionselector.ResolutionSelector;
+import androidx.camera.core.resolutionselector.ResolutionStrategy;
+import androidx.camera.lifecycle.ProcessCameraProvider;
+import androidx.camera.view.PreviewView;
+import androidx.core.content.ContextCompat;
+import androidx.lifecycle.LifecycleOwner;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-app burst sampling: takes [framesPerSecond] stills with CameraX ImageCapture and
+ * writes each one to its own JPEG file, ready for the upload queue.
+ *
+ * The camera already delivers JPEG, so frames are copied into a pooled buffer and written
+ * as they are, without decoding. At most [poolSize] frames are held between the camera and
+ * the file writer; a frame arriving while all buffers are busy is dropped and counted.
+ */
+public class BurstCapture {
+
+    private static final String TAG = "BurstCapture";
+    // Large enough for a 1280x960 JPEG, bigger frames grow their buffer once
+    private static final int INITIAL_BUFFER_BYTES = 512 * 1024;
+    private static final Size TARGET_SIZE = new Size(1280, 960);
+
+    /** Called on the main thread */
+    public interface Listener {
+        void onSampleWritten(File file);
+
+        void onError(String message);
+    }
+
+    private final Context context;
+    private final LifecycleOwner lifecycleOwner;
+    private final PreviewView previewView;
+    private final File directory;
+    private final int framesPerSecond;
+    private final int jpegQuality;
+    private final Listener listener;
+
+    private final BufferPool pool;
+    private final ExecutorService captureExecutor = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "burst-capture"));
+    private final ExecutorService writeExecutor = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "burst-writer"));
+    private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(
+            runnable -> new Thread(runnable, "burst-ticker"));
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Captures requested and not yet written or dropped; the workers outlive close() until 0
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger sequence = new AtomicInteger();
+    private final AtomicInteger capturedCount = new AtomicInteger();
+    private final AtomicInteger droppedCount = new AtomicInteger();
+    private final AtomicInteger writtenCount = new AtomicInteger();
+
+    // Set on the main thread, imageCapture is read by the ticker
+    private volatile ProcessCameraProvider cameraProvider;
+    private volatile ImageCapture imageCapture;
+    private ScheduledFuture<?> tick;
+    private volatile boolean closed;
+
+    public BurstCapture(Context context, LifecycleOwner lifecycleOwner, PreviewView previewView,
+                        File directory, int framesPerSecond, int jpegQuality, int poolSize,
+                        Listener listener) {
+        if (framesPerSecond <= 0) throw new IllegalArgumentException("framesPerSecond must be positive");
+        this.context = context;
+        this.lifecycleOwner = lifecycleOwner;
+        this.previewView = previewView;
+        this.directory = directory;
+        this.framesPerSecond = framesPerSecond;
+        this.jpegQuality = jpegQuality;
+        this.listener = listener;
+        this.pool = new BufferPool(poolSize, INITIAL_BUFFER_BYTES);
+    }
+
+    /** Bind the camera and start capturing, call on the main thread */
+    public void start() {
+        if (tick != null) return;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            listener.onError("Cannot create " + directory);
+            return;
+        }
+
+        ListenableFuture<ProcessCameraProvider> providerFuture = ProcessCameraProvider.getInstance(context);
+        providerFuture.addListener(() -> {
+            // close() came first: the ticker is shut down and the camera must stay unbound
+            if (closed) return;
+            try {
+                cameraProvider = providerFuture.get();
+            } catch (Exception e) {
+                listener.onError("Camera unavailable: " + e.getMessage());
+                return;
+            }
+
+            Preview preview = new Preview.Builder().build();
+            preview.setSurfaceProvider(previewView.getSurfaceProvider());
+
+            imageCapture = new ImageCapture.Builder()
+                    .setCaptureMode(ImageCapture.CAPTURE_MODE_MINIMIZE_LATENCY)
+                    .setJpegQuality(jpegQuality)
+                    .setResolutionSelector(new ResolutionSelector.Builder()
+                            .setResolutionStrategy(new ResolutionStrategy(TARGET_SIZE,
+                                    ResolutionStrategy.FALLBACK_RULE_CLOSEST_LOWER_THEN_HIGHER))
+                            .build())
+                    .build();
+
+            cameraProvider.unbindAll();
+            cameraProvider.bindToLifecycle(lifecycleOwner, CameraSelector.DEFAULT_BACK_CAMERA,
+                    preview, imageCapture);
+
+            long periodUs = TimeUnit.SECONDS.toMicros(1) / framesPerSecond;
+            tick = ticker.scheduleAtFixedRate(this::captureFrame, 0, periodUs, TimeUnit.MICROSECONDS);
+        }, ContextCompat.getMainExecutor(context));
+    }
+
+    /** Stop capturing and release the camera; frames already captured are still written */
+    public void stop() {
+        if (tick != null) {
+            tick.cancel(false);
+            tick = null;
+        }
+        if (cameraProvider != null) {
+            cameraProvider.unbindAll();
+        }
+    }
+
+    // stop() first; the worker threads end once the captures still pending are written
+    public void close() {
+        stop();
+        ticker.shutdownNow();
+        closed = true;
+        if (inFlight.get() == 0) {
+            shutdownWorkers();
+        }
+    }
+
+    // A capture is written or dropped; the last one after close() ends the workers
+    private void finishCapture() {
+        if (inFlight.decrementAndGet() == 0 && closed) {
+            shutdownWorkers();
+        }
+    }
+
+    private void shutdownWorkers() {
+        captureExecutor.shutdown();
+        writeExecutor.shutdown();
+    }
+
+    public int getCapturedCount() { return capturedCount.get(); }
+    public int getDroppedCount() { return droppedCount.get(); }
+    public int getWrittenCount() { return writtenCount.get(); }
+
+    // Runs on the ticker, one request per tick as long as a buffer could take the result
+    private void captureFrame() {
+        ImageCapture capture = imageCapture;
+        if (capture == null) return;
+        if (inFlight.get() >= pool.size()) {
+            droppedCount.incrementAndGet();
+            return;
+        }
+
+        inFlight.incrementAndGet();
+        // close() may have seen no capture pending and shut the workers down
+        if (closed) {
+            finishCapture();
+            return;
+        }
+        capture.takePicture(captureExecutor, new ImageCapture.OnImageCapturedCallback() {
+            @Override
+            public void onCaptureSuccess(@NonNull ImageProxy image) {
+                capturedCount.incrementAndGet();
+                BufferPool.Buffer buffer;
+                try {
+                    ByteBuffer jpeg = image.getPlanes()[0].getBuffer();
+                    jpeg.rewind();
+                    buffer = pool.acquire(jpeg.remaining());
+                    if (buffer != null) {
+                        jpeg.get(buffer.data, 0, buffer.length);
+                    }
+                } finally {
+                    image.close();
+                }
+
+                if (buffer == null) {
+                    // Writer is behind, all buffers are full
+                    droppedCount.incrementAndGet();
+                    finishCapture();
+                    return;
+                }
+                writeExecutor.execute(() -> write(buffer));
+            }
+
+            @Override
+            public void onError(@NonNull ImageCaptureException exception) {
+                droppedCount.incrementAndGet();
+                finishCapture();
+                Log.w(TAG, "Capture failed", exception);
+            }
+        });
+    }
+
+    private void write(BufferPool.Buffer buffer) {
+        File file = new File(directory, String.format(Locale.ROOT, "burst-%d-%05d.jpg",
+                System.currentTimeMillis(), sequence.getAndIncrement()));
+        boolean written;
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(buffer.data, 0, buffer.length);
+            written = true;
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot write " + file, e);
+            written = false;
+        } finally {
+            pool.release(buffer);
+        }
+
+        if (written) {
+            writtenCount.incrementAndGet();
+            mainHandler.post(() -> listener.onSampleWritten(file));
+        } else {
+            file.delete();
+            droppedCount.incrementAndGet();
+        }
+        // Last, the write executor is shut down from here when this was the last capture
+        finishCapture();
+    }
+}
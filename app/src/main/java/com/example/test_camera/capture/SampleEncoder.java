@@ -0,0 +1,182 @@
+package com.example.test_camera.capture;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Encodes captured samples on a background thread, each into its own file, so the UI
+ * thread never waits for compression and a queued upload is never overwritten by the
+ * next shot. Results are delivered on the main thread.
+ */
+public class SampleEncoder implements AutoCloseable {
+
+    public enum Format {
+        JPEG("jpg", "image/jpeg"),
+        WEBP("webp", "image/webp"),
+        PNG("png", "image/png");
+
+        final String extension;
+        final String contentType;
+
+        Format(String extension, String contentType) {
+            this.extension = extension;
+            this.contentType = contentType;
+        }
+    }
+
+    /** How samples are written */
+    public static final class Options {
+        final Format format;
+        final int quality;      // 0..100, ignored for PNG
+        final int targetWidth;  // downscale target, 0 keeps the captured size
+        final int targetHeight;
+
+        /**
+         * With a target size, samples are downscaled until they just cover it (e.g. the
+         * model input), so a later center crop to the target loses no resolution.
+         */
+        public Options(Format format, int quality, int targetWidth, int targetHeight) {
+            if (quality < 0 || quality > 100) throw new IllegalArgumentException("quality must be 0..100");
+            this.format = format;
+            this.quality = quality;
+            this.targetWidth = targetWidth;
+            this.targetHeight = targetHeight;
+        }
+    }
+
+    /** One encoded sample */
+    public static final class Result {
+        public final File file;
+        public final String contentType;
+        public final int width;
+        public final int height;
+        public final long encodeMs;   // scaling and compression
+        public final long bytes;
+
+        Result(File file, String contentType, int width, int height, long encodeMs, long bytes) {
+            this.file = file;
+            this.contentType = contentType;
+            this.width = width;
+            this.height = height;
+            this.encodeMs = encodeMs;
+            this.bytes = bytes;
+        }
+    }
+
+    public interface Callback {
+        // result is null if the sample could not be written
+        void onEncoded(Result result);
+    }
+
+    private final File directory;
+    private final Options options;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "sample-encoder"));
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicInteger sequence = new AtomicInteger();
+
+    private final AtomicInteger encodedCount = new AtomicInteger();
+    private final AtomicLong totalEncodeMs = new AtomicLong();
+    private final AtomicLong totalBytes = new AtomicLong();
+
+    public SampleEncoder(File directory, Options options) {
+        this.directory = directory;
+        this.options = options;
+    }
+
+    /**
+     * Encode [bitmap] into a new file. The bitmap must not be changed or recycled until
+     * the callback has run.
+     */
+    public void encode(Bitmap bitmap, Callback callback) {
+        executor.execute(() -> {
+            Result result = encodeNow(bitmap);
+            mainHandler.post(() -> callback.onEncoded(result));
+        });
+    }
+
+    public int getEncodedCount() { return encodedCount.get(); }
+    public long getTotalEncodeMs() { return totalEncodeMs.get(); }
+    public long getTotalBytes() { return totalBytes.get(); }
+
+    // Lets queued samples finish, then stops the thread
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    private Result encodeNow(Bitmap bitmap) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            return null;
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        Bitmap scaled = scaleToCover(bitmap);
+        int width = scaled.getWidth();
+        int height = scaled.getHeight();
+        File file = new File(directory, String.format(Locale.ROOT, "sample-%d-%04d.%s",
+                System.currentTimeMillis(), sequence.getAndIncrement(), options.format.extension));
+
+        boolean written;
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 64 * 1024)) {
+            written = scaled.compress(compressFormat(options.format), options.quality, out);
+        } catch (IOException e) {
+            written = false;
+        } finally {
+            if (scaled != bitmap) scaled.recycle();
+        }
+        long encodeMs = SystemClock.elapsedRealtime() - start;
+
+        if (!written) {
+            file.delete();
+            return null;
+        }
+
+        long bytes = file.length();
+        encodedCount.incrementAndGet();
+        totalEncodeMs.addAndGet(encodeMs);
+        totalBytes.addAndGet(bytes);
+        return new Result(file, options.format.contentType, width, height, encodeMs, bytes);
+    }
+
+    // Keep the aspect ratio, never upscale
+    private Bitmap scaleToCover(Bitmap bitmap) {
+        if (options.targetWidth <= 0 || options.targetHeight <= 0) return bitmap;
+
+        float scale = Math.max((float) options.targetWidth / bitmap.getWidth(),
+                (float) options.targetHeight / bitmap.getHeight());
+        if (scale >= 1f) return bitmap;
+
+        int width = Math.max(1, Math.round(bitmap.getWidth() * scale));
+        int height = Math.max(1, Math.round(bitmap.getHeight() * scale));
+        return Bitmap.createScaledBitmap(bitmap, width, height, true);
+    }
+
+    @SuppressWarnings("deprecation")
+    private static Bitmap.CompressFormat compressFormat(Format format) {
+        switch (format) {
+            case WEBP:
+                return Build.VERSION.SDK_INT >= Build.VERSION_CODES.R
+                        ? Bitmap.CompressFormat.WEBP_LOSSY
+                        : Bitmap.CompressFormat.WEBP;
+            case PNG:
+                return Bitmap.CompressFormat.PNG;
+            default:
+                return Bitmap.CompressFormat.JPEG;
+        }
+    }
+}
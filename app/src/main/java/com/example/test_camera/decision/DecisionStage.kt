@@ -0,0 +1,116 @@
+package com.example.test_camera.decision
+
+/**
+ * Streaming decision between the classifier and the UI: gets the anomaly probability of
+ * every frame, in frame order, and returns the current verdict. Implementations keep
+ * their state in primitives and fixed buffers, update() allocates nothing.
+ */
+interface DecisionStage {
+    /** Smoothed anomaly score behind the last verdict */
+    val score: Float
+
+    /** Feed the next frame's anomaly probability, returns true while the verdict is anomaly */
+    fun update(probability: Float): Boolean
+
+    /** Forget all frames seen so far, e.g. when the camera restarts */
+    fun reset()
+}
+
+/** Exponential moving average of the probability against [threshold] */
+class EmaDecision(private val alpha: Float, private val threshold: Float = 0.5f) : DecisionStage {
+
+    init {
+        require(alpha > 0f && alpha <= 1f) { "alpha must be in (0, 1]" }
+    }
+
+    override var score = Float.NaN
+        private set
+
+    override fun update(probability: Float): Boolean {
+        score = if (score.isNaN()) probability else score + alpha * (probability - score)
+        return score > threshold
+    }
+
+    override fun reset() {
+        score = Float.NaN
+    }
+}
+
+/**
+ * Majority vote over the last [window] frames: anomaly when more than [quorum] of the
+ * frames in the window had a probability above [threshold].
+ */
+class MajorityDecision(
+    window: Int,
+    private val threshold: Float = 0.5f,
+    private val quorum: Float = 0.5f
+) : DecisionStage {
+
+    private val votes = FloatRingBuffer(window)
+
+    // Share of anomaly votes in the window
+    override var score = Float.NaN
+        private set
+
+    override fun update(probability: Float): Boolean {
+        votes.add(if (probability > threshold) 1f else 0f)
+        score = votes.mean()
+        return score > quorum
+    }
+
+    override fun reset() {
+        votes.clear()
+        score = Float.NaN
+    }
+}
+
+/**
+ * Two thresholds instead of one: the verdict turns to anomaly once the score stayed at or
+ * above [enterThreshold] for [enterFrames] frames in a row, and back to normal once it
+ * stayed at or below [exitThreshold] for [exitFrames] frames. Scores in between keep the
+ * current verdict. Scores come from [source] if given (e.g. an [EmaDecision]), otherwise
+ * the raw probability is used.
+ */
+class HysteresisDecision(
+    private val enterThreshold: Float,
+    private val exitThreshold: Float,
+    private val enterFrames: Int = 1,
+    private val exitFrames: Int = 1,
+    private val source: DecisionStage? = null
+) : DecisionStage {
+
+    init {
+        require(exitThreshold <= enterThreshold) { "exitThreshold must not be above enterThreshold" }
+        require(enterFrames > 0 && exitFrames > 0) { "enterFrames and exitFrames must be positive" }
+    }
+
+    private var anomaly = false
+    private var streak = 0 // frames in a row past the threshold that would flip the verdict
+
+    override var score = Float.NaN
+        private set
+
+    override fun update(probability: Float): Boolean {
+        score = if (source != null) {
+            source.update(probability)
+            source.score
+        } else {
+            probability
+        }
+
+        val flips = if (anomaly) score <= exitThreshold else score >= enterThreshold
+        streak = if (flips) streak + 1 else 0
+        if (streak >= (if (anomaly) exitFrames else enterFrames)) {
+            anomaly = !anomaly
+            streak = 0
+        }
+        return anomaly
+    }
+
+    override fun reset() {
+        source?.reset()
+        anomaly = false
+        streak = 0
+        score = Float.NaN
+    }
+}
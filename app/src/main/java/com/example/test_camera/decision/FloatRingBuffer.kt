@@ -0,0 +1,44 @@
+package com.example.test_camera.decision
+
+/** Last [capacity] float values with a running sum, no allocation after construction */
+class FloatRingBuffer(val capacity: Int) {
+
+    init {
+        require(capacity > 0) { "capacity must be positive" }
+    }
+
+    private val values = FloatArray(capacity)
+    private var head = 0 // next slot to write
+    private var sum = 0.0
+
+    var size = 0
+        private set
+
+    /** Add [value], dropping the oldest one when full */
+    fun add(value: Float) {
+        if (size == capacity) {
+            sum -= values[head]
+        } else {
+            size++
+        }
+        values[head] = value
+        sum += value
+        head = (head + 1) % capacity
+    }
+
+    /** [index] 0 is the oldest value */
+    operator fun get(index: Int): Float {
+        if (index < 0 || index >= size) throw IndexOutOfBoundsException("index $index, size $size")
+        return values[(head - size + index + capacity) % capacity]
+    }
+
+    fun sum(): Float = sum.toFloat()
+
+    fun mean(): Float = if (size == 0) Float.NaN else (sum / size).toFloat()
+
+    fun clear() {
+        head = 0
+        size = 0
+        sum = 0.0
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.test_camera.journal
+
+import com.example.test_camera.InferenceResult
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+/**
+ * File layout of a [ResultJournal], all values little endian.
+ *
+ * Header ([HEADER_SIZE] bytes): magic, version, record size, capacity, label count,
+ * max boxes, records written (long). Then [capacity] records of [recordSize] bytes; record
+ * n lives in slot n % capacity and its first field is n once it is complete.
+ */
+data class JournalLayout(val capacity: Int, val labelCount: Int, val maxBoxes: Int) {
+
+    init {
+        require(capacity > 0) { "capacity must be positive" }
+        require(labelCount >= 0 && maxBoxes >= 0) { "labelCount and maxBoxes must not be negative" }
+        require(fileSize <= Int.MAX_VALUE) { "Journal too large to map" }
+    }
+
+    // Rounded to 8 so the long fields of every record stay aligned
+    val recordSize: Int
+        get() = (RECORD_SCORES + labelCount * 4 + maxBoxes * BOX_BYTES + 7) and 7.inv()
+
+    val fileSize: Long
+        get() = HEADER_SIZE + capacity.toLong() * recordSize
+
+    fun recordOffset(sequence: Long): Int {
+        return HEADER_SIZE + (sequence % capacity).toInt() * recordSize
+    }
+
+    fun boxesOffset(recordOffset: Int): Int {
+        return recordOffset + RECORD_SCORES + labelCount * 4
+    }
+
+    internal fun writeHeader(buffer: ByteBuffer) {
+        buffer.putInt(HEADER_MAGIC, MAGIC)
+        buffer.putInt(HEADER_VERSION, VERSION)
+        buffer.putInt(HEADER_RECORD_SIZE, recordSize)
+        buffer.putInt(HEADER_CAPACITY, capacity)
+        buffer.putInt(HEADER_LABEL_COUNT, labelCount)
+        buffer.putInt(HEADER_MAX_BOXES, maxBoxes)
+        buffer.putLong(HEADER_WRITE_COUNT, 0L)
+    }
+
+    companion object {
+        const val MAGIC = 0x4A524945 // "EIRJ"
+        const val VERSION = 3 // 3: boxes in normalized frame coordinates
+
+        const val HEADER_MAGIC = 0
+        const val HEADER_VERSION = 4
+        const val HEADER_RECORD_SIZE = 8
+        const val HEADER_CAPACITY = 12
+        const val HEADER_LABEL_COUNT = 16
+        const val HEADER_MAX_BOXES = 20
+        const val HEADER_WRITE_COUNT = 24
+        const val HEADER_SIZE = 64
+
+        const val RECORD_SEQUENCE = 0
+        const val RECORD_TIMESTAMP_MS = 8
+        const val RECORD_FRAME_TIMESTAMP_NS = 16
+        const val RECORD_TIMING_DSP_US = 24
+        const val RECORD_TIMING_CLASSIFICATION_US = 32
+        const val RECORD_TIMING_ANOMALY_US = 40
+        const val RECORD_ANOMALY = 48
+        const val RECORD_VISUAL_ANOMALY_MAX = 52
+        const val RECORD_VISUAL_ANOMALY_MEAN = 56
+        const val RECORD_TIMING_SAMPLING = 60
+        const val RECORD_TIMING_DSP = 64
+        const val RECORD_TIMING_CLASSIFICATION = 68
+        const val RECORD_TIMING_ANOMALY = 72
+        const val RECORD_BOX_COUNT = 76       // boxes stored in this record
+        const val RECORD_DROPPED_BOXES = 80   // boxes beyond maxBoxes, not stored
+        const val RECORD_DECISION = 84        // DECISION_* verdict of the decision stage
+        const val RECORD_DECISION_SCORE = 88  // smoothed score behind the verdict
+        const val RECORD_SCORES = 92          // labelCount floats, then the boxes
+
+        const val DECISION_PENDING = -1
+        const val DECISION_NORMAL = 0
+        const val DECISION_ANOMALY = 1
+
+        const val BOX_BYTES = InferenceResult.BOX_STRIDE * 4
+
+        /** Layout stored in the header of [file], null if it is no journal */
+        @JvmStatic
+        fun readHeader(file: RandomAccessFile): JournalLayout? {
+            if (file.length() < HEADER_SIZE) return null
+            val header = ByteArray(HEADER_SIZE)
+            file.seek(0)
+            file.readFully(header)
+            return fromHeader(ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN))
+        }
+
+        /** Format version in the header of [file], null if it is no journal of any version */
+        @JvmStatic
+        fun readVersion(file: RandomAccessFile): Int? {
+            if (file.length() < HEADER_VERSION + 4) return null
+            val header = ByteArray(HEADER_VERSION + 4)
+            file.seek(0)
+            file.readFully(header)
+            val buffer = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN)
+            return if (buffer.getInt(HEADER_MAGIC) == MAGIC) buffer.getInt(HEADER_VERSION) else null
+        }
+
+        internal fun fromHeader(buffer: ByteBuffer): JournalLayout? {
+            if (buffer.getInt(HEADER_MAGIC) != MAGIC || buffer.getInt(HEADER_VERSION) != VERSION) return null
+            val layout = try {
+                JournalLayout(
+                    buffer.getInt(HEADER_CAPACITY),
+                    buffer.getInt(HEADER_LABEL_COUNT),
+                    buffer.getInt(HEADER_MAX_BOXES)
+                )
+            } catch (e: IllegalArgumentException) {
+                return null
+            }
+            return if (layout.recordSize == buffer.getInt(HEADER_RECORD_SIZE)) layout else null
+        }
+    }
+}
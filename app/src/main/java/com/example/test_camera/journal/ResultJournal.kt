@@ -0,0 +1,185 @@
+package com.example.test_camera.journal
+
+import com.example.test_camera.InferenceResult
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteOrder
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+
+/**
+ * Fixed-size ring log of per-frame inference results in a memory-mapped file.
+ *
+ * Every record has the same size: timestamps, sequence number, class scores, anomaly
+ * values, the Timing fields, the verdict of the decision stage and up to [maxBoxes]
+ * packed boxes (object detections first, then visual anomaly cells). Once [capacity]
+ * records are written the oldest ones are overwritten. [append] only does absolute puts
+ * into the mapping, so it allocates nothing and needs no system call per frame; the
+ * kernel writes the pages back.
+ *
+ * The layout is little endian and described by [JournalLayout], see [ResultJournalReader]
+ * for reading it back. An existing journal with the same layout is continued, one with a
+ * different layout or format version is replaced; [replaced] tells why, so the caller can
+ * report the lost records. Older versions are not migrated: their boxes were stored in
+ * model input coordinates, which cannot be mapped back to the frame afterwards.
+ */
+class ResultJournal private constructor(
+    val file: File,
+    val layout: JournalLayout,
+    private val buffer: MappedByteBuffer,
+    /** Why the file found at open was started over, null if it was continued or empty */
+    val replaced: String?
+) : AutoCloseable {
+
+    private var writeCount = buffer.getLong(JournalLayout.HEADER_WRITE_COUNT)
+    private var closed = false
+
+    /** Records written since the journal was created, including overwritten ones */
+    val recordCount: Long
+        @Synchronized get() = writeCount
+
+    /**
+     * Append [result]; [timestampMs] is wall clock time, [frameTimestampNs] the camera
+     * timestamp of the frame. Returns the record's sequence number, -1 once closed.
+     * Safe to call from any thread; records are numbered in call order, so call it in frame
+     * order (from the scheduler's ordered result delivery) for a replay to match the camera.
+     */
+    @Synchronized
+    fun append(timestampMs: Long, frameTimestampNs: Long, result: InferenceResult): Long {
+        if (closed) return -1
+        val sequence = writeCount
+        val base = layout.recordOffset(sequence)
+
+        // Invalidate the slot first, a reader never sees half of an old and half of a new record
+        buffer.putLong(base + JournalLayout.RECORD_SEQUENCE, -1L)
+
+        buffer.putLong(base + JournalLayout.RECORD_TIMESTAMP_MS, timestampMs)
+        buffer.putLong(base + JournalLayout.RECORD_FRAME_TIMESTAMP_NS, frameTimestampNs)
+        buffer.putFloat(base + JournalLayout.RECORD_ANOMALY, result.anomaly)
+        buffer.putFloat(base + JournalLayout.RECORD_VISUAL_ANOMALY_MAX, result.visualAnomalyMax)
+        buffer.putFloat(base + JournalLayout.RECORD_VISUAL_ANOMALY_MEAN, result.visualAnomalyMean)
+
+        val timing = result.timing
+        buffer.putInt(base + JournalLayout.RECORD_TIMING_SAMPLING, timing.sampling)
+        buffer.putInt(base + JournalLayout.RECORD_TIMING_DSP, timing.dsp)
+        buffer.putInt(base + JournalLayout.RECORD_TIMING_CLASSIFICATION, timing.classification)
+        buffer.putInt(base + JournalLayout.RECORD_TIMING_ANOMALY, timing.anomaly)
+        buffer.putLong(base + JournalLayout.RECORD_TIMING_DSP_US, timing.dsp_us)
+        buffer.putLong(base + JournalLayout.RECORD_TIMING_CLASSIFICATION_US, timing.classification_us)
+        buffer.putLong(base + JournalLayout.RECORD_TIMING_ANOMALY_US, timing.anomaly_us)
+
+        var offset = base + JournalLayout.RECORD_SCORES
+        val scores = result.classification
+        for (i in 0 until layout.labelCount) {
+            buffer.putFloat(offset, if (scores != null && i < scores.size) scores[i] else Float.NaN)
+            offset += 4
+        }
+
+        // Boxes: detections, then anomaly cells, as many as fit
+        val boxesOffset = offset
+        var stored = putBoxes(boxesOffset, 0, result.objectDetections)
+        stored = putBoxes(boxesOffset, stored, result.visualAnomalyGridCells)
+        val total = boxCount(result.objectDetections) + boxCount(result.visualAnomalyGridCells)
+        buffer.putInt(base + JournalLayout.RECORD_BOX_COUNT, stored)
+        buffer.putInt(base + JournalLayout.RECORD_DROPPED_BOXES, total - stored)
+        buffer.putInt(base + JournalLayout.RECORD_DECISION, JournalLayout.DECISION_PENDING)
+        buffer.putFloat(base + JournalLayout.RECORD_DECISION_SCORE, Float.NaN)
+
+        // Commit: the sequence number marks the record as complete
+        buffer.putLong(base + JournalLayout.RECORD_SEQUENCE, sequence)
+        writeCount = sequence + 1
+        buffer.putLong(JournalLayout.HEADER_WRITE_COUNT, writeCount)
+        return sequence
+    }
+
+    /**
+     * Store the decision stage verdict for record [sequence], which is made later and in
+     * frame order. Ignored if the record was already overwritten.
+     */
+    @Synchronized
+    fun recordDecision(sequence: Long, anomaly: Boolean, score: Float) {
+        if (closed || sequence < 0 || sequence >= writeCount || sequence < writeCount - layout.capacity) return
+        val base = layout.recordOffset(sequence)
+        buffer.putInt(
+            base + JournalLayout.RECORD_DECISION,
+            if (anomaly) JournalLayout.DECISION_ANOMALY else JournalLayout.DECISION_NORMAL
+        )
+        buffer.putFloat(base + JournalLayout.RECORD_DECISION_SCORE, score)
+    }
+
+    /** Write the mapped pages to storage now instead of whenever the kernel decides */
+    @Synchronized
+    fun flush() {
+        if (!closed) buffer.force()
+    }
+
+    @Synchronized
+    override fun close() {
+        if (closed) return
+        buffer.force()
+        closed = true
+    }
+
+    private fun putBoxes(boxesOffset: Int, first: Int, boxes: FloatArray?): Int {
+        if (boxes == null) return first
+        var stored = first
+        var i = 0
+        while (i + InferenceResult.BOX_STRIDE <= boxes.size && stored < layout.maxBoxes) {
+            var offset = boxesOffset + stored * JournalLayout.BOX_BYTES
+            for (j in 0 until InferenceResult.BOX_STRIDE) {
+                buffer.putFloat(offset, boxes[i + j])
+                offset += 4
+            }
+            stored++
+            i += InferenceResult.BOX_STRIDE
+        }
+        return stored
+    }
+
+    private fun boxCount(boxes: FloatArray?): Int {
+        return if (boxes == null) 0 else boxes.size / InferenceResult.BOX_STRIDE
+    }
+
+    companion object {
+        /**
+         * Open (or create) the journal at [file] for [capacity] records of [labelCount]
+         * scores and up to [maxBoxes] boxes each.
+         */
+        @JvmStatic
+        @Throws(IOException::class)
+        fun open(file: File, capacity: Int, labelCount: Int, maxBoxes: Int): ResultJournal {
+            val layout = JournalLayout(capacity, labelCount, maxBoxes)
+            file.parentFile?.mkdirs()
+
+            RandomAccessFile(file, "rw").use { raf ->
+                val reuse = raf.length() == layout.fileSize && JournalLayout.readHeader(raf) == layout
+                val replaced = if (reuse || raf.length() == 0L) null else replacedReason(raf, layout)
+                if (!reuse) {
+                    raf.setLength(0)
+                    raf.setLength(layout.fileSize)
+                }
+
+                // The mapping stays valid after the channel is closed
+                val buffer = raf.channel.map(FileChannel.MapMode.READ_WRITE, 0, layout.fileSize)
+                buffer.order(ByteOrder.LITTLE_ENDIAN)
+                if (!reuse) {
+                    layout.writeHeader(buffer)
+                    buffer.force()
+                }
+                return ResultJournal(file, layout, buffer, replaced)
+            }
+        }
+
+        private fun replacedReason(file: RandomAccessFile, layout: JournalLayout): String {
+            val version = JournalLayout.readVersion(file)
+            val found = JournalLayout.readHeader(file)
+            return when {
+                version == null -> "not a journal"
+                version != JournalLayout.VERSION -> "format version $version, now ${JournalLayout.VERSION}"
+                found == null || found == layout -> "damaged header or size"
+                else -> "layout $found, now $layout"
+            }
+        }
+    }
+}
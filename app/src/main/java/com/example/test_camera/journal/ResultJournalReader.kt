@@ -0,0 +1,181 @@
+package com.example.test_camera.journal
+
+import com.example.test_camera.InferenceResult
+import com.example.test_camera.Timing
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteOrder
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+
+/** One journal record; [ResultJournalReader] refills the same instance for every record */
+class JournalRecord(layout: JournalLayout) {
+    var sequence = 0L
+    var timestampMs = 0L
+    var frameTimestampNs = 0L
+    val scores = FloatArray(layout.labelCount)
+    var anomaly = Float.NaN
+    var visualAnomalyMax = Float.NaN
+    var visualAnomalyMean = Float.NaN
+    var timingSampling = 0
+    var timingDsp = 0
+    var timingClassification = 0
+    var timingAnomaly = 0
+    var timingDspUs = 0L
+    var timingClassificationUs = 0L
+    var timingAnomalyUs = 0L
+    var boxCount = 0
+    var droppedBoxes = 0
+    var decision = JournalLayout.DECISION_PENDING
+    var decisionScore = Float.NaN
+    val boxes = FloatArray(layout.maxBoxes * InferenceResult.BOX_STRIDE) // boxCount boxes are valid
+
+    /** The record as an InferenceResult again, e.g. to replay it into the UI */
+    fun toInferenceResult(): InferenceResult {
+        var detections = 0
+        for (i in 0 until boxCount) {
+            if (boxes[i * InferenceResult.BOX_STRIDE + InferenceResult.BOX_LABEL] >= 0f) detections++
+        }
+        val objectDetections = FloatArray(detections * InferenceResult.BOX_STRIDE)
+        val cells = FloatArray((boxCount - detections) * InferenceResult.BOX_STRIDE)
+        var detectionOffset = 0
+        var cellOffset = 0
+        for (i in 0 until boxCount) {
+            val from = i * InferenceResult.BOX_STRIDE
+            if (boxes[from + InferenceResult.BOX_LABEL] >= 0f) {
+                System.arraycopy(boxes, from, objectDetections, detectionOffset, InferenceResult.BOX_STRIDE)
+                detectionOffset += InferenceResult.BOX_STRIDE
+            } else {
+                System.arraycopy(boxes, from, cells, cellOffset, InferenceResult.BOX_STRIDE)
+                cellOffset += InferenceResult.BOX_STRIDE
+            }
+        }
+
+        return InferenceResult(
+            if (scores.isEmpty()) null else scores.copyOf(),
+            if (detections == 0) null else objectDetections,
+            if (cells.isEmpty()) null else cells,
+            anomaly,
+            visualAnomalyMax,
+            visualAnomalyMean,
+            Timing(
+                timingSampling, timingDsp, timingClassification, timingAnomaly,
+                timingDspUs, timingClassificationUs, timingAnomalyUs
+            )
+        )
+    }
+}
+
+/**
+ * Read access to a [ResultJournal] file, for export and replay. Can be opened while the
+ * journal is still being written; records overwritten during a read are skipped.
+ */
+class ResultJournalReader private constructor(
+    val layout: JournalLayout,
+    private val buffer: MappedByteBuffer
+) {
+
+    /** Records written so far, including overwritten ones */
+    fun recordCount(): Long = buffer.getLong(JournalLayout.HEADER_WRITE_COUNT)
+
+    /** Sequence number of the oldest record still in the ring */
+    fun oldestSequence(): Long = maxOf(0L, recordCount() - layout.capacity)
+
+    /**
+     * Fill [record] with record [sequence]. Returns false if it is not written yet, was
+     * already overwritten, or is being written right now.
+     */
+    fun read(sequence: Long, record: JournalRecord): Boolean {
+        if (sequence < oldestSequence() || sequence >= recordCount()) return false
+        val base = layout.recordOffset(sequence)
+        if (buffer.getLong(base + JournalLayout.RECORD_SEQUENCE) != sequence) return false
+
+        record.sequence = sequence
+        record.timestampMs = buffer.getLong(base + JournalLayout.RECORD_TIMESTAMP_MS)
+        record.frameTimestampNs = buffer.getLong(base + JournalLayout.RECORD_FRAME_TIMESTAMP_NS)
+        record.anomaly = buffer.getFloat(base + JournalLayout.RECORD_ANOMALY)
+        record.visualAnomalyMax = buffer.getFloat(base + JournalLayout.RECORD_VISUAL_ANOMALY_MAX)
+        record.visualAnomalyMean = buffer.getFloat(base + JournalLayout.RECORD_VISUAL_ANOMALY_MEAN)
+        record.timingSampling = buffer.getInt(base + JournalLayout.RECORD_TIMING_SAMPLING)
+        record.timingDsp = buffer.getInt(base + JournalLayout.RECORD_TIMING_DSP)
+        record.timingClassification = buffer.getInt(base + JournalLayout.RECORD_TIMING_CLASSIFICATION)
+        record.timingAnomaly = buffer.getInt(base + JournalLayout.RECORD_TIMING_ANOMALY)
+        record.timingDspUs = buffer.getLong(base + JournalLayout.RECORD_TIMING_DSP_US)
+        record.timingClassificationUs = buffer.getLong(base + JournalLayout.RECORD_TIMING_CLASSIFICATION_US)
+        record.timingAnomalyUs = buffer.getLong(base + JournalLayout.RECORD_TIMING_ANOMALY_US)
+        record.boxCount = buffer.getInt(base + JournalLayout.RECORD_BOX_COUNT).coerceIn(0, layout.maxBoxes)
+        record.droppedBoxes = buffer.getInt(base + JournalLayout.RECORD_DROPPED_BOXES)
+        record.decision = buffer.getInt(base + JournalLayout.RECORD_DECISION)
+        record.decisionScore = buffer.getFloat(base + JournalLayout.RECORD_DECISION_SCORE)
+
+        var offset = base + JournalLayout.RECORD_SCORES
+        for (i in 0 until layout.labelCount) {
+            record.scores[i] = buffer.getFloat(offset)
+            offset += 4
+        }
+        for (i in 0 until record.boxCount * InferenceResult.BOX_STRIDE) {
+            record.boxes[i] = buffer.getFloat(offset)
+            offset += 4
+        }
+
+        // Still the same record, the writer did not lap us meanwhile
+        return buffer.getLong(base + JournalLayout.RECORD_SEQUENCE) == sequence
+    }
+
+    /** Call [action] for every record from [fromSequence] on, oldest first, with one reused record */
+    fun forEach(fromSequence: Long = oldestSequence(), action: (JournalRecord) -> Unit) {
+        val record = JournalRecord(layout)
+        val end = recordCount()
+        var sequence = maxOf(fromSequence, oldestSequence())
+        while (sequence < end) {
+            if (read(sequence, record)) action(record)
+            sequence++
+        }
+    }
+
+    /** Write all records as CSV, one row per frame, scores in [labels] order */
+    fun exportCsv(out: Appendable, labels: Array<String>) {
+        out.append("sequence,timestamp_ms,frame_timestamp_ns")
+        for (i in 0 until layout.labelCount) {
+            out.append(',').append(if (i < labels.size) labels[i] else "score$i")
+        }
+        out.append(",anomaly,visual_anomaly_max,visual_anomaly_mean")
+        out.append(",dsp_us,classification_us,anomaly_us,boxes,dropped_boxes,decision,decision_score\n")
+
+        forEach { record ->
+            out.append(record.sequence.toString()).append(',')
+                .append(record.timestampMs.toString()).append(',')
+                .append(record.frameTimestampNs.toString())
+            for (score in record.scores) {
+                out.append(',').append(score.toString())
+            }
+            out.append(',').append(record.anomaly.toString())
+                .append(',').append(record.visualAnomalyMax.toString())
+                .append(',').append(record.visualAnomalyMean.toString())
+                .append(',').append(record.timingDspUs.toString())
+                .append(',').append(record.timingClassificationUs.toString())
+                .append(',').append(record.timingAnomalyUs.toString())
+                .append(',').append(record.boxCount.toString())
+                .append(',').append(record.droppedBoxes.toString())
+                .append(',').append(record.decision.toString())
+                .append(',').append(record.decisionScore.toString())
+                .append('\n')
+        }
+    }
+
+    companion object {
+        @JvmStatic
+        @Throws(IOException::class)
+        fun open(file: File): ResultJournalReader {
+            RandomAccessFile(file, "r").use { raf ->
+                val layout = JournalLayout.readHeader(raf) ?: throw IOException("Not a result journal: $file")
+                if (raf.length() < layout.fileSize) throw IOException("Truncated result journal: $file")
+
+                val buffer = raf.channel.map(FileChannel.MapMode.READ_ONLY, 0, layout.fileSize)
+                buffer.order(ByteOrder.LITTLE_ENDIAN)
+                return ResultJournalReader(layout, buffer)
+            }
+        }
+    }
+}
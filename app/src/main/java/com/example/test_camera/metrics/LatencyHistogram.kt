@@ -0,0 +1,99 @@
+package com.example.test_camera.metrics
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * Lock-free latency histogram in microseconds with HDR style buckets: values below
+ * [SUB_BUCKETS] are counted exactly, larger ones in [SUB_BUCKETS] linear steps per power of
+ * two, so every bucket is within 1/[SUB_BUCKETS] (about 6%) of its values. Values above
+ * [MAX_VALUE_US] land in the last bucket.
+ *
+ * [record] is a couple of atomic adds and safe from any thread; [snapshot] copies the
+ * counts without stopping writers, so it may be off by the samples recorded meanwhile.
+ */
+class LatencyHistogram {
+
+    private val counts = AtomicLongArray(BUCKET_COUNT)
+    private val sum = AtomicLong()
+    private val max = AtomicLong()
+
+    fun record(valueUs: Long) {
+        val value = valueUs.coerceIn(0L, MAX_VALUE_US)
+        counts.incrementAndGet(bucketIndex(value))
+        sum.addAndGet(value)
+        var current = max.get()
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get()
+        }
+    }
+
+    fun snapshot(): Snapshot {
+        val copy = LongArray(BUCKET_COUNT)
+        var count = 0L
+        for (i in 0 until BUCKET_COUNT) {
+            copy[i] = counts.get(i)
+            count += copy[i]
+        }
+        return Snapshot(copy, count, sum.get(), max.get())
+    }
+
+    fun reset() {
+        for (i in 0 until BUCKET_COUNT) counts.set(i, 0L)
+        sum.set(0L)
+        max.set(0L)
+    }
+
+    /** Counts at one point in time; [count] is the sum of the bucket counts */
+    class Snapshot internal constructor(
+        private val counts: LongArray,
+        val count: Long,
+        val sumUs: Long,
+        val maxUs: Long
+    ) {
+        val meanUs: Double
+            get() = if (count == 0L) 0.0 else sumUs.toDouble() / count
+
+        /**
+         * Value at [quantile] (0..1): the upper end of the bucket holding it, capped at
+         * the largest recorded value. 0 without samples.
+         */
+        fun valueAt(quantile: Double): Long {
+            if (count == 0L) return 0L
+            val rank = maxOf(1L, Math.ceil(quantile.coerceIn(0.0, 1.0) * count).toLong())
+            var seen = 0L
+            for (i in counts.indices) {
+                seen += counts[i]
+                if (seen >= rank) return minOf(bucketUpperBound(i), maxUs)
+            }
+            return maxUs
+        }
+    }
+
+    companion object {
+        private const val SUB_BUCKET_BITS = 4
+        const val SUB_BUCKETS = 1 shl SUB_BUCKET_BITS
+
+        // Highest power of two tracked, 2^36 us is about 19 hours
+        private const val MAX_EXPONENT = 36
+        const val MAX_VALUE_US = (1L shl (MAX_EXPONENT + 1)) - 1
+
+        private const val BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS
+
+        internal fun bucketIndex(value: Long): Int {
+            if (value < SUB_BUCKETS) return value.toInt()
+            val exponent = 63 - java.lang.Long.numberOfLeadingZeros(value)
+            val shift = exponent - SUB_BUCKET_BITS
+            // Top SUB_BUCKET_BITS + 1 bits, the leading one selects the group
+            val sub = (value ushr shift).toInt()
+            return (shift + 1) * SUB_BUCKETS + sub - SUB_BUCKETS
+        }
+
+        internal fun bucketUpperBound(index: Int): Long {
+            if (index < 2 * SUB_BUCKETS) return index.toLong()
+            val shift = index / SUB_BUCKETS - 1
+            val sub = (SUB_BUCKETS + index % SUB_BUCKETS).toLong()
+            return ((sub + 1) shl shift) - 1
+        }
+    }
+}
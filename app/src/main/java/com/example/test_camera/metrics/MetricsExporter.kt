@@ -0,0 +1,73 @@
+package com.example.test_camera.metrics
+
+import java.io.File
+import java.io.IOException
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+
+/**
+ * Writes [metrics] to [directory] every [intervalMs] on its own background thread:
+ * metrics.json and metrics.prom (Prometheus text), each replaced atomically so a reader
+ * (adb pull, a node exporter textfile collector) never sees half a file.
+ */
+class MetricsExporter(
+    private val metrics: PipelineMetrics,
+    private val directory: File,
+    private val intervalMs: Long
+) : AutoCloseable {
+
+    init {
+        require(intervalMs > 0) { "intervalMs must be positive" }
+    }
+
+    private val executor: ScheduledExecutorService = Executors.newSingleThreadScheduledExecutor { runnable ->
+        Thread(runnable, "metrics-export").apply {
+            isDaemon = true
+            priority = Thread.MIN_PRIORITY
+        }
+    }
+
+    fun start() {
+        executor.scheduleWithFixedDelay(::exportQuietly, intervalMs, intervalMs, TimeUnit.MILLISECONDS)
+    }
+
+    /** Write both files now, on the calling thread */
+    @Throws(IOException::class)
+    fun export() {
+        if (!directory.isDirectory && !directory.mkdirs()) throw IOException("Cannot create $directory")
+        val snapshot = metrics.snapshot()
+        writeAtomically(File(directory, JSON_FILE), MetricsFormatter.toJson(snapshot))
+        writeAtomically(File(directory, PROMETHEUS_FILE), MetricsFormatter.toPrometheus(snapshot))
+    }
+
+    /** Stops the periodic export; a last dump is still written in the background */
+    override fun close() {
+        if (executor.isShutdown) return
+        executor.execute(::exportQuietly)
+        // Cancels the periodic task, the last dump still runs
+        executor.shutdown()
+    }
+
+    // An exception would cancel the schedule, a failed dump only skips one interval
+    private fun exportQuietly() {
+        try {
+            export()
+        } catch (ignored: IOException) {
+        }
+    }
+
+    private fun writeAtomically(file: File, text: String) {
+        val tmp = File(file.parentFile, file.name + ".tmp")
+        tmp.writeText(text)
+        if (!tmp.renameTo(file)) {
+            tmp.delete()
+            throw IOException("Cannot replace $file")
+        }
+    }
+
+    companion object {
+        const val JSON_FILE = "metrics.json"
+        const val PROMETHEUS_FILE = "metrics.prom"
+    }
+}
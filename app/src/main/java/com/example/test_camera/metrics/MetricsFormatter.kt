@@ -0,0 +1,97 @@
+package com.example.test_camera.metrics
+
+import java.util.Locale
+
+/** Renders a [PipelineMetrics.Snapshot] as JSON, Prometheus text exposition or debug overlay text */
+object MetricsFormatter {
+
+    const val PROMETHEUS_PREFIX = "camera_pipeline_"
+
+    private val QUANTILES = doubleArrayOf(0.5, 0.9, 0.99)
+
+    fun toJson(snapshot: PipelineMetrics.Snapshot): String {
+        val sb = StringBuilder(2048)
+        sb.append("{\"timestamp_ms\":").append(snapshot.timestampMs)
+        sb.append(",\"stages\":{")
+        var first = true
+        for ((stage, histogram) in snapshot.stages) {
+            if (!first) sb.append(',')
+            first = false
+            sb.append('"').append(stage.metricName).append("\":{")
+                .append("\"count\":").append(histogram.count)
+                .append(",\"mean_us\":").append(Math.round(histogram.meanUs))
+                .append(",\"p50_us\":").append(histogram.valueAt(0.5))
+                .append(",\"p90_us\":").append(histogram.valueAt(0.9))
+                .append(",\"p99_us\":").append(histogram.valueAt(0.99))
+                .append(",\"max_us\":").append(histogram.maxUs)
+                .append('}')
+        }
+        sb.append("},\"counters\":{")
+        first = true
+        for ((counter, value) in snapshot.counters) {
+            if (!first) sb.append(',')
+            first = false
+            sb.append('"').append(counter.metricName).append("\":").append(value)
+        }
+        sb.append("},\"gauges\":{")
+        first = true
+        for ((name, value) in snapshot.gauges) {
+            if (!first) sb.append(',')
+            first = false
+            sb.append('"').append(name).append("\":").append(value)
+        }
+        sb.append("}}")
+        return sb.toString()
+    }
+
+    /** Prometheus text format 0.0.4: stages as summaries, counters as *_total, gauges as is */
+    fun toPrometheus(snapshot: PipelineMetrics.Snapshot): String {
+        val sb = StringBuilder(4096)
+        for ((stage, histogram) in snapshot.stages) {
+            val name = PROMETHEUS_PREFIX + stage.metricName + "_microseconds"
+            sb.append("# HELP ").append(name).append(' ').append(stage.help).append('\n')
+            sb.append("# TYPE ").append(name).append(" summary\n")
+            for (quantile in QUANTILES) {
+                sb.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+                    .append(histogram.valueAt(quantile)).append('\n')
+            }
+            sb.append(name).append("_sum ").append(histogram.sumUs).append('\n')
+            sb.append(name).append("_count ").append(histogram.count).append('\n')
+        }
+        for ((counter, value) in snapshot.counters) {
+            val name = PROMETHEUS_PREFIX + counter.metricName + "_total"
+            sb.append("# HELP ").append(name).append(' ').append(counter.help).append('\n')
+            sb.append("# TYPE ").append(name).append(" counter\n")
+            sb.append(name).append(' ').append(value).append('\n')
+        }
+        for ((gaugeName, value) in snapshot.gauges) {
+            val name = PROMETHEUS_PREFIX + gaugeName
+            sb.append("# TYPE ").append(name).append(" gauge\n")
+            sb.append(name).append(' ').append(value).append('\n')
+        }
+        return sb.toString()
+    }
+
+    /** Compact table for the on-screen debug overlay, stages without samples are left out */
+    fun toOverlayText(snapshot: PipelineMetrics.Snapshot): String {
+        val sb = StringBuilder(1024)
+        sb.append(String.format(Locale.ROOT, "%-15s %7s %7s %7s %6s\n", "ms", "p50", "p90", "p99", "n"))
+        for ((stage, histogram) in snapshot.stages) {
+            if (histogram.count == 0L) continue
+            sb.append(
+                String.format(
+                    Locale.ROOT, "%-15s %7.1f %7.1f %7.1f %6d\n", stage.metricName,
+                    histogram.valueAt(0.5) / 1000.0, histogram.valueAt(0.9) / 1000.0,
+                    histogram.valueAt(0.99) / 1000.0, histogram.count
+                )
+            )
+        }
+        for ((counter, value) in snapshot.counters) {
+            if (value != 0L) sb.append(counter.metricName).append(' ').append(value).append('\n')
+        }
+        for ((name, value) in snapshot.gauges) {
+            sb.append(name).append(' ').append(value).append('\n')
+        }
+        return sb.toString().trimEnd()
+    }
+}
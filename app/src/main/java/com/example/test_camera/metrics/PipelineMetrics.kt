@@ -0,0 +1,134 @@
+package com.example.test_camera.metrics
+
+import com.example.test_camera.InferenceResult
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.atomic.LongAdder
+
+/**
+ * Per-stage latencies and event counts of the capture -> inference -> UI pipeline.
+ * Recording is lock free (one histogram per [Stage], one LongAdder per [Counter]), so it can
+ * stay on in production and be called from the analyzer, the inference workers, the main
+ * thread and the upload workers alike. Values owned elsewhere (e.g. FrameScheduler counts)
+ * are added as gauges, read when a snapshot is taken.
+ *
+ * Plain JVM, the app uses [shared]; tests create their own.
+ */
+class PipelineMetrics {
+
+    /** Timed stages, all in microseconds */
+    enum class Stage(val metricName: String, val help: String) {
+        FRAME_INTERVAL("frame_interval", "Time between frames delivered by the camera"),
+        CONVERSION("conversion", "Frame conversion, crop and resize to the model input"),
+        JNI("jni_overhead", "Classify call time the native stages do not cover (JNI, change gate, copies)"),
+        DSP("dsp", "Impulse DSP block"),
+        CLASSIFICATION("classification", "Model inference"),
+        ANOMALY("anomaly", "Anomaly block"),
+        MARSHALLING("marshalling", "Building the Java result in native code"),
+        RESULT_LATENCY("result_latency", "Classification start to result shown"),
+        UI_UPDATE("ui_update", "Result panel and overlay update on the main thread"),
+        OVERLAY_DRAW("overlay_draw", "Bounding box overlay onDraw"),
+        UPLOAD("upload", "Ingestion API request")
+    }
+
+    enum class Counter(val metricName: String, val help: String) {
+        FRAMES_ARRIVED("frames_arrived", "Frames delivered by the camera"),
+        FRAMES_THROTTLED("frames_throttled", "Frames skipped by the frame governor"),
+        FRAMES_CLASSIFIED("frames_classified", "Frames run through the impulse"),
+        FRAMES_REUSED("frames_reused", "Frames answered with the previous result by the change gate"),
+        CLASSIFY_FAILURES("classify_failures", "Frames native code returned no result for"),
+        UPLOADED_FILES("uploaded_files", "Files accepted by the ingestion API"),
+        UPLOAD_FAILURES("upload_failures", "Files dropped from the upload queue"),
+        UPLOADED_BYTES("uploaded_bytes", "Payload bytes accepted by the ingestion API")
+    }
+
+    /** Value read from elsewhere when a snapshot is taken */
+    fun interface Gauge {
+        fun value(): Long
+    }
+
+    class Snapshot(
+        val timestampMs: Long,
+        val stages: Map<Stage, LatencyHistogram.Snapshot>,
+        val counters: Map<Counter, Long>,
+        val gauges: Map<String, Long>
+    )
+
+    private class NamedGauge(val name: String, val gauge: Gauge)
+
+    private val histograms = Array(Stage.values().size) { LatencyHistogram() }
+    private val counters = Array(Counter.values().size) { LongAdder() }
+    private val gauges = CopyOnWriteArrayList<NamedGauge>()
+
+    fun record(stage: Stage, valueUs: Long) {
+        histograms[stage.ordinal].record(valueUs)
+    }
+
+    /** Record the time since [startNs] (System.nanoTime) */
+    fun recordSince(stage: Stage, startNs: Long) {
+        histograms[stage.ordinal].record((System.nanoTime() - startNs) / 1000L)
+    }
+
+    /**
+     * Record one native classify call: its stages from the result's Timing and whatever of
+     * [callUs] (wall time of the call) they do not cover as JNI overhead. A null result is
+     * a failure; a result with no impulse timing was reused by the change gate.
+     */
+    fun recordClassify(result: InferenceResult?, callUs: Long) {
+        if (result == null) {
+            increment(Counter.CLASSIFY_FAILURES)
+            return
+        }
+        val timing = result.timing
+        val impulseUs = timing.dsp_us + timing.classification_us + timing.anomaly_us
+        if (impulseUs > 0) {
+            increment(Counter.FRAMES_CLASSIFIED)
+            record(Stage.CONVERSION, timing.conversion_us)
+            record(Stage.DSP, timing.dsp_us)
+            record(Stage.CLASSIFICATION, timing.classification_us)
+            if (timing.anomaly_us > 0) record(Stage.ANOMALY, timing.anomaly_us)
+        } else {
+            increment(Counter.FRAMES_REUSED)
+        }
+        record(Stage.MARSHALLING, timing.marshal_us)
+        record(Stage.JNI, callUs - impulseUs - timing.conversion_us - timing.marshal_us)
+    }
+
+    fun increment(counter: Counter) {
+        counters[counter.ordinal].increment()
+    }
+
+    fun add(counter: Counter, amount: Long) {
+        counters[counter.ordinal].add(amount)
+    }
+
+    /** Add or replace the gauge [name] (a Prometheus metric name suffix) */
+    fun registerGauge(name: String, gauge: Gauge) {
+        gauges.removeAll { it.name == name }
+        gauges.add(NamedGauge(name, gauge))
+    }
+
+    fun unregisterGauge(name: String) {
+        gauges.removeAll { it.name == name }
+    }
+
+    fun snapshot(timestampMs: Long = System.currentTimeMillis()): Snapshot {
+        val stageSnapshots = LinkedHashMap<Stage, LatencyHistogram.Snapshot>()
+        for (stage in Stage.values()) stageSnapshots[stage] = histograms[stage.ordinal].snapshot()
+        val counterValues = LinkedHashMap<Counter, Long>()
+        for (counter in Counter.values()) counterValues[counter] = counters[counter.ordinal].sum()
+        val gaugeValues = LinkedHashMap<String, Long>()
+        for (gauge in gauges) gaugeValues[gauge.name] = gauge.gauge.value()
+        return Snapshot(timestampMs, stageSnapshots, counterValues, gaugeValues)
+    }
+
+    fun reset() {
+        histograms.forEach { it.reset() }
+        counters.forEach { it.reset() }
+    }
+
+    companion object {
+        /** Metrics of the running app */
+        @JvmField
+        val shared = PipelineMetrics()
+    }
+}
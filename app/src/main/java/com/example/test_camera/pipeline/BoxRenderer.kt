@@ -0,0 +1,57 @@
+package com.example.test_camera.pipeline
+
+import com.example.test_camera.InferenceResult
+
+/** Draw target of [BoxRenderer], BoundingBoxOverlay implements it over a Canvas */
+interface BoxCanvas {
+    // View coordinates
+    fun drawBox(left: Float, top: Float, right: Float, bottom: Float, anomalyCell: Boolean)
+
+    // text is only valid during the call
+    fun drawLabel(text: CharSequence, x: Float, y: Float, centered: Boolean)
+}
+
+/**
+ * Turns packed boxes (InferenceResult.BOX_STRIDE floats each, normalized frame coordinates)
+ * into draw calls in view coordinates without allocating: geometry stays in floats and label
+ * text comes from a [LabelTextCache].
+ */
+class BoxRenderer {
+
+    private val labelText = LabelTextCache()
+
+    /** Anomaly cells lower than this (view pixels) get no score text, it would not fit */
+    var minCellLabelHeight = 0f
+
+    fun render(boxes: FloatArray, labels: Array<String>, mapping: ViewportMapping, canvas: BoxCanvas) {
+        if (!mapping.isValid) return
+        var i = 0
+        while (i + InferenceResult.BOX_STRIDE <= boxes.size) {
+            val x = boxes[i + InferenceResult.BOX_X]
+            val y = boxes[i + InferenceResult.BOX_Y]
+            val left = mapping.toViewX(x)
+            val top = mapping.toViewY(y)
+            val right = mapping.toViewX(x + boxes[i + InferenceResult.BOX_WIDTH])
+            val bottom = mapping.toViewY(y + boxes[i + InferenceResult.BOX_HEIGHT])
+            val confidence = boxes[i + InferenceResult.BOX_CONFIDENCE]
+            val labelIndex = boxes[i + InferenceResult.BOX_LABEL].toInt()
+
+            if (labelIndex < 0) {
+                // Visual anomaly cell: filled box with the score in the center
+                canvas.drawBox(left, top, right, bottom, true)
+                if (bottom - top >= minCellLabelHeight) {
+                    canvas.drawLabel(labelText.score(confidence), (left + right) / 2f, (top + bottom) / 2f, true)
+                }
+            } else {
+                // Standard object detection box with "label (NN%)" above it
+                canvas.drawBox(left, top, right, bottom, false)
+                canvas.drawLabel(labelText.detection(labels, labelIndex, confidence), left, top - LABEL_OFFSET_PX, false)
+            }
+            i += InferenceResult.BOX_STRIDE
+        }
+    }
+
+    companion object {
+        private const val LABEL_OFFSET_PX = 10f
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.test_camera.pipeline
+
+/**
+ * Pixel conversions of the Bitmap fallback path, kept free of Android types so they
+ * can be measured on a plain JVM.
+ */
+object FrameConversion {
+
+    /**
+     * Rotate ARGB pixels of a [width] x [height] image clockwise by 0/90/180/270 degrees
+     * into [dst]. For 90 and 270 the result is [height] pixels wide.
+     */
+    @JvmStatic
+    fun rotateArgb(src: IntArray, width: Int, height: Int, degrees: Int, dst: IntArray) {
+        require(src.size >= width * height && dst.size >= width * height) { "Buffer too small" }
+
+        when (((degrees % 360) + 360) % 360) {
+            0 -> System.arraycopy(src, 0, dst, 0, width * height)
+            90 -> {
+                // src (x, y) -> dst (height - 1 - y, x), dst is height pixels wide
+                for (y in 0 until height) {
+                    val srcRow = y * width
+                    val dstX = height - 1 - y
+                    for (x in 0 until width) {
+                        dst[x * height + dstX] = src[srcRow + x]
+                    }
+                }
+            }
+            180 -> {
+                val last = width * height - 1
+                for (i in 0..last) {
+                    dst[last - i] = src[i]
+                }
+            }
+            270 -> {
+                // src (x, y) -> dst (y, width - 1 - x)
+                for (y in 0 until height) {
+                    val srcRow = y * width
+                    for (x in 0 until width) {
+                        dst[(width - 1 - x) * height + y] = src[srcRow + x]
+                    }
+                }
+            }
+            else -> throw IllegalArgumentException("Unsupported rotation: $degrees")
+        }
+    }
+
+    /** Unpack [count] ARGB_8888 pixels into RGB888 bytes */
+    @JvmStatic
+    fun argbToRgb888(pixels: IntArray, count: Int, out: ByteArray) {
+        require(pixels.size >= count && out.size >= count * 3) { "Buffer too small" }
+
+        var o = 0
+        for (i in 0 until count) {
+            val pixel = pixels[i]
+            out[o] = (pixel shr 16).toByte()
+            out[o + 1] = (pixel shr 8).toByte()
+            out[o + 2] = pixel.toByte()
+            o += 3
+        }
+    }
+}
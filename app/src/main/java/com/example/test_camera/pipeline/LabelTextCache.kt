@@ -0,0 +1,47 @@
+package com.example.test_camera.pipeline
+
+/**
+ * Label strings for [BoxRenderer], built once and reused on every frame. Detection labels
+ * ("label (NN%)") are cached per label and whole percent, anomaly cell scores per hundredth
+ * up to [maxCachedScore]. Values outside the cached ranges are formatted into one reused
+ * builder, which is only valid until the next call. Not thread safe.
+ */
+class LabelTextCache(private val maxCachedScore: Float = 10f) {
+
+    private var labels: Array<String> = emptyArray()
+    private var detectionText: Array<Array<String?>?> = emptyArray()
+    private val scoreText = arrayOfNulls<String>(Math.round(maxCachedScore * 100.0).toInt() + 1)
+    private val fallback = StringBuilder(64)
+
+    /** "label (NN%)" for a detection box, same digits as the truncated confidence percent */
+    fun detection(labels: Array<String>, labelIndex: Int, confidence: Float): CharSequence {
+        if (labels !== this.labels) {
+            this.labels = labels
+            detectionText = arrayOfNulls(labels.size)
+        }
+        val percent = (confidence * 100).toInt()
+        if (labelIndex < 0 || labelIndex >= labels.size || percent < 0 || percent > 100) {
+            fallback.setLength(0)
+            fallback.append(if (labelIndex >= 0 && labelIndex < labels.size) labels[labelIndex] else "?")
+                .append(" (").append(percent).append("%)")
+            return fallback
+        }
+        val perLabel = detectionText[labelIndex] ?: arrayOfNulls<String>(101).also { detectionText[labelIndex] = it }
+        return perLabel[percent] ?: "${labels[labelIndex]} ($percent%)".also { perLabel[percent] = it }
+    }
+
+    /** Anomaly score with two decimals, as ResultTextFormatter.appendFixed2 writes it */
+    fun score(value: Float): CharSequence {
+        // Negative values (also -0.0) and NaN are not cached, they keep their sign / spelling
+        if (java.lang.Float.floatToRawIntBits(value) >= 0 && value <= maxCachedScore) {
+            val index = Math.round(value.toDouble() * 100.0).toInt()
+            if (index < scoreText.size) {
+                return scoreText[index] ?: StringBuilder(8).also { ResultTextFormatter.appendFixed2(it, value) }
+                    .toString().also { scoreText[index] = it }
+            }
+        }
+        fallback.setLength(0)
+        ResultTextFormatter.appendFixed2(fallback, value)
+        return fallback
+    }
+}
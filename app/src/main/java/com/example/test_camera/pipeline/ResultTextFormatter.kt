@@ -0,0 +1,75 @@
+package com.example.test_camera.pipeline
+
+import com.example.test_camera.InferenceResult
+
+/**
+ * Builds the text of the result panel. Reuses one StringBuilder and formats decimals
+ * without String.format, so the only allocation per frame is the final String.
+ * Not thread safe, use one instance per UI.
+ */
+class ResultTextFormatter {
+
+    private val text = StringBuilder(256)
+
+    /**
+     * Text for [result]; [anomalyLabelIndex] / [normalLabelIndex] point into the label
+     * table (-1 if the model has no such label). [verdict] is the decision stage's call,
+     * without one the frame's own probability is compared with [anomalyThreshold].
+     */
+    fun format(
+        result: InferenceResult,
+        anomalyLabelIndex: Int,
+        normalLabelIndex: Int,
+        verdict: Boolean? = null,
+        anomalyThreshold: Float = 0.5f
+    ): String {
+        text.setLength(0)
+
+        val classification = result.classification
+        if (classification != null) {
+            text.append("Inference result:\n")
+            if (anomalyLabelIndex >= 0 && normalLabelIndex >= 0) {
+                val anomalyProb = classification[anomalyLabelIndex]
+                val normalProb = classification[normalLabelIndex]
+
+                val anomalous = verdict ?: (anomalyProb > anomalyThreshold)
+                text.append(if (anomalous) "Anomaly \n" else "Normal \n")
+                text.append("Anomaly prob: (")
+                appendFixed2(text, anomalyProb)
+                text.append(") \n")
+                text.append("Normal prob: (")
+                appendFixed2(text, normalProb)
+                text.append(") \n")
+            } else {
+                text.append(' ')
+            }
+            text.append("\n\n")
+        }
+
+        if (!result.anomaly.isNaN()) {
+            text.append("Anomaly score:\n").append(result.anomaly)
+        }
+
+        return text.toString()
+    }
+
+    companion object {
+        /** Append [value] with two decimals, rounded half up (same digits as "%.2f") */
+        @JvmStatic
+        fun appendFixed2(sb: StringBuilder, value: Float) {
+            if (value.isNaN() || value.isInfinite()) {
+                sb.append(value)
+                return
+            }
+
+            val scaled = Math.round(value.toDouble() * 100.0)
+            // sign bit, so small negatives print as "-0.00" like the formatter does
+            if (java.lang.Float.floatToRawIntBits(value) < 0) sb.append('-')
+            val abs = Math.abs(scaled)
+            sb.append(abs / 100).append('.')
+            val fraction = (abs % 100).toInt()
+            if (fraction < 10) sb.append('0')
+            sb.append(fraction)
+        }
+    }
+}
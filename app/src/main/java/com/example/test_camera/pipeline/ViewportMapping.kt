@@ -0,0 +1,56 @@
+package com.example.test_camera.pipeline
+
+/**
+ * Maps between view coordinates and normalized frame coordinates (0..1 across the upright
+ * camera frame). Either set from the preview's real transform ([setTransform]) or computed
+ * for a view that shows the frame scaled to fill it and centered (PreviewView's default
+ * FILL_CENTER, [update]). Mutable and allocation free so it can be used from onDraw and
+ * touch handling.
+ */
+class ViewportMapping {
+
+    // View pixels per normalized unit and view position of the frame origin
+    private var scaleX = 0f
+    private var scaleY = 0f
+    private var offsetX = 0f
+    private var offsetY = 0f
+
+    /** False until [update] or [setTransform] got a non-empty mapping */
+    val isValid: Boolean
+        get() = scaleX > 0f && scaleY > 0f
+
+    /** FILL_CENTER mapping of a frameWidth x frameHeight frame; returns true if the mapping changed */
+    fun update(viewWidth: Int, viewHeight: Int, frameWidth: Int, frameHeight: Int): Boolean {
+        if (viewWidth <= 0 || viewHeight <= 0 || frameWidth <= 0 || frameHeight <= 0) return false
+        val scale = maxOf(viewWidth.toFloat() / frameWidth, viewHeight.toFloat() / frameHeight)
+        return setTransform(
+            frameWidth * scale, frameHeight * scale,
+            (viewWidth - frameWidth * scale) / 2f, (viewHeight - frameHeight * scale) / 2f
+        )
+    }
+
+    /**
+     * Axis aligned mapping viewX = offsetX + frameX * scaleX (same for y), e.g. read from
+     * the preview's output transform. Returns true if the mapping changed.
+     */
+    fun setTransform(scaleX: Float, scaleY: Float, offsetX: Float, offsetY: Float): Boolean {
+        if (!(scaleX > 0f && scaleY > 0f)) return false
+        if (scaleX == this.scaleX && scaleY == this.scaleY && offsetX == this.offsetX && offsetY == this.offsetY) {
+            return false
+        }
+        this.scaleX = scaleX
+        this.scaleY = scaleY
+        this.offsetX = offsetX
+        this.offsetY = offsetY
+        return true
+    }
+
+    fun toViewX(frameX: Float): Float = offsetX + frameX * scaleX
+
+    fun toViewY(frameY: Float): Float = offsetY + frameY * scaleY
+
+    /** Frame coordinate of a view position, clamped to the frame */
+    fun toFrameX(viewX: Float): Float = ((viewX - offsetX) / scaleX).coerceIn(0f, 1f)
+
+    fun toFrameY(viewY: Float): Float = ((viewY - offsetY) / scaleY).coerceIn(0f, 1f)
+}
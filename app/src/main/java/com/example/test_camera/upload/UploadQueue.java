@@ -0,0 +1,688 @@
+package com.example.test_camera.upload;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.example.test_camera.api.SessionStore;
+import com.example.test_camera.metrics.PipelineMetrics;
+
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.MultipartBody;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+/**
+ * Disk-backed queue of files waiting for the ingestion API.
+ *
+ * Every entry is a payload file plus a small properties file in the queue directory, so
+ * entries survive process death and are picked up again by {@link #start()}. The API key
+ * is kept in the properties file only sealed by the {@link SessionStore.SecretBox} given to
+ * the builder; an entry whose key cannot be opened any more is dropped.
+ *
+ * Entries with the same label, API key and content type are grouped into batches, sent as
+ * one multipart request with a "data" part per file. A batch is closed once it reaches the
+ * file count or byte limit, or when its oldest entry has waited the batch delay. Batches
+ * are uploaded by a fixed number of background workers over one shared OkHttpClient:
+ * <ul>
+ * <li>network errors, 408, 429 and 5xx are retried with exponential backoff; a batch that
+ *     hit a network error is retried as two halves, smaller requests get through a weak
+ *     link more easily</li>
+ * <li>a batch rejected for its content (400, 413, 415, 422) is split in halves and both are
+ *     sent again, until the rejected file is alone and dropped, so one bad file never
+ *     blocks the others</li>
+ * <li>a batch rejected for its API key (401, 403) is dropped as a whole, and the key is
+ *     reported to {@link Listener#onCredentialsRejected}; other responses drop the batch</li>
+ * </ul>
+ *
+ * Queueing a file moves it and seals its API key, so callers on the UI thread hand it over
+ * with {@link #enqueueAsync}; that and the directory scan of {@link #start()} run one at a
+ * time on the queue's intake thread, in the order they were asked for.
+ *
+ * Free of Android types so it can be tested against a local mock server.
+ */
+public class UploadQueue implements AutoCloseable {
+
+    /** Outcome callbacks, called on a worker thread */
+    public interface Listener {
+        // Entries of one request, accepted by the server
+        void onUploaded(List<Entry> entries, int code);
+
+        // Entry dropped from the queue: rejected by the server or out of attempts
+        void onFailed(Entry entry, String reason);
+
+        // The server refused apiKey (401 / 403), after onFailed for the entries of the request
+        void onCredentialsRejected(String apiKey, int code);
+    }
+
+    /** One queued file */
+    public static final class Entry {
+        private final String id;
+        private final File payload;
+        private final String label;
+        private final String apiKey;
+        private final String sealedApiKey; // as stored in the meta file
+        private final String contentType;
+        private volatile int attempts;
+
+        Entry(String id, File payload, String label, String apiKey, String sealedApiKey, String contentType,
+              int attempts) {
+            this.id = id;
+            this.payload = payload;
+            this.label = label;
+            this.apiKey = apiKey;
+            this.sealedApiKey = sealedApiKey;
+            this.contentType = contentType;
+            this.attempts = attempts;
+        }
+
+        public String getId() { return id; }
+        public File getPayload() { return payload; }
+        public String getLabel() { return label; }
+        public String getContentType() { return contentType; }
+        public int getAttempts() { return attempts; }
+
+        // Entries sharing these can go in one request, the label and key are headers
+        String batchKey() {
+            return apiKey + '\n' + label + '\n' + contentType;
+        }
+    }
+
+    /** Entries sent together in one request */
+    private static final class Batch {
+        final String key;
+        final List<Entry> entries = new ArrayList<>();
+        long bytes;
+        ScheduledFuture<?> flushTimer;
+
+        Batch(String key) {
+            this.key = key;
+        }
+
+        void add(Entry entry) {
+            entries.add(entry);
+            bytes += entry.payload.length();
+        }
+    }
+
+    private static final String META_SUFFIX = ".meta";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private final File directory;
+    private final OkHttpClient client;
+    private final HttpUrl endpoint;
+    private final long initialBackoffMs;
+    private final long maxBackoffMs;
+    private final int maxAttempts;
+    private final int maxBatchFiles;
+    private final long maxBatchBytes;
+    private final long maxBatchDelayMs;
+    private final Listener listener;
+    private final PipelineMetrics metrics; // null if not recorded
+    private final SessionStore.SecretBox secretBox;
+
+    private final ScheduledThreadPoolExecutor workers;
+    // Scan on start and enqueueAsync, file moves and key sealing off the caller's thread
+    private final ExecutorService intake;
+    // Ids that are scheduled or uploading, so a rescan never schedules an entry twice
+    private final Set<String> scheduled = ConcurrentHashMap.newKeySet();
+    // Batches still collecting entries, by batch key
+    private final Map<String, Batch> openBatches = new HashMap<>();
+    private final Object lock = new Object();
+    private final AtomicLong lastId = new AtomicLong();
+    private final AtomicInteger workerIndex = new AtomicInteger();
+
+    private UploadQueue(Builder builder) {
+        this.directory = builder.directory;
+        this.client = builder.client;
+        this.endpoint = builder.endpoint;
+        this.initialBackoffMs = builder.initialBackoffMs;
+        this.maxBackoffMs = builder.maxBackoffMs;
+        this.maxAttempts = builder.maxAttempts;
+        this.maxBatchFiles = builder.maxBatchFiles;
+        this.maxBatchBytes = builder.maxBatchBytes;
+        this.maxBatchDelayMs = builder.maxBatchDelayMs;
+        this.listener = builder.listener;
+        this.metrics = builder.metrics;
+        this.secretBox = builder.secretBox;
+
+        workers = new ScheduledThreadPoolExecutor(builder.workers, runnable -> {
+            Thread thread = new Thread(runnable, "upload-" + workerIndex.getAndIncrement());
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        workers.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        intake = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "upload-intake"));
+    }
+
+    /**
+     * Schedule every entry left on disk, e.g. by an earlier process. Returns at once, the
+     * directory is scanned on the intake thread.
+     */
+    public void start() {
+        try {
+            intake.execute(this::resume);
+        } catch (RejectedExecutionException ignored) {
+            // Closed, the entries stay on disk
+        }
+    }
+
+    private void resume() {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            return;
+        }
+        File[] metaFiles = directory.listFiles((dir, name) -> name.endsWith(META_SUFFIX));
+        if (metaFiles == null) return;
+        Arrays.sort(metaFiles); // ids are time ordered, oldest first
+
+        // Left over entries waited long enough, send them without a batch delay
+        Map<String, Batch> batches = new HashMap<>();
+        for (File metaFile : metaFiles) {
+            Entry entry = readEntry(metaFile);
+            if (entry == null) {
+                metaFile.delete();
+                continue;
+            }
+            if (!scheduled.add(entry.id)) continue;
+            if (entry.sealedApiKey == null) {
+                // Written before keys were sealed, replace the plain text key
+                try {
+                    writeMeta(entry);
+                } catch (IOException ignored) {
+                    // Tried again on the next start
+                }
+            }
+
+            Batch batch = batches.get(entry.batchKey());
+            if (batch == null) {
+                batch = new Batch(entry.batchKey());
+                batches.put(batch.key, batch);
+            }
+            batch.add(entry);
+            if (isFull(batch)) {
+                batches.remove(batch.key);
+                send(batch, 0);
+            }
+        }
+        for (Batch batch : batches.values()) {
+            send(batch, 0);
+        }
+        deleteOrphans();
+    }
+
+    /**
+     * Move [source] into the queue and schedule its upload. The queue owns the file from
+     * here on; it is deleted once uploaded or dropped.
+     */
+    public Entry enqueue(File source, String label, String apiKey, String contentType) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+
+        String id = nextId();
+        File payload = new File(directory, id + extensionOf(source.getName()));
+        if (!source.renameTo(payload)) {
+            // Different file system, copy instead
+            copy(source, payload);
+            source.delete();
+        }
+
+        Entry entry;
+        try {
+            entry = new Entry(id, payload, label, apiKey, seal(apiKey), contentType, 0);
+            writeMeta(entry);
+        } catch (IOException e) {
+            payload.delete();
+            throw e;
+        }
+        // Unless a scan still running on the intake thread found the entry first
+        if (scheduled.add(id)) {
+            addToBatch(entry);
+        }
+        return entry;
+    }
+
+    /**
+     * {@link #enqueue} on the intake thread, for callers that must not block. The future
+     * completes there, with the entry or the IOException enqueue threw.
+     */
+    public CompletableFuture<Entry> enqueueAsync(File source, String label, String apiKey, String contentType) {
+        CompletableFuture<Entry> result = new CompletableFuture<>();
+        try {
+            intake.execute(() -> {
+                try {
+                    result.complete(enqueue(source, label, apiKey, contentType));
+                } catch (IOException | RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(new IOException("Upload queue is closed", e));
+        }
+        return result;
+    }
+
+    /** Entries on disk, uploading or waiting */
+    public int pendingCount() {
+        File[] metaFiles = directory.listFiles((dir, name) -> name.endsWith(META_SUFFIX));
+        return metaFiles == null ? 0 : metaFiles.length;
+    }
+
+    /**
+     * Stop the workers; queued entries stay on disk for the next {@link #start()}. Files
+     * handed to {@link #enqueueAsync} before are still moved into the queue first.
+     */
+    @Override
+    public void close() {
+        intake.shutdown();
+        awaitTermination(intake);
+        workers.shutdownNow();
+        awaitTermination(workers);
+    }
+
+    private static void awaitTermination(ExecutorService executor) {
+        try {
+            executor.awaitTermination(2, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void addToBatch(Entry entry) {
+        Batch full = null;
+        synchronized (lock) {
+            Batch batch = openBatches.get(entry.batchKey());
+            if (batch == null) {
+                batch = new Batch(entry.batchKey());
+                openBatches.put(batch.key, batch);
+                Batch opened = batch;
+                if (!workers.isShutdown()) {
+                    batch.flushTimer = workers.schedule(
+                            () -> flush(opened), maxBatchDelayMs, TimeUnit.MILLISECONDS);
+                }
+            }
+            batch.add(entry);
+            if (isFull(batch)) {
+                openBatches.remove(batch.key);
+                full = batch;
+            }
+        }
+
+        if (full != null) {
+            if (full.flushTimer != null) full.flushTimer.cancel(false);
+            send(full, 0);
+        }
+    }
+
+    // Batch delay is over, send whatever was collected
+    private void flush(Batch batch) {
+        synchronized (lock) {
+            if (openBatches.get(batch.key) != batch) return; // already sent when it filled up
+            openBatches.remove(batch.key);
+        }
+        upload(batch);
+    }
+
+    private boolean isFull(Batch batch) {
+        return batch.entries.size() >= maxBatchFiles || batch.bytes >= maxBatchBytes;
+    }
+
+    private void send(Batch batch, long delayMs) {
+        if (workers.isShutdown()) return;
+        workers.schedule(() -> upload(batch), delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void upload(Batch batch) {
+        List<Entry> entries = new ArrayList<>(batch.entries.size());
+        int attempts = 0;
+        for (Entry entry : batch.entries) {
+            if (!entry.payload.exists()) {
+                remove(entry);
+                countFailure();
+                listener.onFailed(entry, "File missing");
+                continue;
+            }
+            entries.add(entry);
+            attempts = Math.max(attempts, ++entry.attempts);
+        }
+        if (entries.isEmpty()) return;
+
+        int code;
+        long retryAfterMs = -1;
+        String message;
+        long startNs = System.nanoTime();
+        try (Response response = client.newCall(buildRequest(entries)).execute()) {
+            code = response.code();
+            message = response.message();
+            retryAfterMs = parseRetryAfter(response.header("Retry-After"));
+        } catch (IOException e) {
+            code = -1;
+            message = e.getMessage();
+        }
+        if (metrics != null) metrics.recordSince(PipelineMetrics.Stage.UPLOAD, startNs);
+
+        if (code >= 200 && code < 300) {
+            long bytes = 0;
+            for (Entry entry : entries) {
+                bytes += entry.payload.length();
+                remove(entry);
+            }
+            if (metrics != null) {
+                metrics.add(PipelineMetrics.Counter.UPLOADED_FILES, entries.size());
+                metrics.add(PipelineMetrics.Counter.UPLOADED_BYTES, bytes);
+            }
+            listener.onUploaded(entries, code);
+        } else if (isRetryable(code) && attempts < maxAttempts) {
+            for (Entry entry : entries) {
+                try {
+                    writeMeta(entry);
+                } catch (IOException ignored) {
+                    // Attempt count is lost on restart, the upload is not
+                }
+            }
+            long delay = retryAfterMs >= 0 ? Math.min(retryAfterMs, maxBackoffMs) : backoff(attempts);
+            if (code < 0 && entries.size() > 1) {
+                sendHalves(batch.key, entries, delay);
+            } else {
+                Batch retry = new Batch(batch.key);
+                entries.forEach(retry::add);
+                send(retry, delay);
+            }
+        } else if (isContentRejected(code) && entries.size() > 1) {
+            // Narrow down the rejected file
+            sendHalves(batch.key, entries, 0);
+        } else {
+            String reason = code < 0 ? "Network error: " + message : code + " " + message;
+            for (Entry entry : entries) {
+                remove(entry);
+                countFailure();
+                listener.onFailed(entry, reason);
+            }
+            if (code == 401 || code == 403) {
+                // Every file of the batch carries the same key, splitting would not help
+                listener.onCredentialsRejected(entries.get(0).apiKey, code);
+            }
+        }
+    }
+
+    private void countFailure() {
+        if (metrics != null) metrics.increment(PipelineMetrics.Counter.UPLOAD_FAILURES);
+    }
+
+    private void sendHalves(String key, List<Entry> entries, long delayMs) {
+        int middle = entries.size() / 2;
+        Batch first = new Batch(key);
+        Batch second = new Batch(key);
+        entries.subList(0, middle).forEach(first::add);
+        entries.subList(middle, entries.size()).forEach(second::add);
+        send(first, delayMs);
+        send(second, delayMs);
+    }
+
+    private Request buildRequest(List<Entry> entries) {
+        Entry first = entries.get(0);
+        MultipartBody.Builder body = new MultipartBody.Builder().setType(MultipartBody.FORM);
+        for (Entry entry : entries) {
+            RequestBody fileBody = RequestBody.create(entry.payload, MediaType.parse(entry.contentType));
+            body.addFormDataPart("data", entry.payload.getName(), fileBody);
+        }
+
+        return new Request.Builder()
+                .url(endpoint)
+                .addHeader("x-label", first.label)
+                .addHeader("x-api-key", first.apiKey)
+                .post(body.build())
+                .build();
+    }
+
+    // Network error (-1), request timeout, rate limit or server error
+    private static boolean isRetryable(int code) {
+        return code < 0 || code == 408 || code == 429 || code >= 500;
+    }
+
+    // Bad request, too large, unsupported type or unprocessable: one of the files is to blame
+    private static boolean isContentRejected(int code) {
+        return code == 400 || code == 413 || code == 415 || code == 422;
+    }
+
+    // Exponential backoff with +-20% jitter, so workers that failed together spread out
+    private long backoff(int attempts) {
+        long delay = initialBackoffMs << Math.min(attempts - 1, 20);
+        delay = Math.min(delay, maxBackoffMs);
+        double jitter = 0.8 + ThreadLocalRandom.current().nextDouble() * 0.4;
+        return (long) (delay * jitter);
+    }
+
+    private static long parseRetryAfter(String value) {
+        if (value == null) return -1;
+        try {
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            return -1; // HTTP date form, fall back to our own backoff
+        }
+    }
+
+    private void remove(Entry entry) {
+        new File(directory, entry.id + META_SUFFIX).delete();
+        entry.payload.delete();
+        scheduled.remove(entry.id);
+    }
+
+    private String nextId() {
+        long now = System.currentTimeMillis();
+        long id = lastId.updateAndGet(last -> Math.max(now, last + 1));
+        // Fixed width, so name order is age order
+        return String.format(Locale.ROOT, "%019d", id);
+    }
+
+    private String seal(String apiKey) throws IOException {
+        try {
+            return Base64.getEncoder().encodeToString(secretBox.seal(apiKey.getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Cannot seal the API key", e);
+        }
+    }
+
+    // Null if the key cannot be opened, e.g. the keystore key is gone after a backup restore
+    private String open(String sealedApiKey) {
+        try {
+            return new String(secretBox.open(Base64.getDecoder().decode(sealedApiKey)), StandardCharsets.UTF_8);
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private void writeMeta(Entry entry) throws IOException {
+        Properties meta = new Properties();
+        meta.setProperty("payload", entry.payload.getName());
+        meta.setProperty("label", entry.label);
+        meta.setProperty("sealedApiKey", entry.sealedApiKey != null ? entry.sealedApiKey : seal(entry.apiKey));
+        meta.setProperty("contentType", entry.contentType);
+        meta.setProperty("attempts", Integer.toString(entry.attempts));
+
+        // Write and rename, a crash never leaves a half written entry
+        File tmp = new File(directory, entry.id + META_SUFFIX + TMP_SUFFIX);
+        try (OutputStream out = new FileOutputStream(tmp)) {
+            meta.store(out, null);
+        }
+        File target = new File(directory, entry.id + META_SUFFIX);
+        if (!tmp.renameTo(target)) {
+            tmp.delete();
+            throw new IOException("Cannot write " + target);
+        }
+    }
+
+    private Entry readEntry(File metaFile) {
+        Properties meta = new Properties();
+        try (InputStream in = new FileInputStream(metaFile)) {
+            meta.load(in);
+        } catch (IOException e) {
+            return null;
+        }
+
+        String name = metaFile.getName();
+        String id = name.substring(0, name.length() - META_SUFFIX.length());
+        String payloadName = meta.getProperty("payload");
+        if (payloadName == null) return null;
+        File payload = new File(directory, payloadName);
+        if (!payload.exists()) return null;
+
+        String sealedApiKey = meta.getProperty("sealedApiKey");
+        // Entries queued before keys were sealed hold it in plain text, start() rewrites them
+        String apiKey = sealedApiKey != null ? open(sealedApiKey) : meta.getProperty("apiKey");
+        if (apiKey == null) return null;
+
+        int attempts;
+        try {
+            attempts = Integer.parseInt(meta.getProperty("attempts", "0"));
+        } catch (NumberFormatException e) {
+            attempts = 0;
+        }
+        return new Entry(id, payload, meta.getProperty("label", ""), apiKey, sealedApiKey,
+                meta.getProperty("contentType", "application/octet-stream"), attempts);
+    }
+
+    // Payloads without metadata and stale temp files, left by a crash during enqueue
+    private void deleteOrphans() {
+        File[] files = directory.listFiles();
+        if (files == null) return;
+
+        List<String> ids = new ArrayList<>();
+        for (File file : files) {
+            if (file.getName().endsWith(META_SUFFIX)) {
+                String name = file.getName();
+                ids.add(name.substring(0, name.length() - META_SUFFIX.length()));
+            }
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(META_SUFFIX)) continue;
+            int dot = name.indexOf('.');
+            String id = dot < 0 ? name : name.substring(0, dot);
+            if (name.endsWith(TMP_SUFFIX) || !ids.contains(id)) {
+                file.delete();
+            }
+        }
+    }
+
+    private static String extensionOf(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? "" : name.substring(dot);
+    }
+
+    private static void copy(File from, File to) throws IOException {
+        try (InputStream in = new FileInputStream(from); OutputStream out = new FileOutputStream(to)) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+        }
+    }
+
+    public static final class Builder {
+        private final File directory;
+        private final OkHttpClient client;
+        private final HttpUrl endpoint;
+        private int workers = 2;
+        private long initialBackoffMs = 1000;
+        private long maxBackoffMs = 5 * 60 * 1000;
+        private int maxAttempts = 10;
+        private int maxBatchFiles = 20;
+        private long maxBatchBytes = 4 * 1024 * 1024;
+        private long maxBatchDelayMs = 2000;
+        private Listener listener;
+        private PipelineMetrics metrics;
+        private SessionStore.SecretBox secretBox;
+
+        public Builder(File directory, OkHttpClient client, HttpUrl endpoint) {
+            this.directory = directory;
+            this.client = client;
+            this.endpoint = endpoint;
+        }
+
+        // Uploads running at the same time
+        public Builder workers(int workers) {
+            if (workers <= 0) throw new IllegalArgumentException("workers must be positive");
+            this.workers = workers;
+            return this;
+        }
+
+        public Builder backoff(long initialMs, long maxMs) {
+            this.initialBackoffMs = initialMs;
+            this.maxBackoffMs = maxMs;
+            return this;
+        }
+
+        public Builder maxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        // A batch is sent once it holds maxFiles files or maxBytes bytes, or after delayMs
+        public Builder batch(int maxFiles, long maxBytes, long delayMs) {
+            if (maxFiles <= 0) throw new IllegalArgumentException("maxFiles must be positive");
+            this.maxBatchFiles = maxFiles;
+            this.maxBatchBytes = maxBytes;
+            this.maxBatchDelayMs = delayMs;
+            return this;
+        }
+
+        public Builder listener(Listener listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        // Request latency and upload counts go here
+        public Builder metrics(PipelineMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        // Seals the API key in every meta file, required
+        public Builder secretBox(SessionStore.SecretBox secretBox) {
+            this.secretBox = secretBox;
+            return this;
+        }
+
+        public UploadQueue build() {
+            if (secretBox == null) throw new IllegalStateException("secretBox is required");
+            if (listener == null) {
+                listener = new Listener() {
+                    @Override public void onUploaded(List<Entry> entries, int code) { }
+                    @Override public void onFailed(Entry entry, String reason) { }
+                    @Override public void onCredentialsRejected(String apiKey, int code) { }
+                };
+            }
+            return new UploadQueue(this);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+// Host test of the frame change gate: when a frame runs or reuses the last result, that
+// only the classified window is compared, and that the window is found in the sensor frame
+// for every rotation. Build and run with the CMakeLists.txt next to this file.
+
+#include <stdio.h>
+#include <string.h>
+#include <vector>
+#include "change_gate.h"
+
+#define FRAME_WIDTH 640
+#define FRAME_HEIGHT 480
+
+static int failures = 0;
+
+static void expect(bool condition, const char *what)
+{
+    if (!condition) {
+        fprintf(stderr, "FAIL %s\n", what);
+        failures++;
+    }
+}
+
+// A luma plane with row padding, chroma is never read by the gate
+struct test_frame {
+    std::vector<uint8_t> luma;
+    yuv_frame_t frame;
+
+    test_frame(int width, int height, uint8_t value)
+            : luma((size_t)(width + 32) * height, value)
+    {
+        frame.y = luma.data();
+        frame.u = luma.data();
+        frame.v = luma.data();
+        frame.width = width;
+        frame.height = height;
+        frame.y_row_stride = width + 32;
+        frame.uv_row_stride = width + 32;
+        frame.uv_pixel_stride = 2;
+    }
+
+    void fill(const crop_window_t &area, uint8_t value)
+    {
+        for (int y = area.y; y < area.y + area.height; y++) {
+            memset(luma.data() + (size_t)y * frame.y_row_stride + area.x, value, area.width);
+        }
+    }
+};
+
+static bool gate_yuv(change_gate_t *gate, const change_gate_config_t *config, const test_frame &frame,
+                     const crop_window_t *window)
+{
+    change_gate_sample_yuv(gate, &frame.frame, window);
+    return change_gate_should_run(gate, config, frame.frame.width, frame.frame.height);
+}
+
+static void test_decisions()
+{
+    const change_gate_config_t config = { true, 8, 0.02f, 30 };
+    const crop_window_t window = { 160, 120, 320, 240 };
+    change_gate_t gate = {};
+    test_frame frame(FRAME_WIDTH, FRAME_HEIGHT, 100);
+
+    expect(gate_yuv(&gate, &config, frame, &window), "the first frame runs");
+    expect(!gate_yuv(&gate, &config, frame, &window), "an identical frame is skipped");
+
+    // Everything but the window changes
+    frame.fill({ 0, 0, FRAME_WIDTH, 120 }, 250);
+    frame.fill({ 0, 360, FRAME_WIDTH, 120 }, 250);
+    frame.fill({ 0, 0, 160, FRAME_HEIGHT }, 250);
+    frame.fill({ 480, 0, 160, FRAME_HEIGHT }, 250);
+    expect(!gate_yuv(&gate, &config, frame, &window), "a change outside the window is skipped");
+    expect(gate_yuv(&gate, &config, frame, nullptr), "a change in the whole frame runs");
+
+    // One cell of the 32x24 grid is 10x10 pixels of the window: 15 cells stay within 2%
+    frame.fill(window, 100);
+    expect(gate_yuv(&gate, &config, frame, &window), "a new window runs");
+    frame.fill({ 160, 120, 150, 10 }, 200);
+    expect(!gate_yuv(&gate, &config, frame, &window), "15 changed cells of 768 are skipped");
+    frame.fill({ 160, 130, 150, 10 }, 200);
+    expect(gate_yuv(&gate, &config, frame, &window), "30 changed cells of 768 run");
+
+    // Small differences below the cell threshold do not count at all
+    frame.fill(window, 106);
+    expect(gate_yuv(&gate, &config, frame, &window), "a brighter window runs");
+    frame.fill(window, 112);
+    expect(!gate_yuv(&gate, &config, frame, &window), "a change of 6 per cell is skipped");
+}
+
+static void test_forced_runs()
+{
+    const change_gate_config_t config = { true, 8, 0.02f, 3 };
+    change_gate_t gate = {};
+    test_frame frame(FRAME_WIDTH, FRAME_HEIGHT, 100);
+
+    expect(gate_yuv(&gate, &config, frame, nullptr), "the first frame runs");
+    int skipped = 0;
+    while (!gate_yuv(&gate, &config, frame, nullptr) && skipped < 10) {
+        skipped++;
+    }
+    expect(skipped == 3, "max_skipped_frames forces a run");
+
+    change_gate_reset(&gate);
+    expect(gate_yuv(&gate, &config, frame, nullptr), "a reset gate runs");
+
+    test_frame smaller(320, 240, 100);
+    expect(gate_yuv(&gate, &config, smaller, nullptr), "a frame of another size runs");
+
+    const change_gate_config_t disabled = { false, 8, 0.02f, 30 };
+    expect(gate_yuv(&gate, &disabled, smaller, nullptr), "a disabled gate always runs");
+
+    // Packed RGB takes the same decisions
+    std::vector<uint8_t> rgb((size_t)FRAME_WIDTH * FRAME_HEIGHT * 3, 60);
+    const crop_window_t window = { 0, 0, 320, 480 };
+    change_gate_sample_rgb(&gate, rgb.data(), FRAME_WIDTH, FRAME_HEIGHT, &window);
+    expect(change_gate_should_run(&gate, &config, FRAME_WIDTH, FRAME_HEIGHT), "the first RGB frame runs");
+    memset(rgb.data() + (size_t)FRAME_WIDTH * 3 / 2, 255, (size_t)FRAME_WIDTH * 3 / 2);
+    change_gate_sample_rgb(&gate, rgb.data(), FRAME_WIDTH, FRAME_HEIGHT, &window);
+    expect(!change_gate_should_run(&gate, &config, FRAME_WIDTH, FRAME_HEIGHT),
+           "an RGB change right of the window is skipped");
+}
+
+// Sensor pixel yuv420_to_rgb888_crop_resize reads for upright pixel (rx, ry)
+static void sensor_pixel(int rx, int ry, int width, int height, int rotation, int *sx, int *sy)
+{
+    switch (rotation) {
+        case 90:  *sx = ry;             *sy = height - 1 - rx; break;
+        case 180: *sx = width - 1 - rx; *sy = height - 1 - ry; break;
+        case 270: *sx = width - 1 - ry; *sy = rx;              break;
+        default:  *sx = rx;             *sy = ry;              break;
+    }
+}
+
+static void test_sensor_window()
+{
+    const roi_t roi = { 0.1f, 0.55f, 0.4f, 0.95f };
+    for (int rotation : { 0, 90, 180, 270 }) {
+        const bool swap_axes = rotation % 180 != 0;
+        const int upright_width = swap_axes ? FRAME_HEIGHT : FRAME_WIDTH;
+        const int upright_height = swap_axes ? FRAME_WIDTH : FRAME_HEIGHT;
+        const crop_window_t upright = crop_window_for(upright_width, upright_height, &roi, 96, 96);
+        const crop_window_t window = sensor_window_for(&upright, FRAME_WIDTH, FRAME_HEIGHT, rotation);
+
+        bool inside = window.width * window.height == upright.width * upright.height;
+        for (int ry = upright.y; ry < upright.y + upright.height; ry++) {
+            for (int rx = upright.x; rx < upright.x + upright.width; rx++) {
+                int sx, sy;
+                sensor_pixel(rx, ry, FRAME_WIDTH, FRAME_HEIGHT, rotation, &sx, &sy);
+                inside = inside && sx >= window.x && sx < window.x + window.width &&
+                         sy >= window.y && sy < window.y + window.height;
+            }
+        }
+        if (!inside) {
+            fprintf(stderr, "FAIL rotation %d: window %dx%d+%d+%d is not upright %dx%d+%d+%d\n", rotation,
+                    window.width, window.height, window.x, window.y,
+                    upright.width, upright.height, upright.x, upright.y);
+            failures++;
+        }
+
+        // A change at the upright window is seen, one in the rest of the frame is not
+        const change_gate_config_t config = { true, 8, 0.02f, 30 };
+        change_gate_t gate = {};
+        test_frame frame(FRAME_WIDTH, FRAME_HEIGHT, 100);
+        gate_yuv(&gate, &config, frame, &window);
+        frame.fill({ 0, 0, FRAME_WIDTH, FRAME_HEIGHT }, 250);
+        frame.fill(window, 100);
+        expect(!gate_yuv(&gate, &config, frame, &window), "a rotated frame changed outside the window is skipped");
+        int sx, sy;
+        sensor_pixel(upright.x + upright.width / 2, upright.y + upright.height / 2,
+                     FRAME_WIDTH, FRAME_HEIGHT, rotation, &sx, &sy);
+        frame.fill({ sx - 20, sy - 20, 40, 40 }, 0);
+        expect(gate_yuv(&gate, &config, frame, &window), "a rotated frame changed in the window runs");
+    }
+}
+
+int main()
+{
+    test_decisions();
+    test_forced_runs();
+    test_sensor_window();
+
+    if (failures > 0) {
+        fprintf(stderr, "%d checks failed\n", failures);
+        return 1;
+    }
+    printf("change_gate: all checks passed\n");
+    return 0;
+}
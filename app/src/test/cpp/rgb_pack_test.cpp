@@ -0,0 +1,69 @@
+// Host test of the RGB888 -> float packing: every vector path must match the scalar
+// reference bit for bit, at every length and alignment, without writing past the output
+// or reading past the input. Build and run with the CMakeLists.txt next to this file, e.g.
+//   cmake -S app/src/test/cpp -B build/native-test -DCMAKE_CXX_FLAGS="-mavx2 -fsanitize=address"
+//   cmake --build build/native-test && ctest --test-dir build/native-test
+// (-mssse3 for the SSSE3 path, no flags for scalar; NEON runs on an arm64 host).
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <vector>
+#include "rgb_pack.h"
+
+static int failures = 0;
+
+static void check(const std::vector<uint8_t> &pixels_rgb, size_t pixels, size_t out_misalign, const char *what)
+{
+    // Input exactly at the end of its own allocation, an overread shows up under ASan
+    std::vector<uint8_t> input(pixels_rgb.begin(), pixels_rgb.begin() + pixels * 3);
+    const uint8_t *rgb = input.empty() ? nullptr : input.data();
+
+    const size_t guard = 4;
+    std::vector<float> expected(pixels + out_misalign + guard, -1.0f);
+    std::vector<float> actual(pixels + out_misalign + guard, -1.0f);
+    rgb888_pack_float_scalar(rgb, pixels, expected.data() + out_misalign);
+    rgb888_pack_float(rgb, pixels, actual.data() + out_misalign);
+
+    if (memcmp(expected.data(), actual.data(), expected.size() * sizeof(float)) != 0) {
+        fprintf(stderr, "FAIL %s: %zu pixels, output offset %zu\n", what, pixels, out_misalign);
+        failures++;
+    }
+}
+
+int main()
+{
+    srand(1234);
+    std::vector<uint8_t> random(200 * 3);
+    for (uint8_t &value : random) {
+        value = (uint8_t)(rand() & 0xff);
+    }
+    std::vector<uint8_t> white(200 * 3, 0xff);
+
+    for (size_t pixels = 0; pixels <= 200; pixels++) {
+        for (size_t misalign = 0; misalign < 4; misalign++) {
+            check(random, pixels, misalign, "random");
+        }
+        check(white, pixels, 0, "white");
+    }
+
+    // A whole model input frame, through every channel combination of the corner values
+    const size_t frame = 96 * 96;
+    std::vector<uint8_t> corners(frame * 3);
+    for (size_t i = 0; i < corners.size(); i++) {
+        corners[i] = (i / 3) & (1 << (i % 3)) ? 0xff : (uint8_t)(i * 7);
+    }
+    check(corners, frame, 1, "frame");
+
+    // 0xFFFFFF must come out exact, the scalar path itself is checked once
+    float top;
+    const uint8_t max_pixel[3] = { 0xff, 0xff, 0xff };
+    rgb888_pack_float_scalar(max_pixel, 1, &top);
+    if (top != 16777215.0f) {
+        fprintf(stderr, "FAIL scalar: 0xffffff packed as %f\n", top);
+        failures++;
+    }
+
+    printf("rgb888_pack_float (%s): %s\n", rgb888_pack_implementation(), failures ? "FAILED" : "OK");
+    return failures ? 1 : 0;
+}
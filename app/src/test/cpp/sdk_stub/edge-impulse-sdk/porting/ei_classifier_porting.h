@@ -0,0 +1,20 @@
+// The allocator hooks of the Edge Impulse SDK's porting layer, all work_arena.cpp needs of
+// the SDK, so its host test builds without it.
+#ifndef EI_CLASSIFIER_PORTING_H
+#define EI_CLASSIFIER_PORTING_H
+
+#include <stddef.h>
+
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+void *ei_malloc(size_t size);
+void *ei_calloc(size_t nitems, size_t size);
+void ei_free(void *ptr);
+
+#ifdef __cplusplus
+}
+#endif
+
+#endif // EI_CLASSIFIER_PORTING_H
@@ -0,0 +1,88 @@
+// Host test of the tile layout: whatever the configuration, the pixels the tiles hand to the
+// model (crop_window_for of every tile) must cover the whole window, with no more tiles
+// than allowed. Build and run with the CMakeLists.txt next to this file.
+
+#include <stdio.h>
+#include <vector>
+#include "tiling.h"
+
+static int failures = 0;
+
+static void check(int frame_width, int frame_height, crop_window_t window, int columns, float overlap,
+                  int dst_width, int dst_height, int max_tiles)
+{
+    const tiling_config_t config = { columns, overlap, 0.5f };
+    roi_t tiles[TILING_MAX_TILES];
+    const int count = tiling_layout(&config, frame_width, frame_height, &window, dst_width, dst_height,
+                                    tiles, max_tiles);
+    if (count <= 0 || count > max_tiles) {
+        fprintf(stderr, "FAIL %dx%d window %dx%d+%d+%d, %d columns, overlap %.2f: %d tiles (max %d)\n",
+                frame_width, frame_height, window.width, window.height, window.x, window.y,
+                columns, overlap, count, max_tiles);
+        failures++;
+        return;
+    }
+
+    std::vector<bool> covered((size_t)window.width * window.height, false);
+    for (int t = 0; t < count; t++) {
+        const crop_window_t seen = crop_window_for(frame_width, frame_height, &tiles[t], dst_width, dst_height);
+        for (int y = seen.y; y < seen.y + seen.height; y++) {
+            for (int x = seen.x; x < seen.x + seen.width; x++) {
+                if (x >= window.x && x < window.x + window.width && y >= window.y && y < window.y + window.height) {
+                    covered[(size_t)(y - window.y) * window.width + (x - window.x)] = true;
+                }
+            }
+        }
+    }
+
+    int missed = 0;
+    for (bool pixel : covered) {
+        missed += pixel ? 0 : 1;
+    }
+    if (missed > 0) {
+        fprintf(stderr, "FAIL %dx%d window %dx%d+%d+%d, %d columns, overlap %.2f, model %dx%d: "
+                "%d of %d pixels in no tile (%d tiles)\n",
+                frame_width, frame_height, window.width, window.height, window.x, window.y,
+                columns, overlap, dst_width, dst_height, missed, (int)covered.size(), count);
+        failures++;
+    }
+}
+
+int main()
+{
+    const int frames[][2] = { { 480, 640 }, { 640, 480 }, { 240, 320 }, { 320, 240 } };
+    const int models[][2] = { { 96, 96 }, { 160, 120 }, { 120, 160 } };
+    const float overlaps[] = { 0.0f, 0.25f, 0.5f };
+    int configurations = 0;
+
+    for (const auto &frame : frames) {
+        const int w = frame[0];
+        const int h = frame[1];
+        // Whole frame, a centered zone and flat / tall strips along the edges
+        const crop_window_t windows[] = {
+            { 0, 0, w, h },
+            { w / 4, h / 4, w / 2, h / 2 },
+            { 0, h - h / 6, w, h / 6 },
+            { w - w / 6, 0, w / 6, h },
+        };
+        for (const crop_window_t &window : windows) {
+            for (const auto &model : models) {
+                for (float overlap : overlaps) {
+                    for (int columns = 1; columns <= 8; columns++) {
+                        for (int max_tiles : { 4, 9, TILING_MAX_TILES }) {
+                            check(w, h, window, columns, overlap, model[0], model[1], max_tiles);
+                            configurations++;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    if (failures > 0) {
+        fprintf(stderr, "%d of %d layouts failed\n", failures, configurations);
+        return 1;
+    }
+    printf("tiling: %d layouts cover their window\n", configurations);
+    return 0;
+}
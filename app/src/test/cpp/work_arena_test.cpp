@@ -0,0 +1,150 @@
+// Host test of the work arena behind ei_malloc / ei_free: that frames reuse the buffer, that
+// an allocation outliving its frame (state the SDK keeps) stays intact while later frames go
+// on above it, and that releasing an arena with such an allocation neither frees nor breaks
+// it. Build and run with the CMakeLists.txt next to this file, ideally with
+// -fsanitize=address to catch a buffer freed too early.
+
+#include <stdio.h>
+#include <string.h>
+#include "work_arena.h"
+#include "edge-impulse-sdk/porting/ei_classifier_porting.h"
+
+#define CAPACITY 4096
+
+static int failures = 0;
+
+static void expect(bool condition, const char *what)
+{
+    if (!condition) {
+        fprintf(stderr, "FAIL %s\n", what);
+        failures++;
+    }
+}
+
+static bool in_arena(const work_arena_t *arena, const void *ptr)
+{
+    const uint8_t *p = (const uint8_t *)ptr;
+    return p >= arena->base && p < arena->base + arena->capacity;
+}
+
+// One frame's worth of SDK scratch: allocated and freed within the scope
+static void *run_frame(work_arena_t *arena)
+{
+    work_arena_scope_t scope(arena);
+    void *features = ei_malloc(1024);
+    void *scratch = ei_calloc(64, sizeof(float));
+    memset(features, 0x5a, 1024);
+    ei_free(scratch);
+    ei_free(features);
+    return features;
+}
+
+static void test_frames_reuse_the_buffer()
+{
+    work_arena_t arena;
+    expect(work_arena_init(&arena, CAPACITY), "init");
+
+    void *first = run_frame(&arena);
+    void *second = run_frame(&arena);
+    expect(in_arena(&arena, first), "frame memory comes from the arena");
+    expect(first == second, "the next frame gets the same memory");
+    expect(arena.used == 0, "a frame that freed everything is taken back");
+
+    {
+        work_arena_scope_t scope(&arena);
+        void *big = ei_malloc(CAPACITY * 2);
+        expect(big && !in_arena(&arena, big), "a request that does not fit goes to malloc");
+        ei_free(big);
+    }
+    work_arena_stats_t stats;
+    work_arena_stats(&stats);
+    expect(stats.overflows == 1, "the overflow is counted");
+
+    work_arena_release(&arena);
+    work_arena_stats(&stats);
+    expect(stats.capacity_bytes == 0 && stats.leaked == 0, "a released arena is gone and not leaked");
+}
+
+static void test_pinned_allocation()
+{
+    work_arena_t arena;
+    expect(work_arena_init(&arena, CAPACITY), "init");
+
+    void *state;
+    {
+        work_arena_scope_t scope(&arena);
+        state = ei_malloc(256);
+        memset(state, 0x11, 256);
+    }
+    expect(arena.pinned == 1 && arena.floor == arena.used, "a live allocation raises the floor");
+
+    // Later frames stay above the pinned state and are still taken back each time
+    const size_t floor = arena.used;
+    for (int frame = 0; frame < 3; frame++) {
+        void *scratch = run_frame(&arena);
+        expect(in_arena(&arena, scratch) && (uint8_t *)scratch >= arena.base + floor,
+               "a frame after the pin allocates above the floor");
+        expect(arena.used == floor, "a frame after the pin is reset to the floor");
+    }
+    bool intact = true;
+    for (int i = 0; i < 256; i++) {
+        intact = intact && ((uint8_t *)state)[i] == 0x11;
+    }
+    expect(intact, "the pinned allocation is not overwritten");
+
+    // Once the state is freed the whole buffer is available again
+    ei_free(state);
+    run_frame(&arena);
+    expect(arena.used == 0 && arena.floor == 0, "freeing the pinned allocation drops the floor");
+
+    work_arena_release(&arena);
+}
+
+static void test_release_while_pinned()
+{
+    work_arena_t *arena = new work_arena_t;
+    expect(work_arena_init(arena, CAPACITY), "init");
+
+    void *state;
+    {
+        work_arena_scope_t scope(arena);
+        state = ei_malloc(128);
+    }
+    work_arena_release(arena);
+    delete arena;
+
+    work_arena_stats_t stats;
+    work_arena_stats(&stats);
+    expect(stats.leaked == 1, "releasing a pinned arena leaks and counts it");
+    expect(stats.capacity_bytes == 0, "a leaked arena is no longer in the statistics");
+
+    // The state is still valid memory, and freeing it later must not reach free()
+    memset(state, 0x22, 128);
+    ei_free(state);
+
+    // The leaked buffer's slot is never handed out again, new arenas still work
+    work_arena_t next;
+    expect(work_arena_init(&next, CAPACITY), "init after a leak");
+    expect(!in_arena(&next, state), "a new arena does not reuse the leaked buffer");
+    run_frame(&next);
+    expect(next.used == 0, "a new arena frame is taken back");
+    work_arena_release(&next);
+
+    // Unbound threads keep using malloc
+    void *plain = ei_malloc(32);
+    ei_free(plain);
+}
+
+int main()
+{
+    test_frames_reuse_the_buffer();
+    test_pinned_allocation();
+    test_release_while_pinned();
+
+    if (failures > 0) {
+        fprintf(stderr, "%d checks failed\n", failures);
+        return 1;
+    }
+    printf("work_arena: all checks passed\n");
+    return 0;
+}
@@ -0,0 +1,116 @@
+package com.example.test_camera
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class FrameGovernorTest {
+
+    private val levels = listOf(
+        FrameGovernor.Level(640, 480, 30),
+        FrameGovernor.Level(320, 240, 15),
+        FrameGovernor.Level(160, 120, 5)
+    )
+    private val changes = mutableListOf<FrameGovernor.Level>()
+
+    private fun governor(workers: Int = 1) = FrameGovernor(
+        levels = levels,
+        conversionBudgetUs = 10_000L,
+        workers = workers,
+        stepDownAfter = 3,
+        stepUpAfterMs = 1_000L,
+        onLevelChanged = { changes += it }
+    )
+
+    private fun timing(classificationUs: Long, dspUs: Long = 0L, conversionUs: Long = 1_000L, tiles: Int = 1) =
+        Timing(0, 0, 0, 0, dspUs, classificationUs, 0L, conversion_us = conversionUs, tiles = tiles)
+
+    @Test
+    fun stepsDownWhenConversionIsOverBudgetAndBackUpWhenFast() {
+        val governor = governor()
+        repeat(2) { governor.onResult(timing(5_000L, conversionUs = 16_000L), 0L) }
+        assertTrue(changes.isEmpty())
+        governor.onResult(timing(5_000L, conversionUs = 16_000L), 0L)
+        assertEquals(listOf(levels[1]), changes)
+
+        // Fast again: back up only after stepUpAfterMs
+        governor.onResult(timing(5_000L, conversionUs = 2_000L), 100L)
+        governor.onResult(timing(5_000L, conversionUs = 2_000L), 900L)
+        assertEquals(1, changes.size)
+        governor.onResult(timing(5_000L, conversionUs = 2_000L), 1_200L)
+        assertEquals(levels[0], changes.last())
+    }
+
+    @Test
+    fun slowModelLowersTheFrameRateNotTheResolution() {
+        val governor = governor()
+        // 400 ms per inference, far above any budget, with cheap conversion
+        for (i in 0 until 50) {
+            governor.onResult(timing(400_000L), i * 500L)
+        }
+        assertTrue(changes.isEmpty())
+        assertEquals(2.5f * 0.9f, governor.stats().targetFps, 0.01f)
+
+        // Pushed down by a conversion spike, it comes back up although the model stays slow
+        repeat(4) { governor.onResult(timing(400_000L, conversionUs = 30_000L), 30_000L) }
+        assertEquals(levels[1], governor.level)
+        governor.onResult(timing(400_000L), 30_100L)
+        governor.onResult(timing(400_000L), 31_100L)
+        assertEquals(levels[0], governor.level)
+    }
+
+    @Test
+    fun skipsFramesAboveMeasuredThroughput() {
+        val governor = governor()
+        // 40 ms per frame on one worker: at most 25 * 0.9 fps
+        governor.onResult(timing(40_000L), 0L)
+        assertEquals(22.5f, governor.stats().targetFps, 0.01f)
+
+        val frameNs = 1_000_000_000L / 30
+        var analyzed = 0
+        for (i in 0 until 30) {
+            if (governor.shouldProcess(i * frameNs)) analyzed++
+        }
+        assertEquals(15, analyzed) // every other 30 fps frame fits the 44 ms interval
+        assertEquals(15L, governor.stats().skippedFrames)
+    }
+
+    @Test
+    fun tiledResultsLowerTheFrameRateNotTheResolution() {
+        val governor = governor()
+        // 4 tiles of 6 ms conversion: over budget as a frame, within it per tile
+        repeat(5) { governor.onResult(timing(80_000L, conversionUs = 24_000L, tiles = 4), 0L) }
+        assertTrue(changes.isEmpty())
+        assertEquals(1_000_000f / 80_000f * 0.9f, governor.stats().targetFps, 0.01f)
+    }
+
+    @Test
+    fun keepsEveryFrameAtFullRateDespiteJitter() {
+        val governor = governor(workers = 2)
+        governor.onResult(timing(5_000L), 0L)
+        val frameNs = 1_000_000_000L / 30
+        assertTrue(governor.shouldProcess(0L))
+        assertTrue(governor.shouldProcess(frameNs - 2_000_000L))
+        assertTrue(governor.shouldProcess(2 * frameNs))
+    }
+
+    @Test
+    fun thermalStatusForcesLowerLevelAndBlocksStepUp() {
+        val governor = governor()
+        governor.onThermalStatus(FrameGovernor.THERMAL_STATUS_SEVERE, 0L)
+        assertEquals(listOf(levels[2]), changes)
+        assertEquals(2.5f, governor.stats().targetFps, 0f)
+
+        governor.onThermalStatus(FrameGovernor.THERMAL_STATUS_MODERATE, 0L)
+        governor.onResult(timing(1_000L), 0L)
+        governor.onResult(timing(1_000L), 5_000L)
+        assertEquals(levels[2], governor.level)
+
+        governor.onThermalStatus(FrameGovernor.THERMAL_STATUS_NONE, 5_000L)
+        governor.onResult(timing(1_000L), 6_000L)
+        governor.onResult(timing(1_000L), 7_500L)
+        assertEquals(levels[1], governor.level)
+        assertFalse(governor.stats().targetFps > levels[1].maxFps)
+    }
+}
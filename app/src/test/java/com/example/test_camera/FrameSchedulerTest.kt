@@ -0,0 +1,82 @@
+package com.example.test_camera
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.util.concurrent.Executor
+
+class FrameSchedulerTest {
+
+    private val released = mutableListOf<Int>()
+    private val delivered = mutableListOf<Pair<Long, String>>()
+
+    // Runs tasks when asked, like a worker thread that is busy until then
+    private class ManualExecutor : Executor {
+        val tasks = ArrayDeque<Runnable>()
+        val uncaught = mutableListOf<Throwable>()
+
+        override fun execute(command: Runnable) {
+            tasks.addLast(command)
+        }
+
+        fun runAll() {
+            while (tasks.isNotEmpty()) {
+                try {
+                    tasks.removeFirst().run()
+                } catch (e: Throwable) {
+                    uncaught += e
+                }
+            }
+        }
+    }
+
+    private fun scheduler(maxInFlight: Int, executor: Executor, process: (Int) -> String) =
+        FrameScheduler<Int, String>(
+            maxInFlight = maxInFlight,
+            executor = executor,
+            resultExecutor = Executor { it.run() },
+            process = process,
+            release = { released += it },
+            onResult = { sequence, result -> delivered += sequence to result }
+        )
+
+    @Test
+    fun keepsOnlyTheNewestWaitingFrame() {
+        val executor = ManualExecutor()
+        val scheduler = scheduler(1, executor) { "frame $it" }
+
+        for (frame in 0..3) scheduler.submit(frame)
+        assertEquals(listOf(1, 2), released)
+
+        executor.runAll()
+        assertEquals(listOf(0L to "frame 0", 1L to "frame 3"), delivered)
+        assertEquals(listOf(1, 2, 0, 3), released)
+        val stats = scheduler.stats()
+        assertEquals(0, stats.queueDepth)
+        assertEquals(2L, stats.droppedFrames)
+    }
+
+    @Test
+    fun errorInProcessFreesTheSlotAndTheSequence() {
+        val executor = ManualExecutor()
+        val scheduler = scheduler(1, executor) {
+            if (it == 1) throw OutOfMemoryError("frame 1")
+            "frame $it"
+        }
+
+        scheduler.submit(0)
+        executor.runAll()
+        scheduler.submit(1)
+        executor.runAll()
+        assertEquals(1, executor.uncaught.size)
+
+        // The slot is free again and the failed sequence does not hold back the next result
+        scheduler.submit(2)
+        executor.runAll()
+        assertEquals(listOf(0L to "frame 0", 2L to "frame 2"), delivered)
+        assertEquals(listOf(0, 1, 2), released)
+        val stats = scheduler.stats()
+        assertEquals(0, stats.inFlight)
+        assertEquals(1L, stats.failedFrames)
+        assertEquals(2L, stats.processedFrames)
+    }
+}
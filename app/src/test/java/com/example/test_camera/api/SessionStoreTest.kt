@@ -0,0 +1,177 @@
+package com.example.test_camera.api
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.security.SecureRandom
+import javax.crypto.Cipher
+import javax.crypto.KeyGenerator
+import javax.crypto.SecretKey
+import javax.crypto.spec.GCMParameterSpec
+
+class SessionStoreTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    // Same scheme as the keystore box, with a key held in memory
+    private class AesGcmBox(private val key: SecretKey) : SessionStore.SecretBox {
+        override fun seal(plain: ByteArray): ByteArray {
+            val iv = ByteArray(12).also { SecureRandom().nextBytes(it) }
+            val cipher = Cipher.getInstance("AES/GCM/NoPadding")
+            cipher.init(Cipher.ENCRYPT_MODE, key, GCMParameterSpec(128, iv))
+            return iv + cipher.doFinal(plain)
+        }
+
+        override fun open(sealed: ByteArray): ByteArray {
+            val cipher = Cipher.getInstance("AES/GCM/NoPadding")
+            cipher.init(Cipher.DECRYPT_MODE, key, GCMParameterSpec(128, sealed, 0, 12))
+            return cipher.doFinal(sealed, 12, sealed.size - 12)
+        }
+    }
+
+    private fun newKey(): SecretKey = KeyGenerator.getInstance("AES").apply { init(128) }.generateKey()
+
+    private var nowMs = 1_000_000L
+    private val key = newKey()
+    private val file by lazy { File(folder.root, "session.bin") }
+
+    private fun store(box: SessionStore.SecretBox = AesGcmBox(key)) = SessionStore(file, box) { nowMs }
+
+    @Test
+    fun sessionSurvivesRestartEncrypted() {
+        val first = store()
+        first.putJwt("jwt-1")
+        first.putProjects(listOf(SessionStore.Project(7, "Line 1"), SessionStore.Project(9, "Line=2")))
+        nowMs += 10
+        first.putApiKey(9, "ei_key")
+
+        assertFalse(String(file.readBytes(), Charsets.ISO_8859_1).contains("ei_key"))
+
+        val second = store()
+        assertEquals("jwt-1", second.jwt().value)
+        assertEquals(listOf("Line 1", "Line=2"), second.projects().value.map { it.name })
+        assertEquals(1_000_000L, second.projects().fetchedAtMs)
+        assertEquals(9, second.selectedProject())
+        assertEquals("ei_key", second.apiKey(9).value)
+        assertEquals(1_000_010L, second.apiKey(9).fetchedAtMs)
+    }
+
+    @Test
+    fun warmStartNeedsRecentKeyOfSelectedProject() {
+        val session = store()
+        assertNull(session.warmStartApiKey(1000))
+
+        session.putJwt("jwt-1")
+        assertNull(session.warmStartApiKey(1000))
+
+        session.putApiKey(3, "ei_key")
+        nowMs += 999
+        assertEquals("ei_key", session.warmStartApiKey(1000))
+        nowMs += 1
+        assertNull(session.warmStartApiKey(1000))
+        assertFalse(session.apiKey(3).isFresh(1000, nowMs))
+    }
+
+    @Test
+    fun otherJwtDropsEverythingFetchedWithTheOldOne() {
+        val session = store()
+        session.putJwt("jwt-1")
+        session.putProjects(listOf(SessionStore.Project(1, "A")))
+        session.putApiKey(1, "ei_key")
+
+        session.putJwt("jwt-1")
+        assertEquals("ei_key", session.apiKey(1).value)
+
+        session.putJwt("jwt-2")
+        assertNull(session.projects())
+        assertNull(session.apiKey(1))
+        assertEquals(-1, session.selectedProject())
+    }
+
+    @Test
+    fun selectingAStoredProjectKeepsTheTimeItsKeyWasFetched() {
+        val session = store()
+        session.putJwt("jwt-1")
+        session.putApiKey(3, "ei_three")
+        nowMs += 10
+        session.putApiKey(4, "ei_four")
+
+        nowMs += 500
+        session.selectProject(3)
+        val reopened = store()
+        assertEquals(3, reopened.selectedProject())
+        assertEquals(1_000_000L, reopened.apiKey(3).fetchedAtMs)
+        assertEquals("ei_three", reopened.warmStartApiKey(1000))
+        assertNull(reopened.warmStartApiKey(500))
+    }
+
+    @Test
+    fun rejectedApiKeyIsNoLongerUsedForAWarmStart() {
+        val session = store()
+        session.putJwt("jwt-1")
+        session.putApiKey(1, "ei_other")
+        session.putApiKey(2, "ei_key")
+
+        session.removeApiKey("ei_key")
+        assertNull(store().apiKey(2))
+        assertNull(store().warmStartApiKey(1000))
+        assertEquals("ei_other", store().apiKey(1).value)
+    }
+
+    @Test
+    fun fetchStartedBeforeAClearDoesNotWriteIntoTheClearedSession() {
+        val store = store()
+        store.putJwt("jwt-1")
+        val generation = store.generation()
+
+        // The project list came back 401 while the API key fetch was still running
+        store.clear()
+        assertFalse(store.putApiKeyIfCurrent(generation, 7, "ei_key"))
+        assertFalse(store.putProjectsIfCurrent(generation, listOf(SessionStore.Project(7, "belt"))))
+        assertNull(store.apiKey(7))
+        assertNull(store.projects())
+        assertFalse(file.exists())
+
+        // Another user's session is no place for them either
+        store.putJwt("jwt-2")
+        val second = store.generation()
+        store.putJwt("jwt-3")
+        assertFalse(store.putApiKeyIfCurrent(second, 7, "ei_key"))
+
+        assertTrue(store.putApiKeyIfCurrent(store.generation(), 7, "ei_key"))
+        assertEquals("ei_key", store.apiKey(7)?.value)
+    }
+
+    @Test
+    fun unreadableFileCountsAsEmpty() {
+        store().apply {
+            putJwt("jwt-1")
+            putApiKey(1, "ei_key")
+        }
+
+        // Keystore key lost, e.g. after a backup restore onto another device
+        val newBox = AesGcmBox(newKey())
+        val session = store(newBox)
+        assertNull(session.jwt())
+        assertNull(session.warmStartApiKey(Long.MAX_VALUE))
+        assertFalse(file.exists())
+
+        session.putJwt("jwt-2")
+        assertEquals("jwt-2", store(newBox).jwt().value)
+    }
+
+    @Test
+    fun clearRemovesFile() {
+        val session = store()
+        session.putJwt("jwt-1")
+        session.clear()
+        assertFalse(file.exists())
+        assertNull(store().jwt())
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.test_camera.api
+
+import java.io.File
+import okhttp3.Request
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+/**
+ * StudioClient against local mocks of the studio and ingestion APIs.
+ */
+class StudioClientTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private val studio = MockWebServer()
+    private val ingestion = MockWebServer()
+    private lateinit var cacheDirectory: File
+    private lateinit var client: StudioClient
+
+    @Before
+    fun setUp() {
+        studio.start()
+        ingestion.start()
+        cacheDirectory = folder.newFolder("http")
+        client = newClient()
+    }
+
+    // Another client on the same cache directory, as after an app restart
+    private fun newClient() = StudioClient.Builder(cacheDirectory)
+        .baseUrls(studio.url("/"), ingestion.url("/"))
+        .build()
+
+    @After
+    fun tearDown() {
+        studio.shutdown()
+        ingestion.shutdown()
+    }
+
+    private fun projectsBody() = MockResponse().setBody("{\"success\":true,\"projects\":[]}")
+
+    @Test
+    fun loginAndProjectsShareOneConnection() {
+        studio.enqueue(MockResponse().setBody("{\"success\":true,\"token\":\"jwt-1\"}"))
+        studio.enqueue(projectsBody())
+
+        client.login("user@example.com", "pa\"ss").execute().use { assertEquals(200, it.code) }
+        client.setJwtToken("jwt-1")
+        client.projects().execute().use { assertEquals(200, it.code) }
+
+        val login = studio.takeRequest()
+        assertEquals("/v1/api-login", login.path)
+        assertEquals("{\"username\":\"user@example.com\",\"password\":\"pa\\\"ss\"}", login.body.readUtf8())
+        assertNull(login.getHeader("x-jwt-token"))
+
+        val projects = studio.takeRequest()
+        assertEquals("jwt-1", projects.getHeader("x-jwt-token"))
+        // Second request on the same connection, no new handshake
+        assertEquals(1, projects.sequenceNumber)
+    }
+
+    @Test
+    fun projectListIsCachedUntilTheUserChanges() {
+        studio.enqueue(projectsBody())
+        studio.enqueue(projectsBody())
+        client.setJwtToken("jwt-1")
+
+        client.projects().execute().use { assertNull(it.cacheResponse) }
+        client.projects().execute().use { assertNotNull(it.cacheResponse) }
+        assertEquals(1, studio.requestCount)
+
+        client.setJwtToken("jwt-2")
+        client.projects().execute().use { assertNull(it.cacheResponse) }
+        assertEquals(2, studio.requestCount)
+        studio.takeRequest()
+        assertEquals("jwt-2", studio.takeRequest().getHeader("x-jwt-token"))
+    }
+
+    @Test
+    fun cachedProjectListIsNotServedToAnotherUserAfterARestart() {
+        studio.enqueue(MockResponse().setBody("{\"success\":true,\"projects\":[{\"id\":1}]}"))
+        studio.enqueue(projectsBody())
+        client.setJwtToken("jwt-1")
+        client.projects().execute().use { assertNull(it.cacheResponse) }
+
+        // Same user after a restart: still served from the cache
+        val restarted = newClient()
+        restarted.setJwtToken("jwt-1")
+        restarted.projects().execute().use { assertNotNull(it.cacheResponse) }
+        assertEquals(1, studio.requestCount)
+
+        // Someone else signs in after the next restart
+        val otherUser = newClient()
+        otherUser.setJwtToken("jwt-2")
+        otherUser.projects().execute().use {
+            assertNull(it.cacheResponse)
+            assertEquals("{\"success\":true,\"projects\":[]}", it.body!!.string())
+        }
+        assertEquals(2, studio.requestCount)
+        studio.takeRequest()
+        assertEquals("jwt-2", studio.takeRequest().getHeader("x-jwt-token"))
+    }
+
+    @Test
+    fun apiKeysAndNoStoreResponsesAreNotCached() {
+        repeat(2) { studio.enqueue(MockResponse().setBody("{\"success\":true,\"apiKeys\":[]}")) }
+        repeat(2) { studio.enqueue(projectsBody().setHeader("Cache-Control", "no-store")) }
+        client.setJwtToken("jwt-1")
+
+        repeat(2) { client.apiKeys(7).execute().close() }
+        repeat(2) { client.projects().execute().close() }
+        assertEquals(4, studio.requestCount)
+        assertEquals("/v1/api/7/apikeys", studio.takeRequest().path)
+    }
+
+    @Test
+    fun ingestionGetsTheApiKeyButNeverTheJwt() {
+        ingestion.enqueue(MockResponse())
+        ingestion.enqueue(MockResponse())
+        client.setJwtToken("jwt-1")
+        client.setApiKey("ei_default")
+
+        val url = client.ingestionUrl("/api/training/files")
+        client.httpClient().newCall(Request.Builder().url(url).build()).execute().close()
+        client.httpClient().newCall(Request.Builder().url(url).header("x-api-key", "ei_batch").build()).execute().close()
+
+        val first = ingestion.takeRequest()
+        assertEquals("ei_default", first.getHeader("x-api-key"))
+        assertNull(first.getHeader("x-jwt-token"))
+        assertEquals("ei_batch", ingestion.takeRequest().getHeader("x-api-key"))
+    }
+}
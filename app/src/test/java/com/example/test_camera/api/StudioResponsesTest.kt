@@ -0,0 +1,110 @@
+package com.example.test_camera.api
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Assert.fail
+import org.junit.Test
+import java.io.IOException
+import java.io.StringReader
+
+class StudioResponsesTest {
+
+    private fun projectsBody(count: Int) = (0 until count).joinToString(
+        separator = ",",
+        prefix = """{"success":true,"projects":[""",
+        postfix = "]}"
+    ) { """{"id":$it,"name":"project $it","owner":{"id":7},"tags":["a","b"]}""" }
+
+    @Test
+    fun projectsArriveInPagesOfPageSize() {
+        val pages = mutableListOf<List<Int>>()
+        val result = StudioResponses.readProjects(StringReader(projectsBody(7)), 3) { page ->
+            pages += page.map { it.id }
+        }
+
+        assertTrue(result.success)
+        assertEquals(listOf(listOf(0, 1, 2), listOf(3, 4, 5), listOf(6)), pages)
+        assertEquals((0 until 7).toList(), result.value.map { it.id })
+        assertEquals("project 6", result.value[6].name)
+    }
+
+    @Test
+    fun projectsWithoutListenerAreReturnedWhole() {
+        val result = StudioResponses.readProjects(StringReader(projectsBody(100)), Int.MAX_VALUE, null)
+        assertTrue(result.success)
+        assertEquals(100, result.value.size)
+    }
+
+    @Test
+    fun failureCarriesTheStudioError() {
+        val login = StudioResponses.readLogin(StringReader("""{"success":false,"error":"Invalid password"}"""))
+        assertFalse(login.success)
+        assertEquals("Invalid password", login.error)
+        assertNull(login.value)
+
+        val projects = StudioResponses.readProjects(
+            StringReader("""{"error":"Not authorized","success":false}"""), 10, null
+        )
+        assertFalse(projects.success)
+        assertEquals("Not authorized", projects.error)
+        assertTrue(projects.value.isEmpty())
+    }
+
+    @Test
+    fun firstApiKeyIsUsedAndAMissingOneIsAFailure() {
+        val key = StudioResponses.readApiKey(
+            StringReader("""{"success":true,"apiKeys":[{"id":1,"apiKey":"ei_first"},{"apiKey":"ei_second"}]}""")
+        )
+        assertTrue(key.success)
+        assertEquals("ei_first", key.value)
+
+        val none = StudioResponses.readApiKey(StringReader("""{"success":true,"apiKeys":[]}"""))
+        assertFalse(none.success)
+        assertEquals("No API key in project", none.error)
+    }
+
+    @Test
+    fun loginTokenIsRead() {
+        val login = StudioResponses.readLogin(StringReader("""{"success":true,"token":"jwt.value","extra":null}"""))
+        assertTrue(login.success)
+        assertEquals("jwt.value", login.value)
+    }
+
+    @Test
+    fun truncatedBodyThrows() {
+        val body = projectsBody(5)
+        val pages = mutableListOf<Int>()
+        try {
+            StudioResponses.readProjects(StringReader(body.substring(0, body.length - 40)), 2) { page ->
+                pages += page.size
+            }
+            fail("Truncated body was accepted")
+        } catch (e: IOException) {
+            // Pages read before the cut were handed out already
+            assertEquals(listOf(2, 2), pages)
+        }
+    }
+
+    @Test
+    fun malformedBodiesThrowIOExceptionOrIllegalState() {
+        val bodies = listOf(
+            "",
+            "<html>Bad gateway</html>",
+            """["success",true]""",
+            """{"success":true,"projects":[{"name":"no id"}]}""",
+            """{"success":true,"projects":[{"id":"seven"}]}""",
+            """{"success":true,"token":"a" "b"}"""
+        )
+        for (body in bodies) {
+            try {
+                StudioResponses.readLogin(StringReader(body))
+                StudioResponses.readProjects(StringReader(body), 10, null)
+                fail("Accepted $body")
+            } catch (e: IOException) {
+            } catch (e: IllegalStateException) {
+            }
+        }
+    }
+}
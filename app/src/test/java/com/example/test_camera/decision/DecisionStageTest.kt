@@ -0,0 +1,57 @@
+package com.example.test_camera.decision
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class DecisionStageTest {
+
+    private fun DecisionStage.feed(vararg probabilities: Float): List<Boolean> {
+        return probabilities.map { update(it) }
+    }
+
+    @Test
+    fun ringBufferKeepsLastValues() {
+        val buffer = FloatRingBuffer(3)
+        for (i in 1..5) buffer.add(i.toFloat())
+        assertEquals(3, buffer.size)
+        assertEquals(3f, buffer[0], 0f)
+        assertEquals(5f, buffer[2], 0f)
+        assertEquals(12f, buffer.sum(), 0f)
+        assertEquals(4f, buffer.mean(), 0f)
+    }
+
+    @Test
+    fun emaSmoothsSingleSpikes() {
+        val ema = EmaDecision(alpha = 0.25f)
+        assertEquals(listOf(false, false, false), ema.feed(0f, 1f, 0f))
+        assertEquals(0.1875f, ema.score, 1e-6f)
+    }
+
+    @Test
+    fun majorityNeedsMoreThanQuorum() {
+        val majority = MajorityDecision(window = 4)
+        assertEquals(listOf(true, false, true, false, false), majority.feed(0.9f, 0.1f, 0.9f, 0.1f, 0.9f))
+        majority.reset()
+        assertFalse(majority.update(0.1f))
+    }
+
+    @Test
+    fun hysteresisNeedsConsecutiveFramesToFlip() {
+        val stage = HysteresisDecision(enterThreshold = 0.6f, exitThreshold = 0.4f, enterFrames = 2, exitFrames = 2)
+        assertEquals(listOf(false, false, false, true), stage.feed(0.7f, 0.5f, 0.7f, 0.7f))
+        // Between the thresholds the verdict holds
+        assertEquals(listOf(true, true, true), stage.feed(0.5f, 0.3f, 0.5f))
+        assertEquals(listOf(true, false), stage.feed(0.3f, 0.3f))
+    }
+
+    @Test
+    fun hysteresisUsesSourceScore() {
+        val stage = HysteresisDecision(0.6f, 0.4f, source = EmaDecision(alpha = 0.5f))
+        assertFalse(stage.update(0f))
+        assertFalse(stage.update(1f)) // EMA 0.5
+        assertTrue(stage.update(1f))  // EMA 0.75
+        assertEquals(0.75f, stage.score, 1e-6f)
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.test_camera.journal
+
+import com.example.test_camera.InferenceResult
+import com.example.test_camera.Timing
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.RandomAccessFile
+
+class ResultJournalTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private fun result(index: Int, boxes: Int = 0): InferenceResult {
+        val detections = FloatArray(boxes * InferenceResult.BOX_STRIDE) { it + index.toFloat() }
+        for (i in 0 until boxes) detections[i * InferenceResult.BOX_STRIDE + InferenceResult.BOX_LABEL] = 1f
+        return InferenceResult(
+            floatArrayOf(index / 100f, 1f - index / 100f),
+            if (boxes > 0) detections else null,
+            floatArrayOf(1f, 2f, 3f, 4f, 0.5f, -1f),
+            index.toFloat(), 0.25f, 0.125f,
+            Timing(1, 2, 3, 4, 10L + index, 20L, 30L)
+        )
+    }
+
+    @Test
+    fun readsBackWhatWasWritten() {
+        val file = folder.newFile("results.journal")
+        ResultJournal.open(file, 8, 2, 4).use { journal ->
+            assertEquals(0L, journal.append(1000L, 5000L, result(1, boxes = 2)))
+            assertEquals(1L, journal.append(1001L, 5001L, result(2)))
+        }
+
+        val reader = ResultJournalReader.open(file)
+        val record = JournalRecord(reader.layout)
+        assertEquals(2L, reader.recordCount())
+        assertTrue(reader.read(0, record))
+
+        assertEquals(1000L, record.timestampMs)
+        assertEquals(5000L, record.frameTimestampNs)
+        assertArrayEquals(floatArrayOf(0.01f, 0.99f), record.scores, 0f)
+        assertEquals(1f, record.anomaly, 0f)
+        assertEquals(11L, record.timingDspUs)
+        assertEquals(3, record.boxCount) // two detections and one anomaly cell
+
+        val replayed = record.toInferenceResult()
+        assertArrayEquals(result(1, boxes = 2).objectDetections, replayed.objectDetections, 0f)
+        assertArrayEquals(floatArrayOf(1f, 2f, 3f, 4f, 0.5f, -1f), replayed.visualAnomalyGridCells, 0f)
+        assertEquals(0.125f, replayed.visualAnomalyMean, 0f)
+
+        assertTrue(reader.read(1, record))
+        assertNull(record.toInferenceResult().objectDetections)
+        assertFalse(reader.read(2, record))
+    }
+
+    @Test
+    fun overwritesOldestRecordsAndKeepsDroppedBoxCount() {
+        val file = folder.newFile("results.journal")
+        ResultJournal.open(file, 4, 2, 2).use { journal ->
+            for (i in 0 until 10) {
+                journal.append(i.toLong(), 0L, result(i, boxes = 3))
+            }
+        }
+
+        val reader = ResultJournalReader.open(file)
+        assertEquals(6L, reader.oldestSequence())
+        val seen = mutableListOf<Long>()
+        reader.forEach { record ->
+            seen += record.sequence
+            assertEquals(record.sequence, record.timestampMs)
+            assertEquals(2, record.boxCount)
+            assertEquals(2, record.droppedBoxes)
+        }
+        assertEquals(listOf(6L, 7L, 8L, 9L), seen)
+        assertFalse(reader.read(5, JournalRecord(reader.layout)))
+    }
+
+    @Test
+    fun continuesExistingJournalWithSameLayout() {
+        val file = folder.newFile("results.journal")
+        ResultJournal.open(file, 4, 2, 2).use {
+            assertNull(it.replaced)
+            it.append(1L, 0L, result(1))
+        }
+        ResultJournal.open(file, 4, 2, 2).use { journal ->
+            assertNull(journal.replaced)
+            assertEquals(1L, journal.recordCount)
+            assertEquals(1L, journal.append(2L, 0L, result(2)))
+        }
+
+        // A different layout starts over, and says so
+        ResultJournal.open(file, 8, 2, 2).use { journal ->
+            assertEquals(0L, journal.recordCount)
+            assertEquals("layout ${JournalLayout(4, 2, 2)}, now ${JournalLayout(8, 2, 2)}", journal.replaced)
+        }
+    }
+
+    @Test
+    fun reportsAnOlderFormatVersionItReplaces() {
+        val file = folder.newFile("results.journal")
+        ResultJournal.open(file, 4, 2, 2).use { it.append(1L, 0L, result(1)) }
+        RandomAccessFile(file, "rw").use { raf ->
+            raf.seek(JournalLayout.HEADER_VERSION.toLong())
+            raf.write(byteArrayOf(2, 0, 0, 0))
+        }
+
+        ResultJournal.open(file, 4, 2, 2).use { journal ->
+            assertEquals(0L, journal.recordCount)
+            assertEquals("format version 2, now ${JournalLayout.VERSION}", journal.replaced)
+        }
+    }
+
+    @Test
+    fun recordsDecisionAfterAppend() {
+        val file = folder.newFile("results.journal")
+        ResultJournal.open(file, 2, 2, 2).use { journal ->
+            journal.append(1L, 0L, result(1))
+            journal.append(2L, 0L, result(2))
+            journal.recordDecision(1, true, 0.75f)
+            journal.append(3L, 0L, result(3))
+            journal.recordDecision(0, true, 1f) // overwritten by record 2 already
+        }
+
+        val reader = ResultJournalReader.open(file)
+        val record = JournalRecord(reader.layout)
+        assertTrue(reader.read(1, record))
+        assertEquals(JournalLayout.DECISION_ANOMALY, record.decision)
+        assertEquals(0.75f, record.decisionScore, 0f)
+        assertTrue(reader.read(2, record))
+        assertEquals(JournalLayout.DECISION_PENDING, record.decision)
+        assertTrue(record.decisionScore.isNaN())
+    }
+
+    @Test
+    fun exportsCsv() {
+        val file = folder.newFile("results.journal")
+        ResultJournal.open(file, 4, 2, 2).use { it.append(42L, 7L, result(5)) }
+
+        val csv = StringBuilder()
+        ResultJournalReader.open(file).exportCsv(csv, arrayOf("anomaly", "no anomaly"))
+        val lines = csv.lines().filter { it.isNotEmpty() }
+        assertEquals(2, lines.size)
+        assertTrue(lines[0].startsWith("sequence,timestamp_ms,frame_timestamp_ns,anomaly,no anomaly,"))
+        assertTrue(lines[1].startsWith("0,42,7,0.05,0.95,5.0,"))
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.test_camera.metrics
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class LatencyHistogramTest {
+
+    @Test
+    fun bucketsStayWithinRelativePrecision() {
+        var value = 1L
+        while (value < LatencyHistogram.MAX_VALUE_US) {
+            val index = LatencyHistogram.bucketIndex(value)
+            val upper = LatencyHistogram.bucketUpperBound(index)
+            assertTrue("$value above its bucket", value <= upper)
+            assertTrue("$value bucket too wide", upper - value <= value / LatencyHistogram.SUB_BUCKETS)
+            if (index > 0) assertTrue(LatencyHistogram.bucketUpperBound(index - 1) < value)
+            value = value * 9 / 8 + 1
+        }
+    }
+
+    @Test
+    fun percentilesOfUniformSamples() {
+        val histogram = LatencyHistogram()
+        for (us in 1L..10_000L) histogram.record(us)
+        val snapshot = histogram.snapshot()
+        assertEquals(10_000L, snapshot.count)
+        assertEquals(5000.5, snapshot.meanUs, 1e-9)
+        assertEquals(10_000L, snapshot.maxUs)
+        assertEquals(5000.0, snapshot.valueAt(0.5).toDouble(), 5000.0 / LatencyHistogram.SUB_BUCKETS)
+        assertEquals(9900.0, snapshot.valueAt(0.99).toDouble(), 9900.0 / LatencyHistogram.SUB_BUCKETS)
+        assertEquals(10_000L, snapshot.valueAt(1.0))
+        assertEquals(0L, LatencyHistogram().snapshot().valueAt(0.5))
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.test_camera.metrics
+
+import com.example.test_camera.InferenceResult
+import com.example.test_camera.Timing
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class PipelineMetricsTest {
+
+    private fun result(timing: Timing) = InferenceResult(null, null, null, Float.NaN, Float.NaN, Float.NaN, timing)
+
+    @Test
+    fun classifyCallIsSplitIntoStages() {
+        val metrics = PipelineMetrics()
+        metrics.recordClassify(result(Timing(0, 0, 0, 0, 2_000L, 10_000L, 0L, 1_500L, 100L)), 14_000L)
+        // Change gate reuse: no impulse timing
+        metrics.recordClassify(result(Timing(0, 0, 0, 0, 0L, 0L, 0L, 0L, 50L)), 300L)
+        metrics.recordClassify(null, 1_000L)
+
+        val snapshot = metrics.snapshot(42L)
+        assertEquals(1L, snapshot.counters[PipelineMetrics.Counter.FRAMES_CLASSIFIED])
+        assertEquals(1L, snapshot.counters[PipelineMetrics.Counter.FRAMES_REUSED])
+        assertEquals(1L, snapshot.counters[PipelineMetrics.Counter.CLASSIFY_FAILURES])
+        assertEquals(1L, snapshot.stages.getValue(PipelineMetrics.Stage.CLASSIFICATION).count)
+        assertEquals(0L, snapshot.stages.getValue(PipelineMetrics.Stage.ANOMALY).count)
+        assertEquals(2L, snapshot.stages.getValue(PipelineMetrics.Stage.JNI).count)
+        assertEquals(400L + 250L, snapshot.stages.getValue(PipelineMetrics.Stage.JNI).sumUs)
+    }
+
+    @Test
+    fun prometheusAndJsonCarryEveryMetric() {
+        val metrics = PipelineMetrics()
+        metrics.record(PipelineMetrics.Stage.DSP, 1_000L)
+        metrics.add(PipelineMetrics.Counter.UPLOADED_BYTES, 2048L)
+        metrics.registerGauge("queue_depth") { 3L }
+        val snapshot = metrics.snapshot(1234L)
+
+        val prometheus = MetricsFormatter.toPrometheus(snapshot)
+        assertTrue(prometheus.contains("# TYPE camera_pipeline_dsp_microseconds summary\n"))
+        assertTrue(prometheus.contains("camera_pipeline_dsp_microseconds{quantile=\"0.5\"} 1000\n"))
+        assertTrue(prometheus.contains("camera_pipeline_dsp_microseconds_count 1\n"))
+        assertTrue(prometheus.contains("camera_pipeline_uploaded_bytes_total 2048\n"))
+        assertTrue(prometheus.contains("camera_pipeline_queue_depth 3\n"))
+
+        val json = MetricsFormatter.toJson(snapshot)
+        assertTrue(json.startsWith("{\"timestamp_ms\":1234,"))
+        assertTrue(json.contains("\"dsp\":{\"count\":1,\"mean_us\":1000,\"p50_us\":1000,"))
+        assertTrue(json.contains("\"uploaded_bytes\":2048"))
+        assertTrue(json.endsWith("\"gauges\":{\"queue_depth\":3}}"))
+    }
+}
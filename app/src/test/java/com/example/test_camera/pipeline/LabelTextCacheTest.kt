@@ -0,0 +1,30 @@
+package com.example.test_camera.pipeline
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Test
+
+class LabelTextCacheTest {
+
+    private val labels = arrayOf("scratch", "dent")
+
+    @Test
+    fun detectionTextIsCachedPerPercent() {
+        val cache = LabelTextCache()
+        val first = cache.detection(labels, 1, 0.876f)
+        assertEquals("dent (87%)", first.toString())
+        assertSame(first, cache.detection(labels, 1, 0.871f))
+        assertEquals("? (50%)", cache.detection(labels, 5, 0.5f).toString())
+    }
+
+    @Test
+    fun scoreMatchesFixedFormatting() {
+        val cache = LabelTextCache(maxCachedScore = 10f)
+        for (value in floatArrayOf(0f, 0.005f, 0.994f, 3.25f, 9.999f, 12.5f, -0.001f, -1.5f, Float.NaN)) {
+            val expected = StringBuilder().also { ResultTextFormatter.appendFixed2(it, value) }.toString()
+            assertEquals(expected, cache.score(value).toString())
+            assertEquals(expected, cache.score(value).toString())
+        }
+        assertSame(cache.score(3.25f), cache.score(3.249f))
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.test_camera.pipeline
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class ViewportMappingTest {
+
+    @Test
+    fun fillCenterCropsTheLongerSide() {
+        val mapping = ViewportMapping()
+        assertFalse(mapping.isValid)
+        // 480x640 frame in a 1080x2400 view: scaled by 3.75 to 1800x2400, 360 px cut off each side
+        assertTrue(mapping.update(1080, 2400, 480, 640))
+        assertEquals(-360f, mapping.toViewX(0f), 1e-3f)
+        assertEquals(540f, mapping.toViewX(0.5f), 1e-3f)
+        assertEquals(2400f, mapping.toViewY(1f), 1e-3f)
+        assertFalse(mapping.update(1080, 2400, 480, 640))
+    }
+
+    @Test
+    fun viewToFrameIsInverseAndClamped() {
+        val mapping = ViewportMapping()
+        mapping.update(1080, 2400, 480, 640)
+        assertEquals(0.25f, mapping.toFrameX(mapping.toViewX(0.25f)), 1e-5f)
+        assertEquals(0.75f, mapping.toFrameY(mapping.toViewY(0.75f)), 1e-5f)
+        assertEquals(0f, mapping.toFrameX(-1000f), 0f)
+        assertEquals(1f, mapping.toFrameY(5000f), 0f)
+    }
+
+    @Test
+    fun setTransformScalesAxesIndependently() {
+        val mapping = ViewportMapping()
+        assertFalse(mapping.setTransform(0f, 100f, 0f, 0f))
+        assertFalse(mapping.isValid)
+        assertTrue(mapping.setTransform(1000f, 500f, 40f, -20f))
+        assertEquals(540f, mapping.toViewX(0.5f), 1e-3f)
+        assertEquals(230f, mapping.toViewY(0.5f), 1e-3f)
+        assertEquals(0.5f, mapping.toFrameY(230f), 1e-5f)
+        assertFalse(mapping.setTransform(1000f, 500f, 40f, -20f))
+    }
+}
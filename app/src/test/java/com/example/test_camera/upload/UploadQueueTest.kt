@@ -0,0 +1,327 @@
+package com.example.test_camera.upload
+
+import com.example.test_camera.api.SessionStore
+import okhttp3.OkHttpClient
+import okhttp3.mockwebserver.Dispatcher
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.RecordedRequest
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Assert.fail
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.io.IOException
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+
+/**
+ * UploadQueue against a local mock of the ingestion API.
+ */
+class UploadQueueTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private val server = MockWebServer()
+    private val client = OkHttpClient()
+    private lateinit var queueDir: File
+
+    // Not encryption, just never the key as it was given
+    private val box = object : SessionStore.SecretBox {
+        override fun seal(plain: ByteArray) = plain.map { (it.toInt() xor 0x5a).toByte() }.toByteArray()
+        override fun open(sealed: ByteArray) = seal(sealed)
+    }
+
+    @Before
+    fun setUp() {
+        server.start()
+        queueDir = File(folder.root, "queue")
+    }
+
+    @After
+    fun tearDown() {
+        server.shutdown()
+    }
+
+    private fun sample(name: String, content: String = name): File {
+        return folder.newFile(name).apply { writeText(content) }
+    }
+
+    private fun queue(
+        listener: UploadQueue.Listener,
+        workers: Int = 2,
+        batchFiles: Int = 1,
+        batchDelayMs: Long = 0
+    ): UploadQueue {
+        return UploadQueue.Builder(queueDir, client, server.url("/api/training/files"))
+            .workers(workers)
+            .batch(batchFiles, Long.MAX_VALUE, batchDelayMs)
+            .backoff(10, 50)
+            .maxAttempts(3)
+            .listener(listener)
+            .secretBox(box)
+            .build()
+    }
+
+    private class RecordingListener(count: Int) : UploadQueue.Listener {
+        val done = CountDownLatch(count)
+        val uploaded = mutableListOf<String>()
+        val failed = mutableListOf<String>()
+        val failedIds = mutableListOf<String>()
+        val requests = mutableListOf<Int>()
+        val rejectedKeys = mutableListOf<String>()
+
+        override fun onUploaded(entries: List<UploadQueue.Entry>, code: Int) {
+            synchronized(this) {
+                entries.forEach { uploaded += it.label }
+                requests += entries.size
+            }
+            entries.forEach { done.countDown() }
+        }
+
+        override fun onFailed(entry: UploadQueue.Entry, reason: String) {
+            synchronized(this) {
+                failed += entry.label
+                failedIds += entry.id
+            }
+            done.countDown()
+        }
+
+        override fun onCredentialsRejected(apiKey: String, code: Int) {
+            synchronized(this) { rejectedKeys += apiKey }
+        }
+    }
+
+    @Test
+    fun uploadsQueuedFilesWithHeaders() {
+        repeat(4) { server.enqueue(MockResponse().setResponseCode(200)) }
+        val listener = RecordingListener(4)
+
+        queue(listener).use { queue ->
+            queue.start()
+            for (i in 0 until 4) {
+                queue.enqueue(sample("sample$i.png"), "crack", "ei_key", "image/png")
+            }
+            assertTrue(listener.done.await(5, TimeUnit.SECONDS))
+            assertEquals(0, queue.pendingCount())
+        }
+
+        assertEquals(4, listener.uploaded.size)
+        repeat(4) {
+            val request = server.takeRequest()
+            assertEquals("crack", request.getHeader("x-label"))
+            assertEquals("ei_key", request.getHeader("x-api-key"))
+            assertTrue(request.body.readUtf8().contains("name=\"data\""))
+        }
+    }
+
+    @Test
+    fun enqueueAsyncMovesTheFileOnTheIntakeThread() {
+        server.enqueue(MockResponse().setResponseCode(200))
+        val listener = RecordingListener(1)
+
+        queue(listener).use { queue ->
+            queue.start()
+            val source = sample("async.png")
+            val entry = queue.enqueueAsync(source, "crack", "ei_key", "image/png").get(5, TimeUnit.SECONDS)
+            assertFalse(source.exists())
+            assertEquals("crack", entry.label)
+            assertTrue(listener.done.await(5, TimeUnit.SECONDS))
+
+            // A missing file fails the future instead of the caller
+            try {
+                queue.enqueueAsync(File(folder.root, "missing.png"), "crack", "ei_key", "image/png")
+                    .get(5, TimeUnit.SECONDS)
+                fail("Missing file was queued")
+            } catch (e: ExecutionException) {
+                assertTrue(e.cause is IOException)
+            }
+        }
+        assertEquals(listOf("crack"), listener.uploaded)
+    }
+
+    @Test
+    fun retriesServerErrors() {
+        server.enqueue(MockResponse().setResponseCode(503))
+        server.enqueue(MockResponse().setResponseCode(500))
+        server.enqueue(MockResponse().setResponseCode(200))
+        val listener = RecordingListener(1)
+
+        queue(listener).use { queue ->
+            queue.enqueue(sample("retry.png"), "ok", "ei_key", "image/png")
+            assertTrue(listener.done.await(5, TimeUnit.SECONDS))
+        }
+
+        assertEquals(listOf("ok"), listener.uploaded)
+        assertEquals(3, server.requestCount)
+    }
+
+    @Test
+    fun dropsRejectedAndExhaustedEntries() {
+        server.enqueue(MockResponse().setResponseCode(400))
+        val listener = RecordingListener(1)
+
+        queue(listener, workers = 1).use { queue ->
+            queue.enqueue(sample("bad.png"), "bad", "ei_key", "image/png")
+            assertTrue(listener.done.await(5, TimeUnit.SECONDS))
+            assertEquals(0, queue.pendingCount())
+        }
+        assertEquals(listOf("bad"), listener.failed)
+        assertEquals(1, server.requestCount)
+
+        repeat(3) { server.enqueue(MockResponse().setResponseCode(503)) }
+        val exhausted = RecordingListener(1)
+        queue(exhausted, workers = 1).use { queue ->
+            queue.enqueue(sample("down.png"), "down", "ei_key", "image/png")
+            assertTrue(exhausted.done.await(5, TimeUnit.SECONDS))
+        }
+        assertEquals(listOf("down"), exhausted.failed)
+        assertEquals(4, server.requestCount)
+    }
+
+    @Test
+    fun resumesEntriesAfterRestart() {
+        // First process: the server is unreachable and the queue is closed before giving up
+        val offline = UploadQueue.Builder(queueDir, client, server.url("/api/training/files"))
+            .batch(1, Long.MAX_VALUE, 0)
+            .backoff(60_000, 60_000)
+            .secretBox(box)
+            .build()
+        offline.enqueue(sample("a.png"), "a", "ei_key", "image/png")
+        offline.enqueue(sample("b.png"), "b", "ei_key", "image/png")
+        server.enqueue(MockResponse().setResponseCode(503))
+        server.enqueue(MockResponse().setResponseCode(503))
+        while (server.requestCount < 2) Thread.sleep(10)
+        offline.close()
+        assertEquals(2, offline.pendingCount())
+        queueDir.listFiles { _, name -> name.endsWith(".meta") }!!.forEach {
+            assertFalse(it.readText().contains("ei_key"))
+        }
+
+        // Next process picks them up from disk
+        repeat(2) { server.enqueue(MockResponse().setResponseCode(200)) }
+        val listener = RecordingListener(2)
+        queue(listener).use { queue ->
+            queue.start()
+            assertTrue(listener.done.await(5, TimeUnit.SECONDS))
+            assertEquals(0, queue.pendingCount())
+        }
+        assertEquals(setOf("a", "b"), listener.uploaded.toSet())
+        assertTrue(queueDir.listFiles()!!.isEmpty())
+    }
+
+    @Test
+    fun batchesFilesIntoOneRequest() {
+        server.enqueue(MockResponse().setResponseCode(200))
+        server.enqueue(MockResponse().setResponseCode(200))
+        val listener = RecordingListener(7)
+
+        queue(listener, batchFiles = 5, batchDelayMs = 200).use { queue ->
+            for (i in 0 until 7) {
+                queue.enqueue(sample("burst$i.png"), "crack", "ei_key", "image/png")
+            }
+            assertTrue(listener.done.await(5, TimeUnit.SECONDS))
+        }
+
+        // Five when the batch filled up, the other two when the delay ran out
+        assertEquals(listOf(5, 2), listener.requests)
+        val body = server.takeRequest().body.readUtf8()
+        assertEquals(5, Regex("name=\"data\"").findAll(body).count())
+    }
+
+    @Test
+    fun keepsLabelsInSeparateBatches() {
+        server.enqueue(MockResponse().setResponseCode(200))
+        server.enqueue(MockResponse().setResponseCode(200))
+        val listener = RecordingListener(4)
+
+        queue(listener, batchFiles = 10, batchDelayMs = 50).use { queue ->
+            queue.enqueue(sample("a0.png"), "a", "ei_key", "image/png")
+            queue.enqueue(sample("b0.png"), "b", "ei_key", "image/png")
+            queue.enqueue(sample("a1.png"), "a", "ei_key", "image/png")
+            queue.enqueue(sample("b1.png"), "b", "ei_key", "image/png")
+            assertTrue(listener.done.await(5, TimeUnit.SECONDS))
+        }
+
+        assertEquals(listOf(2, 2), listener.requests)
+        val labels = setOf(server.takeRequest().getHeader("x-label"), server.takeRequest().getHeader("x-label"))
+        assertEquals(setOf("a", "b"), labels)
+    }
+
+    @Test
+    fun splitsRejectedBatchToIsolateBadFile() {
+        // Rejects every request that carries the broken file
+        server.dispatcher = object : Dispatcher() {
+            override fun dispatch(request: RecordedRequest): MockResponse {
+                val body = request.body.readUtf8()
+                return MockResponse().setResponseCode(if (body.contains("BROKEN")) 400 else 200)
+            }
+        }
+        val listener = RecordingListener(8)
+
+        val badIds = mutableListOf<String>()
+        queue(listener, workers = 1, batchFiles = 8, batchDelayMs = 5000).use { queue ->
+            for (i in 0 until 8) {
+                val content = if (i == 5) "BROKEN" else "sample$i"
+                val entry = queue.enqueue(sample("s$i.png", content), "crack", "ei_key", "image/png")
+                if (i == 5) badIds += entry.id
+            }
+            assertTrue(listener.done.await(5, TimeUnit.SECONDS))
+            assertEquals(0, queue.pendingCount())
+        }
+
+        assertEquals(badIds, listener.failedIds)
+        assertEquals(7, listener.uploaded.size)
+        // 8 -> 4 + 4 -> 2 + 2 -> 1 + 1, every accepted part uploaded in one go
+        assertEquals(listOf(4, 2, 1), listener.requests)
+        assertEquals(7, server.requestCount)
+    }
+
+    @Test
+    fun sealsPlainTextKeysLeftByAnOlderVersion() {
+        queueDir.mkdirs()
+        val meta = File(queueDir, "0000000000000000001.meta")
+        File(queueDir, "0000000000000000001.png").writeText("old")
+        meta.writeText("payload=0000000000000000001.png\nlabel=old\napiKey=ei_old\ncontentType=image/png\nattempts=0\n")
+        server.enqueue(MockResponse().setResponseCode(503))
+
+        val queue = UploadQueue.Builder(queueDir, client, server.url("/api/training/files"))
+            .backoff(60_000, 60_000)
+            .secretBox(box)
+            .build()
+        queue.start()
+        while (server.requestCount < 1) Thread.sleep(10)
+        queue.close()
+
+        // Still sent with its key, and no longer on disk in plain text
+        assertEquals("ei_old", server.takeRequest().getHeader("x-api-key"))
+        assertEquals(1, queue.pendingCount())
+        assertFalse(meta.readText().contains("ei_old"))
+    }
+
+    @Test
+    fun rejectedApiKeyFailsTheWholeBatchAtOnce() {
+        server.enqueue(MockResponse().setResponseCode(401))
+        val listener = RecordingListener(6)
+
+        queue(listener, workers = 1, batchFiles = 6, batchDelayMs = 5000).use { queue ->
+            for (i in 0 until 6) {
+                queue.enqueue(sample("k$i.png"), "crack", "ei_revoked", "image/png")
+            }
+            assertTrue(listener.done.await(5, TimeUnit.SECONDS))
+            assertEquals(0, queue.pendingCount())
+        }
+
+        // No bisecting: one request, every file failed, the key reported once
+        assertEquals(1, server.requestCount)
+        assertEquals(6, listener.failed.size)
+        assertEquals(listOf("ei_revoked"), listener.rejectedKeys)
+    }
+}
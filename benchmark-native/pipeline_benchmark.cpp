@@ -0,0 +1,297 @@
+// Drives the native frame pipeline over recorded frames on the host and reports
+// per-stage latency percentiles and frames per second.
+//
+// Frames are raw CAMERA_INPUT_WIDTH x CAMERA_INPUT_HEIGHT upright RGB888 files (*.rgb / *.raw).
+// Each is turned into the YUV_420_888 frame a back camera delivers in portrait (a landscape
+// sensor frame with interleaved chroma, rotation 90) once at load time, then every
+// iteration takes the same steps as NativeClassifier.classifyYuv(): change gate, YUV
+// conversion with rotate / crop / resize, run_classifier and result packing. These make
+// up the total.
+//
+// Two stages are timed on their own next to it: the crop / resize of the RGB888 path
+// (NativeClassifier.classify(), the SDK's crop_and_interpolate_rgb888 on the upright
+// frame), and packing the model input into the float signal, which run_classifier also
+// does inside its DSP time.
+
+#include <errno.h>
+#include <limits.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <algorithm>
+#include <chrono>
+#include <filesystem>
+#include <fstream>
+#include <string>
+#include <vector>
+#include "inference_context.h"
+#include "inference_result.h"
+#include "rgb_pack.h"
+
+#define FRAME_SIZE (CAMERA_INPUT_WIDTH * CAMERA_INPUT_HEIGHT * PIXEL_NUM)
+// The sensor frame is the upright frame turned on its side
+#define SENSOR_WIDTH CAMERA_INPUT_HEIGHT
+#define SENSOR_HEIGHT CAMERA_INPUT_WIDTH
+#define ROTATION_DEGREES 90
+
+typedef std::chrono::steady_clock bench_clock;
+
+enum {
+    STAGE_GATE = 0,
+    STAGE_CONVERT,
+    STAGE_CLASSIFY,
+    STAGE_DSP,
+    STAGE_INFERENCE,
+    STAGE_MARSHAL,
+    STAGE_TOTAL,
+    STAGE_CROP_RESIZE,
+    STAGE_PACK,
+    STAGE_COUNT
+};
+
+static const char *stage_names[STAGE_COUNT] = {
+    "change gate",
+    "yuv conversion",
+    "run_classifier",
+    "  dsp (sdk timer)",
+    "  inference (sdk)",
+    "result marshalling",
+    "total",
+    "rgb crop / resize",
+    "input float packing",
+};
+
+// A YUV_420_888 frame with its own planes: full resolution Y, then V/U interleaved (NV21),
+// and the upright RGB888 frame it was made from
+struct yuv_buffer {
+    std::vector<uint8_t> rgb;
+    std::vector<uint8_t> y;
+    std::vector<uint8_t> vu;
+    yuv_frame_t frame;
+};
+
+static double elapsed_us(bench_clock::time_point start, bench_clock::time_point end)
+{
+    return std::chrono::duration<double, std::micro>(end - start).count();
+}
+
+static double percentile(const std::vector<double> &sorted, double p)
+{
+    if (sorted.empty()) return 0;
+    size_t ix = (size_t)(p / 100.0 * (sorted.size() - 1) + 0.5);
+    return sorted[std::min(ix, sorted.size() - 1)];
+}
+
+static uint8_t clamp_u8(int v)
+{
+    return (uint8_t)(v < 0 ? 0 : v > 255 ? 255 : v);
+}
+
+// Upright RGB888 to the rotated sensor frame, BT.601 full range like yuv_to_rgb.cpp reads it
+static void rgb_to_sensor_yuv(const uint8_t *rgb, yuv_buffer &out)
+{
+    out.y.assign((size_t)SENSOR_WIDTH * SENSOR_HEIGHT, 0);
+    out.vu.assign((size_t)SENSOR_WIDTH * (SENSOR_HEIGHT / 2), 128);
+
+    for (int ry = 0; ry < CAMERA_INPUT_HEIGHT; ry++) {
+        for (int rx = 0; rx < CAMERA_INPUT_WIDTH; rx++) {
+            const uint8_t *p = rgb + ((size_t)ry * CAMERA_INPUT_WIDTH + rx) * PIXEL_NUM;
+            // Inverse of the rotation yuv420_to_rgb888_crop_resize applies for 90 degrees
+            const int sx = ry;
+            const int sy = SENSOR_HEIGHT - 1 - rx;
+            const int luma = (77 * p[0] + 150 * p[1] + 29 * p[2]) >> 8;
+            out.y[(size_t)sy * SENSOR_WIDTH + sx] = (uint8_t)luma;
+            if ((sx & 1) == 0 && (sy & 1) == 0) {
+                uint8_t *vu = &out.vu[(size_t)(sy / 2) * SENSOR_WIDTH + sx];
+                vu[0] = clamp_u8(128 + ((p[0] - luma) * 183 >> 8));
+                vu[1] = clamp_u8(128 + ((p[2] - luma) * 144 >> 8));
+            }
+        }
+    }
+
+    out.frame.y = out.y.data();
+    out.frame.v = out.vu.data();
+    out.frame.u = out.vu.data() + 1;
+    out.frame.width = SENSOR_WIDTH;
+    out.frame.height = SENSOR_HEIGHT;
+    out.frame.y_row_stride = SENSOR_WIDTH;
+    out.frame.uv_row_stride = SENSOR_WIDTH;
+    out.frame.uv_pixel_stride = 2;
+}
+
+static bool load_frames(const char *dir, std::vector<yuv_buffer> &frames)
+{
+    std::vector<std::filesystem::path> paths;
+    std::error_code ec;
+    for (const auto &entry : std::filesystem::directory_iterator(dir, ec)) {
+        const std::string ext = entry.path().extension().string();
+        if (entry.is_regular_file() && (ext == ".rgb" || ext == ".raw")) {
+            paths.push_back(entry.path());
+        }
+    }
+    if (ec) {
+        fprintf(stderr, "Cannot read %s: %s\n", dir, ec.message().c_str());
+        return false;
+    }
+    std::sort(paths.begin(), paths.end());
+
+    std::vector<uint8_t> rgb(FRAME_SIZE);
+    for (const auto &path : paths) {
+        std::ifstream in(path, std::ios::binary);
+        in.read(reinterpret_cast<char *>(rgb.data()), FRAME_SIZE);
+        if (in.gcount() != FRAME_SIZE || in.peek() != EOF) {
+            fprintf(stderr, "Skipping %s, not a %dx%d RGB888 frame\n",
+                    path.c_str(), CAMERA_INPUT_WIDTH, CAMERA_INPUT_HEIGHT);
+            continue;
+        }
+        frames.emplace_back();
+        frames.back().rgb = rgb;
+        rgb_to_sensor_yuv(rgb.data(), frames.back());
+    }
+    return true;
+}
+
+// Positive decimal count, false for anything else (atoi would take "abc" as 0)
+static bool parse_count(const char *text, int *count)
+{
+    char *end = nullptr;
+    errno = 0;
+    const long value = strtol(text, &end, 10);
+    if (errno != 0 || end == text || *end != '\0' || value <= 0 || value > INT_MAX) {
+        return false;
+    }
+    *count = (int)value;
+    return true;
+}
+
+// Same packing the JNI layer does, minus the Java array allocation: scores, detections
+// and visual anomaly cells each into their own array
+static void marshal_result(const inference_context_t *ctx, std::vector<float> &scores, std::vector<float> &boxes,
+                           std::vector<float> &cells)
+{
+    result_pack_scores(&ctx->result, scores.data());
+#if EI_CLASSIFIER_OBJECT_DETECTION == 1
+    uint32_t box_count = result_count_boxes(ctx->result.bounding_boxes, ctx->result.bounding_boxes_count, true);
+    boxes.resize(box_count * BOX_STRIDE);
+    result_pack_boxes(ctx->result.bounding_boxes, ctx->result.bounding_boxes_count,
+                      true, false, &ctx->box_transform, boxes.data());
+#endif
+#if EI_CLASSIFIER_HAS_VISUAL_ANOMALY
+    uint32_t cell_count = result_count_boxes(ctx->result.visual_ad_grid_cells, ctx->result.visual_ad_count, false);
+    cells.resize(cell_count * BOX_STRIDE);
+    result_pack_boxes(ctx->result.visual_ad_grid_cells, ctx->result.visual_ad_count,
+                      false, true, &ctx->box_transform, cells.data());
+#endif
+    (void)boxes;
+    (void)cells;
+}
+
+int main(int argc, char **argv)
+{
+    int iterations = 1;
+    if (argc < 2 || (argc > 2 && !parse_count(argv[2], &iterations))) {
+        fprintf(stderr, "Usage: %s <frame dir> [iterations > 0]\n", argv[0]);
+        return 1;
+    }
+
+    std::vector<yuv_buffer> frames;
+    if (!load_frames(argv[1], frames) || frames.empty()) {
+        fprintf(stderr, "No frames found in %s\n", argv[1]);
+        return 1;
+    }
+
+    inference_context_t *ctx = inference_context_create();
+    if (!ctx) {
+        fprintf(stderr, "Failed to create inference context\n");
+        return 1;
+    }
+
+    std::vector<float> scores(EI_CLASSIFIER_LABEL_COUNT > 0 ? EI_CLASSIFIER_LABEL_COUNT : 1);
+    std::vector<float> boxes;
+    std::vector<float> cells;
+    std::vector<float> features((size_t)EI_CLASSIFIER_INPUT_WIDTH * EI_CLASSIFIER_INPUT_HEIGHT);
+
+    std::vector<double> samples[STAGE_COUNT];
+    for (auto &s : samples) {
+        s.reserve(frames.size() * iterations);
+    }
+
+    // warm up, the first run builds the interpreter
+    inference_context_load_yuv(ctx, &frames[0].frame, ROTATION_DEGREES);
+    inference_context_run(ctx);
+
+    int failures = 0;
+
+    for (int it = 0; it < iterations; it++) {
+        for (const auto &buffer : frames) {
+            const yuv_frame_t *frame = &buffer.frame;
+            bench_clock::time_point t0 = bench_clock::now();
+
+            // The gate is off by default, like in the app it still samples every frame
+            inference_context_gate_yuv(ctx, frame, ROTATION_DEGREES, false);
+            bench_clock::time_point t1 = bench_clock::now();
+
+            if (inference_context_load_yuv(ctx, frame, ROTATION_DEGREES) != 0) {
+                failures++;
+                continue;
+            }
+            bench_clock::time_point t2 = bench_clock::now();
+
+            // Packs the model input through the signal itself, as in the app
+            if (inference_context_run(ctx) != EI_IMPULSE_OK) {
+                failures++;
+                continue;
+            }
+            bench_clock::time_point t3 = bench_clock::now();
+
+            marshal_result(ctx, scores, boxes, cells);
+            bench_clock::time_point t4 = bench_clock::now();
+
+            // The whole model input into the float signal, as ei_camera_get_data does
+            rgb888_pack_float(ctx->model_rgb, features.size(), features.data());
+            bench_clock::time_point t5 = bench_clock::now();
+
+            // The RGB888 path: the JNI layer copies the frame in, then crop and resize
+            memcpy(ctx->camera_rgb, buffer.rgb.data(), FRAME_SIZE);
+            bench_clock::time_point t6 = bench_clock::now();
+            if (inference_context_load_camera_rgb(ctx) != 0) {
+                failures++;
+                continue;
+            }
+            bench_clock::time_point t7 = bench_clock::now();
+
+            samples[STAGE_GATE].push_back(elapsed_us(t0, t1));
+            samples[STAGE_CONVERT].push_back(elapsed_us(t1, t2));
+            samples[STAGE_CLASSIFY].push_back(elapsed_us(t2, t3));
+            samples[STAGE_DSP].push_back((double)ctx->result.timing.dsp_us);
+            samples[STAGE_INFERENCE].push_back((double)ctx->result.timing.classification_us);
+            samples[STAGE_MARSHAL].push_back(elapsed_us(t3, t4));
+            samples[STAGE_TOTAL].push_back(elapsed_us(t0, t4));
+            samples[STAGE_PACK].push_back(elapsed_us(t4, t5));
+            samples[STAGE_CROP_RESIZE].push_back(elapsed_us(t6, t7));
+        }
+    }
+
+    // Over the app's steps only, the stages timed on their own are not part of a frame
+    double run_us = 0;
+    for (double v : samples[STAGE_TOTAL]) run_us += v;
+    size_t processed = samples[STAGE_TOTAL].size();
+
+    printf("%zu frames (%zu files x %d iterations, %dx%d rotation %d), %d failed\n",
+           processed, frames.size(), iterations, SENSOR_WIDTH, SENSOR_HEIGHT, ROTATION_DEGREES, failures);
+    printf("%-22s %10s %10s %10s %10s %10s\n", "stage (us)", "mean", "p50", "p90", "p99", "max");
+    for (int stage = 0; stage < STAGE_COUNT; stage++) {
+        std::vector<double> &s = samples[stage];
+        std::sort(s.begin(), s.end());
+        double mean = 0;
+        for (double v : s) mean += v;
+        mean = s.empty() ? 0 : mean / s.size();
+        printf("%-22s %10.1f %10.1f %10.1f %10.1f %10.1f\n", stage_names[stage],
+               mean, percentile(s, 50), percentile(s, 90), percentile(s, 99), s.empty() ? 0 : s.back());
+    }
+    printf("Input packing: %s\n", rgb888_pack_implementation());
+    printf("Throughput: %.1f fps\n", run_us > 0 ? processed * 1e6 / run_us : 0);
+
+    inference_context_destroy(ctx);
+    return failures == 0 ? 0 : 2;
+}
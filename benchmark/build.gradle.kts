@@ -0,0 +1,26 @@
+// JMH benchmarks of the JVM side of the frame pipeline (frame conversion, result text,
+// box rendering). Runs on a plain JVM: ./gradlew :benchmark:jmh
+plugins {
+    alias(libs.plugins.kotlin.jvm)
+    alias(libs.plugins.jmh)
+}
+
+// Compile the Android-free pipeline sources of :app as they are, no copies
+sourceSets {
+    main {
+        kotlin {
+            srcDir("../app/src/main/java")
+            include("com/example/test_camera/InferenceResult.kt")
+            include("com/example/test_camera/pipeline/**")
+        }
+    }
+}
+
+jmh {
+    warmupIterations.set(3)
+    iterations.set(5)
+    fork.set(1)
+    // Allocation rate per operation next to the timings
+    profilers.add("gc")
+    resultFormat.set("JSON")
+}
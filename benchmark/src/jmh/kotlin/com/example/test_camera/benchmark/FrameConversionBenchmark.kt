@@ -0,0 +1,68 @@
+package com.example.test_camera.benchmark
+
+import com.example.test_camera.pipeline.FrameConversion
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.infra.Blackhole
+import java.util.Random
+import java.util.concurrent.TimeUnit
+
+/** Bitmap fallback path: rotate the analysis frame, then pack it to RGB888 */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class FrameConversionBenchmark {
+
+    @Param("0", "90", "180", "270")
+    var rotation = 0
+
+    private lateinit var pixels: IntArray
+    private lateinit var rotated: IntArray
+    private lateinit var rgb: ByteArray
+
+    @Setup
+    fun setup() {
+        val random = Random(42)
+        pixels = IntArray(FRAME_WIDTH * FRAME_HEIGHT) { random.nextInt() or 0xff000000.toInt() }
+        rotated = IntArray(pixels.size)
+        rgb = ByteArray(pixels.size * 3)
+    }
+
+    @Benchmark
+    fun rotate(bh: Blackhole) {
+        FrameConversion.rotateArgb(pixels, FRAME_WIDTH, FRAME_HEIGHT, rotation, rotated)
+        bh.consume(rotated)
+    }
+
+    @Benchmark
+    fun rotateAndPack(bh: Blackhole) {
+        FrameConversion.rotateArgb(pixels, FRAME_WIDTH, FRAME_HEIGHT, rotation, rotated)
+        FrameConversion.argbToRgb888(rotated, rotated.size, rgb)
+        bh.consume(rgb)
+    }
+
+    // What getByteArrayFromBitmap did before: a fresh ByteArray per frame
+    @Benchmark
+    fun packAllocating(bh: Blackhole) {
+        val out = ByteArray(pixels.size * 3)
+        for (i in pixels.indices) {
+            val pixel = pixels[i]
+            out[i * 3] = (pixel shr 16 and 0xFF).toByte()
+            out[i * 3 + 1] = (pixel shr 8 and 0xFF).toByte()
+            out[i * 3 + 2] = (pixel and 0xFF).toByte()
+        }
+        bh.consume(out)
+    }
+
+    private companion object {
+        // ImageAnalysis default resolution
+        const val FRAME_WIDTH = 640
+        const val FRAME_HEIGHT = 480
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.test_camera.benchmark
+
+import com.example.test_camera.InferenceResult
+import com.example.test_camera.Timing
+import com.example.test_camera.pipeline.BoxCanvas
+import com.example.test_camera.pipeline.BoxRenderer
+import com.example.test_camera.pipeline.ResultTextFormatter
+import com.example.test_camera.pipeline.ViewportMapping
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.infra.Blackhole
+import java.util.Random
+import java.util.concurrent.TimeUnit
+
+/** Per-result UI work on the main thread: result panel text and overlay draw calls */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class ResultRenderingBenchmark {
+
+    @Param("4", "64")
+    var boxCount = 0
+
+    private val labels = arrayOf("anomaly", "no anomaly")
+    private val formatter = ResultTextFormatter()
+    private val renderer = BoxRenderer()
+    private val mapping = ViewportMapping().apply { update(1080, 2400, 480, 640) }
+    private lateinit var result: InferenceResult
+    private lateinit var boxes: FloatArray
+    private lateinit var canvas: CountingCanvas
+
+    @Setup
+    fun setup(bh: Blackhole) {
+        val random = Random(42)
+        boxes = FloatArray(boxCount * InferenceResult.BOX_STRIDE)
+        for (i in 0 until boxCount) {
+            val base = i * InferenceResult.BOX_STRIDE
+            boxes[base + InferenceResult.BOX_X] = random.nextFloat() * 0.9f
+            boxes[base + InferenceResult.BOX_Y] = random.nextFloat() * 0.9f
+            boxes[base + InferenceResult.BOX_WIDTH] = 0.05f
+            boxes[base + InferenceResult.BOX_HEIGHT] = 0.05f
+            boxes[base + InferenceResult.BOX_CONFIDENCE] = random.nextFloat()
+            // Mix detection boxes and visual anomaly cells
+            boxes[base + InferenceResult.BOX_LABEL] = if (i % 2 == 0) -1f else (i % labels.size).toFloat()
+        }
+        result = InferenceResult(
+            floatArrayOf(0.734f, 0.266f), boxes, null, 3.25f, Float.NaN, Float.NaN,
+            Timing(0, 0, 0, 0, 0L, 0L, 0L)
+        )
+        canvas = CountingCanvas(bh)
+    }
+
+    @Benchmark
+    fun formatText(): String {
+        return formatter.format(result, 0, 1)
+    }
+
+    // The String.format / concatenation version displayResults used before
+    @Benchmark
+    fun formatTextLegacy(): String {
+        val combinedText = StringBuilder()
+        val anomalyProb = result.classification!![0]
+        val normalProb = result.classification!![1]
+        val classificationText = StringBuilder()
+        classificationText.append(if (anomalyProb > 0.5f) "Anomaly \n" else "Normal \n")
+        classificationText.append("Anomaly prob: (${String.format("%.2f", anomalyProb)}) \n")
+        classificationText.append("Normal prob: (${String.format("%.2f", normalProb)}) \n")
+        combinedText.append("Inference result:\n$classificationText\n\n")
+        combinedText.append("Anomaly score:\n${result.anomaly}")
+        return combinedText.toString()
+    }
+
+    @Benchmark
+    fun renderBoxes() {
+        renderer.render(boxes, labels, mapping, canvas)
+    }
+
+    // The per-box String.format labels onDraw built before
+    @Benchmark
+    fun renderBoxesLegacy(bh: Blackhole) {
+        var i = 0
+        while (i + InferenceResult.BOX_STRIDE <= boxes.size) {
+            val confidence = boxes[i + InferenceResult.BOX_CONFIDENCE]
+            val labelIndex = boxes[i + InferenceResult.BOX_LABEL].toInt()
+            val text = if (labelIndex < 0) {
+                String.format("%.2f", confidence)
+            } else {
+                "${labels[labelIndex]} (${(confidence * 100).toInt()}%)"
+            }
+            bh.consume(text)
+            i += InferenceResult.BOX_STRIDE
+        }
+    }
+
+    // Stands in for the Canvas, keeps the arguments alive so nothing is optimized away
+    private class CountingCanvas(private val bh: Blackhole) : BoxCanvas {
+        override fun drawBox(left: Float, top: Float, right: Float, bottom: Float, anomalyCell: Boolean) {
+            bh.consume(left + top + right + bottom)
+        }
+
+        override fun drawLabel(text: CharSequence, x: Float, y: Float, centered: Boolean) {
+            bh.consume(text.length)
+            bh.consume(x + y)
+        }
+    }
+}
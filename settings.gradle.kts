@@ -21,4 +21,5 @@ dependencyResolutionManagement {
 
 rootProject.name = "Seamless_Defect_Box"
 include(":app")
+include(":benchmark")
  
\ No newline at end of file